@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.bmf;
+
+import nrs.core.message.MessageSchema;
+
+/**
+ * Reads BMF segments from a byte buffer. This is the inverse of {@link
+ * BMFEncoder}; each <tt>read</tt> method consumes exactly one segment
+ * and advances the read position past it.
+ *
+ * <p>Because BMF segments are not self-describing, the caller must
+ * know the type of each segment before reading it.
+ */
+public class BMFDecoder
+{
+  /** Buffer being read */
+  private byte[] m_buf;
+
+  /** Position of the next unread byte */
+  private int m_pos;
+
+  /** Position one past the last byte that can be read */
+  private int m_end;
+
+  //----------------------------------------------------------------------
+  /**
+   * Set the buffer to read from.
+   *
+   * @param buf the buffer
+   *
+   * @param size number of valid bytes in <tt>buf</tt>. A trailing null
+   * terminator, if present, is treated as the end of the message.
+   */
+  public void setBuffer(byte[] buf, int size)
+  {
+    setBuffer(buf, 0, size);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Set the buffer to read from, where the message doesn't start at the
+   * beginning of the buffer.
+   *
+   * @param buf the buffer
+   *
+   * @param offset the offset in <tt>buf</tt> at which the message
+   * starts
+   *
+   * @param size number of valid bytes in <tt>buf</tt> from
+   * <tt>offset</tt>. A trailing null terminator, if present, is treated
+   * as the end of the message.
+   */
+  public void setBuffer(byte[] buf, int offset, int size)
+  {
+    m_buf = buf;
+    m_pos = offset;
+    m_end = offset + size;
+    if (m_end > offset && m_buf[m_end - 1] == 0) m_end--;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> if there are unread bytes remaining
+   */
+  public boolean hasMore()
+  {
+    return m_pos < m_end;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the next byte without consuming it, as an unsigned value
+   *
+   * @throws IllegalStateException if there are no bytes remaining
+   */
+  public int peek()
+  {
+    if (m_pos >= m_end)
+      throw new IllegalStateException("BMF message truncated");
+    return m_buf[m_pos] & 0xFF;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Consume and return the next byte, as an unsigned value
+   *
+   * @throws IllegalStateException if there are no bytes remaining
+   */
+  public int next()
+  {
+    int b = peek();
+    m_pos++;
+    return b;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read a segment of the given {@link MessageSchema} type, and return
+   * its PML (string) representation.
+   */
+  public String readSegment(int type)
+  {
+    switch (type)
+    {
+      case MessageSchema.BOOLEAN:
+        return readBoolean() ? "true" : "false";
+      case MessageSchema.INTEGER:
+        return Integer.toString(readInteger());
+      case MessageSchema.FLOAT:
+        return Double.toString(readFloat());
+      case MessageSchema.STRING:
+        return readString();
+      case MessageSchema.ROUTE:
+        return readRoute();
+      default:
+        throw new IllegalArgumentException("Unknown segment type " + type);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read a boolean segment
+   *
+   * @throws IllegalStateException if the segment is not a boolean
+   */
+  public boolean readBoolean()
+  {
+    int b = next();
+    if ((b & 0xFE) != 2)
+      throw new IllegalStateException("Illegal BMF boolean segment");
+    return b == 3;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read an integer segment
+   *
+   * @throws IllegalStateException if the segment is not an integer
+   */
+  public int readInteger()
+  {
+    int b = next();
+
+    // legacy encoding of zero
+    if (b == 1) return 0;
+
+    if ((b & 0x40) == 0)
+      throw new IllegalStateException("Illegal BMF integer segment");
+
+    int value = ((b & 0x20) != 0) ? (-1 << 5) | (b & 31) : (b & 31);
+
+    while (m_pos < m_end && (m_buf[m_pos] & 0x80) != 0)
+    {
+      value = (value << 7) | (m_buf[m_pos++] & 127);
+    }
+
+    return value;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read a float segment, accepting both the five byte (single
+   * precision) and ten byte (double precision) forms.
+   *
+   * @throws IllegalStateException if the segment is not a float
+   */
+  public double readFloat()
+  {
+    int b0 = next();
+
+    if ((b0 & 0xF0) == 0x10)
+    {
+      int b1 = next(), b2 = next(), b3 = next(), b4 = next();
+
+      int p0 = ((b0 & 15) << 4) | ((b1 >> 3) & 15);
+      int p1 = ((b1 & 7) << 5) | ((b2 >> 2) & 31);
+      int p2 = ((b2 & 3) << 6) | ((b3 >> 1) & 63);
+      int p3 = ((b3 & 1) << 7) | (b4 & 127);
+
+      return Float.intBitsToFloat(p0 | (p1 << 8) | (p2 << 16) | (p3 << 24));
+    }
+    else if ((b0 & 0xFE) == 0x02)
+    {
+      int[] b = new int[10];
+      b[0] = b0;
+      for (int i = 1; i < 10; i++) b[i] = next();
+
+      long[] p = new long[8];
+      p[0] = ((b[0] & 1) << 7) | (b[1] & 127);
+      p[1] = ((b[2] & 127) << 1) | ((b[3] >> 6) & 1);
+      p[2] = ((b[3] & 63) << 2) | ((b[4] >> 5) & 3);
+      p[3] = ((b[4] & 31) << 3) | ((b[5] >> 4) & 7);
+      p[4] = ((b[5] & 15) << 4) | ((b[6] >> 3) & 15);
+      p[5] = ((b[6] & 7) << 5) | ((b[7] >> 2) & 31);
+      p[6] = ((b[7] & 3) << 6) | ((b[8] >> 1) & 63);
+      p[7] = ((b[8] & 1) << 7) | (b[9] & 127);
+
+      long bits = 0;
+      for (int i = 0; i < 8; i++) bits |= p[i] << (8 * i);
+
+      return Double.longBitsToDouble(bits);
+    }
+
+    throw new IllegalStateException("Illegal BMF float segment");
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read a string segment
+   *
+   * @throws IllegalStateException if the segment is not a string
+   */
+  public String readString()
+  {
+    if (next() != 1)
+      throw new IllegalStateException("Illegal BMF string segment");
+
+    StringBuffer sb = new StringBuffer();
+    while (m_pos < m_end && (m_buf[m_pos] & 0x80) != 0)
+    {
+      sb.append((char) (m_buf[m_pos++] & 127));
+    }
+    return sb.toString();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Consume the remaining bytes, without decoding them, and return a
+   * copy of them. A trailing null terminator is not included.
+   */
+  public byte[] readRemaining()
+  {
+    byte[] b = new byte[m_end - m_pos];
+    System.arraycopy(m_buf, m_pos, b, 0, b.length);
+    m_pos = m_end;
+    return b;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read a route segment, and return it in PML form. This is the
+   * inverse of {@link BMFEncoder#writeRoute}; whole nibbles are
+   * written as the letters <tt>A-P</tt>, and any trailing bits that
+   * don't make up a whole nibble as <tt>0</tt> or <tt>1</tt>.
+   */
+  public String readRoute()
+  {
+    int start = m_pos;
+    m_pos++;
+    while (m_pos < m_end && (m_buf[m_pos] & 0x80) != 0) m_pos++;
+
+    int len = m_pos - start;
+    int index = 0;
+    int pos = 7;
+    int ch = m_buf[start] & 0xFF;
+
+    if (ch == 0) throw new IllegalStateException("Illegal BMF route segment");
+
+    // find the marker bit, leaving the data bits below it
+    while ((ch & 0x80) == 0)
+    {
+      pos--;
+      ch <<= 1;
+    }
+
+    StringBuffer sb = new StringBuffer();
+
+    while (index < len)
+    {
+      if (pos >= 4)
+      {
+        sb.append((char) ('A' + ((ch >> 3) & 15)));
+        pos -= 4;
+        ch <<= 4;
+      }
+
+      if (++index < len)
+      {
+        int b = m_buf[start + index] & 0xFF;
+        int val;
+        switch (pos)
+        {
+          case 3:
+            val = ((ch >> 3) & 14) + ((b >> 6) & 1);
+            pos = 6;
+            ch = b << 1;
+            break;
+          case 2:
+            val = ((ch >> 3) & 12) + ((b >> 5) & 3);
+            pos = 5;
+            ch = b << 2;
+            break;
+          case 1:
+            val = ((ch >> 3) & 8) + ((b >> 4) & 7);
+            pos = 4;
+            ch = b << 3;
+            break;
+          default:
+            val = (b >> 3) & 15;
+            pos = 3;
+            ch = b << 4;
+            break;
+        }
+        sb.append((char) ('A' + val));
+      }
+      else
+      {
+        while (--pos >= 0)
+        {
+          sb.append((char) ('0' + ((ch >> 6) & 1)));
+          ch <<= 1;
+        }
+      }
+    }
+
+    return sb.toString();
+  }
+}
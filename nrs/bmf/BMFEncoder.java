@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.bmf;
+
+import java.io.ByteArrayOutputStream;
+import nrs.core.base.FieldNotFoundException;
+import nrs.core.base.Message;
+import nrs.core.message.Constants;
+import nrs.core.message.MessageSchema;
+
+/**
+ * Encodes {@link Message} objects in BMF, the binary message format
+ * spoken by the C++ NRS components.
+ *
+ * <p>The byte layout of each segment type exactly follows that of the
+ * C++ implementation (see <tt>Type/*Segment.cc</tt>): every segment
+ * starts with a byte whose top bit is clear, and all continuation bytes
+ * of the segment have the top bit set. A message is the optional
+ * intelligent header, then the <tt>route</tt> and <tt>toVNID</tt>
+ * segments, then the message segments in the order given by the
+ * message's {@link MessageSchema}, and finally a null terminator.
+ *
+ * <p>For a message being sent to several destinations (see {@link
+ * Message#setFanOut(boolean)}), the message segments are encoded once,
+ * and only the header is encoded for each destination.
+ *
+ * <p>Floating point values are sent as 64-bit doubles, with their bytes
+ * taken least significant first. This matches the C++ components, which
+ * copy the raw memory of the value, when they are running on
+ * little-endian (eg x86) hosts.
+ */
+public abstract class BMFEncoder
+{
+  /** Number of intelligent segment types, including the two pseudo
+   * segments <tt>IsIntelligent</tt> and <tt>EndIMessage</tt> */
+  static final int NUM_INTELLIGENT = 16;
+
+  /** Intelligent segment type marking the end of the intelligent
+   * header */
+  static final int END_INTELLIGENT = 1;
+
+  /** Names of the intelligent fields, indexed by the C++
+   * <tt>IntelligentType</tt> enumeration. A <tt>null</tt> entry is not
+   * a real segment. */
+  static final String[] INTELLIGENT_FIELDS =
+  {
+    null,                               // IsIntelligent
+    null,                               // EndIMessage
+    Constants.Fields.F_iForwardRoute,   // ForwardRoute
+    Constants.Fields.F_iReturnRoute,    // ReturnRoute
+    Constants.Fields.F_iIsBroadcast,    // IsBroadcast
+    Constants.Fields.F_iHopCount,       // HopCount
+    Constants.Fields.F_iTargetCID,      // TargetCID
+    "iAckMsg",                          // AckMsg
+    "iAckVNID",                         // AckVNID
+    "iFailedRouteMsg",                  // FailedRouteMsg
+    "iFailedRouteVNID",                 // FailedRouteVNID
+    Constants.Fields.F_iMsgID,          // MsgID
+    null,                               // DummyIntSeg
+    Constants.Fields.F_iTranslationCount, // TranslationCount
+    Constants.Fields.F_iSourceCID,      // SourceCID
+    Constants.Fields.F_iTargetVNName    // TargetVNName
+  };
+
+  /** Segment types of the intelligent fields, indexed as for {@link
+   * #INTELLIGENT_FIELDS} */
+  static final int[] INTELLIGENT_TYPES =
+  {
+    MessageSchema.BOOLEAN,
+    -1,
+    MessageSchema.ROUTE,
+    MessageSchema.ROUTE,
+    MessageSchema.BOOLEAN,
+    MessageSchema.INTEGER,
+    MessageSchema.STRING,
+    MessageSchema.BOOLEAN,
+    MessageSchema.INTEGER,
+    MessageSchema.BOOLEAN,
+    MessageSchema.INTEGER,
+    MessageSchema.INTEGER,
+    -1,
+    MessageSchema.INTEGER,
+    MessageSchema.STRING,
+    MessageSchema.STRING
+  };
+
+  //----------------------------------------------------------------------
+  /**
+   * Provide a BMF representation of a message.
+   *
+   * @param m the message to encode. Its type must have a registered
+   * {@link MessageSchema}, unless it is an undecoded message passing
+   * through (see {@link Message#setRawBMF(byte[])}).
+   *
+   * @param buf the {@link ByteArrayOutputStream} where the BMF
+   * representation will be stored
+   *
+   * @param appendNull if <tt>true</tt> the message terminator byte
+   * will be appended
+   *
+   * @throws IllegalArgumentException if no schema is known for the
+   * message type, or a field value can't be represented in BMF
+   */
+  public static void encode(Message m, ByteArrayOutputStream buf,
+                            boolean appendNull)
+  {
+    byte[] raw = m.getRawBMF();
+    MessageSchema schema = null;
+
+    if (raw == null) schema = MessageSchema.lookup(m.getType());
+
+    if (raw == null && schema == null)
+      throw new IllegalArgumentException("No BMF schema for message type '"
+                                         + m.getType() + "'");
+
+    // intelligent header
+    if ("true".equals(m.getNRSField(Constants.Fields.F_intelligent)))
+    {
+      int typeByte = 0x80;
+      boolean any = false;
+
+      for (int i = 2; i < NUM_INTELLIGENT; i++)
+      {
+        if (INTELLIGENT_FIELDS[i] == null) continue;
+
+        String value = m.getNRSField(INTELLIGENT_FIELDS[i]);
+        if (value == null) continue;
+
+        buf.write(typeByte | i);
+        typeByte = 0;
+        any = true;
+        writeSegment(buf, INTELLIGENT_TYPES[i], value, INTELLIGENT_FIELDS[i]);
+      }
+      if (any) buf.write(END_INTELLIGENT);
+    }
+
+    writeRoute(buf, m.getNRSField(Constants.Fields.F_route));
+
+    // a message passing through is sent on undecoded
+    if (raw != null)
+    {
+      buf.write(raw, 0, raw.length);
+      if (appendNull) buf.write(0);
+      return;
+    }
+
+    writeSegment(buf, MessageSchema.INTEGER,
+                 m.getNRSField(Constants.Fields.F_toVNID),
+                 Constants.Fields.F_toVNID);
+
+    byte[] body = m.getBMFBody();
+    if (body != null)
+    {
+      buf.write(body, 0, body.length);
+    }
+    else if (m.isFanOut())
+    {
+      // keep the segments, which are the same for every destination
+      ByteArrayOutputStream segments = new ByteArrayOutputStream();
+      writeFields(segments, schema, m);
+      body = segments.toByteArray();
+      m.setBMFBody(body);
+      buf.write(body, 0, body.length);
+    }
+    else
+    {
+      writeFields(buf, schema, m);
+    }
+
+    if (appendNull) buf.write(0);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write the message segments, in the order given by the schema
+   */
+  private static void writeFields(ByteArrayOutputStream buf,
+                                  MessageSchema schema, Message m)
+  {
+    for (int i = 0; i < schema.getSegmentCount(); i++)
+    {
+      writeField(buf, schema.getSegmentType(i), m,
+                 schema.getSegmentName(i));
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write a segment from a message field. Values a typed message holds
+   * as primitives are written without passing through text, and a
+   * missing value is written as the default for the type.
+   */
+  private static void writeField(ByteArrayOutputStream buf, int type,
+                                 Message m, String name)
+  {
+    try
+    {
+      switch (type)
+      {
+        case MessageSchema.BOOLEAN:
+          writeBoolean(buf, m.getBoolean(name));
+          break;
+        case MessageSchema.INTEGER:
+          writeInteger(buf, m.getInt(name));
+          break;
+        case MessageSchema.FLOAT:
+          writeFloat(buf, m.getDouble(name));
+          break;
+        default:
+          writeSegment(buf, type, m.getField(name), name);
+      }
+    }
+    catch (FieldNotFoundException e)
+    {
+      writeSegment(buf, type, null, name);
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IllegalArgumentException("Field '" + name + "' has value '"
+                                         + m.getField(name) + "', which is"
+                                         + " not numeric");
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write a segment from its PML (string) value. A missing value is
+   * written as the default for the type (false, zero or empty).
+   */
+  static void writeSegment(ByteArrayOutputStream buf, int type,
+                           String value, String name)
+  {
+    try
+    {
+      switch (type)
+      {
+        case MessageSchema.BOOLEAN:
+          writeBoolean(buf, Boolean.valueOf(value).booleanValue());
+          break;
+        case MessageSchema.INTEGER:
+          writeInteger(buf, value == null ? 0 : Integer.parseInt(value.trim()));
+          break;
+        case MessageSchema.FLOAT:
+          writeFloat(buf, value == null ? 0.0
+                     : Double.parseDouble(value.trim()));
+          break;
+        case MessageSchema.STRING:
+          writeString(buf, value);
+          break;
+        case MessageSchema.ROUTE:
+          writeRoute(buf, value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown segment type " + type);
+      }
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IllegalArgumentException("Field '" + name + "' has value '"
+                                         + value + "', which is not"
+                                         + " numeric");
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write a boolean segment: 3 for true, 2 for false.
+   */
+  public static void writeBoolean(ByteArrayOutputStream buf, boolean b)
+  {
+    buf.write(b ? 3 : 2);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write an integer segment. The first byte is <tt>01sxxxxx</tt>, where
+   * <tt>s</tt> is the sign and <tt>xxxxx</tt> the most significant
+   * five bits of the value. Each following byte holds a further seven
+   * bits.
+   */
+  public static void writeInteger(ByteArrayOutputStream buf, int value)
+  {
+    boolean negative = value < 0;
+    long mag = negative ? -(long) value : value;
+    int extra = 0;
+
+    while (mag >= 32)
+    {
+      extra++;
+      mag >>= 7;
+    }
+
+    buf.write(0x40 | (negative ? 0x20 : 0) | ((value >> (7 * extra)) & 31));
+
+    for (int i = extra - 1; i >= 0; i--)
+    {
+      buf.write(0x80 | ((value >> (7 * i)) & 127));
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write a float segment, using the ten byte double precision form.
+   */
+  public static void writeFloat(ByteArrayOutputStream buf, double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    int[] d = new int[8];
+
+    for (int i = 0; i < 8; i++)
+    {
+      d[i] = (int) (bits >>> (8 * i)) & 0xFF;
+    }
+
+    buf.write(0x02 | (d[0] >> 7));
+    buf.write(0x80 | (d[0] & 127));
+    buf.write(0x80 | (d[1] >> 1));
+    buf.write(0x80 | ((d[1] & 1) << 6) | (d[2] >> 2));
+    buf.write(0x80 | ((d[2] & 3) << 5) | (d[3] >> 3));
+    buf.write(0x80 | ((d[3] & 7) << 4) | (d[4] >> 4));
+    buf.write(0x80 | ((d[4] & 15) << 3) | (d[5] >> 5));
+    buf.write(0x80 | ((d[5] & 31) << 2) | (d[6] >> 6));
+    buf.write(0x80 | ((d[6] & 63) << 1) | (d[7] >> 7));
+    buf.write(0x80 | (d[7] & 127));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write a string segment: a leading 1, then each character with the
+   * top bit set. Characters outside 7-bit ASCII are replaced by '?'.
+   */
+  public static void writeString(ByteArrayOutputStream buf, String s)
+  {
+    buf.write(1);
+
+    if (s == null) return;
+
+    for (int i = 0; i < s.length(); i++)
+    {
+      char c = s.charAt(i);
+      buf.write(0x80 | (c < 128 ? c : '?'));
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write a route segment, converting from the PML representation. In
+   * PML a route is a string where each of the letters <tt>A-P</tt>
+   * carries four bits, and each of <tt>0</tt> and <tt>1</tt> carries a
+   * single bit. In BMF those bits are packed seven per byte, with the
+   * first byte holding the remainder behind a leading 1 marker bit.
+   *
+   * @throws IllegalArgumentException if the route contains illegal
+   * characters
+   */
+  public static void writeRoute(ByteArrayOutputStream buf, String route)
+  {
+    if (route == null) route = "";
+
+    int len = 0;
+    for (int i = 0; i < route.length(); i++)
+    {
+      char c = route.charAt(i);
+      if (c == '0' || c == '1') len += 1;
+      else if (c >= 'A' && c <= 'P') len += 4;
+      else throw new IllegalArgumentException("Illegal route '" + route
+                                              + "'");
+    }
+
+    int pos = len % 7;
+    int ch = 1;
+
+    for (int i = 0; i < route.length(); i++)
+    {
+      if (pos == 0)
+      {
+        buf.write(ch);
+        ch = 1;
+        pos = 7;
+      }
+
+      char c = route.charAt(i);
+      if (c == '0' || c == '1')
+      {
+        ch = (ch << 1) | (c - '0');
+        pos--;
+      }
+      else
+      {
+        int nibble = c - 'A';
+        if (pos >= 4)
+        {
+          ch = (ch << 4) | nibble;
+          pos -= 4;
+        }
+        else
+        {
+          int rest = 4 - pos;
+          ch = (ch << pos) | (nibble >> rest);
+          buf.write(ch & 0xFF);
+          ch = (1 << rest) | (nibble & ((1 << rest) - 1));
+          pos += 3;
+        }
+      }
+    }
+
+    buf.write(ch & 0xFF);
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.bmf;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import nrs.core.base.Message;
+import nrs.core.base.MessagePool;
+import nrs.core.base.MessageProcessor;
+import nrs.core.base.Variable;
+import nrs.core.base.VariableManager;
+import nrs.core.comms.CommsRoute;
+import nrs.core.comms.MessageListener;
+import nrs.core.message.Constants;
+import nrs.core.message.MessageSchema;
+
+/**
+ * <p>Transforms byte sequences representing BMF messages into Java
+ * message-objects ({@link Message}), and dispatches them in the same
+ * way as {@link nrs.pml.PMLParser}: first for preprocessing by the
+ * originating port, and then for processing by a {@link
+ * MessageProcessor}.</p>
+ *
+ * <p>A BMF message does not name its type or its fields, only the
+ * numeric ID of the variable it is addressed to. So, as in the C++
+ * implementation, the target variable is looked up (using the {@link
+ * VariableManager}) to find the message type, and the segments are
+ * then decoded according to the {@link MessageSchema} for that
+ * type. Intelligent messages carrying a <tt>iTargetVNName</tt> are
+ * looked up by name instead.</p>
+ *
+ * <p>A message with a non-empty route is only passing through this
+ * component, and is addressed to a variable of another component, so
+ * its segments can't be decoded here. As in the C++ implementation it
+ * is passed on undecoded: the message is given just its route and
+ * intelligent fields, and the bytes following the route are kept (see
+ * {@link Message#setRawBMF(byte[])}) to be sent on as they are.</p>
+ *
+ * <p>As with {@link nrs.pml.PMLParser}, one instance is needed for each
+ * {@link CommsRoute}.
+ */
+public class BMFParser implements MessageListener
+{
+  /** Reads the segments of the current message */
+  private BMFDecoder m_decoder = new BMFDecoder();
+
+  /** Port messages are received from */
+  private CommsRoute m_srcPort;
+
+  /** Object to deliver messages to once they are decoded */
+  private MessageProcessor m_msgProcessor;
+
+  /** Used to look up the type of the target variable */
+  private VariableManager m_vm;
+
+  //----------------------------------------------------------------------
+  /**
+   * Constructor
+   *
+   * @param vm the {@link VariableManager} holding the variables to
+   * which received messages are addressed
+   */
+  public BMFParser(VariableManager vm)
+  {
+    m_vm = vm;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Provide the {@link CommsRoute} and {@link MessageProcessor} objects
+   * to be used for preprocessing and processing messages once they
+   * have been decoded.
+   */
+  public void setMessageCallbacks(CommsRoute portCallback,
+                                  MessageProcessor msgProcessor)
+  {
+    m_srcPort = portCallback;
+    m_msgProcessor = msgProcessor;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public void messageEvent(byte[] buffer, int offset, int size,
+                           CommsRoute port)
+  {
+    if (size == 0 || buffer[offset] == 0) return;
+
+    m_decoder.setBuffer(buffer, offset, size);
+
+    try
+    {
+      HashMap<String, String> intelligent = readIntelligent();
+
+      String route = m_decoder.readRoute();
+
+      if (route.length() != 0)
+      {
+        dispatch(readTransit(route, intelligent));
+        return;
+      }
+
+      boolean first = true;
+
+      // more than one message may follow the route (burst mode)
+      while (first || m_decoder.hasMore())
+      {
+        first = false;
+
+        int toVNID = m_decoder.readInteger();
+        Message m = readBody(toVNID, intelligent);
+
+        if (m == null) return;
+
+        m.setNRSField(Constants.Fields.F_route, route);
+        m.setToVNID(toVNID);
+
+        dispatch(m);
+      }
+    }
+    catch (RuntimeException e)
+    {
+      PackageLogger.log.warning("Failed to parse BMF message, " + e);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read the optional intelligent header of the current message.
+   *
+   * @return the intelligent fields found, or <tt>null</tt> if the
+   * message is not intelligent
+   */
+  private HashMap<String, String> readIntelligent()
+  {
+    if ((m_decoder.peek() & 0x80) == 0) return null;
+
+    HashMap<String, String> fields = new HashMap<String, String>();
+    fields.put(Constants.Fields.F_intelligent, "true");
+
+    int type = m_decoder.next() & 127;
+
+    while (type != BMFEncoder.END_INTELLIGENT)
+    {
+      if (type >= BMFEncoder.NUM_INTELLIGENT
+          || BMFEncoder.INTELLIGENT_FIELDS[type] == null)
+        throw new IllegalStateException("Illegal intelligent segment "
+                                        + type);
+
+      fields.put(BMFEncoder.INTELLIGENT_FIELDS[type],
+                 m_decoder.readSegment(BMFEncoder.INTELLIGENT_TYPES[type]));
+
+      type = m_decoder.next();
+    }
+
+    return fields;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Build the message for one which is passing through this component,
+   * keeping the bytes that follow its route undecoded.
+   */
+  private Message readTransit(String route,
+                              HashMap<String, String> intelligent)
+  {
+    Message m = MessagePool.obtain((String) null);
+
+    if (intelligent != null)
+    {
+      for (Iterator<Map.Entry<String, String>> i
+             = intelligent.entrySet().iterator(); i.hasNext(); )
+      {
+        Map.Entry<String, String> e = i.next();
+        m.setNRSField(e.getKey(), e.getValue());
+      }
+    }
+
+    m.setNRSField(Constants.Fields.F_route, route);
+    m.setRawBMF(m_decoder.readRemaining());
+
+    return m;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Identify the target variable of a message, and decode the message
+   * segments accordingly.
+   *
+   * @return the decoded message, or <tt>null</tt> if the target or its
+   * message layout is unknown
+   */
+  private Message readBody(int toVNID, HashMap<String, String> intelligent)
+  {
+    Variable target = null;
+
+    if (intelligent != null
+        && intelligent.containsKey(Constants.Fields.F_iTargetVNName))
+    {
+      target = m_vm.get(intelligent.get(Constants.Fields.F_iTargetVNName));
+    }
+    else
+    {
+      target = m_vm.get(toVNID);
+    }
+
+    if (target == null)
+    {
+      PackageLogger.log.warning("BMF message addressed to unknown variable"
+                                + " (vnid=" + toVNID + "), discarded");
+      return null;
+    }
+
+    String type = target.getVNType();
+    if (type == null) type = target.getVNName();
+
+    MessageSchema schema = MessageSchema.lookup(type);
+    if (schema == null)
+    {
+      PackageLogger.log.warning("BMF message addressed to variable "
+                                + target.getVNName() + " of type " + type
+                                + ", which has no BMF schema; discarded");
+      return null;
+    }
+
+    Message m = MessagePool.obtain(schema);
+
+    if (intelligent != null)
+    {
+      for (Iterator<Map.Entry<String, String>> i
+             = intelligent.entrySet().iterator(); i.hasNext(); )
+      {
+        Map.Entry<String, String> e = i.next();
+        m.setNRSField(e.getKey(), e.getValue());
+      }
+    }
+
+    // numeric segments go straight into the typed message, unconverted
+    for (int i = 0; i < schema.getSegmentCount(); i++)
+    {
+      String name = schema.getSegmentName(i);
+
+      switch (schema.getSegmentType(i))
+      {
+        case MessageSchema.BOOLEAN:
+          m.setField(name, m_decoder.readBoolean());
+          break;
+        case MessageSchema.INTEGER:
+          m.setField(name, m_decoder.readInteger());
+          break;
+        case MessageSchema.FLOAT:
+          m.setField(name, m_decoder.readFloat());
+          break;
+        default:
+          m.setField(name, m_decoder.readSegment(schema.getSegmentType(i)));
+      }
+    }
+
+    return m;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Pass a decoded message for preprocessing and then processing
+   */
+  private void dispatch(Message m)
+  {
+    if (m_srcPort != null)
+    {
+      m.aux().setReceivedPort(m_srcPort);
+      m_srcPort.handleMessage(m);
+    }
+    if (m_msgProcessor != null) m_msgProcessor.deliver(m, null);
+  }
+}
@@ -34,8 +34,10 @@ import nrs.core.type.BooleanType;
 import nrs.core.type.IntegerType;
 import nrs.core.type.FloatType;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import nrs.core.base.TimingWheel;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 
 /** Represents DelayNodes for the calculation component.  This class
  * inherits from {@link nrs.core.base.Node} to represent a node of the
@@ -67,7 +69,9 @@ public class DelayNode extends Node {
 
     private int type;
 
-    private Timer timer;
+    // Outputs waiting for their delay to pass
+    private final LinkedHashSet<TimingWheel.Timeout> pending =
+        new LinkedHashSet<TimingWheel.Timeout>();
 
     private long delay;
 
@@ -99,8 +103,14 @@ public class DelayNode extends Node {
     }
 
 
-    class DelayTask extends TimerTask {
+    class DelayTask implements Runnable {
+        private TimingWheel.Timeout timeout;
+
         public void run() {
+            synchronized (pending) {
+                pending.remove(timeout);
+            }
+
             switch(type) {
             
             case CalculationComponent.VOID:
@@ -119,9 +129,31 @@ public class DelayNode extends Node {
                 m_booleanOut.onEvent(m_booleanInput.getValue().booleanValue());
             }
             PackageLogger.log.fine("\nSet Output");
-	    timer.cancel(); //Terminate the timer thread
         }
     }
+
+    /** Schedule the output of the current input value after the
+     * delay. All delay nodes share one timing wheel, rather than
+     * starting a timer thread for every input. */
+    private void scheduleOutput() {
+        DelayTask task = new DelayTask();
+        synchronized (pending) {
+            task.timeout = TimingWheel.getDefault().schedule(task, delay);
+            pending.add(task.timeout);
+        }
+    }
+
+    /** Cancel outputs not yet sent, and remove this node. */
+    public void removeAll() {
+        synchronized (pending) {
+            for (Iterator<TimingWheel.Timeout> i = pending.iterator();
+                 i.hasNext(); ) {
+                i.next().cancel();
+            }
+            pending.clear();
+        }
+        super.removeAll();
+    }
  
 
    
@@ -388,8 +420,7 @@ public class DelayNode extends Node {
 	PackageLogger.log.fine("Received message at Input variable!");
         m_booleanInput.setValue(b);
 
-        timer = new Timer();
-        timer.schedule(new DelayTask(), delay);
+        scheduleOutput();
         
     }
 
@@ -398,8 +429,7 @@ public class DelayNode extends Node {
 
         m_floatInput.setValue(d);
 
-        timer = new Timer();
-        timer.schedule(new DelayTask(), delay);
+        scheduleOutput();
         
         
      }
@@ -413,8 +443,7 @@ public class DelayNode extends Node {
         } else {
             m_intInput.setValue(i);
             
-            timer = new Timer();
-            timer.schedule(new DelayTask(), delay);
+            scheduleOutput();
         }
      }
 
@@ -423,7 +452,6 @@ public class DelayNode extends Node {
      public void handleMessageAt_Input(){ 
 	PackageLogger.log.fine("Received message at Input variable!");
 
-        timer = new Timer();
-        timer.schedule(new DelayTask(), delay);
+        scheduleOutput();
      }
 }
@@ -261,6 +261,8 @@ public class ForLoopNode extends Node {
 
          if (m.hasField("From") && m.hasField("To")) {
              
+             // send From and To together
+             m_vm.begin();
              try {
                  
                  switch(type) {
@@ -292,6 +294,9 @@ public class ForLoopNode extends Node {
                  PackageLogger.log.warning("Error with message - not the right"
                                            + " format!");
              }
+             finally {
+                 m_vm.commit();
+             }
 
         }
     } 
@@ -395,6 +400,9 @@ public class ForLoopNode extends Node {
 
         if (varName.equals(resetName)) {
 
+          // send the reset outputs together
+          m_vm.begin();
+          try {
 
             if (type == CalculationComponent.INT) {
                 
@@ -414,6 +422,10 @@ public class ForLoopNode extends Node {
 
             m_allFinished.setValue(false);
 
+          } finally {
+            m_vm.commit();
+          }
+
         } else if (varName.equals(nextName)) {
 
             runExp();
@@ -34,8 +34,10 @@ import nrs.core.type.VoidType;
 import nrs.core.type.BooleanType;
 import nrs.core.type.IntegerType;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import nrs.core.base.TimingWheel;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 
 /** Represents VoidToBooleanDelayNodes for the calculation component.This class
  * inherits from {@link nrs.core.base.Node} to represent a node of the
@@ -58,7 +60,9 @@ public class VoidToBooleanDelayNode extends Node {
     // Number of milliseconds delay
     private long delay;
 
-    private Timer timer;
+    // Outputs waiting for their delay to pass
+    private final LinkedHashSet<TimingWheel.Timeout> pending =
+        new LinkedHashSet<TimingWheel.Timeout>();
 
     public VoidToBooleanDelayNode(VariableManager vm, String vnName, String nodeType) {
         super(vm, vnName, nodeType);
@@ -118,13 +122,29 @@ public class VoidToBooleanDelayNode extends Node {
         
     }
 
-    class DelayTask extends TimerTask {
+    class DelayTask implements Runnable {
+        private TimingWheel.Timeout timeout;
+
         public void run() {
+            synchronized (pending) {
+                pending.remove(timeout);
+            }
             m_varOut.onEvent(false);
             PackageLogger.log.fine("\nSet Output to FALSE");
-	    timer.cancel(); //Terminate the timer thread
         }
     }
+
+    /** Cancel outputs not yet sent, and remove this node. */
+    public void removeAll() {
+        synchronized (pending) {
+            for (Iterator<TimingWheel.Timeout> i = pending.iterator();
+                 i.hasNext(); ) {
+                i.next().cancel();
+            }
+            pending.clear();
+        }
+        super.removeAll();
+    }
  
      //----------------------------------------------------------------------//
      /** Deliver a {@link Message} to this <code>Node</code>.
@@ -220,8 +240,12 @@ public class VoidToBooleanDelayNode extends Node {
 
         PackageLogger.log.fine("\nSet Output to TRUE");
         
-        timer = new Timer();
-        timer.schedule(new DelayTask(), delay);
+        // all delay nodes share one timing wheel
+        DelayTask task = new DelayTask();
+        synchronized (pending) {
+            task.timeout = TimingWheel.getDefault().schedule(task, delay);
+            pending.add(task.timeout);
+        }
         
     }
     //-----------------------------------------------------------------------//
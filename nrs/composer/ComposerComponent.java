@@ -52,7 +52,7 @@ public class ComposerComponent extends BaseComponent
     /** Whether this component has a CSL descriptor file. */
     private final static boolean m_HasCSL = true;
     /** Can the component speak BMF. */
-    private final static boolean m_SpeaksBMF = false;
+    private final static boolean m_SpeaksBMF = true;
     /** Can the component speak PML. */
     private final static boolean m_SpeaksPML = true;
 
@@ -59,6 +59,7 @@ class MessageInterceptor extends MessageProcessor implements Runnable {
         if (m != null ) {
             if (mainFrame.intercepting) {
                 synchronized (messagesReceived) {
+                    m.retain();
                     messagesReceived.add(m);
                     mainFrame.m_recListModel.addElement(m);
                 }
@@ -85,6 +85,12 @@ public class AppManager extends BaseAppManager
 	return m_prefs.get("CSL_FILE", "control.xml");
     }
 
+    /** Return the number of times per second display nodes are
+     * refreshed. */
+    public int getFrameRate(){
+	return m_prefs.getInt("FRAME_RATE", DisplayRefresher.DEFAULT_FRAME_RATE);
+    }
+
     /** Used to build a an object of a specific component.
      *
      * @param vmMan {@link VariableManager} 
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.control;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+import javax.swing.Timer;
+
+/** Refresh the display nodes at a limited frame rate.
+ *
+ * Display nodes record the latest value they receive and request a
+ * refresh, rather than updating their widgets for every message. Once
+ * per frame, on the Swing event dispatch thread, each node which asked
+ * is refreshed once, with its latest value. So however fast values
+ * arrive, the GUI is updated at most at the frame rate, and Swing is
+ * only touched from the event dispatch thread. The timer stops while
+ * there is nothing to refresh.
+ *
+ * The frame rate is read from the preference <tt>FRAME_RATE</tt>
+ * (frames per second), which defaults to {@link #DEFAULT_FRAME_RATE}.
+*/
+
+class DisplayRefresher implements ActionListener {
+
+    /** Frame rate used when none is set. */
+    static final int DEFAULT_FRAME_RATE = 25;
+
+    /** Refreshes requested since the last frame. */
+    private LinkedHashSet<Runnable> m_pending;
+
+    /** Fires once per frame. */
+    private Timer m_timer;
+
+    /** Singleton instance of <code>DisplayRefresher</code> class. */
+    private static DisplayRefresher m_singletonInstance = null;
+
+    /** 
+     * Return the singleton instance of class DisplayRefresher.
+     *
+     * @return singleton instance of class DisplayRefresher.
+     */
+    public static synchronized DisplayRefresher getInstance(){
+	if (m_singletonInstance == null) new DisplayRefresher();
+	
+	return m_singletonInstance;
+    }
+
+    /** Private constructor, uses singleton pattern. */
+    private DisplayRefresher(){
+	if (m_singletonInstance == null) m_singletonInstance = this;
+
+	m_pending = new LinkedHashSet<Runnable>();
+	m_timer = new Timer(0, this);
+	setFrameRate(AppManager.getInstance().getFrameRate());
+    }
+
+    /** Set the number of frames per second.
+     *
+     * @param rate frames per second; values below 1 are taken as 1
+     */
+    public synchronized void setFrameRate(int rate){
+	int delay = 1000 / Math.max(1, rate);
+	m_timer.setDelay(delay);
+	m_timer.setInitialDelay(delay);
+    }
+
+    /** Ask for <tt>refresh</tt> to be run in the next frame. Asking
+     * again before then has no further effect.
+     *
+     * @param refresh updates the widgets of a node with its latest value
+     */
+    public synchronized void request(Runnable refresh){
+	m_pending.add(refresh);
+	if ( !m_timer.isRunning() ) m_timer.start();
+    }
+
+    /** Run the refreshes requested, once per frame. */
+    public void actionPerformed(ActionEvent e){
+	ArrayList<Runnable> frame;
+	synchronized(this){
+	    if ( m_pending.isEmpty() ){
+		m_timer.stop();
+		return;
+	    }
+	    // refreshes may request the next frame
+	    frame = new ArrayList<Runnable>(m_pending);
+	    m_pending.clear();
+	}
+	
+	for (int i = 0; i < frame.size(); i++){
+	    try {
+		frame.get(i).run();
+	    }
+	    catch(RuntimeException ex){
+		PackageLogger.log.warning("Error refreshing display: " + ex);
+		ex.printStackTrace();
+	    }
+	}
+    }
+}
@@ -58,6 +58,16 @@ public class FloatDisplayNode extends Node {
   /** Label of JLabel. */
   private String m_labelText;
   
+  /** Latest value received, shown at the next refresh. */
+  private volatile double m_latest;
+  
+  /** Refreshes the display, at most once per frame. */
+  private final Runnable m_refresh = new Runnable(){
+      public void run(){
+        refresh();
+      }
+    };
+  
   private static final int COLUMNS = 6;
 
   private final static String type = "FloatDisplayNode";
@@ -164,9 +174,17 @@ public class FloatDisplayNode extends Node {
   public void handleMessageAt_Input(double d){ 
     PackageLogger.log.fine("Received message at Input variable!");
   
-    m_textField.setText(Double.toString(d));
-    m_textField.setPreferredSize(m_textField.getPreferredSize());
-    
     m_varInput.setValue(d);
+    
+    m_latest = d;
+    DisplayRefresher.getInstance().request(m_refresh);
+  }
+  
+  /** Show the latest value received; run on the event dispatch thread. */
+  private void refresh(){
+    if ( m_textField == null ) return;
+    
+    m_textField.setText(Double.toString(m_latest));
+    m_textField.setPreferredSize(m_textField.getPreferredSize());
   }
 }
@@ -60,6 +60,16 @@ public class IntegerDisplayNode extends Node {
   /** Label of JLabel. */
   private String m_labelText;
   
+  /** Latest value received, shown at the next refresh. */
+  private volatile int m_latest;
+  
+  /** Refreshes the display, at most once per frame. */
+  private final Runnable m_refresh = new Runnable(){
+      public void run(){
+        refresh();
+      }
+    };
+  
   private static final int COLUMNS = 6;
 
   private final static String type = "IntegerDisplayNode";
@@ -171,9 +181,17 @@ public class IntegerDisplayNode extends Node {
   public void handleMessageAt_Input(int i){ 
     PackageLogger.log.fine("Received message at Input variable!");
     
-    m_textField.setText(Integer.toString(i));
-    m_textField.setPreferredSize(m_textField.getPreferredSize());
-    
     m_varInput.setValue(i);
+    
+    m_latest = i;
+    DisplayRefresher.getInstance().request(m_refresh);
+  }
+  
+  /** Show the latest value received; run on the event dispatch thread. */
+  private void refresh(){
+    if ( m_textField == null ) return;
+    
+    m_textField.setText(Integer.toString(m_latest));
+    m_textField.setPreferredSize(m_textField.getPreferredSize());
   }
 }
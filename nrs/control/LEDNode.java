@@ -23,6 +23,7 @@
 package nrs.control;
 
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JRadioButton;
 import java.awt.*;
@@ -60,6 +61,20 @@ public class LEDNode extends Node
   
   /** Blink time. */
   private int m_blink;
+  
+  /** Time until which the LED is lit, in milliseconds. */
+  private volatile long m_litUntil = 0;
+  
+  /** Set by each input until a frame has shown it, so that even a
+   * blink shorter than a frame lights the LED once. */
+  private final AtomicBoolean m_pending = new AtomicBoolean(false);
+  
+  /** Refreshes the LED, at most once per frame. */
+  private final Runnable m_refresh = new Runnable(){
+      public void run(){
+        refresh();
+      }
+    };
 
   private final static String type = "LEDNode";
   
@@ -97,13 +112,23 @@ public class LEDNode extends Node
   }
   
   public void handleMessageAt_Input() {
-    m_button.doClick();
-    try
-      {
-        Thread.sleep(m_blink);
-      }
-    catch(InterruptedException ie){ }
-    m_button.doClick();
+    m_litUntil = System.currentTimeMillis() + m_blink;
+    m_pending.set(true);
+    DisplayRefresher.getInstance().request(m_refresh);
+  }
+  
+  /** Light the LED, or put it out once the blink time has passed and
+   * the last input has been shown for a frame; run on the event
+   * dispatch thread. */
+  private void refresh(){
+    if ( m_button == null ) return;
+    
+    boolean lit = m_pending.getAndSet(false)
+      || System.currentTimeMillis() < m_litUntil;
+    m_button.setSelected(lit);
+    
+    // look again next frame
+    if ( lit ) DisplayRefresher.getInstance().request(m_refresh);
   }
   
   //----------------------------------------------------------------------//
@@ -58,6 +58,16 @@ public class StringDisplayNode extends Node {
   /** Label of JLabel. */
   private String m_labelText;
   
+  /** Latest value received, shown at the next refresh. */
+  private volatile String m_latest;
+  
+  /** Refreshes the display, at most once per frame. */
+  private final Runnable m_refresh = new Runnable(){
+      public void run(){
+        refresh();
+      }
+    };
+  
   private static final int COLUMNS = 10;
 
   private final static String type = "StringDisplayNode";
@@ -164,9 +174,17 @@ public class StringDisplayNode extends Node {
   public void handleMessageAt_Input(String s){ 
     PackageLogger.log.fine("Received message at Input variable!");
   
-    m_textField.setText(s);
-    m_textField.setPreferredSize(m_textField.getPreferredSize());
-    
     m_varInput.setValue(s);
+    
+    m_latest = s;
+    DisplayRefresher.getInstance().request(m_refresh);
+  }
+  
+  /** Show the latest value received; run on the event dispatch thread. */
+  private void refresh(){
+    if ( m_textField == null ) return;
+    
+    m_textField.setText(m_latest);
+    m_textField.setPreferredSize(m_textField.getPreferredSize());
   }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Passes detail log records to another handler on a thread of its
+ * own, so that formatting and writing them out doesn't hold up the
+ * thread which logged them, such as one delivering messages.
+ *
+ * <p>Only records at level {@link Level#FINE} or below, which are
+ * logged on every message when enabled, take this path. Records at
+ * higher levels are rare, and matter, so they are written out directly,
+ * after any records waiting before them, and are never dropped.
+ *
+ * <p>Detail records wait in a queue of fixed size. If the queue is
+ * full, because records are logged faster than they can be written
+ * out, new records are dropped rather than making the logging thread
+ * wait, and a warning of how many were dropped is written once there is
+ * room again. The queue is written out when the handler is closed, and
+ * when the program exits.
+ *
+ * <p>Queued records are written out after the call which logged them
+ * has returned, so their parameters should not refer to objects which
+ * may since have changed; {@link Log} takes care of this. The source
+ * class and method of a record, which are found from the stack of the
+ * logging thread if not given, are looked up before it is queued.
+ */
+public final class AsyncHandler extends Handler implements Runnable
+{
+  /** Default number of records which can wait to be written out */
+  public static final int CAPACITY = 4096;
+
+  /** Handler which writes the records out */
+  private final Handler m_target;
+
+  /** Records waiting to be written out */
+  private final ArrayBlockingQueue<LogRecord> m_queue;
+
+  /** Number of records dropped since the last warning */
+  private final AtomicInteger m_dropped = new AtomicInteger(0);
+
+  /** Thread writing the records out */
+  private final Thread m_thread;
+
+  /** Set once the handler is closed */
+  private volatile boolean m_closed = false;
+
+  //----------------------------------------------------------------------
+  /**
+   * Constructor, using a queue of {@link #CAPACITY} records
+   *
+   * @param target the handler which writes the records out
+   */
+  public AsyncHandler(Handler target)
+  {
+    this(target, CAPACITY);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Constructor
+   *
+   * @param target the handler which writes the records out
+   *
+   * @param capacity the number of records which can wait to be written
+   * out
+   */
+  public AsyncHandler(Handler target, int capacity)
+  {
+    m_target = target;
+    m_queue = new ArrayBlockingQueue<LogRecord>(capacity);
+
+    setLevel(target.getLevel());
+
+    m_thread = new Thread(this, "Log handler");
+    m_thread.setDaemon(true);
+    m_thread.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread()
+      {
+        public void run()
+        {
+          close();
+        }
+      });
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Queue a detail record to be written out, or drop it if the queue is
+   * full. Other records are written out at once.
+   */
+  public void publish(LogRecord r)
+  {
+    if (!isLoggable(r)) return;
+
+    if (m_closed || r.getLevel().intValue() > Level.FINE.intValue())
+    {
+      drain();
+      write(r);
+      return;
+    }
+
+    // must be found on this thread, while the caller is on the stack
+    r.getSourceClassName();
+
+    if (!m_queue.offer(r)) m_dropped.incrementAndGet();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Flush the handler which writes the records out. Records still in
+   * the queue are not waited for.
+   */
+  public void flush()
+  {
+    m_target.flush();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write out the records in the queue, and close the handler which
+   * writes them out
+   */
+  public void close()
+  {
+    synchronized (this)
+    {
+      if (m_closed) return;
+      m_closed = true;
+    }
+
+    m_thread.interrupt();
+    try
+    {
+      m_thread.join(1000);
+    }
+    catch (InterruptedException e)
+    {
+      // write out what is left anyway
+    }
+
+    drain();
+    m_target.close();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write records out as they are queued
+   */
+  public void run()
+  {
+    while (!m_closed)
+    {
+      try
+      {
+        write(m_queue.take());
+        if (m_queue.isEmpty()) m_target.flush();
+      }
+      catch (InterruptedException e)
+      {
+        // closed
+      }
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write out the records in the queue, on the calling thread
+   */
+  private synchronized void drain()
+  {
+    LogRecord r;
+    while ((r = m_queue.poll()) != null) write(r);
+    reportDropped();
+    m_target.flush();
+  }
+  //----------------------------------------------------------------------
+  private void write(LogRecord r)
+  {
+    reportDropped();
+
+    try
+    {
+      m_target.publish(r);
+    }
+    catch (RuntimeException e)
+    {
+      reportError("Failed to write log record", e,
+                  ErrorManager.WRITE_FAILURE);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write a warning if records have been dropped
+   */
+  private void reportDropped()
+  {
+    int dropped = m_dropped.getAndSet(0);
+    if (dropped == 0) return;
+
+    LogRecord w = new LogRecord(Level.WARNING, dropped
+                                + " log records dropped: logging faster"
+                                + " than they can be written out");
+    w.setLoggerName("nrs");
+    m_target.publish(w);
+  }
+}
@@ -257,4 +257,22 @@ public class AuxillaryInfo
   {
     return m_defaultDest;
   }
+  //----------------------------------------------------------------------
+  /**
+   * Return every item of information to its initial value
+   */
+  public void reset()
+  {
+    m_recvdPort = null;
+    m_txPort = null;
+    m_sent = false;
+    m_direction = OUTBOUND;
+    m_origMsgSent = null;
+    m_targetCID = null;
+    m_origRoute = null;
+    m_unitReg = null;
+    m_messageReg = null;
+    m_nodeReg = null;
+    m_defaultDest = null;
+  }
 }
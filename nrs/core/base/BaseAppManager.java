@@ -24,14 +24,24 @@ package nrs.core.base;
 
 import nrs.core.comms.PortManager;
 import nrs.core.message.Constants;
+import nrs.core.message.MessageSchema;
+import nrs.csl.CSL_ContentReader;
+import nrs.csl.CSL_Element_Registry;
+import nrs.csl.CSL_Message_Registry;
+import nrs.csl.CSL_Node_Registry;
+import nrs.csl.CSL_Unit_Registry;
+import nrs.csl.CSL_XMLEventProcessor;
 import nrs.util.ArgumentException;
 import nrs.util.ArgumentFielder;
 
+import java.io.File;
 import java.util.logging.*;
 import java.util.Properties;
 import java.util.prefs.Preferences;
 import java.util.ArrayList;
 import java.util.Iterator;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
 
 /** Class which all Java NRS component AppManagers can inherit from.
  *
@@ -117,6 +127,9 @@ public abstract class BaseAppManager implements ArgumentFielder
     // configuration
     m_portMan.setOutboundPipeline(m_outPipeline);
     m_portMan.setDefaultInboundPipeline(m_inboundPipeline);
+    m_portMan.setVariableManager(m_vMan);
+    m_portMan.setBroadcastCache(bcastHandler.getBroadcastCache());
+    m_portMan.setRouteManager(m_routeManager);
 
     m_thisComponent.setRouteManager(m_routeManager);
     m_thisComponent.setOutboundDest(m_outPipeline);
@@ -216,10 +229,13 @@ public abstract class BaseAppManager implements ArgumentFielder
     nrsLogger.setLevel (DEFAULT_LEVEL);
 
     // Add a hanlder. Set the level to ALL, since we will control level
-    // through the loggers and not through the handlers
+    // through the loggers and not through the handlers. Detail records
+    // are written out on a thread of their own, so that turning on
+    // detailed logging doesn't hold up message delivery; warnings and
+    // other records above FINE are written out directly.
     ConsoleHandler ch = new ConsoleHandler ();
     ch.setLevel (Level.ALL); //set level supplied by user, or default
-    nrsLogger.addHandler (ch);
+    nrsLogger.addHandler (new AsyncHandler(ch));
   }
 
   /** Set a specific level of logging output.
@@ -408,7 +424,70 @@ public abstract class BaseAppManager implements ArgumentFielder
                                  + e.getMessage());
         System.exit(1);
       }
+
+    registerMessageSchemas();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the name of the CSL file describing this component, or
+   * <tt>null</tt> if it has none. Overridden by components which have
+   * one.
+   */
+  public String getCSLFile()
+  {
+    return null;
   }
+  //----------------------------------------------------------------------
+  /**
+   * Register a {@link MessageSchema} for each message type described in
+   * this component's CSL file, so that BMF messages of the component's
+   * own types (such as those of its nodes) can be decoded. Without the
+   * file, only messages of the basic types and of the messaging
+   * protocol can be.
+   */
+  private void registerMessageSchemas()
+  {
+    String filename = getCSLFile();
+    if (filename == null) return;
 
+    File file = new File(filename);
+    if (!file.canRead())
+    {
+      PackageLogger.log.warning("Can't read CSL file " + filename
+                                + ": BMF messages of this component's"
+                                + " own message types can't be decoded");
+      return;
+    }
+
+    CSL_Unit_Registry unitReg = new CSL_Unit_Registry();
+    CSL_Message_Registry messageReg = new CSL_Message_Registry();
+    CSL_Element_Registry elementReg
+      = new CSL_Element_Registry(unitReg, messageReg,
+                                 new CSL_Node_Registry());
+    unitReg.addImplicitUnits(elementReg);
+
+    try
+    {
+      XMLReader parser = XMLReaderFactory.createXMLReader();
+      parser.setFeature("http://xml.org/sax/features/namespaces", true);
+      parser.setFeature("http://xml.org/sax/features/namespace-prefixes",
+                        false);
+      parser.setContentHandler(new CSL_ContentReader
+                               (new CSL_XMLEventProcessor(elementReg)));
+      parser.parse(file.getAbsolutePath());
+    }
+    catch (Exception e)
+    {
+      PackageLogger.log.warning("Failed to parse CSL file " + filename
+                                + ": BMF messages of this component's"
+                                + " own message types can't be decoded."
+                                + " Error=" + e);
+      return;
+    }
+
+    messageReg.addImplicitMessagesFromUnits(elementReg, unitReg);
+    messageReg.resolveUnits(unitReg);
+    MessageSchema.register(messageReg);
+  }
   //----------------------------------------------------------------------
 }
@@ -72,6 +72,10 @@ public class BaseComponent extends MessageProcessor
      */
   protected HashMap m_localVars;
 
+  /** Local variables found by {@link #dispatch(Message)}, indexed by
+   * the {@link MessageSchema#getIndex()} of the message type */
+  private Variable[] m_dispatchTable = new Variable[0];
+
   /** PortManager for this component. */
   private PortManager m_portManager;
 
@@ -580,7 +584,12 @@ public class BaseComponent extends MessageProcessor
     // soley using a VNID
     for (Iterator i = m_localVars.values().iterator(); i.hasNext(); )
     {
-      vm.add((Variable) i.next());
+      Variable v = (Variable) i.next();
+
+      // the handlers of control messages aren't safe to run in
+      // parallel, so they are never scheduled
+      v.m_direct = true;
+      vm.add(v);
     }
   }
   //----------------------------------------------------------------------
@@ -592,7 +601,9 @@ public class BaseComponent extends MessageProcessor
    */
   protected boolean dispatch(Message m)
     {
-      Variable target = getVariable(m.getType());
+      MessageSchema schema = m.getSchema();
+      Variable target = (schema != null)
+        ? getVariable(schema) : getVariable(m.getType());
 
 	if (target != null)
 	    {
@@ -630,6 +641,37 @@ public class BaseComponent extends MessageProcessor
     return (Variable) m_localVars.get(VNName);
   }
   //----------------------------------------------------------------------
+  /**
+   * Retrieve the local variable for messages of the type described by
+   * <tt>schema</tt>, or <tt>null</tt> if there is no match. The result
+   * of the by-name lookup is kept in a table indexed by schema, so each
+   * message type is only looked up once.
+   */
+  private Variable getVariable(MessageSchema schema)
+  {
+    int i = schema.getIndex();
+
+    if (i < m_dispatchTable.length && m_dispatchTable[i] != null)
+      return m_dispatchTable[i];
+
+    Variable v = getVariable(schema.getType());
+
+    if (v != null)
+    {
+      if (i >= m_dispatchTable.length)
+      {
+        Variable[] table = new Variable[Math.max(i + 1,
+                                                 2 * m_dispatchTable.length)];
+        System.arraycopy(m_dispatchTable, 0, table, 0,
+                         m_dispatchTable.length);
+        m_dispatchTable = table;
+      }
+      m_dispatchTable[i] = v;
+    }
+
+    return v;
+  }
+  //----------------------------------------------------------------------
   /**
    * Override in inherited classes to process the receipt of a message
    * at the CreadeNode variable.
@@ -690,8 +732,7 @@ public class BaseComponent extends MessageProcessor
       return;
     }
 
-    String route = null;
-    String myCID = info().getCID();
+    final String myCID = info().getCID();
 
     // Ignore create-link request if we are neither the source nor
     // target component
@@ -713,39 +754,51 @@ public class BaseComponent extends MessageProcessor
 
     Variable target = findVar(targetCID, targetVNID);
 
-    Link lk;
-
-    // create on-board link
-    if ( source != null && target != null )
-      {
-        lk = new Link(source, target);
-      }
-    // create off-board link
-    else
-      {
-        if ( forSource && cid.equals(myCID) )
-          route = m_routeManager.resolveRoute(targetCID, true);
-        else if ( !forSource && targetCID.equals(myCID) )
-          route = m_routeManager.resolveRoute(cid, true);
-
-        if ( route == null ) route = "";
-
-        lk = new Link(cid, vnid, targetCID, targetVNID,
-                      temporary, route, m_routeManager, myCID);
-      }
+    // the variable which holds the link
+    final Variable holder;
+    String peer = null;
 
     if ( forSource && cid.equals(myCID) )
       {
         PackageLogger.log.fine("CreateLink aimed at Source.");
-        source.addLink(lk);
+        holder = source;
+        peer = targetCID;
       }
     else if ( !forSource && targetCID.equals(myCID) )
       {
         PackageLogger.log.fine("CreateLink aimed at Target.");
-        target.addLink(lk);
+        holder = target;
+        peer = cid;
+      }
+    else
+      holder = null;
+
+    // create on-board link
+    if ( source != null && target != null )
+      {
+        if ( holder != null ) holder.addLink(new Link(source, target));
+        PackageLogger.log.fine("Link created");
+        return;
       }
 
-    PackageLogger.log.fine("Link created");
+    if ( holder == null ) return;
+
+    // create off-board link, once the route to the other end is known,
+    // so that its holder's state isn't sent over it without one
+    final String linkCID = cid, linkTargetCID = targetCID;
+    final int linkVNID = vnid, linkTargetVNID = targetVNID;
+    final boolean linkTemporary = temporary;
+
+    m_routeManager.resolveRoute(peer, new RouteListener(){
+        public void routeResolved(String CID, String route){
+          if ( route == null ) route = "";
+
+          holder.addLink(new Link(linkCID, linkVNID, linkTargetCID,
+                                  linkTargetVNID, linkTemporary, route,
+                                  m_routeManager, myCID));
+          PackageLogger.log.fine("Link created");
+        }
+      });
   }
   //----------------------------------------------------------------------
   public void handleMessageAt_DeleteLink(Message m,
@@ -75,6 +75,18 @@ public abstract class BooleanVariable extends Variable
     b.deliver(m_value.booleanValue());
   }
   
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final BooleanVariable b = (BooleanVariable) target;
+    final boolean value = m_value.booleanValue();
+    return new Runnable(){
+        public void run(){
+          b.deliver(value);
+        }
+      };
+  }
+  
   /** Receive boolean from variable within same component. 
    *     
    * @param b boolean value
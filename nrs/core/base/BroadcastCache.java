@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import nrs.core.message.Constants;
+
+/**
+ * Remembers the broadcast messages recently seen by this component, so
+ * that copies of a broadcast which arrive again, over another path
+ * through a network with loops, can be dropped rather than flooded
+ * onwards until their hop count runs out.
+ *
+ * <p>A broadcast is identified by its origin and message ID, held in
+ * the intelligent fields <tt>iSourceCID</tt> and <tt>iMsgID</tt>. These
+ * are the only fields which stay the same along every path; the routes
+ * and hop count change at each hop. Broadcasts which lack either field
+ * can't be told apart, and are never treated as copies. Broadcasts
+ * sent by this component are given both fields by {@link
+ * #stamp(Message)}.
+ *
+ * <p>At most {@link #CAPACITY} broadcasts are remembered, each for
+ * {@link #LIFETIME} milliseconds after it was first seen; the oldest
+ * are forgotten first.
+ */
+public class BroadcastCache
+{
+  /** Maximum number of broadcasts remembered */
+  public static final int CAPACITY = 1024;
+
+  /** Milliseconds for which a broadcast is remembered */
+  public static final long LIFETIME = 30000;
+
+  /** Time at which each broadcast was first seen, oldest first */
+  private final LinkedHashMap<String, Long> m_seen
+    = new LinkedHashMap<String, Long>(CAPACITY * 2)
+    {
+      protected boolean removeEldestEntry(Map.Entry<String, Long> e)
+      {
+        return size() > CAPACITY;
+      }
+    };
+
+  /** Information about this component, for its CID */
+  private final ComponentInfo m_self;
+
+  /** Message ID for the next broadcast sent by this component. It
+   * starts from a random value, so that the broadcasts of a restarted
+   * component aren't mistaken for copies of those sent before. */
+  private int m_nextID = new Random().nextInt(Integer.MAX_VALUE);
+
+  //----------------------------------------------------------------------
+  /**
+   * Constructor
+   *
+   * @param self the {@link ComponentInfo} containing information about
+   * this NRS component.
+   */
+  public BroadcastCache(ComponentInfo self)
+  {
+    m_self = self;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Determine whether a broadcast message is a copy of one seen
+   * recently, and remember it if it isn't.
+   *
+   * @return <tt>true</tt> if the message has been seen before, and
+   * should be dropped, <tt>false</tt> otherwise
+   */
+  public synchronized boolean isDuplicate(Message m)
+  {
+    String key = key(m);
+    if (key == null) return false;
+
+    long now = System.currentTimeMillis();
+    expire(now);
+
+    if (m_seen.containsKey(key)) return true;
+
+    m_seen.put(key, new Long(now));
+    return false;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Give a broadcast message sent by this component its origin and a
+   * message ID, if it doesn't have them, and remember it, so that
+   * copies of it which come back to this component are dropped. Nothing
+   * is done if this component doesn't yet have a CID.
+   */
+  public synchronized void stamp(Message m)
+  {
+    String cid = m_self.getCID();
+    if (cid == null || cid.length() == 0) return;
+
+    if (!m.hasNRSField(Constants.Fields.F_iSourceCID))
+      m.setNRSField(Constants.Fields.F_iSourceCID, cid);
+
+    if (!m.hasNRSField(Constants.Fields.F_iMsgID))
+    {
+      m.setNRSField(Constants.Fields.F_iMsgID, Integer.toString(m_nextID));
+      m_nextID = (m_nextID + 1) & Integer.MAX_VALUE;
+    }
+
+    isDuplicate(m);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Forget the broadcasts seen before <tt>now</tt> less {@link
+   * #LIFETIME}. Entries are in the order they were seen, so only the
+   * oldest need be looked at.
+   */
+  private void expire(long now)
+  {
+    for (Iterator<Long> i = m_seen.values().iterator(); i.hasNext(); )
+    {
+      if (now - i.next().longValue() < LIFETIME) break;
+      i.remove();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the key identifying a broadcast message, or <tt>null</tt> if
+   * it lacks its origin or message ID
+   */
+  private static String key(Message m)
+  {
+    String source = m.getNRSField(Constants.Fields.F_iSourceCID);
+    String id = m.getNRSField(Constants.Fields.F_iMsgID);
+
+    if (source == null || id == null) return null;
+
+    return source + '/' + id;
+  }
+}
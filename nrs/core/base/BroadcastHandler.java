@@ -7,7 +7,8 @@ import nrs.core.message.Constants;
  * are sent to the default destination. So too are broadcast messages
  * which are determined to have reached their target. Broadcast messages
  * which are not aimed at this application are sent to another,
- * configurable, destination.
+ * configurable, destination. Copies of a broadcast message which has
+ * been seen recently (see {@link BroadcastCache}) are dropped.
  *
  * @author Darren Smith
  */
@@ -15,6 +16,7 @@ public class BroadcastHandler extends MessageProcessor
 {
   private MessageProcessor m_bcastOut;
   private ComponentInfo m_self;
+  private BroadcastCache m_seen;
   //----------------------------------------------------------------------
   /*
    * Constructor
@@ -25,6 +27,18 @@ public class BroadcastHandler extends MessageProcessor
   public BroadcastHandler(ComponentInfo self)
   {
     m_self = self;
+    m_seen = new BroadcastCache(self);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the {@link BroadcastCache} remembering the broadcast
+   * messages seen by this component, which should also be used to stamp
+   * the broadcasts it sends (see {@link
+   * nrs.core.comms.PortManager#setBroadcastCache(BroadcastCache)}).
+   */
+  public BroadcastCache getBroadcastCache()
+  {
+    return m_seen;
   }
   //----------------------------------------------------------------------
   /**
@@ -73,6 +87,11 @@ public class BroadcastHandler extends MessageProcessor
   {
     if (MessageTools.isBroadcast(m))
     {
+      if (m_seen.isDuplicate(m))
+      {
+        Log.fine(PackageLogger.log, "Dropping copy of broadcast {0}", m);
+        return;
+      }
       handleBroadcast(m);
     }
     else
@@ -77,6 +77,18 @@ public abstract class FloatVariable extends Variable
     f.deliver(m_value.doubleValue());
   }
   
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final FloatVariable f = (FloatVariable) target;
+    final double value = m_value.doubleValue();
+    return new Runnable(){
+        public void run(){
+          f.deliver(value);
+        }
+      };
+  }
+  
   /** Receive double from variable within same component. 
    *
    * @param d value received
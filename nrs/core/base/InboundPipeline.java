@@ -26,6 +26,7 @@ public class InboundPipeline implements NRSMessageCallback
   private MessageProcessor m_varMan;
   private MessageProcessor m_broadcastHandler;
   private MessageProcessor m_first;
+  private boolean m_recycle = false;
   //----------------------------------------------------------------------
   /**
    * Specify the various {@link MessageProcessor} objects that will be
@@ -129,6 +130,18 @@ public class InboundPipeline implements NRSMessageCallback
     variableManager.setDest(thisComponent);
   }
   //----------------------------------------------------------------------
+  /**
+   * Enable or disable the recycling of received messages, see {@link
+   * Pipeline#setRecycling(boolean)}. Disabled by default. It is unsafe
+   * to enable this for a component which stores received messages, or
+   * routes them on from another thread, unless it calls {@link
+   * Message#retain()} on each.
+   */
+  public void setRecycling(boolean recycle)
+  {
+    m_recycle = recycle;
+  }
+  //----------------------------------------------------------------------
   /**
    * Accept a {@link Message} from a recent {@link
    * nrs.core.comms.CommsRoute} port and begin the sequence of internal
@@ -138,13 +151,12 @@ public class InboundPipeline implements NRSMessageCallback
   {
     if (m.aux().getReceivedPort() != null)
     {
-      PackageLogger.log.fine("Received " + m.diagString()
-                             + " on port:" + m.aux().getReceivedPort());
+      Log.fine(PackageLogger.log, "Received {0} on port:{1}", m,
+               m.aux().getReceivedPort());
     }
     else
     {
-      PackageLogger.log.fine("Received " + m.diagString()
-                             + " on port: NOT AVAILABLE");
+      Log.fine(PackageLogger.log, "Received {0} on port: NOT AVAILABLE", m);
     }
 
     m_first.deliver(m, new MessageProcessor()
@@ -152,5 +164,7 @@ public class InboundPipeline implements NRSMessageCallback
         public void deliver(Message _m, MessageProcessor _sender) {}
         public void setDest(MessageProcessor _dest) {}
       });
+
+    if (m_recycle) MessagePool.release(m);
   }
 }
@@ -74,6 +74,18 @@ public abstract class IntegerVariable extends Variable
     i.deliver(m_value.intValue());
   }
   
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final IntegerVariable i = (IntegerVariable) target;
+    final int value = m_value.intValue();
+    return new Runnable(){
+        public void run(){
+          i.deliver(value);
+        }
+      };
+  }
+  
   //receive int from variable within same component
   public abstract void deliver(int d);
   
@@ -39,6 +39,9 @@ public class Link {
 
     private String m_targetCID;
     private Integer m_targetVNID;
+
+    /** Text of m_targetVNID, made once for all messages sent */
+    private String m_targetVNIDText;
     private String m_targetVNName;
 
     //private String m_logPort;
@@ -173,20 +176,45 @@ public class Link {
     //-----------------------------------------------------------------
 
     /** Fill information in to Message object from Link information.
+     * If the route to the target isn't known yet, the message is given
+     * none; use {@link #sendMsg(Message, OutboundPipeline)} to wait
+     * for it.
      *
      * @param msg {@link Message} object to add information to.
     */
     public void fillMsg(Message msg) {
+	fillMsg(msg, m_routeMan.resolveRoute(m_targetCID, true));
+    }
+
+    /** Fill information in to Message object from Link information,
+     * and send it, once the route to the target is known: during this
+     * call if it is, otherwise when the lookup of the route finishes. If
+     * no route is found, the message is broadcast to the target (see
+     * {@link MessageTools#fixRoute(Message, String)}).
+     *
+     * @param msg {@link Message} object to send.
+     * @param out pipeline to send it through.
+     *
+     * @return true if the message was sent during this call, false if it
+     * is held until the route is known, in which case it must not be
+     * changed by the caller.
+    */
+    public boolean sendMsg(Message msg, OutboundPipeline out) {
+	return send(new Sender(msg, out, false, false), m_targetCID);
+    }
+
+    private void fillMsg(Message msg, String route) {
 
 	// Add route
-	m_route = m_routeMan.resolveRoute(m_targetCID, true);
+	m_route = route;
 	msg.setNRSField(Constants.MessageFields.route, m_route);
 	
 	// Add target
 	if (m_targetVNID != null)
 	    {
-		msg.setNRSField(Constants.MessageFields.toVNID,
-				m_targetVNID.toString());
+		if (m_targetVNIDText == null)
+		    m_targetVNIDText = m_targetVNID.toString();
+		msg.setToVNID(m_targetVNID.intValue(), m_targetVNIDText);
 	    }
 	
 	// Fix route and target
@@ -200,12 +228,30 @@ public class Link {
      * @param source is caller source of link
      */
     public void fillDeleteLinkMsg(DeleteLink msg, boolean source){
-	//fill in basic information required
-	if ( source ) 
-	    m_route = m_routeMan.resolveRoute(m_targetCID, true);
-	else
-	    m_route = m_routeMan.resolveRoute(m_sourceCID, true);
+	fillDeleteLinkMsg(msg, source, 
+			  m_routeMan.resolveRoute(source ? m_targetCID 
+						  : m_sourceCID, true));
+    }
+
+    /** Fill in information for a DeleteLink message from Link
+     * information, and send it once the route to the other end of the
+     * link is known, as {@link #sendMsg(Message, OutboundPipeline)}
+     * does.
+     *
+     * @param msg Message to send.
+     * @param source is caller source of link
+     * @param out pipeline to send it through.
+     */
+    public void sendDeleteLinkMsg(DeleteLink msg, boolean source, 
+				  OutboundPipeline out){
+	send(new Sender(msg, out, true, source), 
+	     source ? m_targetCID : m_sourceCID);
+    }
 
+    private void fillDeleteLinkMsg(DeleteLink msg, boolean source, 
+				   String route){
+	//fill in basic information required
+	m_route = route;
 	msg.setNRSField(Constants.MessageFields.route, m_route);
 	
 	// Fix route of message and set sourceNotTarget flag
@@ -230,4 +276,52 @@ public class Link {
 
 	msg.setField(Constants.MessageFields.targetCID, m_targetCID);
     }
+
+    /** Send a message once the route is known.
+     *
+     * @return true if it was sent during this call.
+     */
+    private boolean send(Sender s, String CID){
+	m_routeMan.resolveRoute(CID, s);
+
+	synchronized(s){
+	    if ( !s.m_done ) s.m_held = true;
+	    return s.m_done;
+	}
+    }
+
+    /** Fills in and sends a message over this link when told the route */
+    private final class Sender implements RouteListener {
+	private final Message m_msg;
+	private final OutboundPipeline m_out;
+	private final boolean m_deleteLink;
+	private final boolean m_source;
+
+	/** Whether sent */
+	boolean m_done = false;
+
+	/** Whether the sender has returned without the message being sent */
+	boolean m_held = false;
+
+	Sender(Message msg, OutboundPipeline out, boolean deleteLink, 
+	       boolean source){
+	    m_msg = msg;
+	    m_out = out;
+	    m_deleteLink = deleteLink;
+	    m_source = source;
+	}
+
+	public synchronized void routeResolved(String CID, String route){
+	    // a held message is sent on its own
+	    if ( m_held ) m_msg.setFanOut(false);
+
+	    if ( m_deleteLink )
+		fillDeleteLinkMsg((DeleteLink) m_msg, m_source, route);
+	    else
+		fillMsg(m_msg, route);
+
+	    m_out.submit(m_msg);
+	    m_done = true;
+	}
+    }
 }
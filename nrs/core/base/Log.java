@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Logs detail messages through the logger of a package (see the
+ * <tt>PackageLogger</tt> classes) at no cost while their level is
+ * disabled, for use on paths taken by every message. Example usage is:
+ * <br><br>
+ * <code>Log.fine(PackageLogger.log, "Received {0} on port:{1}", m,
+ * port);</code>
+ *
+ * <p>Rather than a string built by the caller, each method takes a
+ * {@link java.text.MessageFormat} pattern and up to three parameters,
+ * and does nothing but check the level if it is disabled: no string is
+ * built, and, since there are no variable argument lists, nothing is
+ * allocated. There are overloads taking <tt>int</tt> parameters, such
+ * as sizes and counts, so that these aren't boxed either. If it is
+ * enabled, the parameters are turned into text at once, as the objects
+ * may change after the call (a {@link Message} is given as its {@link
+ * Message#diagString()}), and the pattern is filled in later by the
+ * handler's formatter, which, with an {@link AsyncHandler}, is on
+ * another thread.
+ *
+ * <p>The records carry no source class or method, since finding them
+ * means walking the stack; the logger name stands in for them.
+ */
+public final class Log
+{
+  private Log()
+  {
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINE with one parameter
+   */
+  public static void fine(Logger log, String pattern, Object p0)
+  {
+    if (log.isLoggable(Level.FINE))
+      publish(log, Level.FINE, pattern, 1, p0, null, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINE with two parameters
+   */
+  public static void fine(Logger log, String pattern, Object p0, Object p1)
+  {
+    if (log.isLoggable(Level.FINE))
+      publish(log, Level.FINE, pattern, 2, p0, p1, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINE with three parameters
+   */
+  public static void fine(Logger log, String pattern, Object p0, Object p1,
+                          Object p2)
+  {
+    if (log.isLoggable(Level.FINE))
+      publish(log, Level.FINE, pattern, 3, p0, p1, p2);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINE with one int parameter
+   */
+  public static void fine(Logger log, String pattern, int p0)
+  {
+    if (log.isLoggable(Level.FINE))
+      publish(log, Level.FINE, pattern, 1, Integer.toString(p0), null, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINE with an int parameter and another
+   */
+  public static void fine(Logger log, String pattern, int p0, Object p1)
+  {
+    if (log.isLoggable(Level.FINE))
+      publish(log, Level.FINE, pattern, 2, Integer.toString(p0), p1, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINE with a parameter and an int parameter
+   */
+  public static void fine(Logger log, String pattern, Object p0, int p1)
+  {
+    if (log.isLoggable(Level.FINE))
+      publish(log, Level.FINE, pattern, 2, p0, Integer.toString(p1), null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINE with three parameters, the second an int
+   */
+  public static void fine(Logger log, String pattern, Object p0, int p1,
+                          Object p2)
+  {
+    if (log.isLoggable(Level.FINE))
+      publish(log, Level.FINE, pattern, 3, p0, Integer.toString(p1), p2);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINER with one parameter
+   */
+  public static void finer(Logger log, String pattern, Object p0)
+  {
+    if (log.isLoggable(Level.FINER))
+      publish(log, Level.FINER, pattern, 1, p0, null, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINER with two parameters
+   */
+  public static void finer(Logger log, String pattern, Object p0, Object p1)
+  {
+    if (log.isLoggable(Level.FINER))
+      publish(log, Level.FINER, pattern, 2, p0, p1, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINER with three parameters
+   */
+  public static void finer(Logger log, String pattern, Object p0, Object p1,
+                           Object p2)
+  {
+    if (log.isLoggable(Level.FINER))
+      publish(log, Level.FINER, pattern, 3, p0, p1, p2);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINER with one int parameter
+   */
+  public static void finer(Logger log, String pattern, int p0)
+  {
+    if (log.isLoggable(Level.FINER))
+      publish(log, Level.FINER, pattern, 1, Integer.toString(p0), null,
+              null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINER with an int parameter and another
+   */
+  public static void finer(Logger log, String pattern, int p0, Object p1)
+  {
+    if (log.isLoggable(Level.FINER))
+      publish(log, Level.FINER, pattern, 2, Integer.toString(p0), p1, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINER with a parameter and an int parameter
+   */
+  public static void finer(Logger log, String pattern, Object p0, int p1)
+  {
+    if (log.isLoggable(Level.FINER))
+      publish(log, Level.FINER, pattern, 2, p0, Integer.toString(p1), null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Log a message at level FINER with three parameters, the second an int
+   */
+  public static void finer(Logger log, String pattern, Object p0, int p1,
+                           Object p2)
+  {
+    if (log.isLoggable(Level.FINER))
+      publish(log, Level.FINER, pattern, 3, p0, Integer.toString(p1), p2);
+  }
+  //----------------------------------------------------------------------
+  private static void publish(Logger log, Level level, String pattern,
+                              int count, Object p0, Object p1, Object p2)
+  {
+    Object[] params = new Object[count];
+    params[0] = text(p0);
+    if (count > 1) params[1] = text(p1);
+    if (count > 2) params[2] = text(p2);
+
+    LogRecord r = new LogRecord(level, pattern);
+    r.setParameters(params);
+    r.setLoggerName(log.getName());
+    r.setSourceClassName(null);
+    r.setSourceMethodName(null);
+
+    log.log(r);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the text of a parameter
+   */
+  private static String text(Object o)
+  {
+    if (o instanceof Message) return ((Message) o).diagString();
+
+    return String.valueOf(o);
+  }
+}
@@ -3,10 +3,12 @@ package nrs.core.base;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.*;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import nrs.core.message.Constants;
+import nrs.core.message.MessageSchema;
 
 /**
  * <p>Represents an NRS message for communication between components and
@@ -35,6 +37,16 @@ import nrs.core.message.Constants;
  * #checkField(String)}. To set default fields use {@link
  * #setField(String, String)}.
  *
+ * <p>A message constructed with a {@link MessageSchema} is
+ * <i>typed</i>: the default fields named by the schema are kept in a
+ * fixed set of slots, and numeric and boolean values given to the
+ * primitive setters ({@link #setField(String, double)} etc) are stored
+ * as primitives. Text is only produced for them if it is asked for, by
+ * {@link #getField(String)} and friends, and PML is written directly
+ * from the primitive values. The typed getters ({@link
+ * #getDouble(String)} etc) read such values without any parsing. Any
+ * other fields are held as strings, as for an untyped message.
+ *
  * Code can be written in a variety of ways to compose messages, making
  * use of methods from this class and from derived classes. The
  * following guideline can be followed to standardise on writing such
@@ -162,70 +174,67 @@ public class Message
       contains 128 characters. Do 'man ascii' on Linux for more info. */
   public static final String ENCODING = "US-ASCII";
 
-  /** Byte array representing the namespace attributes and value to be
-   * inserted into each PML tag. */
-  private static final ByteArrayOutputStream NAMESPACE
-    = new ByteArrayOutputStream();
+  /** Map of PML namespace message fieldnames and values */
+  private HashMap m_fields = new HashMap();
 
-  static
-  {
-    String namespace = new String(" xmlns:nrsa='" +
-                                  Constants.Namespace.NRSA + "'"
-                                  + " xmlns='" + Constants.Namespace.NRS_PML
-                                  + "'");
-    try
-    {
-      NAMESPACE.write(namespace.getBytes(ENCODING));
-    }
-    catch (java.io.UnsupportedEncodingException e)
-    {
-      PackageLogger.log.severe("Charset " + ENCODING + " not supported, " + e);
-      e.printStackTrace();
-    }
-    catch (java.io.IOException e)
-    {
-      PackageLogger.log.severe("Failure to write NAMESPACE byte array, " + e);
-      e.printStackTrace();
-    }
-  }
+  /** Map of NRS-Attribute namespace fieldnames and values. */
+  private HashMap m_NRSfields = new HashMap();
 
+  /** Type of this message type */
+  private String m_type;
 
-  /** Byte array storing a whitespace delimitor (ASCII 32) for use in
-   * constructing XML strings */
-  private static final byte[] SPACE = {32};
+  /** Auxillarly fields */
+  private AuxillaryInfo m_aux = new AuxillaryInfo();
 
-  /** Byte array storing the colon [:] which separates an XML
-   * attribute name and its namespace qualifier */
-  private static final byte[] ATTR_QUAL_DELIM = {58};
+  /** Layout of the typed fields, or <tt>null</tt> if all fields are
+   * held in {@link #m_fields} */
+  private MessageSchema m_schema = null;
 
-  /** Byte array storing the two character [='] which separates an XML
-   * attribute name and value pair */
-  private static final byte[] NAME_VALUE_DELIM = {61, 39};
+  /** Values of the typed fields held as primitives, booleans being 0
+   * or 1 */
+  private double[] m_num;
 
-  /** Byte array storing the singlecharacter ['] which terminates an XML
-   * attribute name and value pair */
-  private static final byte[] NAME_VALUE_TERM = {39};
+  /** Values of the typed fields held as text, which is every value
+   * that wasn't set through a primitive setter of the field's own
+   * type */
+  private String[] m_text;
 
-  /** Byte array storing the single character message terminator */
-  private static final byte[] MESSAGE_TERM = {0};
+  /** Bit <tt>i</tt> is set when typed field <tt>i</tt> has a value */
+  private long m_present = 0;
 
-  /** Byte representation of 'true' - excluding ticks */
-  private static final byte[] TRUE = {116, 114, 117, 101};
+  /** Value of {@link #m_toVNID} before the toVNID field is parsed */
+  private static final int UNPARSED = -2;
 
-  /** Byte representation of 'false' - excluding ticks */
-  private static final byte[] FALSE = {102, 97, 108, 115, 101};
+  /** The toVNID field as a number, see {@link #getToVNID()}, or {@link
+   * #UNPARSED} */
+  private int m_toVNID = UNPARSED;
 
-  /** Map of PML namespace message fieldnames and values */
-  private HashMap m_fields = new HashMap();
+  /** Set when the iTargetVNName field is present, so that routing can
+   * skip the lookup of intelligent fields in most messages */
+  private boolean m_targeted = false;
 
-  /** Map of NRS-Attribute namespace fieldnames and values. */
-  private HashMap m_NRSfields = new HashMap();
+  /** Set while the message was obtained from the {@link MessagePool}
+   * and hasn't been returned to it */
+  boolean m_pooled = false;
 
-  /** Type of this message type */
-  private String m_type;
+  /** Set if the message must not be returned to the {@link
+   * MessagePool}, see {@link #retain()} */
+  boolean m_retained = false;
 
-  /** Auxillarly fields */
-  private AuxillaryInfo m_aux = new AuxillaryInfo();
+  /** Set while the message is being sent to several destinations, see
+   * {@link #setFanOut(boolean)} */
+  private boolean m_fanOut = false;
+
+  /** PML of the fields in the PML namespace, kept while {@link
+   * #m_fanOut} is set and the fields are unchanged */
+  private byte[] m_pmlBody = null;
+
+  /** BMF of the message segments, kept likewise */
+  private byte[] m_bmfBody = null;
+
+  /** Undecoded BMF following the route of a message which is passing
+   * through this component, see {@link #setRawBMF(byte[])} */
+  private byte[] m_rawBMF = null;
 
 
   //----------------------------------------------------------------------
@@ -249,6 +258,35 @@ public class Message
     m_type = type;
   }
   //----------------------------------------------------------------------
+  /**
+   * Constructor for a typed message, whose default fields are laid out
+   * according to <tt>schema</tt>. A schema with more than 64 segments
+   * gives an untyped message.
+   *
+   * @param schema the layout of messages of this type
+   */
+  public Message(MessageSchema schema)
+  {
+    m_type = schema.getType();
+
+    int count = schema.getSegmentCount();
+    if (count <= 64)
+    {
+      m_schema = schema;
+      m_num = new double[count];
+      m_text = new String[count];
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the layout of the typed fields of this message, or
+   * <tt>null</tt> if the message is untyped
+   */
+  public MessageSchema getSchema()
+  {
+    return m_schema;
+  }
+  //----------------------------------------------------------------------
   /**
    * Provide a PML representation of the current message.
    *
@@ -268,212 +306,262 @@ public class Message
   public void getPML(ByteArrayOutputStream buf, boolean appendNull)
     throws UnsupportedEncodingException, IOException
   {
-    appendString("<", buf);
-    appendString(m_type,buf);
-    appendNamespace(buf);
-    getFieldsInPML(buf);
-    appendString(" />", buf);
+    PMLWriter w = PMLWriter.local();
+
+    getPML(w);
+    if (appendNull) w.terminate();
 
-    if (appendNull) appendMessageTerminator(buf);
+    w.writeTo(buf);
   }
   //----------------------------------------------------------------------
   /**
-   * Appends to a PML buffer the "xmlns" and "xmlns:nrsa"
-   * attributes. Spaces are added before and after the appended text.
-   *
-   * @throws IOException if an IO error occurs
+   * Write the PML representation of the current message, without a
+   * message terminator, into a {@link PMLWriter}.
    */
-  protected void appendNamespace(ByteArrayOutputStream pmlBuf)
-    throws IOException
+  public void getPML(PMLWriter w)
   {
-    NAMESPACE.writeTo(pmlBuf);
+    w.beginElement(m_type);
+    getFieldsInPML(w);
+    w.endElement();
   }
-//   //----------------------------------------------------------------------
-//   /**
-//    * Tells whether this is an intelligent message. An intelligent
-//    * message is one that contains at least one intelligent field.
-//    *
-//    * @return <tt>true</tt> if the message is intelligent, <tt>false</tt>
-//    * otherwise
-//    */
-//   public boolean isIntelligent()
-//   {
-//     return false;
-//   }
   //----------------------------------------------------------------------
   /**
-   * Append a fixed string sequence to the PML message being construced.
-   *
-   * @throws UnsupportedEncodingException if the data can't be decoded
-   * into a byte a sequence, according to the character code set
-   * described by {@link #ENCODING}.
+   * Encode message fields, first those in the NRS-Attribute namespace
+   * and then those in the PML namespace.
    */
-  protected void appendString(String s,
-                              ByteArrayOutputStream pmlBuf)
-    throws UnsupportedEncodingException
+  protected void getFieldsInPML(PMLWriter w)
   {
-    byte[] sBuf = s.getBytes(ENCODING);
+    for (Iterator i = m_NRSfields.entrySet().iterator(); i.hasNext(); )
+    {
+      Map.Entry e = (Map.Entry) i.next();
+      w.nrsAttribute((String) e.getKey(), checkValue(e));
+    }
+
+    if (m_pmlBody != null)
+    {
+      w.append(m_pmlBody);
+      return;
+    }
+
+    int start = w.length();
+
+    for (int i = 0; i < slotCount(); i++)
+    {
+      if (!present(i)) continue;
+
+      String name = m_schema.getSegmentName(i);
+
+      if (m_text[i] != null)
+      {
+        w.attribute(name, m_text[i]);
+        continue;
+      }
+
+      switch (m_schema.getSegmentType(i))
+      {
+        case MessageSchema.FLOAT:
+          w.attribute(name, m_num[i]);
+          break;
+        case MessageSchema.INTEGER:
+          w.attribute(name, (int) m_num[i]);
+          break;
+        default:
+          w.attribute(name, m_num[i] != 0);
+      }
+    }
 
-    pmlBuf.write(sBuf, 0, sBuf.length);
+    for (Iterator i = m_fields.entrySet().iterator(); i.hasNext(); )
+    {
+      Map.Entry e = (Map.Entry) i.next();
+      w.attribute((String) e.getKey(), checkValue(e));
+    }
+
+    if (m_fanOut) m_pmlBody = w.toByteArray(start);
   }
   //----------------------------------------------------------------------
   /**
-   * Append an XML URI & attribute and value to a PML messge being
-   * constructed. Spaces are added before the appended text.
-   *
-   * @param attributeQualifier the namespace to attach before outputing
-   * the attribute name. It should not include the ":" delimator.
-   *
-   * @param name the name of the attribute
-   *
-   * @param value the value of the attribute
-   *
-   * @param pmlBuf the buffer into which the byte representation of the
-   * attribute entry will be written
-   *
-   * @throws UnsupportedEncodingException if the data can't be decoded
-   * into a byte a sequence, according to the character code set
-   * described by {@link #ENCODING}.
+   * Return the value of a field entry, substituting an empty string
+   * for <tt>null</tt>.
    */
-  protected void appendAttribute(String attributeQualifier,
-                                 Object name,
-                                 Object value,
-                                 ByteArrayOutputStream pmlBuf)
-    throws UnsupportedEncodingException
+  private static String checkValue(Map.Entry e)
   {
-    byte[] qual = attributeQualifier.getBytes(ENCODING);
-    byte[] nameBuf = name.toString().getBytes(ENCODING);
-    byte[] valueBuf = value.toString().getBytes(ENCODING);
+    Object value = e.getValue();
 
-    pmlBuf.write(SPACE, 0, 1);
-    pmlBuf.write(qual, 0, qual.length);
-    pmlBuf.write(ATTR_QUAL_DELIM, 0, 1);
-    pmlBuf.write(nameBuf, 0, nameBuf.length);
-    pmlBuf.write(NAME_VALUE_DELIM, 0, 2);
-    pmlBuf.write(valueBuf, 0, valueBuf.length);
-    pmlBuf.write(NAME_VALUE_TERM, 0, 1);
+    if (value == null)
+    {
+      PackageLogger.log.warning("Field " + e.getKey() + " has null value;"
+                                +" providing an empty string");
+      return "";
+    }
+    return value.toString();
   }
   //----------------------------------------------------------------------
   /**
-   * Append an XML attribute and value to a PML messge being
-   * constructed. Spaces are added before the appended text.
-   *
-   * @param name the name of the attribute
+   * Removes all message fields and resets the {@link AuxillaryInfo}.
+   * The message type is unchanged.
+   */
+  public void clear()
+  {
+    m_fields.clear();
+    m_NRSfields.clear();
+    m_aux.reset();
+    m_toVNID = UNPARSED;
+    m_targeted = false;
+    m_fanOut = false;
+    m_rawBMF = null;
+    changed();
+
+    if (m_schema != null)
+    {
+      m_present = 0;
+      Arrays.fill(m_text, null);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Prevent this message from being recycled once it has been
+   * processed. Code that receives messages from a pipeline which
+   * recycles them (see {@link Pipeline#setRecycling(boolean)}) must
+   * call this if it keeps a reference to the message, or any of its
+   * parts, after returning.
+   */
+  public void retain()
+  {
+    m_retained = true;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Mark the message as being sent to several destinations, such as
+   * over each port for a broadcast, or over each link of a variable,
+   * with only its fields in the NRS-Attribute namespace (the route and
+   * target) changed between sends. While set, the encoded fields of the
+   * PML namespace are kept after the first send, and later sends copy
+   * them rather than encoding the fields again. Changing any of those
+   * fields discards the kept encoding.
    *
-   * @param value the value of the attribute
+   * <p>Clearing the mark discards the kept encoding.
+   */
+  public void setFanOut(boolean fanOut)
+  {
+    m_fanOut = fanOut;
+    if (!fanOut) changed();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> while the message is marked as being sent to
+   * several destinations
    *
-   * @param pmlBuf the buffer into which the byte representation of the
-   * attribute entry will be written
+   * @see #setFanOut(boolean)
+   */
+  public boolean isFanOut()
+  {
+    return m_fanOut;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Remove all fields in the NRS-Attribute namespace, so that the
+   * message can be given the route and target of another destination,
+   * and reset the {@link AuxillaryInfo}. The fields in the PML
+   * namespace, and any encoding of them kept for a fan-out, are
+   * unchanged.
+   */
+  public void clearNRSFields()
+  {
+    m_NRSfields.clear();
+    m_aux.reset();
+    m_toVNID = UNPARSED;
+    m_targeted = false;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the BMF encoding of the message segments kept for a fan-out,
+   * or <tt>null</tt> if there is none. For use by the BMF encoder.
    *
-   * @throws UnsupportedEncodingException if the data can't be decoded
-   * into a byte a sequence, according to the character code set
-   * described by {@link #ENCODING}.
+   * @see #setFanOut(boolean)
    */
-  protected void appendAttribute(Object name,
-                                 Object value,
-                                 ByteArrayOutputStream pmlBuf)
-    throws UnsupportedEncodingException
+  public byte[] getBMFBody()
   {
-    byte[] nameBuf = name.toString().getBytes(ENCODING);
-    byte[] valueBuf = value.toString().getBytes(ENCODING);
-
-    pmlBuf.write(SPACE, 0, 1);
-    pmlBuf.write(nameBuf, 0, nameBuf.length);
-    pmlBuf.write(NAME_VALUE_DELIM, 0, 2);
-    pmlBuf.write(valueBuf, 0, valueBuf.length);
-    pmlBuf.write(NAME_VALUE_TERM, 0, 1);
+    return m_bmfBody;
   }
   //----------------------------------------------------------------------
   /**
-   * Append an XML attribute and value to a PML messge being
-   * constructed. Spaces are added before the appended text.
+   * Keep the BMF encoding of the message segments, if the message is
+   * marked as being sent to several destinations. For use by the BMF
+   * encoder.
    *
-   * @throws UnsupportedEncodingException if the data can't be decoded
-   * into a byte a sequence, according to the character code set
-   * described by {@link #ENCODING}.
+   * @see #setFanOut(boolean)
    */
-  protected void appendAttribute(String name,
-                                 String value,
-                                 ByteArrayOutputStream pmlBuf)
-    throws UnsupportedEncodingException
+  public void setBMFBody(byte[] body)
   {
-    byte[] nameBuf = name.getBytes(ENCODING);
-    byte[] valueBuf = value.getBytes(ENCODING);
-
-    pmlBuf.write(SPACE, 0, 1);
-    pmlBuf.write(nameBuf, 0, nameBuf.length);
-    pmlBuf.write(NAME_VALUE_DELIM, 0, 2);
-    pmlBuf.write(valueBuf, 0, valueBuf.length);
-    pmlBuf.write(NAME_VALUE_TERM, 0, 1);
+    if (m_fanOut) m_bmfBody = body;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Keep the BMF of a message which is only passing through this
+   * component: the bytes following its route, from the <tt>toVNID</tt>
+   * segment to the end of its message segments, which can't be decoded
+   * since the message is addressed to a variable of another
+   * component. The BMF encoder sends these bytes on as they are, after
+   * the intelligent header and route of this message. Such a message
+   * can't be sent in PML.
+   */
+  public void setRawBMF(byte[] raw)
+  {
+    m_rawBMF = raw;
   }
   //----------------------------------------------------------------------
   /**
-   * Append the message terminator character to a completed message
+   * Return the undecoded BMF of a message passing through this
+   * component, or <tt>null</tt> if the message was decoded
    *
-   * @throws IOException if there was a problem writing to the {@link
-   * ByteArrayOutputStream}
+   * @see #setRawBMF(byte[])
+   */
+  public byte[] getRawBMF()
+  {
+    return m_rawBMF;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Discard the encodings kept for a fan-out, since the fields they
+   * hold have changed
    */
-  protected void appendMessageTerminator(ByteArrayOutputStream pmlBuf)
+  private void changed()
   {
-    pmlBuf.write(MESSAGE_TERM, 0, 1);
+    m_pmlBody = null;
+    m_bmfBody = null;
   }
   //----------------------------------------------------------------------
   /**
-   * Encode message fields in NRSA
+   * Prepare a message taken from the {@link MessagePool} for use as a
+   * new message.
    *
-   * @throws UnsupportedEncodingException if the data can't be decoded
-   * into a byte a sequence, according to the character code set
-   * described by {@link #ENCODING}.
+   * @param schema the layout of the new message, or <tt>null</tt> for
+   * an untyped message
    */
-  protected void getFieldsInPML(ByteArrayOutputStream pmlBuf)
-    throws UnsupportedEncodingException
+  void reuse(String type, MessageSchema schema)
   {
-    // First add NRS-Attribute namespace fields
-    Iterator keys = m_NRSfields.keySet().iterator();
-    Iterator values = m_NRSfields.values().iterator();
+    clear();
 
-    while (keys.hasNext())
+    if (schema == null || schema.getSegmentCount() > 64)
     {
-      Object name = Constants.Namespace.NRSA_qualifier + ":" + keys.next();
-      Object value = values.next();
-
-      if (value == null)
-      {
-        PackageLogger.log.warning("Field " + name + " has null value;"
-                                  +" providing an empty string");
-        value = new String();
-      }
-      appendAttribute(name, value, pmlBuf);
+      m_schema = null;
+      m_num = null;
+      m_text = null;
     }
-
-    // Second, add PML namespace fields
-    keys = m_fields.keySet().iterator();
-    values = m_fields.values().iterator();
-
-    while (keys.hasNext())
+    else if (schema != m_schema)
     {
-      Object name = keys.next();
-      Object value = values.next();
-
-      if (value == null)
+      int count = schema.getSegmentCount();
+      if (m_num == null || m_num.length != count)
       {
-        PackageLogger.log.warning("Field " + name + " has null value;"
-                                  +" providing an empty string");
-        value = new String();
+        m_num = new double[count];
+        m_text = new String[count];
       }
-      appendAttribute(name, value, pmlBuf);
+      m_schema = schema;
+      m_present = 0;
     }
-  }
-  //----------------------------------------------------------------------
-  /**
-   * Removes all message fields and removes any {@link AuxillaryInfo},
-   * replacing it with a new instance.
-   */
-  public void clear()
-  {
-    m_fields.clear();
-    m_NRSfields.clear();
-    m_aux = new AuxillaryInfo();
+
+    m_type = type;
+    m_retained = false;
   }
   //----------------------------------------------------------------------
   /**
@@ -490,6 +578,83 @@ public class Message
   public void setNRSField(String fieldname, String value)
   {
     m_NRSfields.put(fieldname, value);
+
+    if (fieldname.equals(Constants.MessageFields.toVNID))
+    {
+      m_toVNID = UNPARSED;
+    }
+    else if (fieldname.equals(Constants.MessageFields.iTargetVNName))
+    {
+      m_targeted = true;
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Set the <tt>toVNID</tt> field in the NRS-Attribute namespace. This
+   * is equivalent to setting the field to the decimal text of
+   * <tt>vnid</tt>, but {@link #getToVNID()} then needs no parsing.
+   */
+  public void setToVNID(int vnid)
+  {
+    setToVNID(vnid, Integer.toString(vnid));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Set the <tt>toVNID</tt> field, where the caller already holds its
+   * text, <tt>text</tt>, which must be the decimal text of
+   * <tt>vnid</tt>
+   */
+  void setToVNID(int vnid, String text)
+  {
+    m_NRSfields.put(Constants.MessageFields.toVNID, text);
+    m_toVNID = vnid;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the <tt>toVNID</tt> field of the NRS-Attribute namespace as a
+   * number. The field is parsed at most once.
+   *
+   * @return the VNID, or 0 if the field is absent, or -1 if it is not a
+   * non-negative decimal number
+   */
+  public int getToVNID()
+  {
+    if (m_toVNID == UNPARSED)
+    {
+      m_toVNID = parseVNID(getNRSField(Constants.MessageFields.toVNID));
+    }
+    return m_toVNID;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> if the <tt>iTargetVNName</tt> field is
+   * present, without a lookup
+   */
+  boolean isTargeted()
+  {
+    return m_targeted;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Parse a VNID without the exception and allocation costs of
+   * <tt>Integer.parseInt</tt>; see {@link #getToVNID()} for the values
+   * returned.
+   */
+  private static int parseVNID(String s)
+  {
+    if (s == null) return 0;
+
+    int len = s.length();
+    if (len == 0 || len > 10) return -1;
+
+    long v = 0;
+    for (int i = 0; i < len; i++)
+    {
+      int d = s.charAt(i) - '0';
+      if (d < 0 || d > 9) return -1;
+      v = v * 10 + d;
+    }
+    return (v > Integer.MAX_VALUE) ? -1 : (int) v;
   }
   //----------------------------------------------------------------------
   /**
@@ -505,7 +670,72 @@ public class Message
    */
   public void setField(String fieldname, String value)
   {
-    m_fields.put(fieldname, value);
+    int i = slot(fieldname);
+    changed();
+
+    if (i < 0 || value == null)
+    {
+      if (i >= 0) m_present &= ~(1L << i);
+      m_fields.put(fieldname, value);
+      return;
+    }
+
+    m_text[i] = value;
+    m_present |= 1L << i;
+    m_fields.remove(fieldname);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Enter a floating point field into the (default) PML namespace. If
+   * the message is typed and the field is a float segment, the value is
+   * held without conversion to text.
+   */
+  public void setField(String fieldname, double value)
+  {
+    if (!setPrimitive(fieldname, MessageSchema.FLOAT, value))
+      setField(fieldname, Double.toString(value));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Enter an integer field into the (default) PML namespace. If the
+   * message is typed and the field is an integer segment, the value is
+   * held without conversion to text.
+   */
+  public void setField(String fieldname, int value)
+  {
+    if (!setPrimitive(fieldname, MessageSchema.INTEGER, value))
+      setField(fieldname, Integer.toString(value));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Enter a boolean field into the (default) PML namespace. If the
+   * message is typed and the field is a boolean segment, the value is
+   * held without conversion to text.
+   */
+  public void setField(String fieldname, boolean value)
+  {
+    if (!setPrimitive(fieldname, MessageSchema.BOOLEAN, value ? 1 : 0))
+      setField(fieldname, value ? MessageTools.TRUE : MessageTools.FALSE);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Store a value in the typed slot for <tt>fieldname</tt>, if there is
+   * one and it has basic type <tt>type</tt>.
+   *
+   * @return <tt>false</tt> if the value was not stored
+   */
+  private boolean setPrimitive(String fieldname, int type, double value)
+  {
+    int i = slot(fieldname);
+    if (i < 0 || m_schema.getSegmentType(i) != type) return false;
+
+    changed();
+    m_num[i] = value;
+    m_text[i] = null;
+    m_present |= 1L << i;
+    m_fields.remove(fieldname);
+
+    return true;
   }
   //----------------------------------------------------------------------
   /**
@@ -516,9 +746,140 @@ public class Message
    */
   public String getField(String fieldname)
   {
+    int i = slot(fieldname);
+    if (i >= 0 && present(i)) return slotText(i);
+
     return (String) m_fields.get(fieldname);
   }
   //----------------------------------------------------------------------
+  /**
+   * Returns the value of a floating point field in the (default) PML
+   * namespace. A value held as a primitive is returned directly, and
+   * otherwise the field's text is parsed.
+   *
+   * @throws FieldNotFoundException if the field is not found, or has a
+   * <tt>null</tt> value
+   *
+   * @throws NumberFormatException if the field is not a number
+   */
+  public double getDouble(String fieldname) throws FieldNotFoundException
+  {
+    int i = slot(fieldname);
+    if (i >= 0 && present(i) && m_text[i] == null) return m_num[i];
+
+    return Double.parseDouble(fieldText(fieldname));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Returns the value of an integer field in the (default) PML
+   * namespace. A value held as a primitive is returned directly, and
+   * otherwise the field's text is parsed.
+   *
+   * @throws FieldNotFoundException if the field is not found, or has a
+   * <tt>null</tt> value
+   *
+   * @throws NumberFormatException if the field is not an integer
+   */
+  public int getInt(String fieldname) throws FieldNotFoundException
+  {
+    int i = slot(fieldname);
+    if (i >= 0 && present(i) && m_text[i] == null) return (int) m_num[i];
+
+    return Integer.parseInt(fieldText(fieldname).trim());
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Returns the value of a boolean field in the (default) PML
+   * namespace. A value held as a primitive is returned directly, and
+   * otherwise the field is <tt>true</tt> if its text is <tt>true</tt>,
+   * ignoring case.
+   *
+   * @throws FieldNotFoundException if the field is not found, or has a
+   * <tt>null</tt> value
+   */
+  public boolean getBoolean(String fieldname) throws FieldNotFoundException
+  {
+    int i = slot(fieldname);
+    if (i >= 0 && present(i) && m_text[i] == null) return m_num[i] != 0;
+
+    return Boolean.valueOf(fieldText(fieldname).trim()).booleanValue();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the text of a field, treating a <tt>null</tt> value as
+   * missing
+   */
+  private String fieldText(String fieldname) throws FieldNotFoundException
+  {
+    String value = getField(fieldname);
+    if (value == null) throw new FieldNotFoundException(fieldname);
+
+    return value;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the typed slot of <tt>fieldname</tt>, or -1 if it has none
+   */
+  private int slot(String fieldname)
+  {
+    return m_schema == null ? -1 : m_schema.indexOf(fieldname);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of typed slots, which is zero for an untyped
+   * message
+   */
+  private int slotCount()
+  {
+    return m_schema == null ? 0 : m_num.length;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return whether typed slot <tt>i</tt> holds a value
+   */
+  private boolean present(int i)
+  {
+    return (m_present & (1L << i)) != 0;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the value of typed slot <tt>i</tt>, which must be present,
+   * as text
+   */
+  private String slotText(int i)
+  {
+    if (m_text[i] != null) return m_text[i];
+
+    switch (m_schema.getSegmentType(i))
+    {
+      case MessageSchema.FLOAT:
+        return Double.toString(m_num[i]);
+      case MessageSchema.INTEGER:
+        return Integer.toString((int) m_num[i]);
+      default:
+        return m_num[i] != 0 ? MessageTools.TRUE : MessageTools.FALSE;
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Turn a typed message into an untyped one, moving the values of the
+   * typed fields into {@link #m_fields}
+   */
+  private void untype()
+  {
+    changed();
+
+    for (int i = 0; i < m_num.length; i++)
+    {
+      if (present(i)) m_fields.put(m_schema.getSegmentName(i), slotText(i));
+    }
+
+    m_schema = null;
+    m_num = null;
+    m_text = null;
+    m_present = 0;
+  }
+  //----------------------------------------------------------------------
   /**
    * Returns the value of the field in the NRS-Attribute namespace, or
    * <tt>null</tt> if the field is not found.
@@ -539,6 +900,9 @@ public class Message
    */
   public boolean hasField(String fieldname)
   {
+    int i = slot(fieldname);
+    if (i >= 0 && present(i)) return true;
+
     return m_fields.containsKey(fieldname);
   }
   //----------------------------------------------------------------------
@@ -555,10 +919,13 @@ public class Message
   }
   //----------------------------------------------------------------------
   /**
-   * Set the message type
+   * Set the message type. A typed message of a different type becomes
+   * untyped.
    */
   public void setType(String type)
   {
+    if (m_schema != null && !m_schema.getType().equals(type)) untype();
+
     m_type = type;
   }
   //----------------------------------------------------------------------
@@ -586,7 +953,7 @@ public class Message
       sb.append("<" + m_type);
     }
 
-    sb.append(NAMESPACE);
+    sb.append(PMLWriter.NAMESPACE);
 
     Iterator keys = m_NRSfields.keySet().iterator();
     Iterator values = m_NRSfields.values().iterator();
@@ -602,6 +969,17 @@ public class Message
       sb.append("'");
     }
 
+    for (int i = 0; i < slotCount(); i++)
+    {
+      if (!present(i)) continue;
+
+      sb.append(" ");
+      sb.append(m_schema.getSegmentName(i));
+      sb.append("='");
+      sb.append(slotText(i));
+      sb.append("'");
+    }
+
     keys = m_fields.keySet().iterator();
     values = m_fields.values().iterator();
 
@@ -682,8 +1060,8 @@ public class Message
         //hasField(nrs.core.message.Constants.MessageFields.msgID)
       if (query.hasField(nrs.core.message.Constants.MessageFields.msgID))
     {
-      m_fields.put(nrs.core.message.Constants.MessageFields.replyMsgID,
-                   query.getField(nrs.core.message.Constants.MessageFields.msgID));
+      setField(nrs.core.message.Constants.MessageFields.replyMsgID,
+               query.getField(nrs.core.message.Constants.MessageFields.msgID));
     }
     else
     {
@@ -692,7 +1070,7 @@ public class Message
                                 + ": setting empty "
                                 + nrs.core.message.Constants.MessageFields.replyMsgID);
 
-      m_fields.put(nrs.core.message.Constants.MessageFields.replyMsgID, "");
+      setField(nrs.core.message.Constants.MessageFields.replyMsgID, "");
     }
   }
   //----------------------------------------------------------------------
@@ -707,12 +1085,12 @@ public class Message
    */
   public String checkField(String fieldname) throws FieldNotFoundException
   {
-    if (!m_fields.containsKey(fieldname))
+    if (!hasField(fieldname))
     {
       throw new FieldNotFoundException(fieldname);
     }
 
-    return (String) m_fields.get(fieldname);
+    return getField(fieldname);
   }
   //----------------------------------------------------------------------
   /**
@@ -789,41 +1167,103 @@ public class Message
       h.put(name, value);
     }
 
+    // typed fields
+    for (int i = 0; i < slotCount(); i++)
+    {
+      if (present(i)) h.put(m_schema.getSegmentName(i), slotText(i));
+    }
+
     return h;
   }
   //----------------------------------------------------------------------
   /**
    * Return a HashMap of all the genuine data fields (i.e. ones that are
-   * not part of the messaging protocal).
+   * not part of the messaging protocol).
    *
-   * NOTE: this is a hack!
+   * @see #getPayloadCount()
+   * @see #getPayloadField()
    */
   public HashMap<String, String> getPayload()
   {
-    HashMap retVal = getFields();
+    HashMap<String, String> retVal = new HashMap<String, String>();
+
+    for (int k = 0; k < payloadSlots(); k++)
+    {
+      int i = m_schema.getPayloadSegment(k);
+      if (present(i)) retVal.put(m_schema.getSegmentName(i), slotText(i));
+    }
+
+    for (Iterator i = m_fields.entrySet().iterator(); i.hasNext(); )
+    {
+      Map.Entry e = (Map.Entry) i.next();
+      String name = (String) e.getKey();
+
+      if (!MessageSchema.isProtocolField(name))
+        retVal.put(name, e.getValue() == null ? "" : (String) e.getValue());
+    }
+
+    return retVal;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of genuine data fields (i.e. ones that are not
+   * part of the messaging protocol), without building a map of them.
+   * For a typed message, the payload segments of its schema are known
+   * in advance, so only those are examined.
+   */
+  public int getPayloadCount()
+  {
+    int n = 0;
 
-    try
+    for (int k = 0; k < payloadSlots(); k++)
     {
-      Class c = Class.forName("nrs.core.message.Constants$Fields");
-     
-      Field fields[] = c.getFields();
+      if (present(m_schema.getPayloadSegment(k))) n++;
+    }
 
-      for (int i = 0; i < fields.length; i++)
+    if (!m_fields.isEmpty())
+    {
+      for (Iterator i = m_fields.keySet().iterator(); i.hasNext(); )
       {
-        retVal.remove(fields[i].get(null).toString());
+        if (!MessageSchema.isProtocolField((String) i.next())) n++;
       }
     }
-    catch (ClassNotFoundException cnde)
+
+    return n;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the name of a genuine data field (i.e. one that is not part
+   * of the messaging protocol), or <tt>null</tt> if there is none. Used
+   * with {@link #getPayloadCount()} to find the value of a message
+   * carrying a single value, which can then be read with the typed
+   * getters, such as {@link #getDouble(String)}.
+   */
+  public String getPayloadField()
+  {
+    for (int k = 0; k < payloadSlots(); k++)
     {
-      PackageLogger.log.severe("Java reporting the nrs.core.message.Constants.Fields class is not found! This is an important base class. If it has gone missing, this is likely because of a recent redesign, in which case the getPayload() method in Message.java also needs updating");
-      cnde.printStackTrace();
+      int i = m_schema.getPayloadSegment(k);
+      if (present(i)) return m_schema.getSegmentName(i);
     }
-    catch (IllegalAccessException iae)
+
+    if (!m_fields.isEmpty())
     {
-      PackageLogger.log.severe("Java reporting the nrs.core.message.Constants.Fields class is reporting illegal access! This is an important base class. If it has gone missing, this is likely because of a recent redesign, in which case the getPayload() method in Message.java also needs updating");
-      iae.printStackTrace();
+      for (Iterator i = m_fields.keySet().iterator(); i.hasNext(); )
+      {
+        String name = (String) i.next();
+        if (!MessageSchema.isProtocolField(name)) return name;
+      }
     }
 
-    return retVal;
+    return null;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of payload segments of the schema, which is zero
+   * for an untyped message
+   */
+  private int payloadSlots()
+  {
+    return m_schema == null ? 0 : m_schema.getPayloadCount();
   }
 }
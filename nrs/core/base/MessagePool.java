@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+import java.util.ArrayDeque;
+import nrs.core.message.MessageSchema;
+
+/**
+ * Free list of {@link Message} objects, so that received messages can
+ * be recycled rather than reallocated.
+ *
+ * <p>The message parsers take their messages from here. Messages only
+ * come back once they have been fully processed, by a pipeline which
+ * has recycling enabled (see {@link Pipeline#setRecycling(boolean)});
+ * otherwise the pool stays empty and {@link #obtain(String)} behaves
+ * just like <tt>new Message(type)</tt>. Only messages which came from
+ * the pool, and which haven't been marked with {@link Message#retain()},
+ * are accepted back.
+ *
+ * <p>Each thread has its own free list, so no locking is needed; since
+ * a message is normally parsed and processed by the same thread, it is
+ * also normally reused by that thread.
+ */
+public final class MessagePool
+{
+  /** Maximum number of free messages held for each thread */
+  private static final int MAX_FREE = 64;
+
+  /** Free messages of each thread */
+  private static final ThreadLocal<ArrayDeque<Message>> m_free
+    = new ThreadLocal<ArrayDeque<Message>>()
+    {
+      protected ArrayDeque<Message> initialValue()
+      {
+        return new ArrayDeque<Message>();
+      }
+    };
+
+  //----------------------------------------------------------------------
+  private MessagePool()
+  {
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return an empty, untyped message of type <tt>type</tt>, reusing a
+   * free message if there is one.
+   */
+  public static Message obtain(String type)
+  {
+    return obtain(type, null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return an empty message typed according to <tt>schema</tt>, reusing
+   * a free message if there is one.
+   */
+  public static Message obtain(MessageSchema schema)
+  {
+    return obtain(schema.getType(), schema);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return a message to the pool, once nothing refers to it. Messages
+   * which didn't come from the pool, or which have been retained, are
+   * ignored.
+   */
+  public static void release(Message m)
+  {
+    if (!m.m_pooled || m.m_retained) return;
+
+    m.m_pooled = false;
+
+    ArrayDeque<Message> free = m_free.get();
+    if (free.size() < MAX_FREE) free.push(m);
+  }
+  //----------------------------------------------------------------------
+  private static Message obtain(String type, MessageSchema schema)
+  {
+    Message m = m_free.get().poll();
+
+    if (m == null)
+    {
+      m = (schema == null) ? new Message(type) : new Message(schema);
+    }
+    else
+    {
+      m.reuse(type, schema);
+    }
+
+    m.m_pooled = true;
+    return m;
+  }
+}
@@ -222,26 +222,17 @@ public class MessageTools
    */
   static public boolean fixToVNID(Message m, String toVNName)
   {
-    int toVNID = 0;
+    int toVNID = m.getToVNID();
 
-    String toVNIDStr = m.getNRSField(Constants.MessageFields.toVNID);
-    if (toVNIDStr != null)
+    if (toVNID < 0)
     {
-      try
-      {
-        toVNID =
-          Integer.parseInt(toVNIDStr);
-      }
-      catch (NumberFormatException e)
-      {
-        PackageLogger.log.warning(Constants.MessageFields.toVNID
-                                  + " field in"
-                                  + " " + m + " is not numeric: fixing");
-      }
+      PackageLogger.log.warning(Constants.MessageFields.toVNID
+                                + " field in"
+                                + " " + m + " is not numeric: fixing");
     }
 
     // If a toVNID was found and parsed, then no fix needed
-    if (toVNID != 0) return false;
+    if (toVNID > 0) return false;
 
     // ...othwerwise, add intelligent fields, and toVNID to ensure it's there
     m.setNRSField(Constants.MessageFields.toVNID, "0");
@@ -60,7 +60,9 @@ public class OutboundMessageCache
   }
   //----------------------------------------------------------------------
   /**
-   * Add the {@link Message} to the cache.
+   * Add the {@link Message} to the cache. The message is marked as
+   * retained (see {@link Message#retain()}), since it is kept until its
+   * reply arrives.
    */
   public void add(Message m)
   {
@@ -83,6 +85,7 @@ public class OutboundMessageCache
      }
      
      ensureCapacity(index+1);
+     m.retain();
      m_cache[index] = m;
     
      PackageLogger.log.finest("Caching message " + m + " @ " + index);
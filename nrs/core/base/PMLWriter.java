@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import nrs.core.message.Constants;
+
+/**
+ * Builds the PML representation of a message directly into a reusable
+ * byte buffer.
+ *
+ * <p>The fixed parts of each attribute (the leading space, optional
+ * <tt>nrsa:</tt> qualifier, name and the <tt>='</tt> delimiter) and of
+ * each element opening (<tt>&lt;Type</tt> plus the namespace
+ * declarations) are encoded once and cached, since the set of field
+ * names and message types in use is small. Values are copied character
+ * by character, and numeric values are formatted through a reused
+ * {@link StringBuilder}, so that building a message normally performs
+ * no allocation.
+ *
+ * <p>Instances are not thread safe; use {@link #local()} to obtain the
+ * instance belonging to the calling thread.
+ *
+ * <p>As with {@link Message#ENCODING}, output is 7-bit ASCII; other
+ * characters are replaced with '?'.
+ */
+public final class PMLWriter
+{
+  /** Initial size of the buffer */
+  private static final int DEFAULT_SIZE = 512;
+
+  /** Upper limit on the number of cached names, to bound memory use
+   * should a component invent field names on the fly */
+  private static final int MAX_CACHED = 4096;
+
+  /** Cached encodings of <tt>' name='</tt> */
+  private static final ConcurrentHashMap<String, byte[]> m_attrCache
+    = new ConcurrentHashMap<String, byte[]>();
+
+  /** Cached encodings of <tt>' nrsa:name='</tt> */
+  private static final ConcurrentHashMap<String, byte[]> m_nrsAttrCache
+    = new ConcurrentHashMap<String, byte[]>();
+
+  /** Cached encodings of <tt>'&lt;Type xmlns:nrsa=.. xmlns=..'</tt> */
+  private static final ConcurrentHashMap<String, byte[]> m_elementCache
+    = new ConcurrentHashMap<String, byte[]>();
+
+  /** Namespace declarations inserted into each element */
+  static final String NAMESPACE
+    = " xmlns:nrsa='" + Constants.Namespace.NRSA + "'"
+    + " xmlns='" + Constants.Namespace.NRS_PML + "'";
+
+  /** Closing of an element, and of an attribute value */
+  private static final byte[] ELEMENT_END = {32, 47, 62};
+  private static final byte QUOTE = 39;
+
+  /** One instance per thread */
+  private static final ThreadLocal<PMLWriter> m_local
+    = new ThreadLocal<PMLWriter>()
+    {
+      protected PMLWriter initialValue()
+      {
+        return new PMLWriter();
+      }
+    };
+
+  /** Holds the message being built */
+  private byte[] m_buf = new byte[DEFAULT_SIZE];
+
+  /** Number of valid bytes in {@link #m_buf} */
+  private int m_len;
+
+  /** Used for formatting numbers */
+  private final StringBuilder m_num = new StringBuilder(32);
+
+  //----------------------------------------------------------------------
+  /**
+   * Return the {@link PMLWriter} belonging to the calling thread. The
+   * writer is reset before it is returned.
+   */
+  public static PMLWriter local()
+  {
+    PMLWriter w = m_local.get();
+    w.reset();
+    return w;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Discard any content, ready to build a new message
+   */
+  public void reset()
+  {
+    m_len = 0;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Start a message element of the given type, including the namespace
+   * declarations.
+   */
+  public void beginElement(String type)
+  {
+    byte[] b = m_elementCache.get(type);
+    if (b == null)
+    {
+      b = encode("<" + type + NAMESPACE);
+      cache(m_elementCache, type, b);
+    }
+    write(b);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Close a message element started with {@link #beginElement(String)}
+   */
+  public void endElement()
+  {
+    write(ELEMENT_END);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append the null character that terminates a message
+   */
+  public void terminate()
+  {
+    ensure(1);
+    m_buf[m_len++] = 0;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append an attribute in the PML namespace
+   */
+  public void attribute(String name, String value)
+  {
+    attributeName(m_attrCache, name, "");
+    appendChars(value);
+    ensure(1);
+    m_buf[m_len++] = QUOTE;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append an attribute in the NRS-Attribute namespace
+   */
+  public void nrsAttribute(String name, String value)
+  {
+    attributeName(m_nrsAttrCache, name,
+                  Constants.Namespace.NRSA_qualifier + ":");
+    appendChars(value);
+    ensure(1);
+    m_buf[m_len++] = QUOTE;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append a floating point attribute in the PML namespace. The value
+   * is formatted exactly as by {@link Double#toString(double)}.
+   */
+  public void attribute(String name, double value)
+  {
+    m_num.setLength(0);
+    m_num.append(value);
+    attributeName(m_attrCache, name, "");
+    appendChars(m_num);
+    ensure(1);
+    m_buf[m_len++] = QUOTE;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append an integer attribute in the PML namespace
+   */
+  public void attribute(String name, int value)
+  {
+    m_num.setLength(0);
+    m_num.append(value);
+    attributeName(m_attrCache, name, "");
+    appendChars(m_num);
+    ensure(1);
+    m_buf[m_len++] = QUOTE;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append a boolean attribute in the PML namespace
+   */
+  public void attribute(String name, boolean value)
+  {
+    attribute(name, value ? MessageTools.TRUE : MessageTools.FALSE);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append bytes which were encoded earlier, such as by {@link
+   * #toByteArray(int)}
+   */
+  public void append(byte[] b)
+  {
+    write(b);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return a copy of the bytes written since the given length
+   *
+   * @param start the value of {@link #length()} at the start of the
+   * bytes to copy
+   */
+  public byte[] toByteArray(int start)
+  {
+    return Arrays.copyOfRange(m_buf, start, m_len);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the internal buffer. Only the first {@link #length()} bytes
+   * are valid, and the buffer is reused by later messages.
+   */
+  public byte[] getBuffer()
+  {
+    return m_buf;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of bytes written since the last reset
+   */
+  public int length()
+  {
+    return m_len;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Copy the content to a {@link ByteArrayOutputStream}, with a single
+   * bulk write.
+   */
+  public void writeTo(ByteArrayOutputStream out)
+  {
+    out.write(m_buf, 0, m_len);
+  }
+  //----------------------------------------------------------------------
+  private void attributeName(ConcurrentHashMap<String, byte[]> cache,
+                             String name, String qualifier)
+  {
+    byte[] b = cache.get(name);
+    if (b == null)
+    {
+      b = encode(" " + qualifier + name + "='");
+      cache(cache, name, b);
+    }
+    write(b);
+  }
+  //----------------------------------------------------------------------
+  private static void cache(ConcurrentHashMap<String, byte[]> cache,
+                            String key, byte[] value)
+  {
+    if (cache.size() < MAX_CACHED) cache.putIfAbsent(key, value);
+  }
+  //----------------------------------------------------------------------
+  private static byte[] encode(String s)
+  {
+    byte[] b = new byte[s.length()];
+    for (int i = 0; i < b.length; i++)
+    {
+      char c = s.charAt(i);
+      b[i] = (byte) (c < 128 ? c : '?');
+    }
+    return b;
+  }
+  //----------------------------------------------------------------------
+  private void appendChars(CharSequence s)
+  {
+    int n = s.length();
+    ensure(n);
+    for (int i = 0; i < n; i++)
+    {
+      char c = s.charAt(i);
+      m_buf[m_len++] = (byte) (c < 128 ? c : '?');
+    }
+  }
+  //----------------------------------------------------------------------
+  private void write(byte[] b)
+  {
+    ensure(b.length);
+    System.arraycopy(b, 0, m_buf, m_len, b.length);
+    m_len += b.length;
+  }
+  //----------------------------------------------------------------------
+  private void ensure(int extra)
+  {
+    if (m_len + extra > m_buf.length)
+    {
+      byte[] n = new byte[Math.max(m_buf.length * 2, m_len + extra)];
+      System.arraycopy(m_buf, 0, n, 0, m_len);
+      m_buf = n;
+    }
+  }
+}
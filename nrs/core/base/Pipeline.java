@@ -6,9 +6,30 @@ package nrs.core.base;
 */
 public class Pipeline extends MessageProcessor 
 {
+  /** Whether messages are recycled once processed */
+  private boolean m_recycle = false;
+
    /** Constructor. */
   public Pipeline(){}
 
+  //----------------------------------------------------------------------
+  /**
+   * Enable or disable the recycling of received messages through the
+   * {@link MessagePool}. When enabled, each message obtained from the
+   * pool is returned to it as soon as it has passed through the
+   * pipeline, so every {@link MessageProcessor} and {@link Variable}
+   * downstream must either finish with the message before returning,
+   * or call {@link Message#retain()}. Disabled by default.
+   *
+   * <p>The core processors which keep messages ({@link
+   * OutboundMessageCache}, {@link VariableScheduler}) retain them, but
+   * recycling is unsafe for any other component which stores messages,
+   * or passes them to another thread, without doing so.
+   */
+  public void setRecycling(boolean recycle){
+    m_recycle = recycle;
+  }
+
   //----------------------------------------------------------------------
   /**
    * Deliver a {@link Message} object for processing and/or routing.
@@ -19,17 +40,18 @@ public class Pipeline extends MessageProcessor
   public void deliver(Message m, MessageProcessor sender){
     if (m.aux().getReceivedPort() != null)
       {
-      PackageLogger.log.fine("Received " + m.diagString()
-                             + " on port:" + m.aux().getReceivedPort());
+      Log.fine(PackageLogger.log, "Received {0} on port:{1}", m,
+               m.aux().getReceivedPort());
     }
     else
       {
-      PackageLogger.log.fine("Received " + m.diagString()
-                             + " on port: NOT AVAILABLE");
+      Log.fine(PackageLogger.log, "Received {0} on port: NOT AVAILABLE", m);
     }
     
     // pass message on to next processor
     next(m);
+
+    if ( m_recycle ) MessagePool.release(m);
   }
 
 }
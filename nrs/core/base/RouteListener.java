@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+/**
+ * Receives the result of a route-discovery request made through {@link
+ * RouteManager#resolveRoute(String, RouteListener)}.
+ */
+public interface RouteListener
+{
+  /**
+   * Called once a route to a component is available, or the component
+   * can't be reached.
+   *
+   * @param CID the component whose route was requested
+   *
+   * @param route the route to the component, or <tt>null</tt> if no
+   * route was found
+   */
+  public void routeResolved(String CID, String route);
+}
@@ -1,6 +1,9 @@
 package nrs.core.base;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import nrs.core.comms.PortNumber;
 import nrs.core.message.Constants;
 import nrs.core.message.QueryRoute;
 
@@ -10,6 +13,21 @@ import nrs.core.message.QueryRoute;
  * <p>Client code can use this class to resolve a component's CID into a
  * route which can be used for addressing messages to that component.
  *
+ * <p>Routes are discovered by broadcasting a <tt>QueryRoute</tt>
+ * message. Only one such query is outstanding for a component at a
+ * time: further requests for its route while the query is waiting for
+ * a reply don't issue another, and callers which must act on the route
+ * can wait for it with {@link #resolveRoute(String, RouteListener)}.
+ * A query which receives no reply within {@link #LOOKUP_TIMEOUT}
+ * milliseconds leaves a negative entry, so no new query is made for
+ * the component for {@link #NEGATIVE_LIFETIME} milliseconds.
+ *
+ * <p>A route is refreshed, by another query, once it is {@link
+ * #ROUTE_LIFETIME} milliseconds old, in case the component at the far
+ * end has restarted elsewhere; the old route is used until the reply
+ * arrives. Routes through a port which has closed are forgotten (see
+ * {@link #removePortRoutes(String)}).
+ *
  * <p>Following construction of an instance, the following
  * post-construction configuration methods should be called to ensure
  * proper functioning :
@@ -23,7 +41,19 @@ import nrs.core.message.QueryRoute;
  */
 public class RouteManager extends MessageProcessor
 {
-  private HashMap m_table;
+  /** Milliseconds after which a route is refreshed */
+  public static final long ROUTE_LIFETIME = 300000;
+
+  /** Milliseconds to wait for the reply to a route query */
+  public static final long LOOKUP_TIMEOUT = 2000;
+
+  /** Milliseconds for which a component which didn't reply to a route
+   * query is not queried again */
+  public static final long NEGATIVE_LIFETIME = 5000;
+
+  /** Entries of the route table, keyed by CID. Accesses are
+   * synchronised on the table. */
+  private HashMap<String, Entry> m_table;
   private OutboundPipeline m_outboundPipeline;
   private Variable m_ReplyRoute;
 
@@ -33,7 +63,7 @@ public class RouteManager extends MessageProcessor
    */
   public RouteManager()
   {
-    m_table = new HashMap();
+    m_table = new HashMap<String, Entry>();
   }
   //----------------------------------------------------------------------
   /**
@@ -96,18 +126,70 @@ public class RouteManager extends MessageProcessor
    */
   public String resolveRoute(String CID, boolean remoteRequest)
   {
-    if (m_table.containsKey(CID))
+    String route;
+    boolean lookup = false;
+
+    synchronized (m_table)
     {
-      return (String) m_table.get(CID);
+      long now = System.currentTimeMillis();
+      Entry e = m_table.get(CID);
+
+      route = (e == null) ? null : e.m_route;
+
+      if (remoteRequest && needsLookup(e, now))
+      {
+        startLookup(CID, e, now);
+        lookup = true;
+      }
     }
-    else if ( remoteRequest )
+
+    if (lookup) performLookup(CID);
+
+    return route;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Resolve a route to the specified component, issuing a remote
+   * route-discovery request if the route is not known. The
+   * <tt>listener</tt> is told the route as soon as it is available:
+   * during this call if the route is already known, or once a reply is
+   * received. If the component can't be reached, it is told a
+   * <tt>null</tt> route, either when the request times out or, if a
+   * request has recently failed, during this call.
+   *
+   * @param CID identifies the component whose route is being requested
+   *
+   * @param listener told the route once it is available
+   */
+  public void resolveRoute(String CID, RouteListener listener)
+  {
+    String route;
+    boolean known;
+    boolean lookup = false;
+
+    synchronized (m_table)
     {
-      performLookup(CID);
+      long now = System.currentTimeMillis();
+      Entry e = m_table.get(CID);
+
+      if (needsLookup(e, now))
+      {
+        e = startLookup(CID, e, now);
+        lookup = true;
+      }
+
+      // an old route is used while it is refreshed
+      route = e.m_route;
+      known = (route != null || !e.m_pending);
+
+      if (!known) e.addWaiter(listener);
     }
 
-    return null;
+    if (lookup) performLookup(CID);
+
+    if (known) listener.routeResolved(CID, route);
   }
-    //----------------------------------------------------------------------
+  //----------------------------------------------------------------------
   /**
    * Remove a route entry for the specified component. One consequence
    * is that later requests for a route to a component may trigger a
@@ -115,7 +197,151 @@ public class RouteManager extends MessageProcessor
    */
   public void removeRoute(String CID)
   {
-    m_table.remove(CID);
+    synchronized (m_table)
+    {
+      Entry e = m_table.get(CID);
+      if (e == null) return;
+
+      if (e.m_pending)
+        e.m_route = null; // keep the entry for the lookup's waiters
+      else
+        m_table.remove(CID);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Remove the route entries whose first hop is through the specified
+   * port, for use when the port has closed. Later requests for routes
+   * to those components will trigger remote route discovery through the
+   * remaining ports.
+   *
+   * @param port the encoding of the port's ID, as used in routes
+   */
+  public void removePortRoutes(String port)
+  {
+    synchronized (m_table)
+    {
+      for (Iterator<Entry> i = m_table.values().iterator(); i.hasNext(); )
+      {
+        Entry e = i.next();
+        if (e.m_route == null || !e.m_route.startsWith(port)) continue;
+
+        try
+        {
+          if (!port.equals(PortNumber.firstHop(e.m_route))) continue;
+        }
+        catch (IllegalArgumentException ex)
+        {
+          // not a valid route, so forget it anyway
+        }
+
+        PackageLogger.log.fine("Removing route " + e.m_route + " to "
+                               + e.m_CID + ", as port " + port
+                               + " has closed");
+        if (e.m_pending)
+          e.m_route = null;
+        else
+          i.remove();
+      }
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> if a route-discovery request should be made
+   * for a component with the table entry <tt>e</tt>, which may be
+   * <tt>null</tt>
+   */
+  private static boolean needsLookup(Entry e, long now)
+  {
+    if (e == null) return true;
+    if (e.m_pending) return false;
+
+    return now >= e.m_expires;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Mark the table entry of a component as waiting for the reply to a
+   * route-discovery request, creating it if necessary, and schedule the
+   * request's timeout. Must be called with {@link #m_table} locked.
+   *
+   * @return the entry
+   */
+  private Entry startLookup(String CID, Entry e, long now)
+  {
+    if (e == null)
+    {
+      e = new Entry(CID);
+      m_table.put(CID, e);
+    }
+
+    e.m_pending = true;
+    e.m_timeout = TimingWheel.getDefault().schedule(new Expiry(e),
+                                                    LOOKUP_TIMEOUT);
+
+    return e;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Called when a route-discovery request has had no reply in time
+   */
+  private void lookupExpired(Entry e)
+  {
+    ArrayList<RouteListener> waiters;
+
+    synchronized (m_table)
+    {
+      if (!e.m_pending || m_table.get(e.m_CID) != e) return;
+
+      e.m_pending = false;
+      e.m_timeout = null;
+
+      // an old route is kept, but is refreshed again after the same
+      // wait as for a negative entry
+      if (e.m_route == null)
+        PackageLogger.log.fine("No route found to " + e.m_CID);
+      e.m_expires = System.currentTimeMillis() + NEGATIVE_LIFETIME;
+
+      waiters = e.takeWaiters();
+    }
+
+    notify(waiters, e.m_CID, e.m_route);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Store a route found by a route-discovery request, and tell any
+   * listeners waiting for it
+   */
+  private void routeFound(String CID, String route)
+  {
+    ArrayList<RouteListener> waiters;
+
+    synchronized (m_table)
+    {
+      Entry e = m_table.get(CID);
+      if (e == null)
+      {
+        e = new Entry(CID);
+        m_table.put(CID, e);
+      }
+
+      if (e.m_timeout != null) e.m_timeout.cancel();
+      e.m_timeout = null;
+      e.m_pending = false;
+      e.m_route = route;
+      e.m_expires = System.currentTimeMillis() + ROUTE_LIFETIME;
+
+      waiters = e.takeWaiters();
+    }
+
+    notify(waiters, CID, route);
+  }
+  //----------------------------------------------------------------------
+  private static void notify(ArrayList<RouteListener> waiters,
+                             String CID, String route)
+  {
+    if (waiters == null) return;
+
+    for (RouteListener l : waiters) l.routeResolved(CID, route);
   }
   //----------------------------------------------------------------------
   /**
@@ -185,7 +411,7 @@ public class RouteManager extends MessageProcessor
           String CID = request.getNRSField(Constants.MessageFields.iTargetCID);
           String route =  m.getField(Constants.MessageFields.forwardRoute);
 
-          m_table.put(CID, route);
+          routeFound(CID, route);
           PackageLogger.log.fine("Route table updated: CID=" + CID + ", route="
                                  + route);
         }
@@ -208,5 +434,66 @@ public class RouteManager extends MessageProcessor
 
     next(m);
   }
+  //----------------------------------------------------------------------
+  /**
+   * Entry of the route table for one component
+   */
+  private static final class Entry
+  {
+    final String m_CID;
+
+    /** Route to the component, or <tt>null</tt> if not known */
+    String m_route = null;
+
+    /** Time after which the entry should be refreshed, or for a
+     * negative entry, after which the component may be queried
+     * again */
+    long m_expires = 0;
+
+    /** Set while a route-discovery request is waiting for a reply */
+    boolean m_pending = false;
+
+    /** Timeout of the request */
+    TimingWheel.Timeout m_timeout = null;
+
+    /** Listeners waiting for the reply */
+    ArrayList<RouteListener> m_waiters = null;
+
+    Entry(String CID)
+    {
+      m_CID = CID;
+    }
+
+    void addWaiter(RouteListener l)
+    {
+      if (m_waiters == null) m_waiters = new ArrayList<RouteListener>();
+      m_waiters.add(l);
+    }
+
+    /** Return the waiting listeners, if any, and forget them */
+    ArrayList<RouteListener> takeWaiters()
+    {
+      ArrayList<RouteListener> w = m_waiters;
+      m_waiters = null;
+      return w;
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Timeout of a route-discovery request
+   */
+  private final class Expiry implements Runnable
+  {
+    private final Entry m_entry;
+
+    Expiry(Entry e)
+    {
+      m_entry = e;
+    }
 
+    public void run()
+    {
+      lookupExpired(m_entry);
+    }
+  }
 }
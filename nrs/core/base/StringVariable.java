@@ -76,6 +76,18 @@ public abstract class StringVariable extends Variable
     s.deliver(m_value);
   }
   
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final StringVariable s = (StringVariable) target;
+    final String value = m_value;
+    return new Runnable(){
+        public void run(){
+          s.deliver(value);
+        }
+      };
+  }
+  
   /** Receive String from variable within same component. 
    *     
    * @param s String value
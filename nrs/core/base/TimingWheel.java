@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+import java.util.ArrayList;
+
+/**
+ * Runs tasks after a delay, for nodes such as delay lines which
+ * schedule an event for every message they receive. All tasks of the
+ * component share the one thread of {@link #getDefault()}.
+ *
+ * <p>Time is divided into ticks of {@link #TICK} milliseconds, and
+ * pending tasks are kept in a ring of buckets, one per tick, with each
+ * task in the bucket of the tick it is due in. So scheduling and
+ * cancelling a task take constant time, however many are pending; a
+ * task due more than one turn of the ring ahead waits in its bucket
+ * for later turns. Tasks run on the wheel's thread, and must be short,
+ * since a long task delays the others.
+ *
+ * <p>A task runs between its delay and one tick after it. While no
+ * tasks are pending, the thread sleeps.
+ */
+public final class TimingWheel implements Runnable
+{
+  /** Length of a tick, in milliseconds */
+  public static final long TICK = 1;
+
+  /** Number of buckets; must be a power of two */
+  private static final int SIZE = 512;
+
+  private static final long TICK_NANOS = TICK * 1000000;
+
+  /** Wheel shared by all the nodes of a component */
+  private static final TimingWheel m_default = new TimingWheel();
+
+  /** First task of each bucket */
+  private final Timeout[] m_buckets = new Timeout[SIZE];
+
+  /** Time from which ticks are counted */
+  private final long m_start = System.nanoTime();
+
+  /** Last tick whose bucket has been run */
+  private long m_tick = 0;
+
+  /** Number of tasks pending */
+  private int m_pending = 0;
+
+  /** Thread running the tasks, started when first needed */
+  private Thread m_thread = null;
+
+  //----------------------------------------------------------------------
+  /**
+   * Return the timing wheel shared by the nodes of a component
+   */
+  public static TimingWheel getDefault()
+  {
+    return m_default;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Run <tt>task</tt> once, after <tt>delay</tt> milliseconds.
+   *
+   * @return a {@link Timeout} which can cancel the task
+   */
+  public synchronized Timeout schedule(Runnable task, long delay)
+  {
+    if (m_thread == null)
+    {
+      m_thread = new Thread(this, "Timing wheel");
+      m_thread.setDaemon(true);
+      m_thread.start();
+    }
+
+    // with nothing pending, the thread hasn't been counting ticks
+    if (m_pending == 0) m_tick = currentTick();
+
+    // the current tick is partly over, so count from the next one
+    long ticks = (Math.max(0, delay) + TICK - 1) / TICK;
+    long deadline = Math.max(currentTick() + 1 + ticks, m_tick + 1);
+
+    Timeout t = new Timeout(task, deadline);
+    link(t);
+
+    if (m_pending++ == 0) notify();
+
+    return t;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Run the tasks as they fall due
+   */
+  public void run()
+  {
+    ArrayList<Timeout> due = new ArrayList<Timeout>();
+
+    while (true)
+    {
+      synchronized (this)
+      {
+        try
+        {
+          while (true)
+          {
+            if (m_pending == 0)
+            {
+              wait();
+              continue;
+            }
+
+            long wait = m_start + (m_tick + 1) * TICK_NANOS
+              - System.nanoTime();
+            if (wait <= 0) break;
+
+            wait(wait / 1000000, (int) (wait % 1000000));
+          }
+        }
+        catch (InterruptedException e)
+        {
+          PackageLogger.log.warning("Timing wheel interrupted: " + e);
+          m_thread = null;
+          return;
+        }
+
+        m_tick++;
+
+        // take the tasks due from this tick's bucket, leaving those due
+        // in later turns of the wheel
+        Timeout t = m_buckets[(int) m_tick & (SIZE - 1)];
+        while (t != null)
+        {
+          Timeout next = t.m_next;
+          if (t.m_deadline <= m_tick)
+          {
+            unlink(t);
+            due.add(t);
+          }
+          t = next;
+        }
+      }
+
+      for (int i = 0; i < due.size(); i++)
+      {
+        try
+        {
+          due.get(i).m_task.run();
+        }
+        catch (RuntimeException e)
+        {
+          PackageLogger.log.warning("Error in timed task: " + e);
+          e.printStackTrace();
+        }
+      }
+      due.clear();
+    }
+  }
+  //----------------------------------------------------------------------
+  private long currentTick()
+  {
+    return (System.nanoTime() - m_start) / TICK_NANOS;
+  }
+  //----------------------------------------------------------------------
+  private void link(Timeout t)
+  {
+    int b = (int) t.m_deadline & (SIZE - 1);
+
+    t.m_next = m_buckets[b];
+    if (t.m_next != null) t.m_next.m_prev = t;
+    m_buckets[b] = t;
+    t.m_linked = true;
+  }
+  //----------------------------------------------------------------------
+  private void unlink(Timeout t)
+  {
+    if (t.m_prev != null)
+      t.m_prev.m_next = t.m_next;
+    else
+      m_buckets[(int) t.m_deadline & (SIZE - 1)] = t.m_next;
+
+    if (t.m_next != null) t.m_next.m_prev = t.m_prev;
+
+    t.m_prev = null;
+    t.m_next = null;
+    t.m_linked = false;
+    m_pending--;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * A task scheduled on a {@link TimingWheel}
+   */
+  public final class Timeout
+  {
+    private final Runnable m_task;
+    private final long m_deadline;
+
+    /** Neighbours in the bucket */
+    private Timeout m_prev = null;
+    private Timeout m_next = null;
+
+    /** Whether in a bucket, that is, neither run nor cancelled */
+    private boolean m_linked = false;
+
+    private Timeout(Runnable task, long deadline)
+    {
+      m_task = task;
+      m_deadline = deadline;
+    }
+
+    /**
+     * Stop the task from running, if it hasn't started already.
+     *
+     * @return <tt>true</tt> if the task was pending, and won't now run
+     */
+    public boolean cancel()
+    {
+      synchronized (TimingWheel.this)
+      {
+        if (!m_linked) return false;
+
+        unlink(this);
+        return true;
+      }
+    }
+  }
+}
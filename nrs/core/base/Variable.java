@@ -24,7 +24,9 @@ package nrs.core.base;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import nrs.core.message.Constants;
 import nrs.core.message.DeleteLink;
+import nrs.core.message.MessageSchema;
 
 /**
  * Base class for all classes which represent NRS-variables
@@ -67,6 +69,19 @@ public abstract class Variable
 
   /** Restriction of this variable. */
   private Restriction m_restriction = null;
+
+  /** Layout of the messages of this variable's type, or null if none
+   * is known. Looked up on first use. */
+  private MessageSchema m_schema = null;
+  private boolean m_schemaKnown = false;
+
+  /** Updates waiting to run on a {@link VariableScheduler}, created when
+   * first needed */
+  VariableScheduler.Queue m_queue = null;
+
+  /** Set for variables which are always updated directly, even when a
+   * {@link VariableScheduler} is in use */
+  boolean m_direct = false;
   
   //----------------------------------------------------------------------
   /** Constructor
@@ -463,16 +478,13 @@ public abstract class Variable
                                + ln.getTargetVNID().intValue() 
                                + ", cid: " + ln.getTargetCID());
         
-        // get details for Message
-        ln.fillDeleteLinkMsg(dl, ln.isSource(getVNID()) );
-	
         if ( m_out == null ){
           PackageLogger.log.warning("OutboundPipeline is null, "
                                     + " can't send DeleteLinks.");
           break;
         }
-        else // send message out.
-          m_out.submit(dl);   
+        else // send message out, once routed.
+          ln.sendDeleteLinkMsg(dl, ln.isSource(getVNID()), m_out);
       }
     }
     
@@ -567,31 +579,138 @@ public abstract class Variable
     return null;
   }
   //---------------------------------------------------------------------
+  /** Create an empty message of this variable's type, for
+   * {@link #createMessage()} to fill in. If the layout of the type is
+   * known (see {@link MessageSchema}), the message is typed, so numeric
+   * values are carried without conversion to text.
+   *
+   * @return new message of this variable's type
+   */
+  protected Message newMessage(){
+    if ( !m_schemaKnown ){
+      m_schema = MessageSchema.lookup(getVNType());
+      m_schemaKnown = true;
+    }
+    
+    if ( m_schema == null )
+      return new Message(getVNType());
+    else
+      return new Message(m_schema);
+  }
+  //---------------------------------------------------------------------
+  /** Return the name of the field holding the value of a message
+   * received by this variable, which should carry exactly one data
+   * segment, for the typed variables' <tt>extractData</tt> methods.
+   * Logs a warning and returns null if there isn't exactly one.
+   *
+   * @param m message received
+   */
+  protected String payloadField(Message m){
+    int size = m.getPayloadCount();
+    if ( size > 1 ){
+      PackageLogger.log.warning("Received message at " + getVNName() + " with"
+                                + " more than one data segment (" + size 
+                                + "). Expected only one.");
+      return null;
+    }
+    else if ( size == 0 ){
+      PackageLogger.log.warning("Received message at " + getVNName() + " with"
+                                + " zero segments. Expected only one.");
+      return null;
+    }
+    
+    return m.getPayloadField();
+  }
+  //---------------------------------------------------------------------
   protected void send(Variable v){
     PackageLogger.log.warning("Using default implementation of"
                               + " Variable.send(): no operation taken");
     return;
   }
   //---------------------------------------------------------------------
-  /** Send messages over links, if any present. */
+  /** Return a task which performs {@link #send(Variable)}, for running
+   * later on a {@link VariableScheduler}. Typed variables override this
+   * to capture their current value, since it may have changed by the
+   * time the task runs; this default implementation doesn't.
+   *
+   * @param target the variable to send to
+   */
+  protected Runnable sendTask(final Variable target){
+    return new Runnable(){
+        public void run(){
+          send(target);
+        }
+      };
+  }
+  //---------------------------------------------------------------------
+  /** Send messages over links, if any present. If there are several
+   * off-component links, the same message is sent over each of them,
+   * with only its route and target changed, so that its value is
+   * encoded once (see {@link Message#setFanOut(boolean)}). */
   protected void sendMessages(){
+    int offComponent = 0;
     for(Link ln : m_sourceLinks )
-      sendState(ln);
+      if ( ln.getTargetRef() == null ) offComponent++;
+    
+    Message shared = null;
+    for(Link ln : m_sourceLinks )
+      if ( m_vm == null || !m_vm.defer(this, ln) )
+        shared = sendState(ln, shared, offComponent > 1);
+    
+    if ( shared != null ) shared.setFanOut(false);
   }
   //---------------------------------------------------------------------
   /** Send message over link.
    *
    * @param link link to send message over.
    */
-  private void sendState(Link ln){
-    if ( !ln.isSource(getVNID()) ) return; // only send if source of link
+  void sendState(Link ln){
+    sendState(ln, null, false);
+  }
+  //---------------------------------------------------------------------
+  /** Send message over each of a number of links, reusing one message
+   * for the off-component links where possible, as {@link
+   * #sendMessages()} does.
+   *
+   * @param links links to send message over.
+   */
+  void sendState(Iterable<Link> links){
+    int offComponent = 0;
+    for(Link ln : links )
+      if ( ln.getTargetRef() == null ) offComponent++;
+    
+    Message shared = null;
+    for(Link ln : links )
+      shared = sendState(ln, shared, offComponent > 1);
+    
+    if ( shared != null ) shared.setFanOut(false);
+  }
+  //---------------------------------------------------------------------
+  /** Send message over link.
+   *
+   * @param link link to send message over.
+   * @param shared message sent over a previous off-component link, to
+   * be sent again with the route and target of this one, or null.
+   * @param fanOut whether the message is to be sent over several
+   * links.
+   *
+   * @return the message sent if the link is off-component and the
+   * message can be sent again over another link, otherwise
+   * <code>shared</code>.
+   */
+  private Message sendState(Link ln, Message shared, boolean fanOut){
+    if ( !ln.isSource(getVNID()) ) return shared; // only send if source of link
     
     Variable v = ln.getTargetRef();
     
     // if link is internal to component
     if ( v != null ){
       try{
-        send(v);
+        VariableScheduler s = ( m_vm != null ) ? m_vm.getScheduler() : null;
+        if ( s != null && !v.m_direct )
+          s.execute(v, sendTask(v));
+        else
+          send(v);
       }
       catch(ClassCastException e){
         PackageLogger.log.warning("Cannot send message. Source"
@@ -600,25 +719,37 @@ public abstract class Variable
                                   + this + "; Target-type: " + v
                                   + ". Class cast expection: " + e);
       }
-      return;
+      return shared;
     }
     
-    // link is off-component
-    //Message msg = getMessage(); // get message from derived class
-    Message msg = createMessage();
+    if ( m_out == null ){
+      PackageLogger.log.warning("OutboundPipeline is null," 
+                                + " can't send messages out.");
+      return shared;
+    }
     
-    // case default implemenation is used, 
-    // or derived class hasn't set a value yet.
-    if ( msg == null ) return; 
+    // link is off-component
+    Message msg = shared;
+    if ( msg != null )
+      msg.clearNRSFields(); // drop the route and target of the last link
+    else{
+      //msg = getMessage(); // get message from derived class
+      msg = createMessage();
+      
+      // case default implemenation is used, 
+      // or derived class hasn't set a value yet.
+      if ( msg == null ) return null;
+      
+      // a message with an ID may be stored once sent, so can't be reused
+      if ( fanOut && !msg.hasField(Constants.Fields.F_msgID) )
+        msg.setFanOut(true);
+    }
     
-    // get details for Message from Link
-    ln.fillMsg(msg);
+    // get details for Message from Link and send it out, once routed; a
+    // held message can't be shared with the next link
+    if ( !ln.sendMsg(msg, m_out) ) return null;
     
-    if ( m_out == null )
-      PackageLogger.log.warning("OutboundPipeline is null," 
-                                + " can't send messages out.");
-    else // send message out.
-      m_out.submit(msg);   
+    return msg.isFanOut() ? msg : null;
   }
   //---------------------------------------------------------------------
 }
@@ -1,8 +1,13 @@
 package nrs.core.base;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import nrs.core.message.Constants;
 import nrs.core.message.ReplyVNID;
 import nrs.core.message.ReplyVNName;
@@ -16,6 +21,16 @@ import nrs.core.message.ReplyVNName;
  * should be taken when adding and removing {@link Variable} objects if
  * you intend to use class to provide a by-VNName lookup service.
  *
+ * <p>Variables are held by VNID in a dense table, so that a received
+ * message is resolved to its target with a single array access; VNIDs
+ * are handed out in sequence by {@link #suggestID()}, so the table
+ * stays compact. Variables with very large VNIDs are held in a map
+ * instead.
+ *
+ * <p>The lookup methods may be called from any thread, such as the
+ * port readers, while variables are being added and removed, and
+ * never wait. Additions and removals are serialised with each other.
+ *
  * @author Darren Smith
  * @author Thomas French
  */
@@ -24,21 +39,42 @@ public class VariableManager extends MessageProcessor
   /** Object used for sending messages out of application */
   private OutboundPipeline m_outboundPipeline;
 
-  /** Mapping for message numeric ID to the actual variable. Keys are of
-   * type {@link Integer} and values {@link Variable}.
-   */
-  private Map m_mapID;
+  /** Mapping for VNIDs too large for {@link #m_table} to the actual
+   * variable */
+  private final ConcurrentHashMap<Integer, Variable> m_mapID
+    = new ConcurrentHashMap<Integer, Variable>();
 
-  /** Mapping for message names to the actual variable. Keys are of type
-   *{@link String} and values {@link Variable}.
-   */
-  private Map m_mapName;
+  /** Mapping for message names to the actual variable */
+  private final ConcurrentHashMap<String, Variable> m_mapName
+    = new ConcurrentHashMap<String, Variable>();
 
   /** Notes the next ID number which is free, according to all variables
    * added here, or to any requested ID handed out. Note : 0 cannot be
    * used for a variable ID.
    */
-  private int m_nextID = 1;
+  private final AtomicInteger m_nextID = new AtomicInteger(1);
+
+  /** Largest VNID held in {@link #m_table} */
+  private static final int MAX_TABLE_ID = 1 << 16;
+
+  /** Variables indexed by VNID, with <tt>null</tt> for unused
+   * VNIDs. Replaced by a larger table when it fills; only changed while
+   * holding {@link #m_writeLock}. */
+  private volatile AtomicReferenceArray<Variable> m_table
+    = new AtomicReferenceArray<Variable>(64);
+
+  /** Serialises additions and removals of variables */
+  private final Object m_writeLock = new Object();
+
+  /** Runs variable updates, or <tt>null</tt> to run them directly */
+  private volatile VariableScheduler m_scheduler = null;
+
+  /** Batch of deferred updates of each thread, see {@link #begin()} */
+  private final ThreadLocal<Batch> m_batch = new ThreadLocal<Batch>();
+
+  /** Number of threads with a batch open, so that sending needn't look
+   * for a batch when there are none */
+  private final AtomicInteger m_openBatches = new AtomicInteger();
 
   //----------------------------------------------------------------------
   /**
@@ -46,8 +82,6 @@ public class VariableManager extends MessageProcessor
    */
   public VariableManager()
   {
-    m_mapID = new HashMap();
-    m_mapName = new HashMap();
   }
   //----------------------------------------------------------------------
   /**
@@ -59,6 +93,91 @@ public class VariableManager extends MessageProcessor
     m_outboundPipeline = outboundPipeline;
   }
   //----------------------------------------------------------------------
+  /**
+   * Set the {@link VariableScheduler} which runs the updates of
+   * variables, both for messages received and for values sent over
+   * links within the component. By default there is none, and updates
+   * run directly on the thread which causes them.
+   *
+   * @param scheduler the scheduler to use, or <tt>null</tt> for none
+   */
+  public void setScheduler(VariableScheduler scheduler)
+  {
+    m_scheduler = scheduler;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the {@link VariableScheduler} in use, or <tt>null</tt> if
+   * updates are run directly
+   */
+  public VariableScheduler getScheduler()
+  {
+    return m_scheduler;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Begin a batch of variable updates on the calling thread. Until the
+   * matching {@link #commit()}, values which variables send over their
+   * links are held back; at the commit, each link carries one message,
+   * with the latest value of its source variable. So a node which sets
+   * several outputs, or sets one output several times, in a single step
+   * causes no redundant messages or downstream recalculation.
+   *
+   * <p>Batches may be nested, in which case the updates are sent by the
+   * outermost commit. Every call must be matched by a call to {@link
+   * #commit()}, normally in a <tt>finally</tt> block.
+   */
+  public void begin()
+  {
+    Batch b = m_batch.get();
+    if (b == null)
+    {
+      b = new Batch();
+      m_batch.set(b);
+    }
+
+    if (b.m_depth++ == 0) m_openBatches.incrementAndGet();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * End a batch of variable updates begun with {@link #begin()}, and,
+   * for the outermost batch, send the held updates. Messages for the
+   * same destination component are sent together, so that they leave in
+   * as few writes as possible.
+   *
+   * @throws IllegalStateException if there is no batch open on the
+   * calling thread
+   */
+  public void commit()
+  {
+    Batch b = m_batch.get();
+    if (b == null || b.m_depth == 0)
+      throw new IllegalStateException("commit() called without begin()");
+
+    if (--b.m_depth > 0) return;
+
+    m_openBatches.decrementAndGet();
+    b.send();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Called by <tt>v</tt> before sending its value over link
+   * <tt>ln</tt>. If a batch is open on the calling thread, the send is
+   * held back until the batch is committed.
+   *
+   * @return <tt>true</tt> if the send has been deferred
+   */
+  boolean defer(Variable v, Link ln)
+  {
+    if (m_openBatches.get() == 0) return false;
+
+    Batch b = m_batch.get();
+    if (b == null || b.m_depth == 0) return false;
+
+    b.m_links.put(ln, v);
+    return true;
+  }
+  //----------------------------------------------------------------------
   /**
    * Add a new {@link Variable}. Take care when using this class for
    * by-VNName lookup purposes. Calling this method with different
@@ -68,18 +187,31 @@ public class VariableManager extends MessageProcessor
    */
   public void add(Variable v)
   {
-    if (m_mapID.containsValue(v))
+    int id = v.getVNID();
+
+    synchronized (m_writeLock)
     {
-      PackageLogger.log.warning("Variable \""
-                                + v
-                                + "\" already in collection. Not adding.");
+      if (get(id) == v)
+      {
+        PackageLogger.log.warning("Variable \""
+                                  + v
+                                  + "\" already in collection. Not adding.");
 
-      return;
+        return;
+      }
+
+      if (id > 0 && id <= MAX_TABLE_ID)
+        setTableEntry(id, v);
+      else
+        m_mapID.put(id, v);
+      if (v.getVNName() != null) m_mapName.put(v.getVNName(), v);
     }
-    m_mapID.put(new Integer(v.getVNID()), v);
-    m_mapName.put(v.getVNName(), v);
 
-    if (v.getVNID() >= m_nextID) m_nextID = v.getVNID()+1;
+    // m_nextID = max(m_nextID, id + 1)
+    int next;
+    while (id >= (next = m_nextID.get())
+           && !m_nextID.compareAndSet(next, id + 1))
+      ;
   }
   //----------------------------------------------------------------------
   /**
@@ -87,8 +219,21 @@ public class VariableManager extends MessageProcessor
    */
   public void remove(Variable mv)
   {
-    m_mapID.remove(new Integer(mv.getVNID()));
-    m_mapName.remove(mv.getVNName());
+    int id = mv.getVNID();
+
+    synchronized (m_writeLock)
+    {
+      AtomicReferenceArray<Variable> table = m_table;
+      if (id > 0 && id <= MAX_TABLE_ID)
+      {
+        if (id < table.length()) table.set(id, null);
+      }
+      else
+      {
+        m_mapID.remove(id);
+      }
+      if (mv.getVNName() != null) m_mapName.remove(mv.getVNName());
+    }
   }
   //----------------------------------------------------------------------
   /**
@@ -99,7 +244,37 @@ public class VariableManager extends MessageProcessor
    */
   public Variable get(int id)
   {
-    return (Variable) m_mapID.get(new Integer(id));
+    if (id > 0 && id <= MAX_TABLE_ID)
+    {
+      AtomicReferenceArray<Variable> table = m_table;
+      return (id < table.length()) ? table.get(id) : null;
+    }
+
+    return m_mapID.get(id);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Store <tt>v</tt> in the by-VNID table, growing the table as
+   * needed. Called holding {@link #m_writeLock}.
+   */
+  private void setTableEntry(int id, Variable v)
+  {
+    AtomicReferenceArray<Variable> table = m_table;
+
+    if (id >= table.length())
+    {
+      int size = table.length();
+      while (size <= id) size *= 2;
+
+      AtomicReferenceArray<Variable> bigger
+        = new AtomicReferenceArray<Variable>(size);
+      for (int i = 0; i < table.length(); i++) bigger.set(i, table.get(i));
+
+      // readers see either table, both of which are correct until the
+      // new entry is stored
+      m_table = table = bigger;
+    }
+    table.set(id, v);
   }
   //----------------------------------------------------------------------
   /**
@@ -112,7 +287,9 @@ public class VariableManager extends MessageProcessor
    */
   public Variable get(String name)
   {
-    return (Variable) m_mapName.get(name);
+    if (name == null) return null;
+
+    return m_mapName.get(name);
   }
   //----------------------------------------------------------------------
   /**
@@ -123,7 +300,7 @@ public class VariableManager extends MessageProcessor
    */
   public int suggestID()
   {
-    return m_nextID++;
+    return m_nextID.getAndIncrement();
   }
   //----------------------------------------------------------------------
   /**
@@ -133,7 +310,7 @@ public class VariableManager extends MessageProcessor
    */
   public int getMaxID()
   {
-    return m_nextID-1;
+    return m_nextID.get()-1;
   }
   //----------------------------------------------------------------------
   /**
@@ -142,10 +319,23 @@ public class VariableManager extends MessageProcessor
    * there is no danger of this collection being incompleted due to
    * possible by-VNName conflicts. In the returned collection, each
    * element can be safely cast to type {@link Variable}.
+   *
+   * <p>The collection is a copy, so it may be iterated over while
+   * variables are added and removed.
    */
   public Collection getAll()
   {
-    return m_mapID.values();
+    ArrayList<Variable> all = new ArrayList<Variable>();
+
+    AtomicReferenceArray<Variable> table = m_table;
+    for (int i = 1; i < table.length(); i++)
+    {
+      Variable v = table.get(i);
+      if (v != null) all.add(v);
+    }
+    all.addAll(m_mapID.values());
+
+    return all;
   }
   //----------------------------------------------------------------------
   /** Address the received message to a VN node.
@@ -162,8 +352,8 @@ public class VariableManager extends MessageProcessor
    */
   public void deliver(Message m, MessageProcessor sender)
   {
-    if (m.hasNRSField(Constants.MessageFields.intelligent)
-        && m.hasNRSField(Constants.MessageFields.iTargetVNName))
+    if (m.isTargeted()
+        && m.hasNRSField(Constants.MessageFields.intelligent))
     {
       String vnName = m.getNRSField(Constants.MessageFields.iTargetVNName);
 
@@ -173,7 +363,7 @@ public class VariableManager extends MessageProcessor
 
         if ( mv != null )
         {
-          mv.deliver(m);
+          deliver(mv, m);
           return;
         }
         else
@@ -184,40 +374,48 @@ public class VariableManager extends MessageProcessor
         }
       }
     }
-    else if (m.hasNRSField(Constants.MessageFields.toVNID))
+    else
     {
-      int toVNID = 0;
-      try
-      {
-        toVNID = Integer.
-          parseInt(m.getNRSField(Constants.MessageFields.toVNID));
-      }
-      catch (NumberFormatException e)
-      {
-        PackageLogger.log.warning("Message " + m + " has a "
-                                  +  Constants.MessageFields.toVNID
-                                  + " field with a non-numeric value ("
-                                  + m.getNRSField(Constants.MessageFields.toVNID)
-                                  + "): can't route to variable");
-        next(m);
-      }
-      
+      int toVNID = m.getToVNID();
+
       if (toVNID > 0)
       {
         Variable mv = get(toVNID);
 
         if (mv != null)
         {
-          mv.deliver(m);
+          deliver(mv, m);
           return;
         }
       }
+      else if (toVNID < 0)
+      {
+        PackageLogger.log.warning("Message " + m + " has a "
+                                  +  Constants.MessageFields.toVNID
+                                  + " field with a non-numeric value ("
+                                  + m.getNRSField(Constants.MessageFields.toVNID)
+                                  + "): can't route to variable");
+      }
     }
 
     // default behaviour: pass to next
     next(m);
   }
   //----------------------------------------------------------------------
+  /**
+   * Pass <tt>m</tt> to variable <tt>mv</tt>, through the scheduler if
+   * there is one
+   */
+  private void deliver(Variable mv, Message m)
+  {
+    VariableScheduler s = m_scheduler;
+
+    if (s != null && !mv.m_direct)
+      s.deliver(mv, m);
+    else
+      mv.deliver(m);
+  }
+  //----------------------------------------------------------------------
   /**
    * Since a {@link VariableManager} instance should contain knowledge
    * of all NRS-variables existing within an application, it is best
@@ -358,4 +556,79 @@ public class VariableManager extends MessageProcessor
 		return m_outboundPipeline;
 	    }
     }
+  //----------------------------------------------------------------------
+  /**
+   * Updates held back by one thread's batch
+   */
+  private static final class Batch
+  {
+    /** Nesting depth of {@link #begin()} calls */
+    int m_depth = 0;
+
+    /** Links with a send pending, and the variable sending on each, in
+     * order of first update */
+    final LinkedHashMap<Link, Variable> m_links
+      = new LinkedHashMap<Link, Variable>();
+
+    /**
+     * Send the pending updates, grouped by destination component; links
+     * within this component are sent to first. The links of each
+     * variable are sent together, so that one message can be shared
+     * between its off-component links.
+     */
+    void send()
+    {
+      if (m_links.isEmpty()) return;
+
+      LinkedHashMap<String, ArrayList<Link>> byCID
+        = new LinkedHashMap<String, ArrayList<Link>>();
+      byCID.put("", new ArrayList<Link>());
+
+      for (Iterator<Link> i = m_links.keySet().iterator(); i.hasNext(); )
+      {
+        Link ln = i.next();
+        String cid = (ln.getTargetRef() != null || ln.getTargetCID() == null)
+          ? "" : ln.getTargetCID();
+
+        ArrayList<Link> group = byCID.get(cid);
+        if (group == null)
+        {
+          group = new ArrayList<Link>();
+          byCID.put(cid, group);
+        }
+        group.add(ln);
+      }
+
+      LinkedHashMap<Variable, ArrayList<Link>> byVariable
+        = new LinkedHashMap<Variable, ArrayList<Link>>();
+
+      for (Iterator<ArrayList<Link>> i = byCID.values().iterator();
+           i.hasNext(); )
+      {
+        for (Iterator<Link> j = i.next().iterator(); j.hasNext(); )
+        {
+          Link ln = j.next();
+          Variable v = m_links.get(ln);
+
+          ArrayList<Link> group = byVariable.get(v);
+          if (group == null)
+          {
+            group = new ArrayList<Link>();
+            byVariable.put(v, group);
+          }
+          group.add(ln);
+        }
+      }
+
+      // the sends may start new batches on this thread
+      m_links.clear();
+
+      for (Iterator<Map.Entry<Variable, ArrayList<Link>>> i
+             = byVariable.entrySet().iterator(); i.hasNext(); )
+      {
+        Map.Entry<Variable, ArrayList<Link>> e = i.next();
+        e.getKey().sendState(e.getValue());
+      }
+    }
+  }
 }
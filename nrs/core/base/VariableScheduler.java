@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.base;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the updates of {@link Variable} objects on a pool of worker
+ * threads, rather than on the thread which caused them.
+ *
+ * <p>Without a scheduler, a message received by a variable is handled
+ * on the port's reader thread, and a value sent over a link within the
+ * component is delivered by a direct call to the target variable. So a
+ * long chain of nodes runs entirely within one call to the reader,
+ * delaying further input and, for deep enough chains, overflowing the
+ * stack. Once a scheduler is installed with {@link
+ * VariableManager#setScheduler(VariableScheduler)}, these updates are
+ * queued instead, and the reader returns as soon as it has queued them.
+ *
+ * <p>Each variable has its own queue, and a queue is drained by one
+ * worker at a time, so a variable sees its updates in the order they
+ * were made, and never two at once. Updates to different variables run
+ * in parallel, so nodes which share state must guard it themselves.
+ * The component's own control variables (those handling
+ * <tt>CreateNode</tt>, <tt>CreateLink</tt> and so on) are always run
+ * directly.
+ */
+public final class VariableScheduler
+{
+  /** Number of updates a worker takes from one queue before letting
+   * other queues have a turn */
+  private static final int BATCH = 64;
+
+  /** Worker threads */
+  private final ExecutorService m_workers;
+
+  //----------------------------------------------------------------------
+  /**
+   * Create a scheduler with <tt>threads</tt> worker threads
+   *
+   * @param threads number of worker threads, which should be no more
+   * than the number of processors for purely computational nodes
+   */
+  public VariableScheduler(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("A scheduler needs at least one"
+                                         + " thread, not " + threads);
+
+    m_workers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+        private int m_count = 0;
+
+        public synchronized Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "Variable scheduler " + ++m_count);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Create a scheduler with one worker thread per processor
+   */
+  public VariableScheduler()
+  {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Queue an update of variable <tt>v</tt>. The update runs after all
+   * updates previously queued for <tt>v</tt>.
+   */
+  public void execute(Variable v, Runnable update)
+  {
+    Queue q;
+    synchronized (v)
+    {
+      if (v.m_queue == null) v.m_queue = new Queue(v);
+      q = v.m_queue;
+    }
+
+    if (q.add(update)) start(q);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Queue the delivery of message <tt>m</tt> to variable
+   * <tt>v</tt>. The message is marked as retained (see {@link
+   * Message#retain()}), since it is used after the caller returns.
+   */
+  public void deliver(final Variable v, final Message m)
+  {
+    m.retain();
+
+    execute(v, new Runnable()
+      {
+        public void run()
+        {
+          v.deliver(m);
+        }
+      });
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Stop the worker threads once they have run the updates already
+   * queued. Updates queued later are discarded.
+   */
+  public void shutdown()
+  {
+    m_workers.shutdown();
+  }
+  //----------------------------------------------------------------------
+  private void start(Queue q)
+  {
+    try
+    {
+      m_workers.execute(q);
+    }
+    catch (RejectedExecutionException e)
+    {
+      PackageLogger.log.warning("Update of variable " + q.m_var
+                                + " discarded: scheduler has been shut"
+                                + " down");
+      q.clear();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * The updates waiting for one variable. While the queue holds
+   * updates, exactly one copy of it is running or waiting to run on the
+   * workers.
+   */
+  final class Queue implements Runnable
+  {
+    private final Variable m_var;
+    private final ArrayDeque<Runnable> m_updates = new ArrayDeque<Runnable>();
+
+    Queue(Variable v)
+    {
+      m_var = v;
+    }
+
+    /**
+     * Add an update, returning <tt>true</tt> if the queue was empty and
+     * so must be started
+     */
+    synchronized boolean add(Runnable update)
+    {
+      m_updates.add(update);
+      return m_updates.size() == 1;
+    }
+
+    synchronized void clear()
+    {
+      m_updates.clear();
+    }
+
+    public void run()
+    {
+      for (int n = 0; n < BATCH; n++)
+      {
+        Runnable update;
+        synchronized (this)
+        {
+          update = m_updates.peek();
+        }
+
+        try
+        {
+          update.run();
+        }
+        catch (RuntimeException e)
+        {
+          PackageLogger.log.warning("Error updating variable " + m_var
+                                    + ": " + e);
+          e.printStackTrace();
+        }
+
+        // the update stays queued while it runs, so that updates added
+        // meanwhile don't start a second worker on this queue
+        synchronized (this)
+        {
+          m_updates.poll();
+          if (m_updates.isEmpty()) return;
+        }
+      }
+
+      // more waiting: requeue, behind the other variables' queues
+      start(this);
+    }
+  }
+}
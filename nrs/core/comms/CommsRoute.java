@@ -21,6 +21,12 @@ import nrs.core.message.Constants;
  */
 abstract public class CommsRoute implements NRSMessageCallback
 {
+  /** Message format value for routes speaking PML */
+  public static final int FORMAT_PML = 0;
+
+  /** Message format value for routes speaking BMF */
+  public static final int FORMAT_BMF = 1;
+
   /** Callback for when data is available */
   protected MessageListener m_msgListener;
 
@@ -34,6 +40,13 @@ abstract public class CommsRoute implements NRSMessageCallback
    * of type {@link PortConnectedListener} */
   private ArrayList m_connectionListeners;
 
+  /** Format of the messages sent and received on this route, either
+   * {@link #FORMAT_PML} or {@link #FORMAT_BMF} */
+  private int m_format = FORMAT_PML;
+
+  /** Queue of messages waiting to be written to this route */
+  private final PortWriter m_writer = new PortWriter(this);
+
   //----------------------------------------------------------------------
   /** Constructor
    *
@@ -66,6 +79,27 @@ abstract public class CommsRoute implements NRSMessageCallback
     return m_name;
   }
   //----------------------------------------------------------------------
+  /**
+   * Return the format of messages on this route / port, which is one
+   * of {@link #FORMAT_PML} (the default) or {@link #FORMAT_BMF}.
+   */
+  public int getMessageFormat()
+  {
+    return m_format;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Set the format of messages on this route / port. This should be
+   * done before the port is opened, and must agree with the format
+   * spoken by the component at the other end.
+   *
+   * @param format one of {@link #FORMAT_PML} or {@link #FORMAT_BMF}
+   */
+  public void setMessageFormat(int format)
+  {
+    m_format = format;
+  }
+  //----------------------------------------------------------------------
   /**
    * Returns the name and ID of this route / port
    */
@@ -88,6 +122,47 @@ abstract public class CommsRoute implements NRSMessageCallback
   public abstract void write(ByteArrayOutputStream message)
     throws IllegalStateException, IOException;
   //----------------------------------------------------------------------
+  /**
+   * Write <tt>len</tt> bytes of <tt>message</tt>, starting at
+   * <tt>off</tt>, to the port. Derived classes should override this;
+   * the default implementation copies the data into a {@link
+   * ByteArrayOutputStream} and calls {@link
+   * #write(ByteArrayOutputStream)}.
+   *
+   * @throws IllegalStateException} if the port is not opened for writing
+   *
+   * @throws IOException if there is any other kind of IO problem
+   */
+  public void write(byte[] message, int off, int len)
+    throws IllegalStateException, IOException
+  {
+    ByteArrayOutputStream b = new ByteArrayOutputStream(len);
+    b.write(message, off, len);
+    write(b);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the queue through which {@link PortManager} sends messages on
+   * this port.
+   */
+  PortWriter getWriter()
+  {
+    return m_writer;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Send any messages which the port is holding back in order to batch
+   * them with later ones. Ports send held messages within a short time
+   * anyway, but this can be called at a natural break in output, such
+   * as the end of a simulation step, to avoid the delay. The default
+   * implementation does nothing.
+   *
+   * @throws IOException if there is any kind of IO problem
+   */
+  public void flush() throws IOException
+  {
+  }
+  //----------------------------------------------------------------------
   /**
    * Set the object which will be called when a message is
    * available. Can be set to <code>null</code>, in which case no
@@ -84,6 +84,7 @@ public class FIFOCommsRoute extends CommsRoute
    */
   public void dataAvailable(InputFIFO fifo,
                             byte[] buffer,
+                            int offset,
                             int size)
   {
     PackageLogger.log.finest("Message received on port \""
@@ -91,7 +92,7 @@ public class FIFOCommsRoute extends CommsRoute
 
     if (m_msgListener != null)
     {
-      m_msgListener.messageEvent(buffer, size, this);
+      m_msgListener.messageEvent(buffer, offset, size, this);
     }
     else
     {
@@ -164,4 +165,21 @@ public class FIFOCommsRoute extends CommsRoute
   {
     m_out.write(message);
   }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public void write(byte[] message, int off, int len)
+    throws IllegalStateException, IOException
+  {
+    m_out.write(message, off, len);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public void flush() throws IOException
+  {
+    m_out.flush();
+  }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.comms;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Splits a stream of bytes into messages, each terminated by the byte
+ * 0, for {@link InputFIFO}, {@link InputSocket} and {@link
+ * SharedMemoryCommsRoute}.
+ *
+ * <p>Data is read straight into the framer's buffer (see {@link
+ * #prepare()}), and each complete message is handed out as a slice of
+ * that buffer (see {@link #next()}), so message bytes are never copied
+ * on the way to the listener. A slice stays valid until the next call
+ * to {@link #prepare()}.
+ *
+ * <p>The buffer is linear, not a ring, so that every message is a
+ * single contiguous slice. Reads continue towards its end; once less
+ * than a quarter of it is free, the unconsumed data (at most one
+ * incomplete message) is moved back to the start. The buffer doubles
+ * when a single message fills it, so even a large message such as a
+ * <tt>ReplyCSL</tt> only causes a few reallocations. The search for the
+ * terminator examines eight bytes at a time, and no byte is examined
+ * twice.
+ */
+final class MessageFramer
+{
+  /** The byte value which indicates the completion of a message */
+  static final byte DELIM = 0;
+
+  /** Initial size of the buffer */
+  static final int DEFAULT_SIZE = 1024;
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+
+  /** Holds received data */
+  private byte[] m_buf = new byte[DEFAULT_SIZE];
+
+  /** Little endian view of {@link #m_buf}, for the terminator search */
+  private ByteBuffer m_words = wrap(m_buf);
+
+  /** Start of the data not yet handed out as a message */
+  private int m_start = 0;
+
+  /** End of the received data */
+  private int m_end = 0;
+
+  /** Position from which the terminator search continues */
+  private int m_scan = 0;
+
+  /** Location and size of the message found by {@link #next()} */
+  private int m_msgStart = 0;
+  private int m_msgSize = 0;
+
+  //----------------------------------------------------------------------
+  /**
+   * Make space for more data at the end of the buffer, and return the
+   * number of bytes which can be stored from {@link #end()}. Messages
+   * previously returned by {@link #next()} are no longer valid.
+   */
+  int prepare()
+  {
+    int free = m_buf.length - m_end;
+
+    // wrap, when at the end of the buffer or close to it
+    if (m_start > 0 && free < (m_buf.length >> 2))
+    {
+      int len = m_end - m_start;
+      System.arraycopy(m_buf, m_start, m_buf, 0, len);
+      m_scan -= m_start;
+      m_start = 0;
+      m_end = len;
+      free = m_buf.length - m_end;
+    }
+
+    // grow, when a single message fills the buffer
+    if (free == 0)
+    {
+      byte[] buf = new byte[m_buf.length * 2];
+      System.arraycopy(m_buf, 0, buf, 0, m_end);
+
+      PackageLogger.log.finest("Input buffer expanded from "
+                               + m_buf.length + " to " + buf.length
+                               + " bytes");
+      m_buf = buf;
+      m_words = wrap(m_buf);
+      free = m_buf.length - m_end;
+    }
+
+    return free;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the buffer which data should be read into, at offset {@link
+   * #end()}, and which holds the messages found
+   */
+  byte[] buffer()
+  {
+    return m_buf;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the offset at which to store the next data read
+   */
+  int end()
+  {
+    return m_end;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Record that <tt>count</tt> bytes have been read into the buffer at
+   * {@link #end()}
+   */
+  void advance(int count)
+  {
+    m_end += count;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Search the data received for the next complete message. If one is
+   * found, its location is given by {@link #start()} and {@link
+   * #size()}.
+   *
+   * @return <tt>true</tt> if a complete message was found
+   */
+  boolean next()
+  {
+    int d = findDelim();
+    if (d < 0)
+    {
+      m_scan = m_end;
+      return false;
+    }
+
+    m_msgStart = m_start;
+    m_msgSize = d - m_start;
+    m_start = d + 1;
+    m_scan = m_start;
+
+    // with no data left, later reads can start from the beginning
+    if (m_start == m_end)
+    {
+      m_start = 0;
+      m_end = 0;
+      m_scan = 0;
+    }
+
+    return true;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the offset in {@link #buffer()} of the message found by
+   * {@link #next()}
+   */
+  int start()
+  {
+    return m_msgStart;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the size, excluding the terminator, of the message found by
+   * {@link #next()}
+   */
+  int size()
+  {
+    return m_msgSize;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> if no data is held other than complete
+   * messages already handed out
+   */
+  boolean isEmpty()
+  {
+    return m_start == m_end;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Discard all data, for instance when the stream is reopened
+   */
+  void clear()
+  {
+    m_start = 0;
+    m_end = 0;
+    m_scan = 0;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the index of the first terminator between {@link #m_scan}
+   * and {@link #m_end}, or -1 if there isn't one
+   */
+  private int findDelim()
+  {
+    int i = m_scan;
+
+    // eight bytes at a time: a word contains a zero byte exactly when
+    // (w - ONES) & ~w & HIGHS is non-zero, and the lowest set bit then
+    // marks the first such byte
+    while (i + 8 <= m_end)
+    {
+      long w = m_words.getLong(i);
+      long z = (w - ONES) & ~w & HIGHS;
+      if (z != 0) return i + (Long.numberOfTrailingZeros(z) >>> 3);
+      i += 8;
+    }
+
+    while (i < m_end)
+    {
+      if (m_buf[i] == DELIM) return i;
+      i++;
+    }
+
+    return -1;
+  }
+  //----------------------------------------------------------------------
+  private static ByteBuffer wrap(byte[] buf)
+  {
+    return ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
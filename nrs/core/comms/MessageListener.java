@@ -10,12 +10,16 @@ public interface MessageListener
   /** Handle the byte level representation of a message
    *
    * @param buffer contains the bytes of the received message, including
-   * the null terminating character
+   * the null terminating character. The buffer belongs to the port,
+   * and its content is only valid until this method returns.
+   *
+   * @param offset the offset in <tt>buffer</tt> at which the message
+   * starts
    *
    * @param size the number of bytes of actual data in the
    * <tt>buffer</tt> (excluding the null terminating character). Only
    * this number of bytes should be processed from the <tt>buffer</tt>,
-   * starting from offset <tt>0</tt>. Use <tt>size</tt> rather that
+   * starting from offset <tt>offset</tt>. Use <tt>size</tt> rather that
    * <tt>buffer.length</tt> because generally the buffer's actual size
    * will much larger than the actual data content.
    *
@@ -25,5 +29,6 @@ public interface MessageListener
    * allowed, ie called, to preprocess any intelligent fields that are
    * present.
    **/
-  public void messageEvent(byte[] buffer, int size, CommsRoute port);
+  public void messageEvent(byte[] buffer, int offset, int size,
+                           CommsRoute port);
 };
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.comms;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects the messages written to a port, so that many small messages
+ * are passed to the underlying stream in a single write.
+ *
+ * <p>Data written is held until {@link #FLUSH_SIZE} bytes are waiting,
+ * or the port is flushed. The port's {@link PortWriter} flushes it
+ * within {@link PortWriter#FLUSH_DELAY} milliseconds of writing to it,
+ * and sooner at a natural break in output, such as the end of a
+ * simulation step or when the messages received have all been
+ * processed (see {@link PortWriter#flushAll()}).
+ *
+ * <p>So the delay a message can suffer is bounded, while bursts of
+ * messages, such as those sent in response to one received message,
+ * leave in as few writes as possible.
+ *
+ * <p>The underlying stream is only ever written to by the thread
+ * writing to the batch, or flushing it, which for a port is its {@link
+ * PortWriter}; so a port which blocks delays only its own messages.
+ */
+final class OutputBatch extends OutputStream
+{
+  /** Number of waiting bytes which causes an immediate write */
+  static final int FLUSH_SIZE = 8192;
+
+  /** Stream the batched data is written to */
+  private final OutputStream m_sink;
+
+  /** Data waiting to be written */
+  private final byte[] m_buf = new byte[FLUSH_SIZE];
+
+  /** Number of bytes waiting in {@link #m_buf} */
+  private int m_len = 0;
+
+  //----------------------------------------------------------------------
+  /**
+   * Constructor
+   *
+   * @param sink the (unbuffered) stream to write batched data to
+   */
+  OutputBatch(OutputStream sink)
+  {
+    m_sink = sink;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized void write(int b) throws IOException
+  {
+    if (m_len == m_buf.length) writeBuffer();
+    m_buf[m_len++] = (byte) b;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized void write(byte[] b, int off, int len)
+    throws IOException
+  {
+    if (m_len + len > m_buf.length) writeBuffer();
+
+    // data which would fill the buffer on its own isn't worth copying
+    if (len >= m_buf.length)
+    {
+      m_sink.write(b, off, len);
+      return;
+    }
+
+    System.arraycopy(b, off, m_buf, m_len, len);
+    m_len += len;
+
+    if (m_len == m_buf.length) writeBuffer();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write any waiting data to the underlying stream, and flush it.
+   */
+  public synchronized void flush() throws IOException
+  {
+    writeBuffer();
+    m_sink.flush();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write any waiting data, and close the underlying stream.
+   */
+  public synchronized void close() throws IOException
+  {
+    try
+    {
+      flush();
+    }
+    finally
+    {
+      m_sink.close();
+    }
+  }
+  //----------------------------------------------------------------------
+  private void writeBuffer() throws IOException
+  {
+    if (m_len == 0) return;
+
+    int len = m_len;
+    m_len = 0;
+    m_sink.write(m_buf, 0, len);
+  }
+}
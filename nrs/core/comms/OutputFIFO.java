@@ -6,6 +6,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Observable;
 
+import nrs.core.base.Log;
+
 /**
  * This encapsulates the operations for writing to a Linux named pipe
  * (FIFO).
@@ -26,6 +28,9 @@ import java.util.Observable;
  *
  * Only if the FIFO is in the state OPENED_OK can it be used for writing out
  * data.<br>
+ *
+ * Data written is batched by an {@link OutputBatch}, and so is not
+ * necessarily sent immediately; call {@link #flush()} to do that.
  */
 public class OutputFIFO extends Observable
 {
@@ -40,7 +45,8 @@ public class OutputFIFO extends Observable
   private static final String FIFO_NOT_OPENED 
     = "FIFO has not been opened for writing";
 
-  private FileOutputStream m_out;
+  /** Batches messages written to the FIFO */
+  private OutputBatch m_out;
   private File m_file;
   private String m_state;
   private Thread m_fifoOpener;
@@ -129,9 +135,9 @@ public class OutputFIFO extends Observable
   public void write(ByteArrayOutputStream message)
     throws IllegalStateException, IOException
   {
-    PackageLogger.log.finer("Attempting to write " + message + " of size "
-                            + message.size()
-                            + " bytes to FIFO: " + m_file);
+    Log.finer(PackageLogger.log,
+              "Attempting to write {0} of size {1} bytes to FIFO: {2}",
+              message, message.size(), m_file);
 
     if (m_state != OPENED_OK) throw new IllegalStateException(FIFO_NOT_OPENED);
     
@@ -154,9 +160,8 @@ public class OutputFIFO extends Observable
   public void write(byte[] b, int off, int len) 
     throws IllegalStateException, IOException
   {
-    PackageLogger.log.finer("Attempting to write "
-                            + len
-                            + " bytes to FIFO: " + m_file);
+    Log.finer(PackageLogger.log, "Attempting to write {0} bytes to FIFO: {1}",
+              len, m_file);
 
     if (m_state != OPENED_OK) throw new IllegalStateException(FIFO_NOT_OPENED);
 
@@ -188,6 +193,16 @@ public class OutputFIFO extends Observable
     write(b, 0, b.length);
   }
   //----------------------------------------------------------------------
+  /**
+   * Send any batched data now.
+   *
+   * @throws IOException if there is any kind of IO problem
+   */
+  public void flush() throws IOException
+  {
+    if (m_state == OPENED_OK) m_out.flush();
+  }
+  //----------------------------------------------------------------------
   /**
    * Return the current state of this FIFO.
    */
@@ -219,7 +234,7 @@ public class OutputFIFO extends Observable
     setState(OPENING_BLOCKED);
     try
     {
-      m_out = new FileOutputStream(m_file);
+      m_out = new OutputBatch(new FileOutputStream(m_file));
       PackageLogger.log.fine("Output FIFO opened: " + m_file);
       setState(OPENED_OK);
       if (m_conListener != null) m_conListener.fifoConnected(this);
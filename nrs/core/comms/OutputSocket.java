@@ -24,33 +24,49 @@ package nrs.core.comms;
 
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.util.Observable;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import nrs.core.base.Log;
 
 /**
- * This encapsulates the operations for writing to an {@link OutputStream} for 
- * a {@link java.net.Socket} using a {@link BufferedOutputStream}.
+ * This encapsulates the operations for writing to a non-blocking {@link
+ * SocketChannel}. Messages are batched by an {@link OutputBatch}, so
+ * they are not necessarily sent as soon as they are written; call
+ * {@link #flush()} to send them immediately.
  *
+ * <p>Writes complete before returning, as they did when the socket was
+ * in blocking mode: should the channel be unable to accept all of the
+ * data, the writing thread waits (on a selector private to this object)
+ * until it can. For a port, that thread is its {@link PortWriter}, so
+ * the socket event loops are never held up by a peer which isn't
+ * reading.
  */
 public class OutputSocket
 {
-    private OutputStream m_outStream;
-    private BufferedOutputStream m_out;
+    private SocketChannel m_channel;
+    private OutputBatch m_out;
     private SocketConnectedListener m_conListener;
+
+    /** Used to wait for the channel to become writable; opened only
+     * when first needed */
+    private Selector m_writeSelector;
     
     //----------------------------------------------------------------------
     /**
-     * Construct an OutputSocket for an {@link OutputStream}.
+     * Construct an OutputSocket for a {@link SocketChannel}.
      *
-     * @param out {@link OutputStream} for socket.
+     * @param channel {@link SocketChannel} to write to.
      *
      * @param cLstr callback for when the stream is setup. Can be null.
      *
      */
-    public OutputSocket(OutputStream out, SocketConnectedListener cLstr)
+    public OutputSocket(SocketChannel channel, SocketConnectedListener cLstr)
     {
-	m_outStream = out;
+	m_channel = channel;
 	m_conListener = cLstr;
     }
     //----------------------------------------------------------------------
@@ -67,11 +83,9 @@ public class OutputSocket
      */
     public void write(ByteArrayOutputStream message) throws IOException
     {
-	PackageLogger.log.finer("Attempting to write "
-				 + message.size()
-				 + " bytes to Socket.");
+	Log.finer(PackageLogger.log, "Attempting to write {0} bytes to Socket.",
+		  message.size());
 	message.writeTo(m_out);
-	m_out.flush();
     }
     //----------------------------------------------------------------------
     /**
@@ -86,13 +100,11 @@ public class OutputSocket
      */
     public void write(byte[] b, int off, int len) throws IOException
     {
-	PackageLogger.log.finer("Attempting to write "
-				 + len
-				 + " bytes to Socket,");
+	Log.finer(PackageLogger.log, "Attempting to write {0} bytes to Socket,",
+		  len);
 	try
 	    {
 		m_out.write(b, off, len);
-		m_out.flush();
 	    }
 	catch (IOException e)
 	    {
@@ -116,23 +128,76 @@ public class OutputSocket
     //----------------------------------------------------------------------
  
     /**
-     * Setup {@link OutputStream} as a {@link BufferedOutputStream}.
+     * Setup an {@link OutputBatch} over the channel.
     */
     public void setup()
     {
 	PackageLogger.log.fine("Attempting to setup OutputStream.");
 	
-	m_out = new BufferedOutputStream(m_outStream);
+	m_out = new OutputBatch(new ChannelOutputStream());
 	if (m_conListener != null) m_conListener.socketConnected(this);
 	
 	PackageLogger.log.fine("OutputStream opened.");
     }
     
+    /**
+     * Send any batched messages now.
+     *
+     * @throws IOException if there is any kind of IO problem
+     */
+    public void flush() throws IOException
+    {
+	if ( m_out != null ) m_out.flush();
+    }
+    //----------------------------------------------------------------------
     /** Close Stream. */
     public void close() throws IOException
     {
+	if ( m_writeSelector != null ) m_writeSelector.close();
 	m_out.close();
 	m_out = null;
     }
-    
+    //----------------------------------------------------------------------
+    /**
+     * Write all of <tt>buf</tt> to the channel, waiting for it to become
+     * writable whenever it can't accept more.
+     */
+    private void writeFully(ByteBuffer buf) throws IOException
+    {
+	while ( buf.hasRemaining() )
+	{
+	    if ( m_channel.write(buf) > 0 ) continue;
+
+	    if ( m_writeSelector == null )
+	    {
+		m_writeSelector = Selector.open();
+		m_channel.register(m_writeSelector, SelectionKey.OP_WRITE);
+	    }
+	    m_writeSelector.select();
+	    m_writeSelector.selectedKeys().clear();
+	}
+    }
+    //----------------------------------------------------------------------
+    /**
+     * Adapts the channel to an {@link OutputStream}, so that it can be
+     * buffered.
+     */
+    private class ChannelOutputStream extends OutputStream
+    {
+	public void write(int b) throws IOException
+	{
+	    write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+	    writeFully(ByteBuffer.wrap(b, off, len));
+	}
+
+	public void close() throws IOException
+	{
+	    m_channel.close();
+	}
+    }
+
 }
@@ -3,17 +3,23 @@ package nrs.core.comms;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import nrs.bmf.BMFEncoder;
+import nrs.bmf.BMFParser;
 import nrs.core.base.BaseComponent;
+import nrs.core.base.BroadcastCache;
 import nrs.core.base.CIDManager;
+import nrs.core.base.Log;
 import nrs.core.base.Pipeline;
 import nrs.core.base.Message;
 import nrs.core.base.MessageProcessor;
 import nrs.core.base.MessageTools;
 import nrs.core.base.OutboundPipeline;
+import nrs.core.base.RouteManager;
+import nrs.core.base.VariableManager;
 import nrs.core.message.Constants;
 import nrs.core.message.QueryCID;
 import nrs.pml.PMLParser;
@@ -61,10 +67,18 @@ public class PortManager extends MessageProcessor
   /** Set of ports being managed, each value is of type {@link
    *  CommsRoute}, while the key is a string representing the encoded
    *  route */
-  private HashMap<String, CommsRoute> m_ports;
+  private ConcurrentHashMap<String, CommsRoute> m_ports;
 
-  /** Used and reused for constructing messasges */
-  private ByteArrayOutputStream m_msg = new ByteArrayOutputStream();
+  /** Used and reused, by each sending thread, for constructing
+   * messages */
+  private static final ThreadLocal<ByteArrayOutputStream> m_msgBuf
+    = new ThreadLocal<ByteArrayOutputStream>()
+    {
+      protected ByteArrayOutputStream initialValue()
+      {
+        return new ByteArrayOutputStream();
+      }
+    };
 
   /** Needed for access VNIDs */
   private BaseComponent m_defNode;
@@ -94,6 +108,18 @@ public class PortManager extends MessageProcessor
 
   private CIDManager m_cidManager;
 
+  /** Stamps the broadcasts sent by this component, so that copies of
+   * them can be recognised */
+  private BroadcastCache m_broadcastCache;
+
+  /** Told when a port is removed, so that routes through it are
+   * forgotten */
+  private RouteManager m_routeManager;
+
+  /** Needed for decoding BMF messages, which are addressed to variables
+   * by VNID alone */
+  private VariableManager m_vm;
+
   //----------------------------------------------------------------------
   /**
    * Create a {@link PortManager} that provides a client mode connection
@@ -104,7 +130,7 @@ public class PortManager extends MessageProcessor
 
     m_defNode = null;
     m_isServer = false;
-    m_ports = new HashMap<String, CommsRoute>();
+    m_ports = new ConcurrentHashMap<String, CommsRoute>();
   }
   //----------------------------------------------------------------------
   /**
@@ -127,7 +153,7 @@ public class PortManager extends MessageProcessor
 
     m_defNode = node;
     m_isServer = true;
-    m_ports = new HashMap<String, CommsRoute>();
+    m_ports = new ConcurrentHashMap<String, CommsRoute>();
   }
   //----------------------------------------------------------------------
   /**
@@ -184,6 +210,10 @@ public class PortManager extends MessageProcessor
     if (port == null) return;
     
     m_ports.remove(port.getID().getEncoding());
+
+    // routes through the port no longer lead anywhere
+    if (m_routeManager != null)
+      m_routeManager.removePortRoutes(port.getID().getEncoding());
   }
   //----------------------------------------------------------------------
   /**
@@ -300,10 +330,24 @@ public class PortManager extends MessageProcessor
     next(m);
   }
   //----------------------------------------------------------------------
+  /**
+   * Send immediately any messages held by the ports for batching. Ports
+   * send such messages after a short delay anyway; this should be
+   * called at the end of a simulation step, or wherever else a pause in
+   * output is known to follow, to avoid that delay.
+   */
+  public void flush()
+  {
+    for (CommsRoute port : m_ports.values())
+    {
+      port.getWriter().flush();
+    }
+  }
+  //----------------------------------------------------------------------
   /**
    * Handle the sending of a broadcast message
    */
-  private synchronized void sendBroadcastMessage(Message m)
+  private void sendBroadcastMessage(Message m, ByteArrayOutputStream buf)
   {
     // Deal with hop count
     if (!m.hasNRSField(Constants.MessageFields.iHopCount))
@@ -314,6 +358,12 @@ public class PortManager extends MessageProcessor
     }
     else if (MessageTools.decrementHop(m)) return;
 
+    // Identify broadcasts which start here
+    if (m.aux().getReceivedPort() == null && m_broadcastCache != null)
+    {
+      m_broadcastCache.stamp(m);
+    }
+
     // Store the current value of iForwardRoute, if present
     String iForwardRoute = null;
     if (m.hasNRSField(Constants.MessageFields.iForwardRoute))
@@ -321,6 +371,11 @@ public class PortManager extends MessageProcessor
       iForwardRoute = m.getNRSField(Constants.MessageFields.iForwardRoute);
     }
 
+    // Only iForwardRoute differs between ports, so the other fields
+    // are encoded once
+    boolean fanOut = !m.isFanOut() && m_ports.size() > 1;
+    if (fanOut) m.setFanOut(true);
+
     // Attempt send on each port
     for (Iterator i = m_ports.values().iterator(); i.hasNext(); )
     {
@@ -338,13 +393,10 @@ public class PortManager extends MessageProcessor
 
       try
       {
-        // _BUG_(This will fail is a port is BMF)
-        m.getPML(m_msg, true);
-        PackageLogger.log.fine("Sending " + m_msg + " on port:" + port);
-        port.write(m_msg);
-        m.aux().setSendStatus(true);
-        
-        m_msg.reset();
+        buf.reset();
+        encode(m, port, buf);
+        Log.fine(PackageLogger.log, "Sending {0} on port:{1}", buf, port);
+        if (send(m, port, buf.toByteArray())) m.aux().setSendStatus(true);
       }
       catch (Exception e)
       {
@@ -352,6 +404,8 @@ public class PortManager extends MessageProcessor
         e.printStackTrace();
       }
     }
+
+    if (fanOut) m.setFanOut(false);
   }
   //----------------------------------------------------------------------
   /**
@@ -375,18 +429,21 @@ public class PortManager extends MessageProcessor
    * then {@link nrs.core.base.AuxillaryInfo#setRoute(String)} is called
    * with the original route value.
    *
-   * This method is synchronized to prevent multiple threads accessing it, and 
-   * causing problems. 
+   * <p>This method may be called by any number of threads at once. Each
+   * encodes messages in a buffer of its own, and the encoded message is
+   * then queued on the port's {@link PortWriter}, so that it is the
+   * port's writer, not the caller, which waits on the port.
    */
-  private synchronized void transmitMessage(Message m)
+  private void transmitMessage(Message m)
   {
-    m_msg.reset();
+    ByteArrayOutputStream buf = m_msgBuf.get();
+    buf.reset();
 
     // Handle broadcast messages
 
     if (MessageTools.isBroadcast(m))
     {
-      sendBroadcastMessage(m);
+      sendBroadcastMessage(m, buf);
     }
     else
     {
@@ -421,11 +478,9 @@ public class PortManager extends MessageProcessor
                         + port.getID().getEncoding());
         }
 
-        m.getPML(m_msg, true);
-        PackageLogger.log.fine("Sending " + m_msg
-                               + " on port:" + port);
-        port.write(m_msg);
-        m.aux().setSendStatus(true);
+        encode(m, port, buf);
+        Log.fine(PackageLogger.log, "Sending {0} on port:{1}", buf, port);
+        m.aux().setSendStatus(send(m, port, buf.toByteArray()));
       }
       catch (IllegalArgumentException ae)
       {
@@ -443,22 +498,78 @@ public class PortManager extends MessageProcessor
     }
   }
   //----------------------------------------------------------------------
+  /**
+   * Pass an encoded message to the writer of <tt>port</tt>. A message
+   * with a message ID is kept (see {@link
+   * nrs.core.base.MessageStorage}) only if it was sent, so its sender
+   * waits for the writer to report whether it was. Other messages are
+   * just queued, and their send status can't be known.
+   *
+   * @return <tt>true</tt> if the message is known to have been sent
+   */
+  private boolean send(Message m, CommsRoute port, byte[] b)
+  {
+    if (m.hasField(Constants.Fields.F_msgID))
+      return port.getWriter().sendAndWait(b);
+
+    port.getWriter().send(b);
+    return false;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write the representation of message <tt>m</tt> appropriate to the
+   * message format of <tt>port</tt> into <tt>buf</tt>.
+   *
+   * @throws IOException if the message can't be represented
+   */
+  private void encode(Message m, CommsRoute port, ByteArrayOutputStream buf)
+    throws IOException
+  {
+    if (port.getMessageFormat() == CommsRoute.FORMAT_BMF)
+    {
+      BMFEncoder.encode(m, buf, true);
+    }
+    else if (m.getRawBMF() != null)
+    {
+      throw new IOException("can't send an undecoded BMF message"
+                            + " on PML port " + port);
+    }
+    else
+    {
+      m.getPML(buf, true);
+    }
+  }
+  //----------------------------------------------------------------------
   public void displayHelp()
   {
     System.out.println("\t-F|--fifo-pml <in> <out>\tcommunicate in PML using two fifos");
+    System.out.println("\t-f|--fifo-bmf <in> <out>\tcommunicate in BMF using two fifos");
+    System.out.println("\t-M|--shm-pml <in> <out>\tcommunicate in PML using two"
+                       + " shared memory files");
+    System.out.println("\t-m|--shm-bmf <in> <out>\tcommunicate in BMF using two"
+                       + " shared memory files");
     System.out.println("\t-S <port>\tcommunicate in PML using Sockets - "
 		       + "act as server listening on <port>");
     System.out.println("\t-C <host> <port>\tcommunicate in PML using Sockets - "
 		       +"act as client connecting to server at <host>:<port>");
   }
   //----------------------------------------------------------------------
-  public List getOptions()
+  public List<String> getOptions()
   {
-    List options = new ArrayList();
+    List<String> options = new ArrayList<String>();
 
     options.add("F");
     options.add("fifo-pml");
 
+    options.add("f");
+    options.add("fifo-bmf");
+
+    options.add("M");
+    options.add("shm-pml");
+
+    options.add("m");
+    options.add("shm-bmf");
+
     options.add("S");
     options.add("C");
 
@@ -488,6 +599,45 @@ public class PortManager extends MessageProcessor
         throw new ArgumentException(option, index, ArgumentException.MISSING);
       }
     }
+    else if (option.equals("f") || option.equals("fifo-bmf"))
+    {
+      // ensure there are enough options
+      if (index + 2 < args.length)
+      {
+        String fifoIn = args[index+1];
+        String fifoOut = args[index+2];
+
+        args[index+1] = null;
+        args[index+2] = null;
+
+        openFifoBmf(fifoIn, fifoOut);
+      }
+      else
+      {
+        throw new ArgumentException(option, index, ArgumentException.MISSING);
+      }
+    }
+    else if (option.equals("M") || option.equals("shm-pml")
+             || option.equals("m") || option.equals("shm-bmf"))
+    {
+      // ensure there are enough options
+      if (index + 2 < args.length)
+      {
+        String fileIn = args[index+1];
+        String fileOut = args[index+2];
+
+        args[index+1] = null;
+        args[index+2] = null;
+
+        boolean bmf = option.equals("m") || option.equals("shm-bmf");
+        openSharedMemory(fileIn, fileOut,
+                         bmf ? CommsRoute.FORMAT_BMF : CommsRoute.FORMAT_PML);
+      }
+      else
+      {
+        throw new ArgumentException(option, index, ArgumentException.MISSING);
+      }
+    }
     else if ( option.equals("S") ){
 	// ensure there are enough options
 	if (index + 1 < args.length){
@@ -577,6 +727,100 @@ public class PortManager extends MessageProcessor
 	    }
 
     }
+  //----------------------------------------------------------------------
+  /**
+   * Open a pair of fifos to a component which speaks BMF.
+   *
+   * @param fifoIn name of the fifo to read from
+   * @param fifoOut name of the fifo to write to
+   */
+  public void openFifoBmf(String fifoIn, String fifoOut)
+  {
+    if (m_vm == null)
+    {
+      PackageLogger.log.warning("Can't open BMF connection: no"
+                                + " VariableManager is available for"
+                                + " decoding messages");
+      return;
+    }
+
+    int ID = getFreePortID();
+
+    try
+    {
+      final FIFOCommsRoute fifo = new FIFOCommsRoute(ID,
+                                                     "Local FIFO",
+                                                     fifoIn,
+                                                     fifoOut);
+      fifo.setMessageFormat(CommsRoute.FORMAT_BMF);
+
+      BMFParser bmfParser = new BMFParser(m_vm);
+      fifo.setMesssageListener(bmfParser);
+
+      bmfParser.setMessageCallbacks(fifo, m_defaultInPipe);
+
+      addPort(fifo);
+
+      fifo.open();
+    }
+    catch (Exception e)
+    {
+      PackageLogger.log.warning("Failed to open local connection, "
+                                + e.toString());
+      e.printStackTrace();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Open a pair of shared memory files to a component on the same host.
+   *
+   * @param fileIn name of the file to read from
+   * @param fileOut name of the file to write to
+   * @param format format of the messages exchanged, either {@link
+   * CommsRoute#FORMAT_PML} or {@link CommsRoute#FORMAT_BMF}
+   */
+  public void openSharedMemory(String fileIn, String fileOut, int format)
+  {
+    if (format == CommsRoute.FORMAT_BMF && m_vm == null)
+    {
+      PackageLogger.log.warning("Can't open BMF connection: no"
+                                + " VariableManager is available for"
+                                + " decoding messages");
+      return;
+    }
+
+    int ID = getFreePortID();
+
+    try
+    {
+      final SharedMemoryCommsRoute shm
+        = new SharedMemoryCommsRoute(ID, "Shared memory", fileIn, fileOut);
+      shm.setMessageFormat(format);
+
+      if (format == CommsRoute.FORMAT_BMF)
+      {
+        BMFParser bmfParser = new BMFParser(m_vm);
+        shm.setMesssageListener(bmfParser);
+        bmfParser.setMessageCallbacks(shm, m_defaultInPipe);
+      }
+      else
+      {
+        PMLParser pmlParser = new PMLParser();
+        shm.setMesssageListener(pmlParser);
+        pmlParser.setMessageCallbacks(shm, m_defaultInPipe);
+      }
+
+      addPort(shm);
+
+      shm.open();
+    }
+    catch (Exception e)
+    {
+      PackageLogger.log.warning("Failed to open shared memory connection, "
+                                + e.toString());
+      e.printStackTrace();
+    }
+  }
     //----------------------------------------------------------------------
     public void openServer(int port){
 	try{
@@ -676,6 +920,31 @@ public class PortManager extends MessageProcessor
     m_defNode = node;
   }
 
+  /**
+   * Provide the {@link BroadcastCache} used to give the broadcast
+   * messages sent by this component an origin and message ID, by which
+   * copies of them are recognised and dropped.
+   */
+  public void setBroadcastCache(BroadcastCache cache){
+    m_broadcastCache = cache;
+  }
+
+  /**
+   * Provide the {@link RouteManager} whose routes through a port should
+   * be forgotten when the port is removed.
+   */
+  public void setRouteManager(RouteManager rm){
+    m_routeManager = rm;
+  }
+
+  /**
+   * Provide the {@link VariableManager} used to identify the type of
+   * messages received on BMF ports.
+   */
+  public void setVariableManager(VariableManager vm){
+    m_vm = vm;
+  }
+
   public void setIsServer(){
     m_isServer = true;
   }
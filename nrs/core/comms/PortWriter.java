@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.comms;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The outbound message queue of a single {@link CommsRoute}.
+ *
+ * <p>Any number of threads may {@link #send} messages, which are
+ * already encoded, without waiting for one another or for the port. A
+ * single writer takes messages from the queue, in the order they were
+ * sent, and writes them to the port. The writer runs on a shared pool of
+ * threads and only exists while the queue is non-empty, so idle ports
+ * don't tie up a thread; but no port ever has more than one writer at a
+ * time.
+ *
+ * <p>A sender which needs to know whether its message reached the port,
+ * such as one whose message is kept for matching with its reply, uses
+ * {@link #sendAndWait(byte[])}, which waits for the writer.
+ *
+ * <p>The queue holds at most {@link #QUEUE_LIMIT} bytes. Senders don't
+ * wait for space, since they may be the threads which deliver received
+ * messages; instead, a message which would overflow the queue is
+ * dropped, with a warning, as it would be if the port had failed. So a
+ * peer which stops reading can't exhaust memory.
+ *
+ * <p>Ports may hold back what is written to them, to batch it with
+ * later messages (see {@link OutputBatch}). The writer flushes the port
+ * once the queue has been written, if asked to by {@link #flush()},
+ * and otherwise no more than {@link #FLUSH_DELAY} milliseconds later.
+ * Only the writer ever writes to or flushes the port: other threads,
+ * such as the socket event loops, just ask it to, so a peer which stops
+ * reading holds up only the messages for its own port.
+ */
+final class PortWriter implements Runnable
+{
+  /** Threads used by the writers of all ports */
+  private static final ExecutorService m_pool =
+    Executors.newCachedThreadPool(new ThreadFactory()
+      {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "Port writer");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  /** Requests the delayed flushes of all ports */
+  private static final ScheduledExecutorService m_timer =
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "Port flush timer");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  /** Maximum time, in milliseconds, that a port holds back data
+   * written to it before it is flushed */
+  static final long FLUSH_DELAY = 2;
+
+  /** Writers which have been sent messages since the last {@link
+   * #flushAll()} */
+  private static final ConcurrentLinkedQueue<PortWriter> m_dirty
+    = new ConcurrentLinkedQueue<PortWriter>();
+
+  /** Port written to */
+  private final CommsRoute m_port;
+
+  /** Milliseconds {@link #sendAndWait(byte[])} waits for its message
+   * to be written */
+  static final long WAIT_TIMEOUT = 5000;
+
+  /** Maximum number of bytes of messages queued for one port. A
+   * message is always accepted by an empty queue, however large. */
+  static final int QUEUE_LIMIT = 4 * 1024 * 1024;
+
+  /** Messages waiting to be written: encoded messages, and {@link
+   * Receipt}s of those whose senders are waiting */
+  private final ConcurrentLinkedQueue<Object> m_queue
+    = new ConcurrentLinkedQueue<Object>();
+
+  /** Number of bytes of messages in {@link #m_queue} */
+  private final AtomicInteger m_queued = new AtomicInteger(0);
+
+  /** Number of messages dropped since the queue last overflowed */
+  private final AtomicInteger m_dropped = new AtomicInteger(0);
+
+  /** Set while a writer is scheduled or running */
+  private final AtomicBoolean m_active = new AtomicBoolean(false);
+
+  /** Set while this is on the {@link #m_dirty} list */
+  private final AtomicBoolean m_isDirty = new AtomicBoolean(false);
+
+  /** Set when the port should be flushed once the queue is empty */
+  private volatile boolean m_flush = false;
+
+  /** Set while a delayed flush is due */
+  private final AtomicBoolean m_flushDue = new AtomicBoolean(false);
+
+  /** Requests the delayed flush; run by {@link #m_timer} */
+  private final Runnable m_delayedFlush = new Runnable()
+    {
+      public void run()
+      {
+        m_flushDue.set(false);
+        flush();
+      }
+    };
+
+  //----------------------------------------------------------------------
+  PortWriter(CommsRoute port)
+  {
+    m_port = port;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Ask every port which has been sent messages to write out all of
+   * them, including any the port is holding back for batching. Used
+   * when the messages received have all been processed, so that the
+   * replies to them aren't delayed. Doesn't wait for the writes.
+   */
+  static void flushAll()
+  {
+    PortWriter w;
+    while ((w = m_dirty.poll()) != null)
+    {
+      w.m_isDirty.set(false);
+      w.flush();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Queue an encoded message for writing, or drop it if the queue is
+   * full. The array must not be modified afterwards.
+   */
+  void send(byte[] message)
+  {
+    queue(message, message.length);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Queue an encoded message for writing, and wait until it has been
+   * written and the port flushed, or for at most {@link
+   * #WAIT_TIMEOUT} milliseconds. The array must not be modified
+   * afterwards.
+   *
+   * @return <tt>true</tt> if the message was written, <tt>false</tt>
+   * if the queue was full, or writing failed or took too long
+   */
+  boolean sendAndWait(byte[] message)
+  {
+    Receipt r = new Receipt(message);
+    if (!queue(r, message.length)) return false;
+    return r.await(WAIT_TIMEOUT);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * @return <tt>false</tt> if the message was dropped because the queue
+   * is full
+   */
+  private boolean queue(Object message, int length)
+  {
+    int queued = m_queued.addAndGet(length);
+
+    if (queued > QUEUE_LIMIT && queued != length)
+    {
+      m_queued.addAndGet(-length);
+
+      if (m_dropped.getAndIncrement() == 0)
+      {
+        PackageLogger.log.warning("Port " + m_port + " isn't keeping up:"
+                                  + " more than " + QUEUE_LIMIT + " bytes"
+                                  + " waiting; dropping messages");
+      }
+      return false;
+    }
+
+    m_queue.add(message);
+
+    if (m_isDirty.compareAndSet(false, true)) m_dirty.add(this);
+
+    schedule();
+    return true;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Flush the port once the messages now queued have been written.
+   * Doesn't wait for the writer.
+   */
+  void flush()
+  {
+    m_flush = true;
+    schedule();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write the queued messages. Runs until the queue is empty.
+   */
+  public void run()
+  {
+    // whether the port may be holding back data written to it
+    boolean held = false;
+
+    do
+    {
+      Object o;
+      while ((o = m_queue.poll()) != null)
+      {
+        Receipt r = (o instanceof Receipt) ? (Receipt) o : null;
+        byte[] b = (r != null) ? r.m_message : (byte[]) o;
+        boolean ok = false;
+
+        try
+        {
+          m_port.write(b, 0, b.length);
+          held = true;
+
+          // a waiting sender wants the message sent, not batched
+          if (r != null)
+          {
+            m_port.flush();
+            held = false;
+          }
+          ok = true;
+        }
+        catch (Exception e)
+        {
+          PackageLogger.log.severe("Failed to send message on port "
+                                   + m_port + ": " + e);
+        }
+
+        m_queued.addAndGet(-b.length);
+        if (r != null) r.finish(ok);
+      }
+
+      int dropped = m_dropped.getAndSet(0);
+      if (dropped != 0)
+      {
+        PackageLogger.log.warning("Port " + m_port + " has caught up; "
+                                  + dropped + " messages were dropped");
+      }
+
+      if (m_flush)
+      {
+        m_flush = false;
+        held = false;
+        try
+        {
+          m_port.flush();
+        }
+        catch (Exception e)
+        {
+          PackageLogger.log.warning("Failed to flush port " + m_port
+                                    + ": " + e);
+        }
+      }
+
+      if (held && m_flushDue.compareAndSet(false, true))
+      {
+        m_timer.schedule(m_delayedFlush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+      }
+
+      m_active.set(false);
+
+      // a message or flush may have arrived after the checks above, but
+      // before the writer was marked inactive
+    }
+    while ((!m_queue.isEmpty() || m_flush)
+           && m_active.compareAndSet(false, true));
+  }
+  //----------------------------------------------------------------------
+  private void schedule()
+  {
+    if (m_active.compareAndSet(false, true)) m_pool.execute(this);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * A queued message whose sender waits for it to be written
+   */
+  private static final class Receipt
+  {
+    final byte[] m_message;
+    private boolean m_done = false;
+    private boolean m_ok = false;
+
+    Receipt(byte[] message)
+    {
+      m_message = message;
+    }
+
+    synchronized void finish(boolean ok)
+    {
+      m_ok = ok;
+      m_done = true;
+      notifyAll();
+    }
+
+    synchronized boolean await(long ms)
+    {
+      long deadline = System.currentTimeMillis() + ms;
+
+      try
+      {
+        while (!m_done)
+        {
+          long left = deadline - System.currentTimeMillis();
+          if (left <= 0) return false;
+          wait(left);
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+
+      return m_ok;
+    }
+  }
+}
@@ -22,9 +22,11 @@
  */
 package nrs.core.comms;
 
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.ConnectException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import nrs.pml.PMLParser;
 import nrs.core.base.Pipeline;
@@ -37,13 +39,15 @@ import java.io.IOException;
  * 
  * The server listens on a specified port for incoming connections and then
  * creates new SocketCommsRoute objects to represent TCP connections to NRS 
- * components.
+ * components. Only the listening is done by this thread; once set up,
+ * the connections are read by the shared socket event loops.
  *
  * @author Thomas French
 */
 
 public class ServerSockets extends Thread{
     
+  private ServerSocketChannel m_serverChannel;
   private ServerSocket m_serverSocket;
   private int m_port;
   private boolean m_alive = true;
@@ -84,7 +88,9 @@ public class ServerSockets extends Thread{
     m_portMan = pm;
     
     //setup ServerSocket
-    m_serverSocket = new ServerSocket(m_port);
+    m_serverChannel = ServerSocketChannel.open();
+    m_serverSocket = m_serverChannel.socket();
+    m_serverSocket.bind(new InetSocketAddress(m_port));
     
     PackageLogger.log.fine("ServerSocket setup on port: " + m_port);
     
@@ -94,9 +100,8 @@ public class ServerSockets extends Thread{
   
   /* Run as thread, listening for connections. */
   public void run(){
-    Socket socket = null;
+    SocketChannel socket = null;
     String n = null;
-    PMLParser pmlParser;
     
     PackageLogger.log.fine("ServerSocket to start listening for" 
                            + " connections on port: " 
@@ -104,7 +109,7 @@ public class ServerSockets extends Thread{
     while(m_alive){
       try{
         //blocks, and waits for connections
-        socket = m_serverSocket.accept();
+        socket = m_serverChannel.accept();
 	
         if ( m_numberOfCons == MAX_CONNECTIONS ){
           PackageLogger.log.info("Maximum number of client " 
@@ -118,15 +123,13 @@ public class ServerSockets extends Thread{
         m_numberOfCons++;
         
         PackageLogger.log.fine("ServerSocket accepted connection from: "
-                               + socket.getInetAddress() + " on port: " 
-                               + socket.getPort());
+                               + socket.socket().getInetAddress()
+                               + " on port: " 
+                               + socket.socket().getPort());
         
         n = "Socket_"+m_clientID++;
 	
-        //Every incoming connection gets threaded
-        ServerWorker w = new ServerWorker(m_portMan.getFreePortID(), 
-                                          n, socket, m_portMan, this,
-                                          m_inbound);
+        addClient(m_portMan.getFreePortID(), n, socket);
       }
       catch(Exception e){
         if ( m_serverSocket == null || m_serverSocket.isClosed() ){
@@ -154,45 +157,24 @@ public class ServerSockets extends Thread{
     m_alive = false;
   }
   
-  /** Decrement number of clients counter when connection is closed. */
-  public void decrementNumCons(){
-    m_numberOfCons--;
-  }
-}
-/**
-   Used by the ServerSocket to spawn threads to do work.
-*/
-class ServerWorker extends Thread
-{
-  private SocketCommsRoute scr = null;
-  private int c;
-  private String name;
-  private Socket s;
-  private PortManager pm;
-  private ServerSockets server;
-  private Pipeline inbound;
-  
-  public ServerWorker(int c, String name, Socket s, 
-                      PortManager pm, ServerSockets server,
-                      Pipeline inbound){
-    this.c = c;
-    this.name = name;
-    this.s = s;
-    this.pm = pm;
-    this.server = server;
-    this.inbound = inbound;
-    
-    this.start();
-  }
-  
-  public void run(){
+  /**
+   * Create and open a {@link SocketCommsRoute} for a newly accepted
+   * connection, and register it with the {@link PortManager}. Opening
+   * the route does not block, so this is done directly by the
+   * listening thread.
+   */
+  private void addClient(int ID, String name, SocketChannel socket)
+  {
+    SocketCommsRoute scr = null;
     try
-      {
-        scr = new SocketCommsRoute(c, name, s, server);
-      }
+    {
+      scr = new SocketCommsRoute(ID, name, socket, this);
+    }
     catch(IOException ioe){
       PackageLogger.log.warning(ioe.getMessage());
       ioe.printStackTrace();
+      decrementNumCons();
+      return;
     }
     
     PMLParser pml = null;
@@ -204,12 +186,17 @@ class ServerWorker extends Thread
     }
     
     scr.setMesssageListener(pml);
-    pml.setMessageCallbacks(scr, inbound);
-    pm.addPort(scr);
+    pml.setMessageCallbacks(scr, m_inbound);
+    m_portMan.addPort(scr);
     
     scr.open();
     if ( scr.isUp() )
       PackageLogger.log.fine("SocketCommsRoute has been established: " 
                              + name);
   }
+  
+  /** Decrement number of clients counter when connection is closed. */
+  public void decrementNumCons(){
+    m_numberOfCons--;
+  }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.comms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A concrete implementation of the {@link CommsRoute} interface for
+ * exchanging messages with an NRS component on the same host, through a
+ * pair of memory-mapped files.
+ *
+ * <p>This plays the same part as {@link FIFOCommsRoute}, but messages
+ * are passed through shared memory (see {@link SharedRing}) rather than
+ * through the kernel, and a message of any size can be sent in one
+ * write. As with FIFOs, one component's inbound file is the other's
+ * outbound file; the files are created by whichever component starts
+ * first, and for best results should be on a memory backed file
+ * system, such as <tt>/dev/shm</tt>.
+ *
+ * <p>Since the other end can't signal the arrival of data, a reader
+ * thread polls the inbound file, backing off to sleeps of at most a
+ * millisecond while no messages arrive. Waiting data is copied out of
+ * the file in bulk, and split into messages by a {@link MessageFramer}.
+ * The thread stops when the route is closed (see {@link #close()}).
+ */
+public class SharedMemoryCommsRoute extends CommsRoute implements Runnable
+{
+  /** The byte value which indicates the completion of a message */
+  public static final byte DELIM = MessageFramer.DELIM;
+
+  private final String m_inName;
+  private final String m_outName;
+
+  private SharedRing m_in;
+  private SharedRing m_out;
+
+  /** Thread reading from {@link #m_in}, or <tt>null</tt> once the
+   * route is closed */
+  private volatile Thread m_reader;
+
+  //----------------------------------------------------------------------
+  /**
+   * Create {@link SharedMemoryCommsRoute} using the specified
+   * filenames. The files are not opened until {@link #open()} is
+   * called.
+   *
+   * @param ID the locally unique ID associated with this route / port
+   * and used for wormhole routing.
+   * @param name a text label to associate with this route / port
+   * @param inboundFilename name of the file which provides data to the
+   * component
+   * @param outboundFilename name of the file which the component writes
+   * to
+   */
+  public SharedMemoryCommsRoute(int ID,
+                                String name,
+                                String inboundFilename,
+                                String outboundFilename)
+    throws NullPointerException
+  {
+    super(ID, name);
+
+    if (inboundFilename == null)
+      throw new NullPointerException("inboundFilename can't be null");
+    if (outboundFilename == null)
+      throw new NullPointerException("outboundFilename can't be null");
+
+    m_inName = inboundFilename;
+    m_outName = outboundFilename;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized void open()
+  {
+    if (isUp()) return;
+
+    try
+    {
+      m_out = new SharedRing(m_outName, SharedRing.DEFAULT_CAPACITY);
+      m_in = new SharedRing(m_inName, SharedRing.DEFAULT_CAPACITY);
+    }
+    catch (IOException e)
+    {
+      PackageLogger.log.warning("Failed to open shared memory"
+                                + " communications using " + m_inName
+                                + " and " + m_outName + ": " + e);
+      m_in = null;
+      m_out = null;
+      return;
+    }
+
+    m_reader = new Thread(this, "Shared memory reader " + m_inName);
+    m_reader.setDaemon(true);
+    m_reader.start();
+
+    generateConnectionEvent(true);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Close the route: stop the reader thread, and make any write waiting
+   * for space fail. The files are left for the other component. The
+   * route can be opened again later.
+   */
+  public void close()
+  {
+    Thread reader;
+    synchronized (this)
+    {
+      if (!isUp()) return;
+
+      m_in.close();
+      m_out.close();
+      m_in = null;
+      m_out = null;
+      reader = m_reader;
+      m_reader = null;
+    }
+
+    reader.interrupt();
+    generateConnectionEvent(false);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> if this communications port is UP. This means
+   * the port can be used for both sending and receiving data.
+   */
+  public synchronized boolean isUp()
+  {
+    return (m_in != null) && (m_out != null);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Reader thread; assemble messages from the inbound file and pass
+   * them to the {@link MessageListener}.
+   */
+  public void run()
+  {
+    SharedRing in;
+    synchronized (this)
+    {
+      in = m_in;
+    }
+
+    // local to this thread, in case the route is closed and reopened
+    // while it finishes a message
+    MessageFramer framer = new MessageFramer();
+
+    int idle = 0;
+
+    while (m_reader == Thread.currentThread())
+    {
+      int free = framer.prepare();
+      int n = in.read(framer.buffer(), framer.end(), free);
+
+      if (n == 0)
+      {
+        // nothing waiting, so send any replies before waiting
+        if (idle == 0) PortWriter.flushAll();
+        idle = SharedRing.pause(idle);
+        continue;
+      }
+      idle = 0;
+
+      framer.advance(n);
+      while (framer.next()) dispatch(framer);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Pass the message just found by <tt>framer</tt> to the {@link
+   * MessageListener}
+   */
+  private void dispatch(MessageFramer framer)
+  {
+    byte[] buf = framer.buffer();
+    int start = framer.start();
+    int size = framer.size();
+
+    PackageLogger.log.finest("Message received on port \"" + this
+                             + "\" ( length " + size + " bytes)");
+
+    if (m_msgListener != null)
+    {
+      try
+      {
+        m_msgListener.messageEvent(buf, start, size, this);
+      }
+      catch (RuntimeException e)
+      {
+        PackageLogger.log.warning("Error processing message on port \""
+                                  + this + "\", " + e);
+        e.printStackTrace();
+      }
+    }
+    else
+    {
+      PackageLogger.log.warning("Message received on port \""
+                                + this + "\" discarded because no"
+                                +" callback has been registered");
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write the message held within the {@link ByteArrayOutputStream} to
+   * the port.
+   *
+   * @param message a {@link ByteArrayOutputStream} containing the data
+   * message
+   *
+   * @throws IllegalStateException} if the port is not opened for writing
+   *
+   * @throws IOException if there is any other kind of IO problem
+   */
+  public void write(ByteArrayOutputStream message)
+    throws IllegalStateException, IOException
+  {
+    byte[] b = message.toByteArray();
+    write(b, 0, b.length);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public void write(byte[] message, int off, int len)
+    throws IllegalStateException, IOException
+  {
+    SharedRing out;
+    synchronized (this)
+    {
+      out = m_out;
+    }
+
+    if (out == null)
+      throw new IllegalStateException("Port " + this + " is not open");
+
+    // the ring has a single writer
+    synchronized (out)
+    {
+      out.write(message, off, len);
+    }
+  }
+}
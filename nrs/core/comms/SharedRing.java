@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.comms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A byte stream between two processes on the same host, held in a
+ * memory-mapped file. One process writes to the ring and one process
+ * reads from it; data passes through shared memory without any system
+ * call or kernel copy.
+ *
+ * <p>The file holds a header followed by the data area, whose size is a
+ * power of two:
+ *
+ * <pre>
+ *   0  int   magic number
+ *   4  int   size of the data area
+ *  64  long  total bytes written (only changed by the writer)
+ * 128  long  total bytes read (only changed by the reader)
+ * 192        data
+ * </pre>
+ *
+ * The two counters are on separate cache lines, and only increase, so
+ * the free space and waiting data are found from their difference. The
+ * writer copies data in before advancing its counter, and the reader
+ * copies data out before advancing its own, so neither side ever sees
+ * a partial update. A write larger than the free space waits for the
+ * reader, so there is no limit on message size.
+ *
+ * <p>Since the two sides are in different processes, Java's memory
+ * model says nothing about the order in which they see each other's
+ * stores, and a volatile field of either process can't help. The
+ * counters are therefore accessed directly in the mapped memory: each
+ * side stores its counter with release semantics, and loads the other
+ * side's with acquire semantics (see {@link #store(int, long)} and
+ * {@link #load(int)}). They are held in the platform's byte order.
+ *
+ * <p>The file is created and initialised by whichever process opens it
+ * first; a file lock guards against both doing so at once.
+ */
+final class SharedRing
+{
+  /** Identifies an initialised ring file ("NRSR") */
+  private static final int MAGIC = 0x4E525352;
+
+  /** Default size of the data area */
+  static final int DEFAULT_CAPACITY = 1 << 20;
+
+  // header layout
+  private static final int MAGIC_POS = 0;
+  private static final int CAPACITY_POS = 4;
+  private static final int WRITTEN_POS = 64;
+  private static final int READ_POS = 128;
+  private static final int DATA_POS = 192;
+
+  /** Longest wait between checks of the other side's counter, in
+   * nanoseconds */
+  private static final long MAX_PARK = 1000000;
+
+  /** <tt>sun.misc.Unsafe.getLongVolatile</tt> and
+   * <tt>putOrderedLong</tt>, bound to the Unsafe instance, for ordered
+   * access to the counters in the mapped memory. They are found
+   * reflectively, since the class isn't part of the platform API. */
+  private static final MethodHandle GET_VOLATILE;
+  private static final MethodHandle PUT_ORDERED;
+
+  /** <tt>sun.misc.Unsafe.getLong(Object, long)</tt>, to find the
+   * address of a mapped buffer */
+  private static final MethodHandle GET_LONG;
+
+  /** Offset of the field of a direct buffer holding its address */
+  private static final long ADDRESS;
+
+  static
+  {
+    try
+    {
+      Class<?> c = Class.forName("sun.misc.Unsafe");
+      Field f = c.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      Object unsafe = f.get(null);
+
+      MethodHandles.Lookup l = MethodHandles.lookup();
+      GET_VOLATILE = l.findVirtual(c, "getLongVolatile",
+                                   MethodType.methodType(long.class,
+                                                         Object.class,
+                                                         long.class))
+        .bindTo(unsafe);
+      PUT_ORDERED = l.findVirtual(c, "putOrderedLong",
+                                  MethodType.methodType(void.class,
+                                                        Object.class,
+                                                        long.class,
+                                                        long.class))
+        .bindTo(unsafe);
+      GET_LONG = l.findVirtual(c, "getLong",
+                               MethodType.methodType(long.class,
+                                                     Object.class,
+                                                     long.class))
+        .bindTo(unsafe);
+
+      Field a = Buffer.class.getDeclaredField("address");
+      ADDRESS = (Long) c.getMethod("objectFieldOffset", Field.class)
+        .invoke(unsafe, a);
+    }
+    catch (Exception e)
+    {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** Name of the file */
+  private final String m_name;
+
+  /** Header of the mapped file, which must stay reachable to keep the
+   * mapping at {@link #m_base} valid */
+  private final MappedByteBuffer m_header;
+
+  /** Address of the header in memory */
+  private final long m_base;
+
+  /** View of the data area used by the writer */
+  private final ByteBuffer m_wdata;
+
+  /** View of the data area used by the reader */
+  private final ByteBuffer m_rdata;
+
+  /** Size of the data area, and mask for positions within it */
+  private final int m_capacity;
+  private final int m_mask;
+
+  /** Set once the ring is closed, to stop a writer waiting for space */
+  private volatile boolean m_closed = false;
+
+  //----------------------------------------------------------------------
+  /**
+   * Map a ring file, creating and initialising it if necessary.
+   *
+   * @param filename the file to map, which should be on a memory backed
+   * file system (such as <tt>/dev/shm</tt>) to avoid disk writes
+   *
+   * @param capacity size of the data area to use if the file is
+   * created; rounded up to a power of two. An existing file keeps its
+   * size.
+   *
+   * @throws IOException if the file can't be opened or mapped, or
+   * isn't a ring file
+   */
+  SharedRing(String filename, int capacity) throws IOException
+  {
+    m_name = filename;
+
+    int size = Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1;
+
+    RandomAccessFile file = new RandomAccessFile(new File(filename), "rw");
+    try
+    {
+      FileChannel channel = file.getChannel();
+      FileLock lock = channel.lock();
+      try
+      {
+        if (file.length() < DATA_POS)
+        {
+          // discard whatever was there, and start with both counters
+          // at zero
+          file.setLength(0);
+          file.setLength(DATA_POS + size);
+          ByteBuffer h = ByteBuffer.allocate(DATA_POS);
+          h.putInt(MAGIC_POS, MAGIC).putInt(CAPACITY_POS, size);
+          channel.write(h, 0);
+        }
+        else
+        {
+          ByteBuffer h = ByteBuffer.allocate(8);
+          channel.read(h, MAGIC_POS);
+          h.flip();
+          if (h.getInt() != MAGIC)
+            throw new IOException(filename + " is not a shared memory ring");
+          size = h.getInt();
+          if (size <= 0 || (size & (size - 1)) != 0
+              || file.length() < DATA_POS + (long) size)
+            throw new IOException(filename + " has a corrupt header");
+        }
+      }
+      finally
+      {
+        lock.release();
+      }
+
+      m_header = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_POS);
+      MappedByteBuffer data
+        = channel.map(FileChannel.MapMode.READ_WRITE, DATA_POS, size);
+      m_wdata = data.duplicate();
+      m_rdata = data.duplicate();
+    }
+    finally
+    {
+      // the mappings remain valid once the file is closed
+      file.close();
+    }
+
+    try
+    {
+      m_base = (long) GET_LONG.invokeExact((Object) m_header, ADDRESS);
+    }
+    catch (Throwable e)
+    {
+      throw new IOException("Can't find the address of " + filename
+                            + ": " + e);
+    }
+    m_capacity = size;
+    m_mask = size - 1;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Append data to the ring, waiting for the reader to make space as
+   * needed. Must only be called by one thread of one process.
+   *
+   * @throws InterruptedIOException if interrupted while waiting for
+   * space, in which case part of the data may have been written
+   *
+   * @throws IOException if the ring is closed while waiting for space
+   */
+  void write(byte[] b, int off, int len) throws IOException
+  {
+    long written = load(WRITTEN_POS);
+    int idle = 0;
+
+    while (len > 0)
+    {
+      long read = load(READ_POS);
+
+      int free = m_capacity - (int) (written - read);
+      if (free == 0)
+      {
+        idle = pause(idle);
+        if (Thread.interrupted())
+          throw new InterruptedIOException("Interrupted writing to "
+                                           + m_name);
+        if (m_closed) throw new IOException(m_name + " has been closed");
+        continue;
+      }
+      idle = 0;
+
+      int n = Math.min(free, len);
+      int pos = (int) written & m_mask;
+      int first = Math.min(n, m_capacity - pos);
+
+      m_wdata.position(pos);
+      m_wdata.put(b, off, first);
+      if (first < n)
+      {
+        m_wdata.position(0);
+        m_wdata.put(b, off + first, n - first);
+      }
+
+      written += n;
+      off += n;
+      len -= n;
+
+      store(WRITTEN_POS, written);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Copy up to <tt>len</tt> bytes of waiting data out of the ring. Never
+   * waits. Must only be called by one thread of one process.
+   *
+   * @return the number of bytes copied, which is zero if no data is
+   * waiting
+   */
+  int read(byte[] dst, int off, int len)
+  {
+    long read = load(READ_POS);
+    long written = load(WRITTEN_POS);
+
+    int n = (int) Math.min(written - read, len);
+    if (n == 0) return 0;
+
+    int pos = (int) read & m_mask;
+    int first = Math.min(n, m_capacity - pos);
+
+    m_rdata.position(pos);
+    m_rdata.get(dst, off, first);
+    if (first < n)
+    {
+      m_rdata.position(0);
+      m_rdata.get(dst, off + first, n - first);
+    }
+
+    store(READ_POS, read + n);
+    return n;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> if no data is waiting to be read
+   */
+  boolean isEmpty()
+  {
+    return load(WRITTEN_POS) == load(READ_POS);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Stop using the ring. A writer waiting for space gives up, and
+   * the file is left as it is for the other process.
+   */
+  void close()
+  {
+    m_closed = true;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Wait a little before checking the ring again, backing off from
+   * spinning to sleeps of up to {@link #MAX_PARK} nanoseconds as the
+   * number of fruitless checks, <tt>idle</tt>, increases.
+   *
+   * @return the new value for <tt>idle</tt>
+   */
+  static int pause(int idle)
+  {
+    if (idle < 100)
+    {
+      Thread.yield();
+    }
+    else
+    {
+      LockSupport.parkNanos(Math.min(MAX_PARK, 1000L * (idle - 99)));
+    }
+    return idle + 1;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Load the counter at header offset <tt>pos</tt>, with acquire
+   * semantics: the data it describes is loaded after it.
+   */
+  private long load(int pos)
+  {
+    try
+    {
+      return (long) GET_VOLATILE.invokeExact((Object) null, m_base + pos);
+    }
+    catch (Throwable e)
+    {
+      throw new Error(e);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Store the counter at header offset <tt>pos</tt>, with release
+   * semantics: the data copied before it is stored first.
+   */
+  private void store(int pos, long value)
+  {
+    try
+    {
+      PUT_ORDERED.invokeExact((Object) null, m_base + pos, value);
+    }
+    catch (Throwable e)
+    {
+      throw new Error(e);
+    }
+  }
+  //----------------------------------------------------------------------
+  public String toString()
+  {
+    return m_name;
+  }
+}
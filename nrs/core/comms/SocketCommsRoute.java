@@ -25,10 +25,14 @@ package nrs.core.comms;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.ConnectException;
 import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+
+import nrs.core.base.Log;
 
 /**
  * This class is a concrete implementation of the {@link CommsRoute}
@@ -36,7 +40,9 @@ import java.net.UnknownHostException;
  * of bytes for the underlying communication mechanism to exchange
  * messages to a local/remote NRS component.
  *
- * This class represents a single {@link Socket} only.
+ * This class represents a single {@link Socket} only. The socket is
+ * accessed through a non-blocking {@link SocketChannel}, which is read
+ * by a shared event loop rather than by a thread of its own.
  *
  * Based on Darren Smith's FIFOCommsRoute class.
  * 
@@ -48,6 +54,9 @@ public class SocketCommsRoute extends CommsRoute
 {
   /** Socket over which bi-directional communication takes place.*/
   private Socket m_socket = null;
+
+  /** Channel of {@link #m_socket} */
+  private SocketChannel m_channel = null;
   
   private InputSocket m_input = null;
   private OutputSocket m_output = null;
@@ -88,32 +97,35 @@ public class SocketCommsRoute extends CommsRoute
    * @param ID the locally unique ID associated with this route / port 
    * and used for wormhole routing.
    * @param name a text label to associate with this route / port
-   * @param socket {@link Socket} for which communication takes place over
+   * @param channel {@link SocketChannel} for which communication takes
+   * place over
    *
-   * @throws NullPointException if socket is null, it can't be.
-   * @throws SocketException if socket is non-null but not connected.
-   * @throws IOException if can't get streams from socket 
+   * @throws NullPointException if channel is null, it can't be.
+   * @throws SocketException if channel is non-null but not connected.
+   * @throws IOException if can't make channel non-blocking
    *
    */
-  public SocketCommsRoute(int ID, String name, Socket socket, 
+  public SocketCommsRoute(int ID, String name, SocketChannel channel, 
                           ServerSockets server)
     throws NullPointerException, SocketException, IOException
   {
     super(ID, name);
     
-    if ( socket == null )
+    if ( channel == null )
     throw new NullPointerException("Socket can't be null");
     if ( server == null )
     throw new NullPointerException("Server can't be null");
     
-    m_socket = socket;
+    m_channel = channel;
+    m_socket = channel.socket();
     m_server = server;
     
     //check that socket is connected
     if ( m_socket.isConnected() && !m_socket.isInputShutdown() 
          && !m_socket.isOutputShutdown() ){
-      m_input = new InputSocket(m_socket.getInputStream(),this,this);
-      m_output = new OutputSocket(m_socket.getOutputStream(),this);
+      m_channel.configureBlocking(false);
+      m_input = new InputSocket(m_channel,this,this);
+      m_output = new OutputSocket(m_channel,this);
     }
     else
     throw new SocketException("Socket not connected");
@@ -137,13 +149,13 @@ public class SocketCommsRoute extends CommsRoute
     if ( m_isClient ){
       try
       {
-        m_socket = new Socket(m_host, m_port);
+        m_channel = SocketChannel.open(new InetSocketAddress(m_host, m_port));
+        m_socket = m_channel.socket();
         PackageLogger.log.fine("Socket opened on" + m_host 
                                + " on port: " + m_port);
       }
-      catch(UnknownHostException uhe){
-        PackageLogger.log.warning(uhe.getMessage());
-        uhe.printStackTrace();
+      catch(UnresolvedAddressException uae){
+        PackageLogger.log.warning("Unknown host: " + m_host);
         
         //System.exit(1); //for debugging.
       }
@@ -158,8 +170,9 @@ public class SocketCommsRoute extends CommsRoute
            !m_socket.isInputShutdown() && !m_socket.isOutputShutdown() 
            && m_input == null && m_output == null ){
         try{
-          m_input = new InputSocket(m_socket.getInputStream(),this,this);
-          m_output = new OutputSocket(m_socket.getOutputStream(),this);
+          m_channel.configureBlocking(false);
+          m_input = new InputSocket(m_channel,this,this);
+          m_output = new OutputSocket(m_channel,this);
         }
         catch(IOException ioe){
           PackageLogger.log.warning(ioe.getMessage());
@@ -195,19 +208,42 @@ public class SocketCommsRoute extends CommsRoute
                               + getName());
   }
   //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public void write(byte[] message, int off, int len)
+    throws IOException
+  {
+    if ( m_output != null )
+    m_output.write(message, off, len);
+    else
+    PackageLogger.log.warning("Not able to write data out over socket: " 
+                              + getName());
+  }
+  //----------------------------------------------------------------------
+  /**
+   * {@inheritDoc}
+   */
+  public void flush() throws IOException
+  {
+    if ( m_output != null ) m_output.flush();
+  }
+  //----------------------------------------------------------------------
   /**
    * {@inheritDoc}
    */
   public void dataAvailable(InputSocket socket,
                             byte[] buffer,
+                            int offset,
                             int size)
   {
-    PackageLogger.log.fine("Message received on port \""
-                           + this + "\" ( length " + size + " bytes)");
+    Log.fine(PackageLogger.log,
+             "Message received on port \"{0}\" ( length {1} bytes)",
+             this, size);
     
     if (m_msgListener != null)
     {
-      m_msgListener.messageEvent(buffer, size, this);
+      m_msgListener.messageEvent(buffer, offset, size, this);
     }
     else
     {
@@ -215,9 +251,9 @@ public class SocketCommsRoute extends CommsRoute
                                 + this + "\" discarded because no"
                                 +" callback has been registered");
     }
-    
-    //callback has expired, so restart the reading in procedure
-    socket.startRead();
+
+    // no need to restart reading; the socket's event loop continues to
+    // serve the channel
   }
   //----------------------------------------------------------------------
   /**
@@ -33,13 +33,18 @@ public interface SocketDataListener
    * @param socket the Socket which received the data
    *
    * @param buffer contains the bytes of the received message, including
-   * the null terminating character
+   * the null terminating character. The buffer belongs to the caller,
+   * and its content is only valid until the callback returns.
+   *
+   * @param offset the offset in <tt>buffer</tt> at which the data
+   * message starts
    *
    * @param size the size of the data message, excluding the null
-   * character. The data message starts at offset <tt>0</tt> and runs
-   * for <tt>size</tt> number of bytes.
+   * character. The data message starts at offset <tt>offset</tt> and
+   * runs for <tt>size</tt> number of bytes.
    **/
   public void dataAvailable(InputSocket socket,
                             byte[] buffer,
+                            int offset,
                             int size);
 };
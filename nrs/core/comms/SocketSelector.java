@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.comms;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An event loop which serves reads for any number of {@link
+ * InputSocket} objects, using a single {@link Selector} and thread.
+ *
+ * <p>A small, fixed pool of these loops is shared by all sockets of the
+ * component; each {@link InputSocket} is assigned to one loop (in turn)
+ * when it first starts reading, and stays with it, so messages from any
+ * one socket are always delivered in order and by the same
+ * thread. Message callbacks run on the loop thread, so they should not
+ * block for long, since that delays the other sockets served by the
+ * same loop.
+ *
+ * <p>Once the messages available have been processed, any output they
+ * caused is sent without waiting for the batching delay, see {@link
+ * PortWriter#flushAll()}.
+ */
+final class SocketSelector implements Runnable
+{
+  /** Number of event loops shared by all sockets */
+  private static final int POOL_SIZE =
+    Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+  /** The event loops, created when first needed */
+  private static SocketSelector[] m_pool;
+
+  /** Index of the loop to assign the next socket to */
+  private static int m_next = 0;
+
+  private final Selector m_selector;
+
+  /** Sockets waiting to be registered by the loop thread */
+  private final ConcurrentLinkedQueue<InputSocket> m_pending
+    = new ConcurrentLinkedQueue<InputSocket>();
+
+  //----------------------------------------------------------------------
+  /**
+   * Return an event loop from the shared pool, the pool being used in
+   * turn.
+   *
+   * @throws IOException if the {@link Selector} of a new loop could not
+   * be opened
+   */
+  static synchronized SocketSelector next() throws IOException
+  {
+    if (m_pool == null) m_pool = new SocketSelector[POOL_SIZE];
+
+    int i = m_next;
+    m_next = (m_next + 1) % POOL_SIZE;
+
+    if (m_pool[i] == null) m_pool[i] = new SocketSelector(i);
+
+    return m_pool[i];
+  }
+  //----------------------------------------------------------------------
+  private SocketSelector(int index) throws IOException
+  {
+    m_selector = Selector.open();
+
+    Thread t = new Thread(this, "Socket selector " + index);
+    t.setDaemon(true);
+    t.start();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Arrange for <tt>socket</tt> to be served by this loop. Channels can
+   * only be registered safely by the loop thread itself, so the socket
+   * is queued and the loop woken.
+   */
+  void register(InputSocket socket)
+  {
+    m_pending.add(socket);
+    m_selector.wakeup();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Event loop; wait for sockets to become readable, and pass each to
+   * its {@link InputSocket} to be drained.
+   */
+  public void run()
+  {
+    while (true)
+    {
+      try
+      {
+        m_selector.select();
+
+        InputSocket s;
+        while ((s = m_pending.poll()) != null) s.register(m_selector);
+
+        Iterator<SelectionKey> i = m_selector.selectedKeys().iterator();
+        while (i.hasNext())
+        {
+          SelectionKey key = i.next();
+          i.remove();
+
+          if (key.isValid() && key.isReadable())
+          {
+            ((InputSocket) key.attachment()).readReady();
+          }
+        }
+
+        // replies to the messages just received can go now
+        PortWriter.flushAll();
+      }
+      catch (IOException e)
+      {
+        PackageLogger.log.warning("Error in socket event loop, " + e);
+      }
+      catch (RuntimeException e)
+      {
+        // don't let a failing callback stop the loop for other sockets
+        PackageLogger.log.warning("Error processing socket data, " + e);
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -61,6 +61,7 @@ public abstract class Constants
     public static final String F_iForwardRoute     = "iForwardRoute";
     public static final String F_iHopCount         = "iHopCount";
     public static final String F_iIsBroadcast      = "iIsBroadcast";
+    public static final String F_iMsgID            = "iMsgID";
     public static final String F_iReturnRoute      = "iReturnRoute";
     public static final String F_iSourceCID        = "iSourceCID";
     public static final String F_iTargetCID        = "iTargetCID";
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.core.message;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import nrs.csl.CSL_BasicType;
+import nrs.csl.CSL_BasicType_Boolean;
+import nrs.csl.CSL_BasicType_Float;
+import nrs.csl.CSL_BasicType_Integer;
+import nrs.csl.CSL_BasicType_Route;
+import nrs.csl.CSL_BasicType_String;
+import nrs.csl.CSL_Element_Message;
+import nrs.csl.CSL_Element_Segment;
+import nrs.csl.CSL_Element_Unit;
+import nrs.csl.CSL_Message_Registry;
+
+import static nrs.core.message.Constants.Fields.*;
+import static nrs.core.message.Constants.MessageTypes.*;
+
+/**
+ * Describes the ordered list of segments (name and basic type) which
+ * make up the body of an NRS message type.
+ *
+ * <p>PML carries a field name with every value, so a message can be
+ * decoded without knowing its layout. BMF carries neither names nor
+ * types, so both the encoder and decoder need a description of each
+ * message. Schemas for the core NRS protocol messages and for the
+ * basic types are built in; others can be registered directly, or
+ * derived from CSL via {@link #register(CSL_Element_Message)}.
+ *
+ * <p>Each schema also records which of its segments are payload, that
+ * is, not fields of the messaging protocol (those of {@link
+ * Constants.Fields}), so that the data a variable receives can be found
+ * without examining every field of the message.
+ *
+ * <p>Schemas are immutable once constructed, and the registry is safe
+ * for use from multiple threads.
+ */
+public class MessageSchema
+{
+  /** Segment of basic type boolean */
+  public static final int BOOLEAN = 0;
+
+  /** Segment of basic type integer */
+  public static final int INTEGER = 1;
+
+  /** Segment of basic type float */
+  public static final int FLOAT = 2;
+
+  /** Segment of basic type string (also used for tokens) */
+  public static final int STRING = 3;
+
+  /** Segment of basic type route */
+  public static final int ROUTE = 4;
+
+  /** Registry of known schemas, keyed by message type */
+  private static final HashMap<String, MessageSchema> m_registry
+    = new HashMap<String, MessageSchema>();
+
+  /** Names of the fields of the messaging protocol */
+  private static final HashSet<String> m_protocolFields = protocolFields();
+
+  /** Message type described */
+  private final String m_type;
+
+  /** Segment names, in transmission order, interned */
+  private final String[] m_names;
+
+  /** Segment types, in transmission order */
+  private final int[] m_types;
+
+  /** Indices of the payload segments, in transmission order */
+  private final int[] m_payload;
+
+  /** Number of schemas created so far */
+  private static int m_count = 0;
+
+  /** Index of this schema, see {@link #getIndex()} */
+  private final int m_index;
+
+  static
+  {
+    // basic types, which carry a single segment named after the type
+    register(new MessageSchema("boolean", new String[] {"boolean"},
+                               new int[] {BOOLEAN}));
+    register(new MessageSchema("integer", new String[] {"integer"},
+                               new int[] {INTEGER}));
+    register(new MessageSchema("float", new String[] {"float"},
+                               new int[] {FLOAT}));
+    register(new MessageSchema("string", new String[] {"string"},
+                               new int[] {STRING}));
+    register(new MessageSchema("route", new String[] {"route"},
+                               new int[] {ROUTE}));
+    register(new MessageSchema("void", new String[0], new int[0]));
+
+    // core protocol messages, in the order of the NRS 2.0 design
+    // document (and of the C++ message managers)
+    register(CreateLink,
+             new String[] {F_sourceNotTarget, F_cid, F_vnid, F_targetCID,
+                           F_targetVNID, F_temporary},
+             new int[] {BOOLEAN, STRING, INTEGER, STRING, INTEGER, BOOLEAN});
+    register(DeleteLink,
+             new String[] {F_sourceNotTarget, F_cid, F_vnid, F_targetCID,
+                           F_targetVNID},
+             new int[] {BOOLEAN, STRING, INTEGER, STRING, INTEGER});
+    register(CreateNode,
+             new String[] {F_vnType, F_vnid, F_vnName},
+             new int[] {STRING, INTEGER, STRING});
+    register(DeleteNode, new String[] {F_vnid}, new int[] {INTEGER});
+    register(Reset, new String[0], new int[0]);
+
+    registerQuery(QueryCSL, null, 0);
+    registerQuery(QueryCType, null, 0);
+    registerQuery(QueryMaxPort, null, 0);
+    registerQuery(QueryMaxVNID, null, 0);
+    registerQuery(QueryMaxConnection, null, 0);
+    registerQuery(QueryCID, F_cid, STRING);
+    registerQuery(QueryConnectedCIDs, F_cid, STRING);
+    registerQuery(QueryPort, F_port, INTEGER);
+    registerQuery(QueryRoute, F_forwardRoute, ROUTE);
+    registerQuery(QueryVNID, F_vnName, STRING);
+    registerQuery(QueryVNName, F_vnid, INTEGER);
+    registerQuery(QueryVNType, F_vnid, INTEGER);
+    register(QueryLink,
+             new String[] {F_returnRoute, F_returnToVNID, F_msgID, F_vnid,
+                           F_sourceNotTarget, F_link},
+             new int[] {ROUTE, INTEGER, INTEGER, INTEGER, BOOLEAN, INTEGER});
+    register(QueryMaxLink,
+             new String[] {F_returnRoute, F_returnToVNID, F_msgID, F_vnid,
+                           F_sourceNotTarget},
+             new int[] {ROUTE, INTEGER, INTEGER, INTEGER, BOOLEAN});
+
+    registerReply(ReplyCID, new String[] {F_cid}, new int[] {STRING});
+    registerReply(ReplyCType, new String[] {F_cType, F_cVersion},
+                  new int[] {STRING, STRING});
+    registerReply(ReplyMaxPort, new String[] {F_port}, new int[] {INTEGER});
+    registerReply(ReplyMaxVNID, new String[] {F_vnid}, new int[] {INTEGER});
+    registerReply(ReplyMaxLink, new String[] {F_link}, new int[] {INTEGER});
+    registerReply(ReplyPort, new String[] {F_portRoute}, new int[] {ROUTE});
+    registerReply(ReplyRoute,
+                  new String[] {F_forwardRoute, F_returnRoute,
+                                F_translationCount},
+                  new int[] {ROUTE, ROUTE, INTEGER});
+    registerReply(ReplyVNID, new String[] {F_vnid}, new int[] {INTEGER});
+    registerReply(ReplyVNName, new String[] {F_vnName}, new int[] {STRING});
+    registerReply(ReplyVNType, new String[] {F_vnType}, new int[] {STRING});
+    registerReply(ReplyLink,
+                  new String[] {F_cid, F_vnid, F_logPort, F_resolved},
+                  new int[] {STRING, INTEGER, INTEGER, BOOLEAN});
+    registerReply(AcknowledgeMessage, new String[] {F_success},
+                  new int[] {BOOLEAN});
+    registerReply(FailedRoute, new String[] {F_cid}, new int[] {STRING});
+    register(ReplyLanguage, new String[] {F_speaksBMF, F_speaksPML},
+             new int[] {BOOLEAN, BOOLEAN});
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Constructor
+   *
+   * @param type the message type described
+   *
+   * @param names the segment names, in transmission order
+   *
+   * @param types the segment types, in transmission order. Each must be
+   * one of {@link #BOOLEAN}, {@link #INTEGER}, {@link #FLOAT}, {@link
+   * #STRING} or {@link #ROUTE}.
+   *
+   * @throws IllegalArgumentException if the two arrays differ in length
+   */
+  public MessageSchema(String type, String[] names, int[] types)
+  {
+    if (names.length != types.length)
+      throw new IllegalArgumentException("Schema for " + type
+                                         + " has " + names.length
+                                         + " segment names but "
+                                         + types.length + " types");
+    m_type = type.intern();
+    m_names = new String[names.length];
+    m_types = types.clone();
+
+    int payload = 0;
+    for (int i = 0; i < names.length; i++)
+    {
+      m_names[i] = names[i].intern();
+      if (!isProtocolField(m_names[i])) payload++;
+    }
+
+    m_payload = new int[payload];
+    for (int i = 0, k = 0; i < names.length; i++)
+    {
+      if (!isProtocolField(m_names[i])) m_payload[k++] = i;
+    }
+
+    synchronized (MessageSchema.class)
+    {
+      m_index = m_count++;
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the message type this schema describes
+   */
+  public String getType()
+  {
+    return m_type;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return a small number unique to this schema. Schemas are numbered
+   * densely from 0 in order of creation, so the index can be used to
+   * look up per-type data in an array rather than by type name.
+   */
+  public int getIndex()
+  {
+    return m_index;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of segments in the message body
+   */
+  public int getSegmentCount()
+  {
+    return m_names.length;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the name of segment <tt>i</tt>
+   */
+  public String getSegmentName(int i)
+  {
+    return m_names[i];
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the basic type of segment <tt>i</tt>, as one of the constants
+   * defined by this class
+   */
+  public int getSegmentType(int i)
+  {
+    return m_types[i];
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of payload segments, those which are not fields
+   * of the messaging protocol
+   */
+  public int getPayloadCount()
+  {
+    return m_payload.length;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the index of payload segment <tt>k</tt>, counting only the
+   * payload segments, in transmission order
+   */
+  public int getPayloadSegment(int k)
+  {
+    return m_payload[k];
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return <tt>true</tt> if <tt>name</tt> is the name of a field of the
+   * messaging protocol, as listed in {@link Constants.Fields}, rather
+   * than of data carried by a message
+   */
+  public static boolean isProtocolField(String name)
+  {
+    return m_protocolFields.contains(name);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the index of the segment called <tt>name</tt>, or -1 if there
+   * is no such segment. Segment names are interned, so the search is
+   * quickest for names which are literals or constants.
+   */
+  public int indexOf(String name)
+  {
+    for (int i = 0; i < m_names.length; i++)
+    {
+      if (m_names[i] == name) return i;
+    }
+    for (int i = 0; i < m_names.length; i++)
+    {
+      if (m_names[i].equals(name)) return i;
+    }
+    return -1;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the schema registered for message type <tt>type</tt>, or
+   * <tt>null</tt> if none is known
+   */
+  public static MessageSchema lookup(String type)
+  {
+    if (type == null) return null;
+
+    synchronized (m_registry)
+    {
+      return m_registry.get(type);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Register a schema, replacing any previous schema for the same
+   * message type
+   */
+  public static void register(MessageSchema schema)
+  {
+    synchronized (m_registry)
+    {
+      m_registry.put(schema.getType(), schema);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Register a single segment schema for a variable of a basic type,
+   * for which the message type and segment name are both
+   * <tt>type</tt>. Does nothing if a schema is already present for
+   * <tt>type</tt>.
+   *
+   * @param type the type of the variable, eg <tt>float</tt> or a
+   * component defined unit such as <tt>Voltage</tt>
+   *
+   * @param basicType one of the basic type constants of this class
+   */
+  public static void registerBasic(String type, int basicType)
+  {
+    if (type == null) return;
+
+    synchronized (m_registry)
+    {
+      if (m_registry.containsKey(type)) return;
+
+      m_registry.put(type, new MessageSchema(type, new String[] {type},
+                                             new int[] {basicType}));
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Derive and register a schema from a CSL message description. The
+   * units of the message segments must already have been resolved.
+   *
+   * @return the schema registered, or <tt>null</tt> if a segment unit
+   * is unresolved or has no BMF representation
+   */
+  public static MessageSchema register(CSL_Element_Message msg)
+  {
+    int count = msg.getSegmentCount();
+    String[] names = new String[count];
+    int[] types = new int[count];
+
+    for (int i = 0; i < count; i++)
+    {
+      CSL_Element_Segment seg = msg.getSegment(i);
+      CSL_Element_Unit unit = seg.getSegmentResolvedUnit();
+
+      if (unit == null)
+      {
+        PackageLogger.log.warning("Can't derive schema for message "
+                                  + msg.getMessageName() + ": segment "
+                                  + seg.getSegmentName()
+                                  + " has an unresolved unit");
+        return null;
+      }
+
+      int type = basicType(unit.getBasicType());
+      if (type < 0)
+      {
+        PackageLogger.log.warning("Can't derive schema for message "
+                                  + msg.getMessageName() + ": segment "
+                                  + seg.getSegmentName()
+                                  + " has no BMF representation");
+        return null;
+      }
+
+      names[i] = seg.getSegmentName();
+      types[i] = type;
+    }
+
+    MessageSchema schema
+      = new MessageSchema(msg.getMessageName(), names, types);
+    register(schema);
+
+    return schema;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Derive and register schemas for every message held in a CSL
+   * message registry. Messages for which a schema is already known,
+   * such as those of the basic types and of the messaging protocol,
+   * are left as they are.
+   */
+  public static void register(CSL_Message_Registry reg)
+  {
+    for (Iterator<CSL_Element_Message> i = reg.getMessageIterator();
+         i.hasNext(); )
+    {
+      CSL_Element_Message msg = i.next();
+
+      if (lookup(msg.getMessageName()) == null) register(msg);
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Collect the values of the constants of {@link Constants.Fields}.
+   * This is done once, when the class is loaded, so that adding a
+   * protocol field there is enough for it to be recognised here.
+   */
+  private static HashSet<String> protocolFields()
+  {
+    HashSet<String> names = new HashSet<String>();
+    Field[] fields = Constants.Fields.class.getFields();
+
+    try
+    {
+      for (int i = 0; i < fields.length; i++)
+      {
+        if (fields[i].getType() == String.class)
+          names.add((String) fields[i].get(null));
+      }
+    }
+    catch (IllegalAccessException e)
+    {
+      PackageLogger.log.severe("Can't read the protocol field names of"
+                               + " Constants.Fields: " + e);
+    }
+
+    return names;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Map a CSL basic type onto a segment type constant. Returns -1 for
+   * types which have no segment representation (eg void).
+   */
+  private static int basicType(CSL_BasicType type)
+  {
+    if (type instanceof CSL_BasicType_Boolean) return BOOLEAN;
+    if (type instanceof CSL_BasicType_Integer) return INTEGER;
+    if (type instanceof CSL_BasicType_Float) return FLOAT;
+    if (type instanceof CSL_BasicType_Route) return ROUTE;
+    if (type instanceof CSL_BasicType_String) return STRING;
+    return -1;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Register a core query message, which begins with the
+   * <tt>returnRoute</tt>, <tt>returnToVNID</tt> and <tt>msgID</tt>
+   * segments, and is optionally followed by one further segment.
+   */
+  private static void registerQuery(String type, String extra, int extraType)
+  {
+    if (extra == null)
+    {
+      register(type,
+               new String[] {F_returnRoute, F_returnToVNID, F_msgID},
+               new int[] {ROUTE, INTEGER, INTEGER});
+    }
+    else
+    {
+      register(type,
+               new String[] {F_returnRoute, F_returnToVNID, F_msgID, extra},
+               new int[] {ROUTE, INTEGER, INTEGER, extraType});
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Register a core reply message, which begins with the
+   * <tt>replyMsgID</tt> segment.
+   */
+  private static void registerReply(String type, String[] names, int[] types)
+  {
+    String[] n = new String[names.length + 1];
+    int[] t = new int[types.length + 1];
+
+    n[0] = F_replyMsgID;
+    t[0] = INTEGER;
+    System.arraycopy(names, 0, n, 1, names.length);
+    System.arraycopy(types, 0, t, 1, types.length);
+
+    register(type, n, t);
+  }
+  //----------------------------------------------------------------------
+  private static void register(String type, String[] names, int[] types)
+  {
+    register(new MessageSchema(type, names, types));
+  }
+}
@@ -22,13 +22,11 @@
  */
 package nrs.core.type;
 
+import nrs.core.base.FieldNotFoundException;
 import nrs.core.base.Message;
 import nrs.core.base.Variable;
 import nrs.core.base.VariableManager;
-
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import nrs.core.message.MessageSchema;
 
 /** Class to represent NRS boolean variables.
  *
@@ -37,7 +35,8 @@ import java.util.Iterator;
 
 public abstract class BooleanType extends Variable
 { 
-  private Boolean m_value = null;
+  private boolean m_value;
+  private boolean m_hasValue = false;
   private Boolean m_default = null;
   
   /** Default constructor. 
@@ -76,6 +75,7 @@ public abstract class BooleanType extends Variable
                      boolean stateHolding, boolean selfUpdating,
                  String type){
     super(vm, name, stateHolding, selfUpdating, type);
+    MessageSchema.registerBasic(type, MessageSchema.BOOLEAN);
     
     //default initialisation state
     if ( stateHolding ){
@@ -102,7 +102,19 @@ public abstract class BooleanType extends Variable
    */
   protected void send(Variable target){
     BooleanType b = (BooleanType) target;
-    b.deliver(m_value.booleanValue());
+    b.deliver(m_value);
+  }
+  
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link nrs.core.base.VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final BooleanType b = (BooleanType) target;
+    final boolean value = m_value;
+    return new Runnable(){
+        public void run(){
+          b.deliver(value);
+        }
+      };
   }
   
   /** Receive boolean from variable within same component. 
@@ -117,7 +129,7 @@ public abstract class BooleanType extends Variable
    */
   public Boolean getValue(){
     if ( isStateHolding() )
-      return m_value;
+      return m_hasValue ? Boolean.valueOf(m_value) : null;
     else
       throw new IllegalStateException("Cannot get Variable: " 
                                       + getVNName() + " value since"
@@ -135,8 +147,9 @@ public abstract class BooleanType extends Variable
                                       + getVNName() + " value since"
                                       + " it is not state holding.");
     
-    if ( m_value == null || b != m_value.booleanValue() ){
-      m_value = Boolean.valueOf(b);
+    if ( !m_hasValue || b != m_value ){
+      m_value = b;
+      m_hasValue = true;
       sendMessages();
     }
   }
@@ -144,6 +157,7 @@ public abstract class BooleanType extends Variable
   /* Triggered on event. */
   public void onEvent(boolean b){
     m_value = b;
+    m_hasValue = true;
     sendMessages();
   }
   
@@ -152,10 +166,10 @@ public abstract class BooleanType extends Variable
    * @return Message to send over links.
    */
   protected Message createMessage(){
-    if (m_value == null ) return null;
+    if ( !m_hasValue ) return null;
 
-    Message m = new Message(getVNType());
-    m.setField(getVNType(), m_value.toString());
+    Message m = newMessage();
+    m.setField(getVNType(), m_value);
 
     return m;
   }
@@ -172,24 +186,15 @@ public abstract class BooleanType extends Variable
    * Returns null if no data, or error.  
   */
   public Boolean extractData(Message m){
-    HashMap<String, String> map = m.getPayload();
-
-    int size = map.size();
-    if ( size > 1 ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " more than one data segment (" + size 
-                                + "). Expected only one.");
-      return null;
-    }
-    else if ( map.isEmpty() ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " zero segments. Expected only one.");
-      return null;
-    }
+    String name = payloadField(m);
+    if ( name == null ) return null;
     
-    Collection<String> c = map.values();
-    Iterator<String> i = c.iterator();
-    
-    return Boolean.valueOf(i.next());
+    try
+      {
+        return Boolean.valueOf(m.getBoolean(name));
+      }
+    catch(FieldNotFoundException fnfe){
+      return Boolean.FALSE;
+    }
   }
 }
@@ -22,13 +22,11 @@
  */
 package nrs.core.type;
 
+import nrs.core.base.FieldNotFoundException;
 import nrs.core.base.Message;
 import nrs.core.base.Variable;
 import nrs.core.base.VariableManager;
-
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import nrs.core.message.MessageSchema;
 
 /** Represent a Float variable. 
  * Can have a double or float value. We only use
@@ -39,7 +37,8 @@ import java.util.Iterator;
 
 public abstract class FloatType extends Variable
 {
-  private Double m_value = null;
+  private double m_value;
+  private boolean m_hasValue = false;
   private Double m_default = null;
 
   /** Default Constructor
@@ -81,6 +80,7 @@ public abstract class FloatType extends Variable
                    boolean stateHolding, boolean selfUpdating,
                String type){
     super(vm, name, stateHolding, selfUpdating, type);
+    MessageSchema.registerBasic(type, MessageSchema.FLOAT);
     
     //default initialisation state
     if ( stateHolding ){
@@ -107,7 +107,19 @@ public abstract class FloatType extends Variable
    */
   protected void send(Variable target){
     FloatType f = (FloatType) target;
-    f.deliver(m_value.doubleValue());
+    f.deliver(m_value);
+  }
+  
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link nrs.core.base.VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final FloatType f = (FloatType) target;
+    final double value = m_value;
+    return new Runnable(){
+        public void run(){
+          f.deliver(value);
+        }
+      };
   }
   
   /** Receive double from variable within same component. 
@@ -136,8 +148,9 @@ public abstract class FloatType extends Variable
                                       + getVNName() + " value since"
                                       + " it is not state holding.");
     
-    if ( m_value == null || d != m_value.doubleValue() ){
-      m_value = Double.valueOf(d);
+    if ( !m_hasValue || d != m_value ){
+      m_value = d;
+      m_hasValue = true;
       sendMessages();
     }
   }
@@ -151,7 +164,7 @@ public abstract class FloatType extends Variable
       throw new IllegalStateException("Cannot get Variable: " 
                                       + getVNName() + " value since"
                                       + " it is not state holding.");
-    return m_value;
+    return m_hasValue ? Double.valueOf(m_value) : null;
   }
   
   public void onEvent(float f){
@@ -160,6 +173,7 @@ public abstract class FloatType extends Variable
   
   public void onEvent(double d){
     m_value = d;
+    m_hasValue = true;
     sendMessages();
   }
   
@@ -168,10 +182,10 @@ public abstract class FloatType extends Variable
    * @return Message to send over links.
    */
   protected Message createMessage(){
-    if (m_value == null ) return null;
+    if ( !m_hasValue ) return null;
 
-    Message m = new Message(getVNType());
-    m.setField(getVNType(), m_value.toString());
+    Message m = newMessage();
+    m.setField(getVNType(), m_value);
 
     return m;
   }
@@ -195,34 +209,23 @@ public abstract class FloatType extends Variable
    * Note: returns null if errors occurs.
    */
   public Double extractData(Message m){
-    HashMap<String, String> map = m.getPayload();
-
-    int size = map.size();
-    if ( size > 1 ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " more than one data segment (" + size 
-                                + "). Expected only one.");
-      return null;
-    }
-    else if ( map.isEmpty() ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " zero segments. Expected only one.");
-      return null;
-    }
-    
-    Collection<String> c = map.values();
-    Iterator<String> i = c.iterator();
+    String name = payloadField(m);
+    if ( name == null ) return null;
     
     Double d = null;
     try
       {
-        d = Double.valueOf(i.next());
+        d = Double.valueOf(m.getDouble(name));
       }
     catch(NumberFormatException nfe){
       PackageLogger.log.warning("Received message at " + getVNName() + " with"
                                 + " an illegal data segment.");
       //nfe.printStackTrace();
     }
+    catch(FieldNotFoundException fnfe){
+      PackageLogger.log.warning("Received message at " + getVNName() + " with"
+                                + " an empty data segment.");
+    }
 
     return d;
   }
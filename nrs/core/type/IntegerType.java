@@ -22,13 +22,11 @@
  */
 package nrs.core.type;
 
+import nrs.core.base.FieldNotFoundException;
 import nrs.core.base.Message;
 import nrs.core.base.Variable;
 import nrs.core.base.VariableManager;
-
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import nrs.core.message.MessageSchema;
 
 /** Represent an NRS integer variable. 
  *
@@ -37,7 +35,8 @@ import java.util.Iterator;
 
 public abstract class IntegerType extends Variable
 {
-  private Integer m_value = null;
+  private int m_value;
+  private boolean m_hasValue = false;
   private Integer m_default = null;
   
   /** Default Constructor
@@ -84,6 +83,7 @@ public abstract class IntegerType extends Variable
                      boolean stateHolding, boolean selfUpdating,
                      String type){
     super(vm, name, stateHolding, selfUpdating, type);
+    MessageSchema.registerBasic(type, MessageSchema.INTEGER);
     
     //default initialisation state
     if ( stateHolding ){
@@ -110,7 +110,19 @@ public abstract class IntegerType extends Variable
    */
   protected void send(Variable target){
     IntegerType i = (IntegerType) target;
-    i.deliver(m_value.intValue());
+    i.deliver(m_value);
+  }
+  
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link nrs.core.base.VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final IntegerType i = (IntegerType) target;
+    final int value = m_value;
+    return new Runnable(){
+        public void run(){
+          i.deliver(value);
+        }
+      };
   }
   
   //receive int from variable within same component
@@ -126,8 +138,9 @@ public abstract class IntegerType extends Variable
       throw new IllegalStateException("Cannot set Variable: " 
                                       + getVNName() + " value since"
                                       + " it is not state holding.");
-    if ( m_value == null || m_value.intValue() != i) {
-      m_value = new Integer(i);
+    if ( !m_hasValue || m_value != i) {
+      m_value = i;
+      m_hasValue = true;
       sendMessages();
     }
   }
@@ -138,7 +151,7 @@ public abstract class IntegerType extends Variable
    */
   public Integer getValue(){
     if ( isStateHolding() )
-      return m_value;
+      return m_hasValue ? Integer.valueOf(m_value) : null;
     else
       throw new IllegalStateException("Cannot get Variable: " 
                                       + getVNName() + " value since"
@@ -148,6 +161,7 @@ public abstract class IntegerType extends Variable
   /** Triggered on event. */
   public void onEvent(int i){
     m_value = i;
+    m_hasValue = true;
     sendMessages();
   }
   
@@ -156,10 +170,10 @@ public abstract class IntegerType extends Variable
    * @return Message to send over links.
    */
   protected Message createMessage(){
-    if (m_value == null ) return null;
+    if ( !m_hasValue ) return null;
     
-    Message m = new Message(getVNType());
-    m.setField(getVNType(), m_value.toString());
+    Message m = newMessage();
+    m.setField(getVNType(), m_value);
     
     return m;
   }
@@ -183,34 +197,23 @@ public abstract class IntegerType extends Variable
    * Note: returns null if errors occurs.
    */
   public Integer extractData(Message m){
-    HashMap<String, String> map = m.getPayload();
-
-    int size = map.size();
-    if ( size > 1 ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " more than one data segment (" + size 
-                                + "). Expected only one.");
-      return null;
-    }
-    else if ( map.isEmpty() ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " zero segments. Expected only one.");
-      return null;
-    }
-    
-    Collection<String> c = map.values();
-    Iterator<String> it = c.iterator();
+    String name = payloadField(m);
+    if ( name == null ) return null;
     
     Integer i = null;
     try
       {
-        i = Integer.valueOf(it.next());
+        i = Integer.valueOf(m.getInt(name));
       }
     catch(NumberFormatException nfe){
       PackageLogger.log.warning("Received message at " + getVNName() + " with"
                                 + " an illegal data segment.");
       //nfe.printStackTrace();
     }
+    catch(FieldNotFoundException fnfe){
+      PackageLogger.log.warning("Received message at " + getVNName() + " with"
+                                + " an empty data segment.");
+    }
 
     return i;
   }
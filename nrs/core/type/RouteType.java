@@ -25,10 +25,7 @@ package nrs.core.type;
 import nrs.core.base.Message;
 import nrs.core.base.Variable;
 import nrs.core.base.VariableManager;
-
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import nrs.core.message.MessageSchema;
 
 /** Class to represent route variables.
  *
@@ -81,6 +78,7 @@ public abstract class RouteType extends Variable
                     boolean stateHolding, boolean selfUpdating,
                 String type){
     super(vm, name, stateHolding, selfUpdating, type);
+    MessageSchema.registerBasic(type, MessageSchema.ROUTE);
     
     //default initialisation state
     if ( stateHolding ){
@@ -110,6 +108,18 @@ public abstract class RouteType extends Variable
     s.deliver(m_value);
   }
   
+  /** Return a task delivering the current value to <tt>target</tt>,
+   * for running later on a {@link nrs.core.base.VariableScheduler}. */
+  protected Runnable sendTask(Variable target){
+    final RouteType s = (RouteType) target;
+    final String value = m_value;
+    return new Runnable(){
+        public void run(){
+          s.deliver(value);
+        }
+      };
+  }
+  
   /** Receive String from variable within same component. 
    *     
    * @param s String value
@@ -163,7 +173,7 @@ public abstract class RouteType extends Variable
   protected Message createMessage(){
     if (m_value == null ) return null;
 
-    Message m = new Message(getVNType());
+    Message m = newMessage();
     m.setField(getVNType(), m_value);
 
     return m;
@@ -181,25 +191,11 @@ public abstract class RouteType extends Variable
    * Note: returns null if errors occurs.
    */
   public String extractData(Message m){
-    HashMap<String, String> map = m.getPayload();
-
-    int size = map.size();
-    if ( size > 1 ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " more than one data segment (" + size 
-                                + "). Expected only one.");
-      return null;
-    }
-    else if ( map.isEmpty() ){
-      PackageLogger.log.warning("Received message at " + getVNName() + " with"
-                                + " zero segments. Expected only one.");
-      return null;
-    }
-    
-    Collection<String> c = map.values();
-    Iterator<String> i = c.iterator();
+    String name = payloadField(m);
+    if ( name == null ) return null;
     
     //Check legal route?
-    return i.next();
+    String s = m.getField(name);
+    return s == null ? "" : s;
   }
 }
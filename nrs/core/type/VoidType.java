@@ -25,6 +25,7 @@ package nrs.core.type;
 import nrs.core.base.Message;
 import nrs.core.base.Variable;
 import nrs.core.base.VariableManager;
+import nrs.core.message.MessageSchema;
 
 /** Class to represent NRS void variable.
  *
@@ -55,6 +56,10 @@ public abstract class VoidType extends Variable
    */
   public VoidType(VariableManager vm, String name, String type){
     super(vm,name, false, false, type);
+
+    if ( MessageSchema.lookup(type) == null )
+      MessageSchema.register(new MessageSchema(type, new String[0],
+                                               new int[0]));
   }
   
   /** For on-board links, to send current value too.
@@ -75,7 +80,7 @@ public abstract class VoidType extends Variable
    * @return Message to send over links.
    */
   protected Message createMessage(){
-    return new Message(getVNType());
+    return newMessage();
   }
   
   public void onEvent(){
@@ -10,7 +10,7 @@ public class CSL_Message_Registry
 {
   /** Set of pairs, each consisting of a message name and an instance of
       {@link CSL_Element_Unit}. */
-  HashMap m_map;
+  HashMap<String, CSL_Element_Message> m_map;
 
   // Class logger
   private Logger m_log = Logger.getLogger("nrs.csl");
@@ -22,14 +22,14 @@ public class CSL_Message_Registry
   /** Constructor for when CID is not known */
   public CSL_Message_Registry()
   {
-    m_map = new HashMap();
+    m_map = new HashMap<String, CSL_Element_Message>();
     m_sourceCID = "";
   }
   //----------------------------------------------------------------------
   /** Constructor for when CID is known */
   public CSL_Message_Registry(String sourceCID)
   {
-    m_map = new HashMap();
+    m_map = new HashMap<String, CSL_Element_Message>();
     m_sourceCID = sourceCID;
   }
   //----------------------------------------------------------------------
@@ -182,7 +182,7 @@ public class CSL_Message_Registry
   }
   //----------------------------------------------------------------------
   /** Return an iterator over the messages within the registry. */
-  public Iterator getMessageIterator()
+  public Iterator<CSL_Element_Message> getMessageIterator()
   {
     return m_map.values().iterator();
   }
@@ -22,6 +22,7 @@
  */
 package nrs.datalogger;
 
+import nrs.core.base.Log;
 import nrs.core.base.Message;
 import nrs.core.base.Node;
 import nrs.core.base.Variable;
@@ -35,8 +36,6 @@ import nrs.core.unit.Filename;
 import nrs.core.unit.Time;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 
 /** Represents node to log boolean messages for this component
  * 
@@ -54,7 +53,7 @@ public class BooleanNode extends Node
   private Filename m_filename;  
 
   private File m_file;
-  private FileWriter m_out;
+  private final LogWriter.LogFile m_out;
   
   private BooleanType m_appendToFile;
 
@@ -64,10 +63,13 @@ public class BooleanNode extends Node
    *
    * @param vmMan {@link VariableManager} to register node with
    * @param vnName vnname of the node
+   * @param writer {@link LogWriter} to write the log file
    */
-  public BooleanNode(VariableManager vmMan, String vnName)
+  public BooleanNode(VariableManager vmMan, String vnName, LogWriter writer)
   {
     super(vmMan, vnName, type);
+
+    m_out = writer.newFile(LogWriter.BOOLEAN);
     
     String varName = vnName+ ".DirName";
     m_varDirName = new StringType(vmMan, varName, true, false){
@@ -215,8 +217,8 @@ public class BooleanNode extends Node
    */
   public void handleMessageAt_Time(Message m, Variable v, boolean diff) 
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     
     Double d = m_varTime.extractData(m);
     
@@ -227,8 +229,8 @@ public class BooleanNode extends Node
    * Process the receipt of a message at the Time variable.
    */
   public void handleMessageAt_Time(double d) { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     m_varTime.setValue(d);
   } 
   
@@ -243,8 +245,8 @@ public class BooleanNode extends Node
    */
   public void handleMessageAt_Value(Message m, Variable v, boolean diff)
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Value variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Value variable!",
+             getVNName());
     
     Boolean b = m_varValue.extractData(m);
     
@@ -255,8 +257,8 @@ public class BooleanNode extends Node
    */
   public void handleMessageAt_Value(boolean b) 
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Value variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Value variable!",
+             getVNName());
     m_varValue.setValue(b);
     
     writeOut(); // write out value to file.
@@ -289,17 +291,10 @@ public class BooleanNode extends Node
     m_appendToFile.reset();
     
     //open stream again.
-    try{
-      if ( m_out != null )
-        m_out.close();
-      
-      m_out = new FileWriter(m_file, m_appendToFile.getValue());
+    if ( m_file != null ){
       PackageLogger.log.info(getVNName() + " is writing to: " 
                              + m_file.getAbsoluteFile());
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
+      m_out.open(m_file, m_appendToFile.getValue());
     }
   }
 
@@ -362,36 +357,22 @@ public class BooleanNode extends Node
 
   /** Open stream to file with current value of DirName and Filename. */
   private void open_file(){
-    try{
-      if ( m_out != null ) m_out.close();
+    m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
+    PackageLogger.log.info(getVNName() + " is writing to: " 
+                           + m_file.getAbsoluteFile());
 
-      m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
-      PackageLogger.log.info(getVNName() + " is writing to: " 
-                             + m_file.getAbsoluteFile());
-      
-      m_out = new FileWriter(m_file, m_appendToFile.getValue());
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
-    }
+    m_out.open(m_file, m_appendToFile.getValue());
   }
 
-  /** Write out value to file. */
+  /** Queue value to be written out to file. */
   private void writeOut(){
-    try{
-      // write out as chars
-      StringBuffer sb = new StringBuffer();
-      
-      sb.append(m_varTime.getValue().toString() + "\t");
-      sb.append(m_varValue.getValue().toString() + "\n");
-      
-      m_out.write(sb.toString());
-      m_out.flush();
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
-    }
+    m_out.write(m_varTime.getValue().doubleValue(),
+                m_varValue.getValue().booleanValue() ? 1 : 0);
+  }
+
+  /** Close the file, and remove this node. */
+  public void removeAll(){
+    m_out.close();
+    super.removeAll();
   }
 }
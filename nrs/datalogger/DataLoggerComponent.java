@@ -56,12 +56,15 @@ public class DataLoggerComponent extends BaseComponent
   /** Whether this component has a CSL descriptor file. */
   private final static boolean m_HasCSL = true;
   /** Can the component speak BMF. */
-  private final static boolean m_SpeaksBMF = false;
+  private final static boolean m_SpeaksBMF = true;
   /** Can the component speak PML. */
   private final static boolean m_SpeaksPML = true;
   
   /** Root node for this component. */
   private DataLoggerNode m_rootNode;
+
+  /** Writes the log files of all the nodes of this component. */
+  private final LogWriter m_writer = new LogWriter("Data logger writer");
   
   //----------------------------------------------------------------------
   /**Constructor
@@ -130,7 +133,7 @@ public class DataLoggerComponent extends BaseComponent
       
       if ( findVar(info().getCID(), vnid, vnName) == null )
         // add to root node
-        m_rootNode.addNode(new FloatNode(m_vMan, vnName));
+        m_rootNode.addNode(new FloatNode(m_vMan, vnName, m_writer));
       else
         PackageLogger.log.warning("CreateNode message received with "
                                   + vnName + " that already exists.");
@@ -141,7 +144,7 @@ public class DataLoggerComponent extends BaseComponent
       
       if ( findVar(info().getCID(), vnid, vnName) == null )
         // add to root node
-        m_rootNode.addNode(new IntegerNode(m_vMan, vnName));
+        m_rootNode.addNode(new IntegerNode(m_vMan, vnName, m_writer));
       else
         PackageLogger.log.warning("CreateNode message received with "
                                   + vnName + " that already exists.");
@@ -151,7 +154,7 @@ public class DataLoggerComponent extends BaseComponent
       
       if ( findVar(info().getCID(), vnid, vnName) == null )
         // add to root node
-        m_rootNode.addNode(new BooleanNode(m_vMan, vnName));
+        m_rootNode.addNode(new BooleanNode(m_vMan, vnName, m_writer));
       else
         PackageLogger.log.warning("CreateNode message received with "
                                   + vnName + " that already exists.");
@@ -162,7 +165,7 @@ public class DataLoggerComponent extends BaseComponent
       
       if ( findVar(info().getCID(), vnid, vnName) == null )
         // add to root node
-        m_rootNode.addNode(new StringNode(m_vMan, vnName));
+        m_rootNode.addNode(new StringNode(m_vMan, vnName, m_writer));
       else
         PackageLogger.log.warning("CreateNode message received with "
                                   + vnName + " that already exists.");
@@ -173,7 +176,7 @@ public class DataLoggerComponent extends BaseComponent
       
       if ( findVar(info().getCID(), vnid, vnName) == null )
         // add to root node
-        m_rootNode.addNode(new VoidNode(m_vMan, vnName));
+        m_rootNode.addNode(new VoidNode(m_vMan, vnName, m_writer));
       else
         PackageLogger.log.warning("CreateNode message received with "
                                   + vnName + " that already exists.");
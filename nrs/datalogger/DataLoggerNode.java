@@ -22,6 +22,7 @@
  */
 package nrs.datalogger;
 
+import nrs.core.base.Log;
 import nrs.core.base.Message;
 import nrs.core.base.Node;
 import nrs.core.base.VariableManager;
@@ -248,8 +249,8 @@ public class DataLoggerNode extends Node
    *
    */
   public void handleMessageAt_Time(Message m, Variable v, boolean diff) { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     
     Double d = m_varTime.extractData(m);
     if ( d != null )
@@ -259,8 +260,8 @@ public class DataLoggerNode extends Node
    * Process the receipt of a message at the Time variable.
    */
   public void handleMessageAt_Time(double d) { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     
     m_varTime.setValue(d);
   } 
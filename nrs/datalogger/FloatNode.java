@@ -22,6 +22,7 @@
  */
 package nrs.datalogger;
 
+import nrs.core.base.Log;
 import nrs.core.base.Message;
 import nrs.core.base.Node;
 import nrs.core.base.Variable;
@@ -36,8 +37,6 @@ import nrs.core.unit.Time;
 import nrs.core.unit.Filename;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 
 /** Represents node to log float messages for this component
  * 
@@ -55,7 +54,7 @@ public class FloatNode extends Node
   private Filename m_filename;
   
   private File m_file;
-  private FileWriter m_out;
+  private final LogWriter.LogFile m_out;
   
   private BooleanType m_appendToFile;
   
@@ -65,10 +64,13 @@ public class FloatNode extends Node
    *
    * @param vmMan {@link VariableManager} to register node with
    * @param name vnname of the node
+   * @param writer {@link LogWriter} to write the log file
    */
-  public FloatNode(VariableManager vmMan, String name)
+  public FloatNode(VariableManager vmMan, String name, LogWriter writer)
   {
     super(vmMan, name, type);
+
+    m_out = writer.newFile(LogWriter.FLOAT);
     
     String varName = name+ ".DirName";
     m_varDirName = new StringType(vmMan, varName, true, false){
@@ -216,8 +218,8 @@ public class FloatNode extends Node
    */
   public void handleMessageAt_Time(Message m, Variable v, boolean diff) 
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     
     Double d = m_varTime.extractData(m);
     
@@ -228,8 +230,8 @@ public class FloatNode extends Node
    * Process the receipt of a message at the Time variable.
    */
   public void handleMessageAt_Time(double d) { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     m_varTime.setValue(d);
   } 
   
@@ -244,8 +246,8 @@ public class FloatNode extends Node
    */
   public void handleMessageAt_Value(Message m, Variable v, boolean diff)
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Value variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Value variable!",
+             getVNName());
     
     Double d = m_varValue.extractData(m);
     handleMessageAt_Value(d.doubleValue());
@@ -255,8 +257,8 @@ public class FloatNode extends Node
    */
   public void handleMessageAt_Value(double d) 
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Value variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Value variable!",
+             getVNName());
     m_varValue.setValue(d);
     
     writeOut(); // write out value to file.
@@ -289,18 +291,10 @@ public class FloatNode extends Node
     m_appendToFile.reset();
     
     //open stream again.
-    try{
-      if ( m_out != null )
-        m_out.close();
-      m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
-      m_out = new FileWriter(m_file, m_appendToFile.getValue());
-      PackageLogger.log.info(getVNName() + " is writing to: " 
-                             + m_file.getAbsoluteFile());
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
-    }
+    m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
+    PackageLogger.log.info(getVNName() + " is writing to: " 
+                           + m_file.getAbsoluteFile());
+    m_out.open(m_file, m_appendToFile.getValue());
   }
   
   /**
@@ -362,36 +356,22 @@ public class FloatNode extends Node
 
   /** Open stream to file with current value of DirName and Filename. */
   private void open_file(){
-    try{
-      if ( m_out != null ) m_out.close();
+    m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
+    PackageLogger.log.info(getVNName() + " is writing to: " 
+                           + m_file.getAbsoluteFile());
 
-      m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
-      PackageLogger.log.info(getVNName() + " is writing to: " 
-                             + m_file.getAbsoluteFile());
-      
-      m_out = new FileWriter(m_file, m_appendToFile.getValue());
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
-    }
+    m_out.open(m_file, m_appendToFile.getValue());
   }
 
-  /** Write out value to file. */
+  /** Queue value to be written out to file. */
   private void writeOut(){
-    try{
-      // write out as chars
-      StringBuffer sb = new StringBuffer();
-      
-      sb.append(m_varTime.getValue().toString() + "\t");
-      sb.append(m_varValue.getValue().toString() + "\n");
-      
-      m_out.write(sb.toString());
-      m_out.flush();
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
-    }
+    m_out.write(m_varTime.getValue().doubleValue(),
+                m_varValue.getValue().doubleValue());
+  }
+
+  /** Close the file, and remove this node. */
+  public void removeAll(){
+    m_out.close();
+    super.removeAll();
   }
 }
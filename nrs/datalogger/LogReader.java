@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.datalogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Reads a log written in the segmented format, that is, by a logging
+ * node whose file name ends in {@link LogWriter#SEGMENT_SUFFIX}.
+ *
+ * <p>Samples are numbered from 0 in the order they were logged, and can
+ * be read singly or as slices of times or values. The segment files are
+ * memory mapped, so only the parts of the log actually read are loaded
+ * from disk, and {@link #find(double)} locates a time with a binary
+ * search, which reads only a few pages of even a very long log. A
+ * search assumes that the times of the samples never decrease, as is
+ * the case for a log of a single run.
+ *
+ * <p>The reader sees the samples which were in the log when it was
+ * created. Values are returned as doubles: integers exactly, booleans
+ * as 0 or 1, and void samples as 0.
+ */
+public final class LogReader
+{
+  /** Type of values logged */
+  private final byte m_type;
+
+  /** Time of the last sample of each segment */
+  private final double[] m_last;
+
+  /** Times and values of each segment, holding just its samples */
+  private final DoubleBuffer[] m_times;
+  private final DoubleBuffer[] m_values;
+
+  /** Number of samples */
+  private final long m_size;
+
+  //----------------------------------------------------------------------
+  /**
+   * Open a log
+   *
+   * @param index the log's index file, as named in the logging node
+   *
+   * @throws IOException if the log can't be read, or isn't in the
+   * segmented format
+   */
+  public LogReader(File index) throws IOException
+  {
+    ArrayList<SegmentWriter.Segment> segments
+      = SegmentWriter.readIndex(index);
+    int n = segments.size();
+
+    m_type = SegmentWriter.typeOf(index);
+    m_last = new double[n];
+    m_times = new DoubleBuffer[n];
+    m_values = new DoubleBuffer[n];
+
+    long size = 0;
+    for (int i = 0; i < n; i++)
+    {
+      SegmentWriter.Segment s = segments.get(i);
+      if (s.m_count != SegmentWriter.RECORDS && i < n - 1)
+        throw new IOException("Segment " + i + " of " + index
+                              + " is incomplete");
+
+      m_last[i] = s.m_last;
+
+      ByteBuffer b = map(SegmentWriter.segmentFile(index, i));
+      m_times[i] = slice(b, 0, s.m_count);
+      m_values[i] = slice(b, SegmentWriter.RECORDS, s.m_count);
+
+      size += s.m_count;
+    }
+    m_size = size;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the type of the values, one of the types of {@link
+   * LogWriter}
+   */
+  public byte getType()
+  {
+    return m_type;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of samples
+   */
+  public long size()
+  {
+    return m_size;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the time of sample <tt>i</tt>
+   */
+  public double getTime(long i)
+  {
+    check(i, i + 1);
+    return m_times[segment(i)].get(offset(i));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the value of sample <tt>i</tt>
+   */
+  public double getValue(long i)
+  {
+    check(i, i + 1);
+    return m_values[segment(i)].get(offset(i));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the number of the first sample logged at or after
+   * <tt>time</tt>, or {@link #size()} if there is none
+   */
+  public long find(double time)
+  {
+    // the first segment ending at or after time
+    int lo = 0, hi = m_last.length;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (m_last[mid] < time) lo = mid + 1; else hi = mid;
+    }
+    if (lo == m_last.length) return m_size;
+
+    // and the first sample in it at or after time
+    DoubleBuffer t = m_times[lo];
+    int a = 0, b = t.limit();
+    while (a < b)
+    {
+      int mid = (a + b) >>> 1;
+      if (t.get(mid) < time) a = mid + 1; else b = mid;
+    }
+
+    return (long) lo * SegmentWriter.RECORDS + a;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the times of samples <tt>from</tt> (inclusive) to
+   * <tt>to</tt> (exclusive)
+   */
+  public double[] getTimes(long from, long to)
+  {
+    return read(m_times, from, to);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the values of samples <tt>from</tt> (inclusive) to
+   * <tt>to</tt> (exclusive)
+   */
+  public double[] getValues(long from, long to)
+  {
+    return read(m_values, from, to);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the times of the samples logged from <tt>start</tt>
+   * (inclusive) to <tt>end</tt> (exclusive)
+   */
+  public double[] getTimes(double start, double end)
+  {
+    long first = find(start);
+    return getTimes(first, Math.max(first, find(end)));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the values of the samples logged from <tt>start</tt>
+   * (inclusive) to <tt>end</tt> (exclusive)
+   */
+  public double[] getValues(double start, double end)
+  {
+    long first = find(start);
+    return getValues(first, Math.max(first, find(end)));
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Copy a range of samples out of the segments' buffers <tt>bufs</tt>
+   */
+  private double[] read(DoubleBuffer[] bufs, long from, long to)
+  {
+    check(from, to);
+
+    long len = to - from;
+    if (len > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Range of " + len
+                                         + " samples is too large");
+
+    double[] d = new double[(int) len];
+    int done = 0;
+    while (done < d.length)
+    {
+      long i = from + done;
+
+      // a duplicate, so that readers in other threads aren't disturbed
+      DoubleBuffer b = bufs[segment(i)].duplicate();
+      b.position(offset(i));
+
+      int n = Math.min(b.remaining(), d.length - done);
+      b.get(d, done, n);
+      done += n;
+    }
+    return d;
+  }
+  //----------------------------------------------------------------------
+  private void check(long from, long to)
+  {
+    if (from < 0 || to > m_size || from > to)
+      throw new IndexOutOfBoundsException("Samples " + from + " to " + to
+                                          + " requested from log of "
+                                          + m_size);
+  }
+  //----------------------------------------------------------------------
+  private static int segment(long i)
+  {
+    return (int) (i / SegmentWriter.RECORDS);
+  }
+  //----------------------------------------------------------------------
+  private static int offset(long i)
+  {
+    return (int) (i % SegmentWriter.RECORDS);
+  }
+  //----------------------------------------------------------------------
+  private static ByteBuffer map(File file) throws IOException
+  {
+    RandomAccessFile f = new RandomAccessFile(file, "r");
+    try
+    {
+      return f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                f.length());
+    }
+    finally
+    {
+      f.close();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the <tt>count</tt> doubles of <tt>b</tt> from double
+   * <tt>start</tt>
+   */
+  private static DoubleBuffer slice(ByteBuffer b, int start, int count)
+  {
+    ByteBuffer s = b.duplicate();
+    s.position(start << 3);
+    s.limit((start + count) << 3);
+    return s.slice().asDoubleBuffer();
+  }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.datalogger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+
+/**
+ * Writes the samples of all the logging nodes of a {@link
+ * DataLoggerComponent} on a background thread, so that a node only
+ * stores its sample in memory and returns.
+ *
+ * <p>Samples wait in a ring of fixed size; if the disk falls so far
+ * behind that the ring fills, nodes wait for space rather than lose
+ * samples. The files are written through large buffers, which are
+ * flushed whenever the ring empties, so during a burst of samples data
+ * reaches the disk in large writes, while between bursts nothing is
+ * held back for long. Any samples waiting when the program exits are
+ * written first.
+ *
+ * <p>Each node logs to a {@link LogFile}. A file whose name ends in
+ * {@link #BINARY_SUFFIX} is written in a binary format; any other file
+ * is text, with one sample per line, as the time and the value
+ * separated by a tab. The binary format starts with a header of the
+ * int {@link #MAGIC}, a version byte (1), and a byte giving the type
+ * of value, which is one of {@link #FLOAT}, {@link #INTEGER}, {@link
+ * #BOOLEAN}, {@link #STRING} or {@link #VOID}. Each sample follows as
+ * the time, as a double, and the value, as a double, int, byte or
+ * modified UTF-8 string respectively (void samples have no value). All
+ * numbers are big-endian, as written by {@link DataOutputStream}.
+ *
+ * <p>A file whose name ends in {@link #SEGMENT_SUFFIX} is written in
+ * the segmented format, for long logs which are to be analysed or
+ * replayed with a {@link LogReader}; see {@link SegmentWriter}. String
+ * values can't be logged in this format, and are logged as text.
+ */
+public final class LogWriter implements Runnable
+{
+  /** Value types */
+  public static final byte FLOAT = 'f';
+  public static final byte INTEGER = 'i';
+  public static final byte BOOLEAN = 'b';
+  public static final byte STRING = 's';
+  public static final byte VOID = 'v';
+
+  /** Names of files written in the binary format end with this */
+  public static final String BINARY_SUFFIX = ".bin";
+
+  /** Names of files written in the segmented format end with this */
+  public static final String SEGMENT_SUFFIX = ".seg";
+
+  /** First int of a binary log file ("NRSL") */
+  public static final int MAGIC = 0x4E52534C;
+
+  /** Version of the binary format */
+  private static final byte VERSION = 1;
+
+  /** Number of entries in the ring */
+  private static final int CAPACITY = 8192;
+
+  /** Size of the buffer of each file */
+  private static final int BUFFER_SIZE = 65536;
+
+  // operations held in the ring
+  private static final byte OP_SAMPLE = 0;
+  private static final byte OP_OPEN = 1;
+  private static final byte OP_CLOSE = 2;
+  private static final byte OP_FLUSH = 3;
+
+  /** The ring: an entry is the operation, the file it applies to, and
+   * its arguments */
+  private final byte[] m_op = new byte[CAPACITY];
+  private final LogFile[] m_file = new LogFile[CAPACITY];
+  private final double[] m_time = new double[CAPACITY];
+  private final double[] m_value = new double[CAPACITY];
+  private final String[] m_text = new String[CAPACITY];
+
+  /** Total entries added and removed; the difference is the number
+   * waiting. Guarded by this. */
+  private long m_added = 0;
+  private long m_removed = 0;
+
+  /** Files written to since last flushed, or with data still held
+   * back by their last flush; only used by the writer thread */
+  private final ArrayList<LogFile> m_dirtyFiles = new ArrayList<LogFile>();
+
+  /** Thread writing the files */
+  private final Thread m_thread;
+
+  //----------------------------------------------------------------------
+  /**
+   * Create a writer, and start its thread
+   *
+   * @param name name for the thread
+   */
+  public LogWriter(String name)
+  {
+    m_thread = new Thread(this, name);
+    m_thread.setDaemon(true);
+    m_thread.start();
+
+    // write out what's waiting when the program ends
+    Runtime.getRuntime().addShutdownHook(new Thread()
+      {
+        public void run()
+        {
+          drain();
+        }
+      });
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Create a {@link LogFile} for a node which logs values of type
+   * <tt>type</tt>
+   */
+  public LogFile newFile(byte type)
+  {
+    return new LogFile(type);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Wait until every entry added so far has been written, and every
+   * file flushed, including any data a file would otherwise hold back.
+   */
+  public synchronized void drain()
+  {
+    add(OP_FLUSH, null, 0, 0, null);
+
+    long target = m_added;
+    try
+    {
+      while (m_removed < target) wait();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Add an entry to the ring, waiting for space if it is full
+   */
+  private synchronized void add(byte op, LogFile f, double time,
+                                double value, String text)
+  {
+    try
+    {
+      while (m_added - m_removed == CAPACITY) wait();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      PackageLogger.log.warning("Interrupted waiting to log to " + f
+                                + ", sample discarded");
+      return;
+    }
+
+    int i = (int) (m_added % CAPACITY);
+    m_op[i] = op;
+    m_file[i] = f;
+    m_time[i] = time;
+    m_value[i] = value;
+    m_text[i] = text;
+
+    if (m_added++ == m_removed) notifyAll();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Writer thread
+   */
+  public void run()
+  {
+    while (true)
+    {
+      long first, last;
+      synchronized (this)
+      {
+        try
+        {
+          while (m_added == m_removed)
+          {
+            if (m_dirtyFiles.isEmpty())
+            {
+              wait();
+            }
+            else
+            {
+              // flush again once held back data may be written
+              wait(SegmentWriter.INDEX_INTERVAL);
+              if (m_added == m_removed) break;
+            }
+          }
+        }
+        catch (InterruptedException e)
+        {
+          PackageLogger.log.warning("Log writer interrupted, stopping");
+          return;
+        }
+        first = m_removed;
+        last = m_added;
+      }
+
+      // the entries up to last can't be overwritten until m_removed
+      // passes them, so they are read without holding the lock
+      for (long n = first; n < last; n++)
+      {
+        int i = (int) (n % CAPACITY);
+        LogFile f = m_file[i];
+
+        try
+        {
+          switch (m_op[i])
+          {
+            case OP_SAMPLE:
+              f.writeSample(m_time[i], m_value[i], m_text[i]);
+              break;
+            case OP_OPEN:
+              f.openNow(m_text[i], m_value[i] != 0);
+              break;
+            case OP_CLOSE:
+              f.closeNow();
+              break;
+            case OP_FLUSH:
+              flushAll(true);
+              break;
+          }
+        }
+        catch (IOException e)
+        {
+          PackageLogger.log.warning("Error writing to " + f + ": "
+                                    + e.getMessage());
+          f.closeQuietly();
+        }
+
+        m_file[i] = null;
+        m_text[i] = null;
+      }
+
+      boolean empty;
+      synchronized (this)
+      {
+        empty = (last == m_added);
+      }
+
+      // flush once there is a pause in logging
+      if (empty) flushAll(false);
+
+      synchronized (this)
+      {
+        m_removed = last;
+        notifyAll();
+      }
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Flush the files written to since last flushed
+   *
+   * @param force whether files should also write out data they would
+   * otherwise hold back
+   */
+  private void flushAll(boolean force)
+  {
+    // files which hold data back put themselves back on the list
+    int n = m_dirtyFiles.size();
+    for (int i = 0; i < n; i++)
+    {
+      LogFile f = m_dirtyFiles.get(i);
+      try
+      {
+        f.flush(force);
+      }
+      catch (IOException e)
+      {
+        PackageLogger.log.warning("Error writing to " + f + ": "
+                                  + e.getMessage());
+        f.closeQuietly();
+      }
+    }
+    m_dirtyFiles.subList(0, n).clear();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * A file written by a {@link LogWriter}. The methods of this class
+   * only queue operations, which the writer's thread performs in
+   * order.
+   */
+  public final class LogFile
+  {
+    /** Type of values logged */
+    private final byte m_type;
+
+    /** Name of the open file, or null; only used by the writer thread */
+    private String m_name = null;
+
+    /** Output of an open text file */
+    private BufferedWriter m_textOut = null;
+
+    /** Output of an open binary file */
+    private DataOutputStream m_binOut = null;
+
+    /** Output of an open segmented log */
+    private SegmentWriter m_segOut = null;
+
+    /** Whether written to since last flushed */
+    private boolean m_dirty = false;
+
+    private LogFile(byte type)
+    {
+      m_type = type;
+    }
+
+    /**
+     * Open file <tt>file</tt>, closing any file open before
+     *
+     * @param append whether to add to the end of an existing file,
+     * rather than replace it
+     */
+    public void open(File file, boolean append)
+    {
+      add(OP_OPEN, this, 0, append ? 1 : 0, file.getPath());
+    }
+
+    /**
+     * Log a numeric sample. Integer values must be exact in the double
+     * <tt>value</tt>, and boolean values are 0 or 1.
+     */
+    public void write(double time, double value)
+    {
+      add(OP_SAMPLE, this, time, value, null);
+    }
+
+    /**
+     * Log a string sample
+     */
+    public void write(double time, String value)
+    {
+      add(OP_SAMPLE, this, time, 0, value);
+    }
+
+    /**
+     * Log a void sample, that is, just a time
+     */
+    public void write(double time)
+    {
+      add(OP_SAMPLE, this, time, 0, null);
+    }
+
+    /**
+     * Close the file, once the samples logged have been written
+     */
+    public void close()
+    {
+      add(OP_CLOSE, this, 0, 0, null);
+    }
+
+    public String toString()
+    {
+      return (m_name == null) ? "unopened log file" : m_name;
+    }
+
+    //--------------------------------------------------------------------
+    // performed by the writer thread
+
+    private void openNow(String name, boolean append) throws IOException
+    {
+      closeNow();
+
+      boolean binary = name.endsWith(BINARY_SUFFIX);
+      File file = new File(name);
+      boolean header = !(append && file.length() > 0);
+
+      m_name = name;
+
+      if (name.endsWith(SEGMENT_SUFFIX))
+      {
+        if (m_type != STRING)
+        {
+          m_segOut = new SegmentWriter(file, m_type, append);
+          return;
+        }
+        PackageLogger.log.warning("Can't log strings to segmented log "
+                                  + name + ", writing text");
+      }
+
+      FileOutputStream out = new FileOutputStream(file, append);
+
+      if (binary)
+      {
+        m_binOut = new DataOutputStream(new BufferedOutputStream(out,
+                                                               BUFFER_SIZE));
+        if (header)
+        {
+          m_binOut.writeInt(MAGIC);
+          m_binOut.writeByte(VERSION);
+          m_binOut.writeByte(m_type);
+          dirty();
+        }
+      }
+      else
+      {
+        m_textOut = new BufferedWriter(new OutputStreamWriter(out),
+                                       BUFFER_SIZE);
+      }
+    }
+
+    private void writeSample(double time, double value, String text)
+      throws IOException
+    {
+      if (m_segOut != null)
+      {
+        m_segOut.write(time, value);
+      }
+      else if (m_binOut != null)
+      {
+        m_binOut.writeDouble(time);
+        switch (m_type)
+        {
+          case FLOAT: m_binOut.writeDouble(value); break;
+          case INTEGER: m_binOut.writeInt((int) value); break;
+          case BOOLEAN: m_binOut.writeByte(value != 0 ? 1 : 0); break;
+          case STRING: m_binOut.writeUTF(text == null ? "" : text); break;
+        }
+      }
+      else if (m_textOut != null)
+      {
+        m_textOut.write(Double.toString(time));
+        switch (m_type)
+        {
+          case FLOAT:
+            m_textOut.write('\t');
+            m_textOut.write(Double.toString(value));
+            break;
+          case INTEGER:
+            m_textOut.write('\t');
+            m_textOut.write(Integer.toString((int) value));
+            break;
+          case BOOLEAN:
+            m_textOut.write(value != 0 ? "\ttrue" : "\tfalse");
+            break;
+          case STRING:
+            m_textOut.write('\t');
+            m_textOut.write(String.valueOf(text));
+            break;
+        }
+        m_textOut.write('\n');
+      }
+      else
+      {
+        return; // not open
+      }
+
+      dirty();
+    }
+
+    private void closeNow() throws IOException
+    {
+      try
+      {
+        if (m_segOut != null) m_segOut.close();
+        if (m_binOut != null) m_binOut.close();
+        if (m_textOut != null) m_textOut.close();
+      }
+      finally
+      {
+        m_segOut = null;
+        m_binOut = null;
+        m_textOut = null;
+        m_dirty = false;
+      }
+    }
+
+    private void closeQuietly()
+    {
+      try
+      {
+        closeNow();
+      }
+      catch (IOException e)
+      {
+        // already reported the first error
+      }
+    }
+
+    private void dirty()
+    {
+      if (!m_dirty)
+      {
+        m_dirty = true;
+        m_dirtyFiles.add(this);
+      }
+    }
+
+    private void flush(boolean force) throws IOException
+    {
+      m_dirty = false;
+      if (m_segOut != null && m_segOut.flush(force)) dirty();
+      if (m_binOut != null) m_binOut.flush();
+      if (m_textOut != null) m_textOut.flush();
+    }
+
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.datalogger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Writes a log in the segmented format read by {@link LogReader}, for
+ * the thread of a {@link LogWriter}.
+ *
+ * <p>The samples are stored in segment files of {@link #RECORDS}
+ * samples each, named after the log's index file with the segment
+ * number added, so <tt>run.seg</tt> has segments <tt>run.seg.0</tt>,
+ * <tt>run.seg.1</tt> and so on. A segment holds the times of its
+ * samples as an array of doubles, followed by their values as another,
+ * and every segment but the last is full. The index file starts with
+ * the int {@link #MAGIC}, a version byte (1), the type byte of the
+ * values (as in {@link LogWriter}), the number of records per segment,
+ * and the number of segments, all as ints; then, for each segment, the
+ * times of its first and last samples and its number of samples. All
+ * numbers are big-endian, and all values are stored as doubles.
+ *
+ * <p>Segments are written through memory maps, so a sample costs two
+ * stores into memory. The index is rewritten when a segment fills, when
+ * the log is closed, and otherwise at most every {@link
+ * #INDEX_INTERVAL} milliseconds while samples arrive, rather than each
+ * time the writer flushes.
+ */
+final class SegmentWriter
+{
+  /** First int of a segmented log's index file ("NRSI") */
+  static final int MAGIC = 0x4E525349;
+
+  /** Version of the segmented format */
+  static final byte VERSION = 1;
+
+  /** Number of samples in a segment */
+  static final int RECORDS = 1 << 20;
+
+  /** Size in bytes of the header of the index file, and of each of its
+   * entries */
+  static final int HEADER_SIZE = 14;
+  static final int ENTRY_SIZE = 20;
+
+  /** Least number of milliseconds between rewrites of the index, other
+   * than when a segment fills or the log is closed */
+  static final long INDEX_INTERVAL = 1000;
+
+  /** Index file */
+  private final File m_index;
+
+  /** Type of values logged */
+  private final byte m_type;
+
+  /** The segments written, including the current one */
+  private final ArrayList<Segment> m_segments;
+
+  /** Map of the current segment, or null before the first sample */
+  private MappedByteBuffer m_map = null;
+
+  /** Time at which the index was last written */
+  private long m_indexed = 0;
+
+  /** Whether samples have been added since the index was written */
+  private boolean m_stale = false;
+
+  //----------------------------------------------------------------------
+  /**
+   * Start a segmented log
+   *
+   * @param index the index file
+   * @param type type of values logged
+   * @param append whether to add to an existing log, rather than
+   * replace it
+   */
+  SegmentWriter(File index, byte type, boolean append) throws IOException
+  {
+    m_index = index;
+    m_type = type;
+
+    if (append && index.length() > 0)
+    {
+      m_segments = readIndex(index);
+
+      if (typeOf(index) != type)
+        throw new IOException("Can't append to " + index
+                              + ": it logs a different type of value");
+    }
+    else
+    {
+      m_segments = new ArrayList<Segment>();
+
+      // remove the segments of the log being replaced
+      for (int n = 0; segmentFile(index, n).delete(); n++);
+    }
+
+    writeIndex();
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Add a sample
+   */
+  void write(double time, double value) throws IOException
+  {
+    Segment s = m_segments.isEmpty()
+      ? null : m_segments.get(m_segments.size() - 1);
+
+    if (s == null || s.m_count == RECORDS)
+    {
+      // list the full segment before starting the next
+      if (s != null) writeIndex();
+
+      s = new Segment();
+      s.m_first = time;
+      m_segments.add(s);
+      m_map = null;
+    }
+
+    if (m_map == null)
+      m_map = map(segmentFile(m_index, m_segments.size() - 1));
+
+    m_map.putDouble(s.m_count << 3, time);
+    m_map.putDouble((RECORDS + s.m_count) << 3, value);
+
+    s.m_count++;
+    s.m_last = time;
+    m_stale = true;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Make the samples written so far visible to a {@link LogReader}, by
+   * rewriting the index, unless it was rewritten less than {@link
+   * #INDEX_INTERVAL} milliseconds ago.
+   *
+   * @param force whether to rewrite the index however recently it was
+   * last rewritten
+   *
+   * @return <tt>true</tt> if the index was held back, and still doesn't
+   * cover every sample, in which case this should be called again
+   * after at most {@link #INDEX_INTERVAL} milliseconds
+   */
+  boolean flush(boolean force) throws IOException
+  {
+    if (!m_stale) return false;
+
+    if (!force && System.currentTimeMillis() - m_indexed < INDEX_INTERVAL)
+      return true;
+
+    writeIndex();
+    return false;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Write out the samples and the index
+   */
+  void close() throws IOException
+  {
+    if (m_map != null) m_map.force();
+    m_map = null;
+    writeIndex();
+  }
+  //----------------------------------------------------------------------
+  private void writeIndex() throws IOException
+  {
+    ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE
+                                       + ENTRY_SIZE * m_segments.size());
+    b.putInt(MAGIC);
+    b.put(VERSION);
+    b.put(m_type);
+    b.putInt(RECORDS);
+    b.putInt(m_segments.size());
+
+    for (int i = 0; i < m_segments.size(); i++)
+    {
+      Segment s = m_segments.get(i);
+      b.putDouble(s.m_first);
+      b.putDouble(s.m_last);
+      b.putInt(s.m_count);
+    }
+
+    RandomAccessFile f = new RandomAccessFile(m_index, "rw");
+    try
+    {
+      f.write(b.array());
+      f.setLength(b.capacity());
+    }
+    finally
+    {
+      f.close();
+    }
+
+    m_indexed = System.currentTimeMillis();
+    m_stale = false;
+  }
+  //----------------------------------------------------------------------
+  private static MappedByteBuffer map(File file) throws IOException
+  {
+    RandomAccessFile f = new RandomAccessFile(file, "rw");
+    try
+    {
+      // the map stays valid once the file is closed
+      return f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                (long) RECORDS << 4);
+    }
+    finally
+    {
+      f.close();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the file holding segment <tt>n</tt> of the log with index
+   * file <tt>index</tt>
+   */
+  static File segmentFile(File index, int n)
+  {
+    return new File(index.getPath() + "." + n);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the type of values logged in the log with index file
+   * <tt>index</tt>
+   */
+  static byte typeOf(File index) throws IOException
+  {
+    DataInputStream in = new DataInputStream(new FileInputStream(index));
+    try
+    {
+      in.skipBytes(5);
+      return in.readByte();
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read the segments listed in an index file, checking its header
+   *
+   * @throws IOException if the file can't be read, or isn't an index
+   * of a segmented log in the format written here
+   */
+  static ArrayList<Segment> readIndex(File index) throws IOException
+  {
+    DataInputStream in = new DataInputStream
+      (new BufferedInputStream(new FileInputStream(index)));
+    try
+    {
+      if (in.readInt() != MAGIC)
+        throw new IOException(index + " is not a segmented log index");
+      if (in.readByte() != VERSION)
+        throw new IOException(index + " is of an unknown version");
+      in.readByte();
+      if (in.readInt() != RECORDS)
+        throw new IOException(index + " has unsupported segment size");
+
+      int n = in.readInt();
+      ArrayList<Segment> segments = new ArrayList<Segment>(n);
+      for (int i = 0; i < n; i++)
+      {
+        Segment s = new Segment();
+        s.m_first = in.readDouble();
+        s.m_last = in.readDouble();
+        s.m_count = in.readInt();
+        segments.add(s);
+      }
+      return segments;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * An entry of the index
+   */
+  static final class Segment
+  {
+    /** Times of the first and last samples */
+    double m_first;
+    double m_last;
+
+    /** Number of samples */
+    int m_count;
+  }
+}
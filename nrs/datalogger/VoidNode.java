@@ -22,6 +22,7 @@
  */
 package nrs.datalogger;
 
+import nrs.core.base.Log;
 import nrs.core.base.Message;
 import nrs.core.base.Node;
 import nrs.core.base.Variable;
@@ -35,8 +36,6 @@ import nrs.core.unit.Filename;
 import nrs.core.unit.Time;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 
 /** Represents node to log void messages for this component
  * 
@@ -54,7 +53,7 @@ public class VoidNode extends Node
   private Filename m_filename;
   
   private File m_file;
-  private FileWriter m_out;
+  private final LogWriter.LogFile m_out;
   
   private BooleanType m_appendToFile;
   
@@ -64,10 +63,13 @@ public class VoidNode extends Node
    *
    * @param vmMan {@link VariableManager} to register node with
    * @param name vnname of the node
+   * @param writer {@link LogWriter} to write the log file
    */
-  public VoidNode(VariableManager vmMan, String name)
+  public VoidNode(VariableManager vmMan, String name, LogWriter writer)
   {
     super(vmMan, name, type);
+
+    m_out = writer.newFile(LogWriter.VOID);
     
     //add variables to variable manager
     //register DirName variable with VariableManager
@@ -224,8 +226,8 @@ public class VoidNode extends Node
    */
   public void handleMessageAt_Time(Message m, Variable v, boolean diff) 
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     
     Double d = m_varTime.extractData(m);
     
@@ -236,8 +238,8 @@ public class VoidNode extends Node
    * Process the receipt of a message at the Time variable.
    */
   public void handleMessageAt_Time(double d) { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Time variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Time variable!",
+             getVNName());
     m_varTime.setValue(d);
   } 
   /**
@@ -267,17 +269,10 @@ public class VoidNode extends Node
     m_appendToFile.reset();
     
     //open stream again.
-    try{
-      if ( m_out != null )
-        m_out.close();
-      
-      m_out = new FileWriter(m_file, m_appendToFile.getValue());
+    if ( m_file != null ){
       PackageLogger.log.info(getVNName() + " is writing to: " 
                              + m_file.getAbsoluteFile());
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
+      m_out.open(m_file, m_appendToFile.getValue());
     }
   }
 
@@ -350,8 +345,8 @@ public class VoidNode extends Node
    */
   public void handleMessageAt_Value(Message m, Variable v, boolean diff)
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Value variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Value variable!",
+             getVNName());
     writeOut();
   }
   /**
@@ -359,38 +354,29 @@ public class VoidNode extends Node
    */
   public void handleMessageAt_Value() 
   { 
-    PackageLogger.log.fine("Received message at " + getVNName() 
-                           + ":Value variable!");
+    Log.fine(PackageLogger.log, "Received message at {0}:Value variable!",
+             getVNName());
     writeOut();
   }
 
   /** Open stream to file with current value of DirName and Filename. */
   private void open_file(){
-    try{
-      if ( m_out != null ) m_out.close();
+    m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
+    PackageLogger.log.info(getVNName() + " is writing to: " 
+                           + m_file.getAbsoluteFile());
 
-      m_file = new File(m_varDirName.getValue()+ "/" + m_filename.getValue());
-      PackageLogger.log.info(getVNName() + " is writing to: " 
-                             + m_file.getAbsoluteFile());
-      
-      m_out = new FileWriter(m_file, m_appendToFile.getValue());
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
-    }
+    m_out.open(m_file, m_appendToFile.getValue());
   }
 
-  /** Write out value to file. */
+  /** Queue value to be written out to file. */
   private void writeOut(){
-    try{
-      // for VoidNode there is no value to print out - just time
-      m_out.write(m_varTime.getValue().toString() + "\n");
-      m_out.flush();
-    }
-    catch(IOException ioe){
-      PackageLogger.log.warning(ioe.getMessage());
-      ioe.printStackTrace();
-    }
+    // for VoidNode there is no value to print out - just time
+    m_out.write(m_varTime.getValue().doubleValue());
+  }
+
+  /** Close the file, and remove this node. */
+  public void removeAll(){
+    m_out.close();
+    super.removeAll();
   }
 }
@@ -188,9 +188,16 @@ class BooleanValueNode extends ValueNode
     PackageLogger.log.fine("Received message at " + getVNName() 
                            + ":Input variable!");
     
-    m_varInput.setValue(b);
-    
-    setConsistent();
+    // send Input and Consistent together
+    m_vm.begin();
+    try{
+      m_varInput.setValue(b);
+      
+      setConsistent();
+    }
+    finally{
+      m_vm.commit();
+    }
   }
   //-----------------------------------------------------------------------//
   /**
@@ -53,7 +53,7 @@ public class Chromosome
     }
 
     //need deep cloning
-    public Object clone(){
+    public Chromosome clone(){
 	Chromosome c = new Chromosome();
 	ArrayList a = new ArrayList();
 	Gene g;
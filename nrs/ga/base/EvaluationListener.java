@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.ga.base;
+
+/** Receives the evaluations of a {@link GenomeNode} directly, in place
+ * of its Evaluated output variable. Used when several GenomeNodes
+ * evaluate chromosomes at once, so that each result can be matched to
+ * the GenomeNode which produced it.
+*/
+
+public interface EvaluationListener
+{
+  /** Called when <code>genome</code> has finished an evaluation.
+   *
+   * @param genome GenomeNode which did the evaluation.
+   * @param d evaluation score.
+   */
+  public void evaluated(GenomeNode genome, double d);
+}
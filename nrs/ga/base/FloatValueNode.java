@@ -184,9 +184,16 @@ class FloatValueNode extends ValueNode
   public void handleMessageAt_Input(double d) { 
     PackageLogger.log.fine("Received message at " + getVNName() 
                            + ":Input variable!");
-    m_varInput.setValue(d);
-    
-    setConsistent();
+    // send Input and Consistent together
+    m_vm.begin();
+    try{
+      m_varInput.setValue(d);
+      
+      setConsistent();
+    }
+    finally{
+      m_vm.commit();
+    }
   }
   //---------------------------------------------------------------------//
   /**
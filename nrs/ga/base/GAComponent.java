@@ -24,6 +24,7 @@ package nrs.ga.base;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 
 import nrs.core.base.BaseComponent;
@@ -66,7 +67,7 @@ public class GAComponent extends BaseComponent
     /** Whether this component has a CSL descriptor file. */
     private final static boolean m_HasCSL = true;
     /** Can the component speak BMF. */
-    private final static boolean m_SpeaksBMF = false;
+    private final static boolean m_SpeaksBMF = true;
     /** Can the component speak PML. */
     private final static boolean m_SpeaksPML = true;
 
@@ -78,8 +79,10 @@ public class GAComponent extends BaseComponent
     private MutationNode m_mutationNode;
     private ReplacementNode m_replacementNode;
     private SelectionNode m_selectionNode;
-    private GenomeNode m_genomeNode;
-    private CalcNode m_calcNode;
+    /** CalcNode of each GenomeNode; each GenomeNode has its own, with its
+     * own EvaluationNodes, since it drives its own simulator. */
+    private final HashMap<GenomeNode, CalcNode> m_calcNodes =
+	new HashMap<GenomeNode, CalcNode>();
 
     //----------------------------------------------------------------------
     /**Constructor
@@ -253,11 +256,11 @@ public class GAComponent extends BaseComponent
 
 	//GenomeNode
 	else if ( vnType.equals("GenomeNode") ){
-	    m_genomeNode = new GenomeNode(m_vMan, vnName);
+	    GenomeNode g = new GenomeNode(m_vMan, vnName);
 
-	    m_populationNode.addNode(m_genomeNode);
+	    m_populationNode.addNode(g);
 
-	    m_populationNode.setGenomeNode(m_genomeNode);
+	    m_populationNode.addGenomeNode(g);
 
 	    PackageLogger.log.fine("Created a GenomeNode with name: " 
                                    + vnName);
@@ -271,8 +274,11 @@ public class GAComponent extends BaseComponent
             if (intType) {
                 PackageLogger.log.warning("\n\nUsing Float Gene Node with integer GA\n\n");
             } 
+            GenomeNode g = genomeOf(vnName);
+            if ( g == null ) return;
+
             FloatGeneNode gn = new FloatGeneNode(m_vMan, vnName, "FloatGeneNode");
-            m_genomeNode.addNode(gn);
+            g.addNode(gn);
             
             PackageLogger.log.fine("Created a FloatGeneNode with name: " + vnName);
         }
@@ -284,42 +290,46 @@ public class GAComponent extends BaseComponent
             if (!intType) {
                 PackageLogger.log.warning("\n\nUsing Int Gene Node with float GANode\n\n");
             }
+            GenomeNode g = genomeOf(vnName);
+            if ( g == null ) return;
+
             IntGeneNode gn = new IntGeneNode(m_vMan, vnName, "IntGeneNode");
-            m_genomeNode.addNode(gn);
+            g.addNode(gn);
             
             PackageLogger.log.fine("Created an IntGeneNode with name: " + vnName);
         }
 
 	else if ( vnType.equals("EvaluationNode") ){
+	    Variable c = parentOf(vnName);
+	    if ( !(c instanceof CalcNode) ){
+		PackageLogger.log.warning("No CalcNode to hold EvaluationNode: "
+					  + vnName);
+		return;
+	    }
+
 	    EvaluationNode en = new EvaluationNode(m_vMan, vnName);
-	    m_calcNode.addNode(en);
+	    ((CalcNode) c).addNode(en);
 	}
 
 	//CalcNode types - add new ones here!
-	else if ( vnType.equals("AddCalcNode") ){
+	else if ( vnType.equals("AddCalcNode")
+		  || vnType.equals("FunctionCalcNode") ){
             if (m_gaNode != null) {
                 intType = m_gaNode.getNumType();
             }
-	    if ( m_calcNode == null ){
+	    GenomeNode g = genomeOf(vnName);
+	    if ( g == null ) return;
 
+	    //one CalcNode per GenomeNode
+	    if ( m_calcNodes.get(g) == null ){
+		CalcNode c;
 		if ( vnType.equals("AddCalcNode") )
-		    m_calcNode = new AddCalcNode(m_vMan, vnName, intType);
+		    c = new AddCalcNode(m_vMan, vnName, intType);
+		else
+		    c = new FunctionCalcNode(m_vMan, vnName, intType);
 
-		m_genomeNode.addNode(m_calcNode);
-	    }
-	}
-
-         // FunctionCalcNode
-        else if ( vnType.equals("FunctionCalcNode") ){
-            if (m_gaNode != null) {
-                intType = m_gaNode.getNumType();
-            }
-	    if ( m_calcNode == null ){
-                
-		if ( vnType.equals("FunctionCalcNode") )
-		    m_calcNode = new FunctionCalcNode(m_vMan, vnName, intType);
-
-		m_genomeNode.addNode(m_calcNode);
+		g.addNode(c);
+		m_calcNodes.put(g, c);
 	    }
 	}
 
@@ -439,7 +449,7 @@ public class GAComponent extends BaseComponent
 	    m_crossoverNode = null;
 	    m_mutationNode = null;
 	    m_selectionNode = null;
-	    m_genomeNode = null;
+	    m_calcNodes.clear();
 
 	    PackageLogger.log.fine("Deleted root GANode!");
 	}
@@ -517,31 +527,8 @@ public class GAComponent extends BaseComponent
 
 	    PackageLogger.log.fine("Deleted ReplacementNode!");
 	}
-	//GenomeNode
-	else if ( m_genomeNode != null && vnid == m_genomeNode.getVNID() ){
-	    m_genomeNode.removeAll();
-	    m_vMan.remove(m_genomeNode);
-	    m_genomeNode = null;
-
-	    if ( m_populationNode != null )
-		m_populationNode.setGenomeNode(null);
-
-	    PackageLogger.log.fine("Deleted GenomeNode!");
-	}
-	//CalcNode ( + all derived classes )
-	else if ( m_calcNode != null && vnid == m_calcNode.getVNID() ){
-	    m_calcNode.removeAll();
-	    m_vMan.remove(m_calcNode);
-
-            if ( m_genomeNode != null )
-	    m_genomeNode.removeNode(m_calcNode);
-
-	    m_calcNode = null;
-	    PackageLogger.log.fine("Deleted CalcNode!");
-	}
-
-	//could be GeneNode, Evaluation Node, or ValueNode,
-	//use vnid get variable and remove from
+	//could be GenomeNode, CalcNode, GeneNode, Evaluation Node, or
+	//ValueNode, use vnid get variable and remove from
 	else{
           //need to remove all nodes and variables node contains and
           //remove it from Variable Manager
@@ -550,18 +537,36 @@ public class GAComponent extends BaseComponent
             n.removeAll();
             m_vMan.remove(n);
             
-            //remove this GeneNode from GenomeNode
+            //remove this GeneNode from its GenomeNode
             if ( n instanceof GeneNode ){
-              if ( m_genomeNode != null )
-              m_genomeNode.removeNode(n);
+              Variable g = parentOf(s);
+              if ( g instanceof GenomeNode )
+              ((GenomeNode) g).removeNode(n);
               PackageLogger.log.fine("Deleted GeneNode!");
             }
             // EvaluationNode
             else if ( n instanceof EvaluationNode ){
-              if ( m_calcNode != null )
-              m_calcNode.removeNode(n);
+              Variable c = parentOf(s);
+              if ( c instanceof CalcNode )
+              ((CalcNode) c).removeNode(n);
               PackageLogger.log.fine("Deleted an EvaluationNode!");
             }
+            //CalcNode ( + all derived classes )
+            else if ( n instanceof CalcNode ){
+              Variable g = parentOf(s);
+              if ( g instanceof GenomeNode ){
+                ((GenomeNode) g).removeNode(n);
+                m_calcNodes.remove(g);
+              }
+              PackageLogger.log.fine("Deleted CalcNode!");
+            }
+            // GenomeNode
+            else if ( n instanceof GenomeNode ){
+              m_calcNodes.remove(n);
+              if ( m_populationNode != null )
+              m_populationNode.removeGenomeNode((GenomeNode) n);
+              PackageLogger.log.fine("Deleted GenomeNode!");
+            }
             //any ValueNode
             else if ( n instanceof ValueNode ){
               //get right EvaluationNode and remove this node from it
@@ -588,4 +593,27 @@ public class GAComponent extends BaseComponent
           }
 	}
     }
+    //----------------------------------------------------------------------
+    /**
+     * Return the node containing the node named <tt>vnName</tt>, which
+     * has the name up to its last '.', or null if there is none.
+     */
+    private Variable parentOf(String vnName){
+	int end = vnName.lastIndexOf((int)'.');
+	if ( end < 0 ) return null;
+
+	return m_vMan.get(vnName.substring(0, end));
+    }
+    //----------------------------------------------------------------------
+    /**
+     * Return the GenomeNode to hold the node named <tt>vnName</tt>, or
+     * null, after logging a warning, if there is none.
+     */
+    private GenomeNode genomeOf(String vnName){
+	Variable g = parentOf(vnName);
+	if ( g instanceof GenomeNode ) return (GenomeNode) g;
+
+	PackageLogger.log.warning("No GenomeNode to hold node: " + vnName);
+	return null;
+    }
 }
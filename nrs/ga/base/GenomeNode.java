@@ -48,6 +48,9 @@ public class GenomeNode extends Node
   private BooleanType m_varGo; //input & output
   private FloatType m_varEvaluated; //input & output
   
+  /** Receives evaluations instead of the Evaluated variable, if set. */
+  private EvaluationListener m_listener;
+  
   /** Constructor. 
    * Use {@link VariableManager} to suggest vnid and register node. 
    *
@@ -196,7 +199,20 @@ public class GenomeNode extends Node
     PackageLogger.log.fine("Received message at " + getVNName() 
                            + ":Evaluated variable!");
     
-    m_varEvaluated.onEvent(d);
+    EvaluationListener l = m_listener;
+    if ( l != null )
+      l.evaluated(this, d);
+    else
+      m_varEvaluated.onEvent(d);
+  }
+  
+  /** Send evaluations to a listener rather than out of the Evaluated 
+   * variable.
+   *
+   * @param l listener, or null to use the Evaluated variable again.
+   */
+  public final void setEvaluationListener(EvaluationListener l){
+    m_listener = l;
   }
   //-----------------------------------------------------------------------//
   /** Update GeneNodes with new values. 
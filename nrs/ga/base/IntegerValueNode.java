@@ -184,9 +184,16 @@ class IntegerValueNode extends ValueNode
   public void handleMessageAt_Input(int i) { 
     PackageLogger.log.fine("Received message at " + getVNName() 
                            + ":Input variable!");
-    m_varInput.setValue(i);
-    
-    setConsistent();
+    // send Input and Consistent together
+    m_vm.begin();
+    try{
+      m_varInput.setValue(i);
+      
+      setConsistent();
+    }
+    finally{
+      m_vm.commit();
+    }
   }
   //---------------------------------------------------------------------//
   /**
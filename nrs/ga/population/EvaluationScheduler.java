@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2004 Edinburgh University
+ *
+ *    This program is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU General Public License as
+ *    published by the Free Software Foundation; either version 2 of
+ *    the License, or (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public
+ *    License along with this program; if not, write to the Free
+ *    Software Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ *    MA 02111-1307 USA
+ *
+ * For further information in the first instance contact:
+ * Richard Reeve <richardr@inf.ed.ac.uk>
+ *
+ */
+package nrs.ga.population;
+
+import nrs.core.base.TimingWheel;
+
+import nrs.ga.base.Chromosome;
+import nrs.ga.base.GenomeNode;
+import nrs.ga.base.PackageLogger;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/** Hands the chromosomes of a {@link PopulationNode} out to its
+ * {@link GenomeNode}s for evaluation.
+ *
+ * Each GenomeNode, with its GeneNodes and EvaluationNodes, drives its
+ * own simulator, so with several of them as many chromosomes are
+ * evaluated at once. A chromosome is given to the next idle GenomeNode,
+ * and its evaluation is stored whenever the result comes back, in
+ * whatever order. When every chromosome of the batch has an
+ * evaluation, the PopulationNode is told that the batch is finished.
+ *
+ * If a timeout is set, a chromosome which hasn't been evaluated in time
+ * is handed out again, to the next idle GenomeNode, and the first
+ * result to come back is used. Each timeout counts as an attempt, and a
+ * chromosome which times out {@link #MAX_ATTEMPTS} times is given up,
+ * and keeps an evaluation of 0.0. The GenomeNode which timed out is
+ * free for more work, so even a single GenomeNode can't hang the batch;
+ * since a GenomeNode answers in order, the next result it returns is
+ * the late one, and is ignored. A GenomeNode which times out {@link
+ * #MAX_TIMEOUTS} times in a row, without returning anything, is taken
+ * to be dead and retired until it answers again. If every GenomeNode is
+ * retired, the chromosomes still waiting are given up, so that the
+ * batch finishes.
+ *
+ * Timeouts run on the {@link TimingWheel}'s thread, so they take the
+ * lock of the PopulationNode, which holds it while it receives
+ * evaluations and starts runs; a timeout is never handled at the same
+ * time as a message.
+*/
+
+final class EvaluationScheduler
+{
+  /** Number of times a chromosome is tried before it is given up. */
+  static final int MAX_ATTEMPTS = 3;
+
+  /** Number of timeouts in a row, with no result, after which a
+   * GenomeNode is retired. */
+  static final int MAX_TIMEOUTS = 5;
+
+  /** PopulationNode whose chromosomes are evaluated. */
+  private final PopulationNode m_pop;
+
+  /** GenomeNodes which evaluate chromosomes. */
+  private final ArrayList<Lane> m_lanes = new ArrayList<Lane>();
+
+  /** Milliseconds to wait for an evaluation, or 0 to wait forever. */
+  private long m_timeout = 0;
+
+  /** Number of the current batch, so that late results and timeouts
+   * from earlier batches can be told apart. */
+  private int m_batch = 0;
+
+  /** Chromosomes of the current batch. */
+  private ArrayList<Chromosome> m_chromosomes;
+
+  /** Whether each chromosome has been evaluated, or given up. */
+  private boolean[] m_done;
+
+  /** Number of times each chromosome has been handed out. */
+  private int[] m_attempts;
+
+  /** Chromosomes waiting for an idle GenomeNode, in order. */
+  private final LinkedList<Integer> m_queue = new LinkedList<Integer>();
+
+  /** Number of chromosomes of the batch still to be evaluated. */
+  private int m_remaining = 0;
+
+  /** Constructor.
+   *
+   * @param pop PopulationNode whose chromosomes are evaluated.
+   */
+  EvaluationScheduler(PopulationNode pop){
+    m_pop = pop;
+  }
+
+  //----------------------------------------------------------------------//
+
+  /** Add a GenomeNode to evaluate chromosomes. */
+  void addLane(GenomeNode g){
+    synchronized(this){
+      if ( find(g) == null ) m_lanes.add(new Lane(g));
+    }
+    dispatch();
+  }
+
+  /** Stop using a GenomeNode. Any chromosome it was evaluating is
+   * handed out again. */
+  void removeLane(GenomeNode g){
+    synchronized(this){
+      Lane l = find(g);
+      if ( l == null ) return;
+
+      m_lanes.remove(l);
+      if ( l.m_batch == m_batch && l.m_job >= 0 && !m_done[l.m_job] )
+        m_queue.addFirst(new Integer(l.m_job));
+      l.cancel();
+    }
+    dispatch();
+  }
+
+  /** Set the time to wait for an evaluation before handing the
+   * chromosome out again.
+   *
+   * @param ms milliseconds to wait, or 0 to wait forever.
+   */
+  synchronized void setTimeout(long ms){
+    m_timeout = Math.max(0, ms);
+  }
+
+  //----------------------------------------------------------------------//
+
+  /** Evaluate a batch of chromosomes, replacing any batch still being
+   * evaluated.
+   *
+   * @param chromosomes list holding the chromosomes.
+   * @param count number of chromosomes, from the start of the list, to
+   * evaluate.
+   */
+  void evaluate(ArrayList<Chromosome> chromosomes, int count){
+    synchronized(this){
+      m_batch++;
+      m_chromosomes = chromosomes;
+      m_done = new boolean[count];
+      m_attempts = new int[count];
+      m_remaining = count;
+
+      m_queue.clear();
+      for(int i = 0; i < count; i++)
+        m_queue.add(new Integer(i));
+
+      abandonIfRetired();
+    }
+
+    dispatch();
+    finish();
+  }
+
+  /** Store an evaluation returned by a GenomeNode.
+   *
+   * @param g GenomeNode which did the evaluation.
+   * @param d evaluation score.
+   */
+  void evaluated(GenomeNode g, double d){
+    synchronized(this){
+      Lane l = find(g);
+
+      // the result of an evaluation which timed out
+      if ( l != null && l.m_owed > 0 ){
+        l.m_owed--;
+        l.m_timeouts = 0;
+        if ( l.m_retired ){
+          l.m_retired = false;
+          PackageLogger.log.warning(g.getVNName() + " is answering again");
+        }
+        PackageLogger.log.fine("Ignoring late evaluation from "
+                               + g.getVNName() + ", which timed out");
+      }
+      else if ( l == null || l.m_job < 0 ){
+        PackageLogger.log.warning("Received evaluation from "
+                                  + g.getVNName()
+                                  + " which was not evaluating!");
+        return;
+      }
+      else{
+        store(l, d);
+      }
+    }
+
+    dispatch();
+    finish();
+  }
+
+  /** Free a GenomeNode which has returned a result, and store the
+   * result if it is still wanted. */
+  private void store(Lane l, double d){
+    int job = l.m_job;
+    boolean current = ( l.m_batch == m_batch );
+    l.cancel();
+    l.m_job = -1;
+    l.m_timeouts = 0;
+
+    if ( !current ){
+      PackageLogger.log.fine("Ignoring late evaluation from "
+                             + l.m_genome.getVNName()
+                             + " of an earlier batch");
+    }
+    else if ( m_done[job] ){
+      PackageLogger.log.fine("Ignoring late evaluation from "
+                             + l.m_genome.getVNName() + " of Chromosome: "
+                             + job + ", which is already evaluated");
+    }
+    else{
+      Chromosome c = m_chromosomes.get(job);
+      c.setEvaluation(d);
+      m_done[job] = true;
+      m_remaining--;
+
+      PackageLogger.log.fine("Evaluation score for Chromosome: "
+                             + job + " is: " + c.getEvaluation());
+    }
+  }
+
+  //----------------------------------------------------------------------//
+
+  /** Hand out waiting chromosomes to idle GenomeNodes. The GenomeNodes
+   * are started outside the lock, since starting one sends messages,
+   * and, for a fast enough evaluation, may return its result. */
+  private void dispatch(){
+    while ( true ){
+      Lane l = null;
+      Chromosome c = null;
+
+      synchronized(this){
+        if ( m_remaining == 0 ) return;
+
+        // drop chromosomes evaluated since they were queued again
+        while ( !m_queue.isEmpty() && m_done[m_queue.getFirst().intValue()] )
+          m_queue.removeFirst();
+        if ( m_queue.isEmpty() ) return;
+
+        for(int i = 0; i < m_lanes.size() && l == null; i++)
+          if ( m_lanes.get(i).m_job < 0 && !m_lanes.get(i).m_retired )
+            l = m_lanes.get(i);
+        if ( l == null ) return;
+
+        int job = m_queue.removeFirst().intValue();
+        c = m_chromosomes.get(job);
+        m_attempts[job]++;
+
+        l.m_job = job;
+        l.m_batch = m_batch;
+        if ( m_timeout > 0 )
+          l.m_timeout = TimingWheel.getDefault()
+            .schedule(new Expiry(l, job, m_batch), m_timeout);
+
+        PackageLogger.log.fine("Next Chromosome to evaluate is: " + job
+                               + ", on " + l.m_genome.getVNName());
+      }
+
+      m_pop.startEvaluation(l.m_genome, c);
+    }
+  }
+
+  /** Called when a GenomeNode has taken too long over a chromosome. 
+   * The GenomeNode is freed, and owes the late result. */
+  private void expired(Lane l, int job, int batch){
+    synchronized(this){
+      if ( l.m_job != job || l.m_batch != batch || find(l.m_genome) != l )
+        return;
+
+      l.m_timeout = null;
+      l.m_job = -1;
+      l.m_owed++;
+
+      if ( ++l.m_timeouts >= MAX_TIMEOUTS && !l.m_retired ){
+        l.m_retired = true;
+        PackageLogger.log.warning("Retiring " + l.m_genome.getVNName()
+                                  + " after " + l.m_timeouts
+                                  + " timeouts in a row");
+      }
+
+      if ( batch != m_batch || m_done[job] ){
+        // nothing more to do for this chromosome
+      }
+      else if ( m_attempts[job] < MAX_ATTEMPTS ){
+        PackageLogger.log.warning(l.m_genome.getVNName()
+                                  + " timed out evaluating Chromosome: "
+                                  + job + "; trying it again");
+        m_queue.addFirst(new Integer(job));
+      }
+      else{
+        PackageLogger.log.warning("Giving up Chromosome: " + job
+                                  + " after " + m_attempts[job]
+                                  + " attempts; it keeps an evaluation "
+                                  + "of 0.0");
+        m_done[job] = true;
+        m_remaining--;
+      }
+
+      abandonIfRetired();
+    }
+
+    dispatch();
+    finish();
+  }
+
+  /** If every GenomeNode has been retired, give up the chromosomes not
+   * yet evaluated, since nothing will evaluate them. */
+  private void abandonIfRetired(){
+    if ( m_remaining == 0 || m_lanes.isEmpty() ) return;
+
+    for(int i = 0; i < m_lanes.size(); i++)
+      if ( !m_lanes.get(i).m_retired ) return;
+
+    PackageLogger.log.warning("Every GenomeNode is retired; giving up "
+                              + m_remaining + " Chromosomes, which keep "
+                              + "an evaluation of 0.0");
+
+    for(int i = 0; i < m_done.length; i++)
+      m_done[i] = true;
+    m_remaining = 0;
+    m_queue.clear();
+  }
+
+  /** Tell the PopulationNode if the batch has just been finished. */
+  private void finish(){
+    synchronized(this){
+      if ( m_remaining != 0 || m_chromosomes == null ) return;
+      m_chromosomes = null;
+    }
+    m_pop.finishedEvaluation();
+  }
+
+  private Lane find(GenomeNode g){
+    for(int i = 0; i < m_lanes.size(); i++)
+      if ( m_lanes.get(i).m_genome == g ) return m_lanes.get(i);
+    return null;
+  }
+
+  //----------------------------------------------------------------------//
+
+  /** A GenomeNode, and what it is evaluating. */
+  private static final class Lane
+  {
+    final GenomeNode m_genome;
+
+    /** Chromosome being evaluated, or -1 if idle. */
+    int m_job = -1;
+
+    /** Batch of that chromosome. */
+    int m_batch;
+
+    /** Pending timeout of the evaluation, if any. */
+    TimingWheel.Timeout m_timeout;
+
+    /** Number of late results still to come from evaluations which
+     * timed out. */
+    int m_owed = 0;
+
+    /** Number of timeouts since the last result. */
+    int m_timeouts = 0;
+
+    /** Whether taken to be dead, and given no work. */
+    boolean m_retired = false;
+
+    Lane(GenomeNode g){
+      m_genome = g;
+    }
+
+    void cancel(){
+      if ( m_timeout != null ) m_timeout.cancel();
+      m_timeout = null;
+    }
+  }
+
+  /** Timeout of an evaluation. */
+  private final class Expiry implements Runnable
+  {
+    private final Lane m_lane;
+    private final int m_job;
+    private final int m_batch;
+
+    Expiry(Lane l, int job, int batch){
+      m_lane = l;
+      m_job = job;
+      m_batch = batch;
+    }
+
+    public void run(){
+      synchronized(m_pop){
+        expired(m_lane, m_job, m_batch);
+      }
+    }
+  }
+}
@@ -43,14 +43,11 @@ import java.util.ArrayList;
 
 public class GenerationalPopNode extends PopulationNode
 {
-  /** Counter for number of Chromosomes of population have been evaluated. */
-  private int m_popCounter;
-  
   /** Whether using elitism (>0) or not (0). */
   private int m_elitism;
   
   /** Temporary copy of population. */
-  private ArrayList m_temp_population;
+  private ArrayList<Chromosome> m_temp_population;
   
   /** Constructor. 
    *
@@ -59,8 +56,6 @@ public class GenerationalPopNode extends PopulationNode
    */
   public GenerationalPopNode(VariableManager vmMan, String vnName){
     super(vmMan, vnName, "GenerationalPopNode");
-    
-    m_popCounter = 0;
   }
   
   //----------------------------------------------------------------------//
@@ -92,7 +87,7 @@ public class GenerationalPopNode extends PopulationNode
           Chromosome c;
           int pSize = m_population.size();
           for(int i = pSize-1; i >= (pSize-m_elitism); i--){
-            c = (Chromosome) m_population.get(i);
+            c = m_population.get(i);
             m_temp_population.add(c);
           }
         }
@@ -121,41 +116,6 @@ public class GenerationalPopNode extends PopulationNode
   }
   //----------------------------------------------------------------------//
   
-  /**
-   * Process the receipt of a message at the PopulationNode variable - Evaluated.
-   *
-   * @param d the value received
-   */
-  public void handleMessageAt_Evaluated(double d){
-    //Store d value in message for current Chromosome.
-    Chromosome c;
-    
-    if ( !m_varStartRun.getValue() ){
-      PackageLogger.log.fine("Received message at Evaluated,"
-                             +" but not running experiment!");
-      return;
-    }
-    
-    //get Chromosome that was just evaluated at m_popCounter - 1.
-    if ( getInitial() )
-      c = (Chromosome) m_population.get(m_popCounter-1);
-    else
-      c = (Chromosome) m_temp_population.get(m_popCounter-1);
-    
-    c.setEvaluation(d);
-    PackageLogger.log.fine("Evaluation score for Chromosome: " 
-                           + (m_popCounter-1) + " is: " 
-                           + c.getEvaluation());
-    
-    //set value of variable
-    m_varEvaluated.setValue(d);
-    
-    //do next evaluation
-    doExperiment();
-  }
-  
-  //---------------------------------------------------------------------//
-  
   /** {@link Message} to deliver to this Node. */
   public void deliver(Message m){
     PackageLogger.log.fine("Received message at GenerationalPopNode!");
@@ -172,14 +132,14 @@ public class GenerationalPopNode extends PopulationNode
     
     if ( getPopSize() == 0 ){
       setPopSize(p);
-      m_population = new ArrayList(p);
-      m_temp_population = new ArrayList(1);
+      m_population = new ArrayList<Chromosome>(p);
+      m_temp_population = new ArrayList<Chromosome>(1);
       PackageLogger.log.config("Population size: " + p);
     }
     else{
       setPopSize(p);
-      m_population = new ArrayList(p);
-      m_temp_population = new ArrayList(1);
+      m_population = new ArrayList<Chromosome>(p);
+      m_temp_population = new ArrayList<Chromosome>(1);
       PackageLogger.log.config("Population size changed to: " 
                                + getPopSize());
     }
@@ -195,6 +155,9 @@ public class GenerationalPopNode extends PopulationNode
       m_elitism = 0;
       PackageLogger.log.config("Not using Elitism.");
     }
+    
+    //extract evaluation timeout attribute, by default none
+    setEvalTimeout(m);
   }
   //-----------------------------------------------------------------------//
   
@@ -233,7 +196,7 @@ public class GenerationalPopNode extends PopulationNode
       boolean initial = gn.use_initial();
       
       for(int m = 0; m < getPopSize(); m++){
-        c = (Chromosome) m_population.get(m);
+        c = m_population.get(m);
         Gene g = (Gene) c.getGenes().get(k);
 	
         if ( !initial )
@@ -259,53 +222,37 @@ public class GenerationalPopNode extends PopulationNode
   
   //-----------------------------------------------------------------------//
   
-  //start a new experiment until m_popCounter == population size.
+  //evaluate the generation, on as many GenomeNodes as there are.
   protected void doExperiment(){
-    Chromosome c;
-    
-    //more Chromosomes to evaluate
-    if ( m_popCounter < getPopSize() ){
-      
-      //new values need to be sent from GeneNodes to targets
-      if ( getInitial() ) //no genetic operators on first run
-        c = (Chromosome) m_population.get(m_popCounter);
-      else
-        c = (Chromosome) m_temp_population.get(m_popCounter);
-      
-      getGenomeNode().changeValues(c.getGenes());
-      
-      PackageLogger.log.fine("Next Chromosome to evaluate is: " 
-                             + m_popCounter);
-      
-      m_varStartEx.onEvent();
+    //no genetic operators on first run
+    if ( getInitial() )
+      evaluate(m_population, getPopSize());
+    else
+      evaluate(m_temp_population, getPopSize());
+  }
+  
+  //end of run, once the whole generation has been evaluated.
+  protected void finishedEvaluation(){
+    PackageLogger.log.fine("Finished GA epoch...");
+    //if was initial run - change flag
+    if ( getInitial() ){
+      finishedInitial();	
+      //printPopulation(m_population);
     }
-    //end of run.
-    else if ( m_popCounter == getPopSize() ){
-      PackageLogger.log.fine("Finished GA epoch...");
-      //if was initial run - change flag
-      if ( getInitial() ){
-        finishedInitial();	
-        //printPopulation(m_population);
-      }
-      else{
-        //swap pointers - temporary population is new population.
-        m_population = m_temp_population;
-        m_temp_population = new ArrayList(getPopSize());
-        
-        // print out population or best in population
-        //printPopulation(m_population);
-        //printBest(m_population);
-      }
-      
-      m_popCounter = 0;
-      
-      //Set StartRun variable value to false
-      m_varStartRun.setValue(false);
+    else{
+      //swap pointers - temporary population is new population.
+      m_population = m_temp_population;
+      m_temp_population = new ArrayList<Chromosome>(getPopSize());
       
-      //Set FinishedRun variable value to true - one iteration done.
-      m_varFinishedRun.onEvent();	   
-      return;
+      // print out population or best in population
+      //printPopulation(m_population);
+      //printBest(m_population);
     }
-    m_popCounter++;    
+    
+    //Set StartRun variable value to false
+    m_varStartRun.setValue(false);
+    
+    //Set FinishedRun variable value to true - one iteration done.
+    m_varFinishedRun.onEvent();	   
   }
 }
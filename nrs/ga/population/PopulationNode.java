@@ -35,6 +35,7 @@ import nrs.ga.mutation.*;
 import nrs.ga.crossover.*;
 import nrs.ga.selection.*;
 import nrs.ga.rng.*;
+import nrs.ga.base.EvaluationListener;
 import nrs.ga.base.GenomeNode;
 import nrs.ga.base.Gene;
 import nrs.ga.base.PackageLogger;
@@ -66,7 +67,7 @@ public abstract class PopulationNode extends Node
   private int m_population_size;
   
   /** Population of chromosomes. */
-  protected ArrayList m_population;
+  protected ArrayList<Chromosome> m_population;
   
   /** Whether on initial run of GA. */
   private boolean m_initial_run;
@@ -81,7 +82,22 @@ public abstract class PopulationNode extends Node
   private CrossoverNode m_crossoverNode;
   private MutationNode m_mutationNode;
   private SelectionNode m_selectionNode;
-  private GenomeNode m_genomeNode;
+  
+  /** GenomeNodes which evaluate chromosomes, each with its own 
+   * simulator. */
+  private final ArrayList<GenomeNode> m_genomeNodes = 
+    new ArrayList<GenomeNode>();
+  
+  /** Hands chromosomes out to the GenomeNodes. */
+  private final EvaluationScheduler m_scheduler = 
+    new EvaluationScheduler(this);
+  
+  /** Receives evaluations when there is more than one GenomeNode. */
+  private final EvaluationListener m_listener = new EvaluationListener(){
+      public void evaluated(GenomeNode genome, double d){
+        PopulationNode.this.evaluated(genome, d);
+      }
+    };
   
   /** Reference to random number generator. */
   private RNGNode m_rng;
@@ -97,14 +113,20 @@ public abstract class PopulationNode extends Node
     super(vmMan, vnName, type);
 
     String var1 = vnName+ ".StartRun";
+    // runs are started and finished holding this node's lock, as are
+    // evaluation timeouts, see EvaluationScheduler
     m_varStartRun = new BooleanType(vmMan, var1, true, true){
         public void deliver(Message m)
         {
-          handleMessageAt_StartRun(m, this, checkType(m, this));
+          synchronized(PopulationNode.this){
+            handleMessageAt_StartRun(m, this, checkType(m, this));
+          }
         }
         public void deliver(boolean b)
         {
-          handleMessageAt_StartRun(b);
+          synchronized(PopulationNode.this){
+            handleMessageAt_StartRun(b);
+          }
         }
       };
     addVariable(var1, m_varStartRun);
@@ -217,12 +239,37 @@ public abstract class PopulationNode extends Node
   }
   /**
    * Process the receipt of a message at the PopulationNode var - Evaluated.
-   * Implemented by subclass.
+   * Used when there is only one GenomeNode, whose Evaluated variable
+   * is linked here.
    *
    * @param d double value received
    *
    */
-  public abstract void handleMessageAt_Evaluated(double d);
+  public final void handleMessageAt_Evaluated(double d){
+    GenomeNode g = getGenomeNode();
+    
+    if ( g != null ) 
+      evaluated(g, d);
+    else
+      PackageLogger.log.warning("Received message at Evaluated "
+                                +"variable with no GenomeNode!");
+  }
+  
+  /** Store the evaluation of the chromosome <code>g</code> was 
+   * evaluating. 
+   */
+  private synchronized void evaluated(GenomeNode g, double d){
+    if ( !m_varStartRun.getValue() ){
+      PackageLogger.log.fine("Received evaluation from " + g.getVNName()
+                             +", but not running experiment!");
+      return;
+    }
+    
+    //set value of variable
+    m_varEvaluated.setValue(d);
+    
+    m_scheduler.evaluated(g, d);
+  }
   //----------------------------------------------------------------------//
   /**
    * Process the receipt of a message at the PopulationNode var - StartEx.
@@ -278,10 +325,70 @@ public abstract class PopulationNode extends Node
   //----------------------------------------------------------------------//
   
   /** Run a generation (iteration) worth of runs. 
-   * Implemented by subclass.
+   * Implemented by subclass, by passing the Chromosomes to 
+   * {@link #evaluate(ArrayList, int)}.
    */
   protected abstract void doExperiment();
   
+  /** Called once every Chromosome passed to 
+   * {@link #evaluate(ArrayList, int)} has been evaluated, to finish the 
+   * generation (iteration).
+   * Implemented by subclass.
+   */
+  protected abstract void finishedEvaluation();
+  
+  /** Evaluate Chromosomes, on as many GenomeNodes as there are, then call 
+   * {@link #finishedEvaluation()}.
+   *
+   * @param l list of Chromosomes.
+   * @param count number of Chromosomes, from the start of 
+   * <code>l</code>, to evaluate.
+   */
+  protected final void evaluate(ArrayList<Chromosome> l, int count){
+    m_scheduler.evaluate(l, count);
+  }
+  
+  /** Send a Chromosome's genes to a GenomeNode and start it evaluating. 
+   * With only one GenomeNode, it is started through the StartEx 
+   * variable, as before; otherwise each is started directly.
+   */
+  final void startEvaluation(GenomeNode g, Chromosome c){
+    g.changeValues(c.getGenes());
+    
+    boolean single;
+    synchronized(m_genomeNodes){
+      single = ( m_genomeNodes.size() == 1 );
+    }
+    
+    if ( single )
+      m_varStartEx.onEvent();
+    else
+      g.handleMessageAt_StartEx();
+  }
+  
+  /** Set the time to wait for a Chromosome's evaluation from the 
+   * evalTimeout field of <code>m</code>, if present, in seconds. 
+   * After that time the Chromosome is evaluated again, on another 
+   * GenomeNode if there is one.
+   */
+  protected final void setEvalTimeout(Message m){
+    String t = m.getField("evalTimeout");
+    double secs = 0.0;
+    
+    if ( t != null && t.length() > 0 ){
+      try{
+        secs = Double.parseDouble(t);
+      }
+      catch(NumberFormatException e){
+        PackageLogger.log.warning("Bad evaluation timeout: " + t);
+      }
+    }
+    
+    m_scheduler.setTimeout((long) (secs * 1000));
+    if ( secs > 0 )
+      PackageLogger.log.config("Evaluation timeout: " + secs + "s");
+  }
+  
   /** Generate initial population.
    * Implemented by subclass.
    */
@@ -328,12 +435,49 @@ public abstract class PopulationNode extends Node
     m_selectionNode = sn;
   }
   
-  public final void setGenomeNode(GenomeNode gn){
-    m_genomeNode = gn;
+  /** Add a GenomeNode to evaluate Chromosomes. */
+  public final void addGenomeNode(GenomeNode gn){
+    synchronized(m_genomeNodes){
+      m_genomeNodes.add(gn);
+      updateListeners();
+    }
+    synchronized(this){
+      m_scheduler.addLane(gn);
+    }
   }
   
+  /** Remove a GenomeNode; any Chromosome it was evaluating is evaluated 
+   * again by another. */
+  public final void removeGenomeNode(GenomeNode gn){
+    synchronized(m_genomeNodes){
+      m_genomeNodes.remove(gn);
+      gn.setEvaluationListener(null);
+      updateListeners();
+    }
+    synchronized(this){
+      m_scheduler.removeLane(gn);
+    }
+  }
+  
+  /** With more than one GenomeNode, take their evaluations directly, 
+   * since a single Evaluated variable can't tell them apart. 
+   */
+  private void updateListeners(){
+    int num = m_genomeNodes.size();
+    for(int i = 0; i < num; i++){
+      GenomeNode g = m_genomeNodes.get(i);
+      g.setEvaluationListener(num > 1 ? m_listener : null);
+    }
+  }
+  
+  /** Return the first GenomeNode, which gives the genes of the 
+   * Chromosomes, or null if there is none. 
+   */
   protected final GenomeNode getGenomeNode(){
-    return m_genomeNode;
+    synchronized(m_genomeNodes){
+      if ( m_genomeNodes.isEmpty() ) return null;
+      return m_genomeNodes.get(0);
+    }
   }
   
   protected final RNGNode getRNGNode(){
@@ -409,22 +553,38 @@ public abstract class PopulationNode extends Node
     else
       throw new DependencyException("PopulationNode cannot find a "
                                     +" SelectionNode.");
-    if ( m_genomeNode != null )
-      m_genomeNode.checkDependencies();
-    else
+    GenomeNode first = getGenomeNode();
+    if ( first == null )
       throw new DependencyException("PopulationNode cannot find a "
                                     +" GenomeNode.");
+    
+    //all GenomeNodes evaluate the same Chromosomes
+    ArrayList<GenomeNode> genomes;
+    synchronized(m_genomeNodes){
+      genomes = new ArrayList<GenomeNode>(m_genomeNodes);
+    }
+    int genes = first.getGeneNodes().size();
+    for(int i = 0; i < genomes.size(); i++){
+      GenomeNode g = genomes.get(i);
+      g.checkDependencies();
+      if ( g.getGeneNodes().size() != genes )
+        throw new DependencyException(g.getVNName() + " has " 
+                                      + g.getGeneNodes().size()
+                                      + " GeneNodes, but " 
+                                      + first.getVNName() + " has " 
+                                      + genes);
+    }
   }
   
   //----------------------------------------------------------------------//
   //QuickSort algorithm - to sort an ArrayList of Chromosomes
   //modified from revised version of James Gosling's QSortAlgorithm demo, 1995.
   //Sort into descending order
-  protected void sort(ArrayList l){
+  protected void sort(ArrayList<Chromosome> l){
     sort(l, 0, l.size()-1);
   }
   
-  protected void sort(ArrayList l, int lo0, int hi0){
+  protected void sort(ArrayList<Chromosome> l, int lo0, int hi0){
     int lo = lo0;
     int hi = hi0;
     
@@ -438,12 +598,12 @@ public abstract class PopulationNode extends Node
       /*
        *  sort a two element list by swapping if necessary 
        */
-      c1 = (Chromosome) l.get(lo);
+      c1 = l.get(lo);
       d1 = c1.getEvaluation();
-      c2 = (Chromosome) l.get(hi);
+      c2 = l.get(hi);
       d2 = c2.getEvaluation();
       if ( d1 > d2 ) {
-        Chromosome T = (Chromosome) c1.clone();;
+        Chromosome T = c1.clone();
         l.set(lo,c2);
         l.set(hi,T);
       }
@@ -453,7 +613,7 @@ public abstract class PopulationNode extends Node
     /*
      *  Pick a pivot and move it out of the way
      */
-    Chromosome pivot = (Chromosome) l.get((lo + hi) / 2);
+    Chromosome pivot = l.get((lo + hi) / 2);
     l.set((lo + hi) / 2, l.get(hi));
     l.set(hi,pivot);
     
@@ -462,28 +622,28 @@ public abstract class PopulationNode extends Node
        *  Search forward from l[lo] until an element is found that
        *  is greater than the pivot or lo >= hi 
        */
-      c1 = (Chromosome) l.get(lo);
+      c1 = l.get(lo);
       while (c1.getEvaluation() <= pivot.getEvaluation() && lo < hi) {
         lo++;
-        c1 = (Chromosome) l.get(lo);
+        c1 = l.get(lo);
       }
       
       /*
        *  Search backward from l[hi] until element is found that
        *  is less than the pivot, or lo >= hi
        */
-      c2 = (Chromosome) l.get(hi);
+      c2 = l.get(hi);
       while (pivot.getEvaluation() <= c2.getEvaluation() && lo < hi ) {
         hi--;
-        c2 = (Chromosome) l.get(hi);
+        c2 = l.get(hi);
       }
       
       /*
        *  Swap elements l[lo] and l[hi]
        */
       if( lo < hi ) {
-        c1 = (Chromosome) l.get(lo);
-        Chromosome T = (Chromosome) c1.clone();
+        c1 = l.get(lo);
+        Chromosome T = c1.clone();
         l.set(lo, l.get(hi));
         l.set(hi, T);
       }
@@ -506,12 +666,12 @@ public abstract class PopulationNode extends Node
   
   //----------------------------------------------------------------------//
   /** Print population. */
-  public void printPopulation(ArrayList population){
+  public void printPopulation(ArrayList<Chromosome> population){
     Chromosome c;
-    ArrayList l;
+    ArrayList<?> l;
     Gene g;
     int num_chr = population.size();
-    c = (Chromosome) population.get(num_chr-1);
+    c = population.get(num_chr-1);
     int num_genes = c.getNumGenes();
     PackageLogger.log.fine("\nGA population: with " + num_chr 
                            + " Chromosomes. \nEach Chromsome with " 
@@ -520,7 +680,7 @@ public abstract class PopulationNode extends Node
     //sort(population);
     
     for(int i = num_chr-1; i >= 0; i--){
-      c = (Chromosome) population.get(i);
+      c = population.get(i);
       PackageLogger.log.fine("\nChromosome[" + i + "]:\n");
       l = c.getGenes();
       for(int j = 0; j < num_genes; j++){
@@ -532,17 +692,17 @@ public abstract class PopulationNode extends Node
     }  
   }
   
-  public void printBest(ArrayList population){
+  public void printBest(ArrayList<Chromosome> population){
     Chromosome c;
     int counter = 1; //always at least one best!
     double eval;
     
-    c = (Chromosome) population.get(population.size()-1);
+    c = population.get(population.size()-1);
     eval = c.getEvaluation(); //evaluation of best chromosome
     
     //check convergence
     for(int k = population.size()-2; k > 0; k--){
-      c = (Chromosome) population.get(k);
+      c = population.get(k);
       if ( eval != c.getEvaluation() ) break;
       counter++;
     }
@@ -553,7 +713,7 @@ public abstract class PopulationNode extends Node
   
   public void printToFile(int epochs) throws IOException{
     Chromosome c;
-    ArrayList l;
+    ArrayList<?> l;
     Gene g;
     int num_genes;
     double eval;
@@ -570,7 +730,7 @@ public abstract class PopulationNode extends Node
     
     FileWriter fw = new FileWriter(f);
     
-    c = (Chromosome) m_population.get(0);
+    c = m_population.get(0);
     num_genes = c.getNumGenes();
     
     sort(m_population);
@@ -580,7 +740,7 @@ public abstract class PopulationNode extends Node
     fw.write("GA number of epochs: " + epochs + "\n");
     fw.flush();
     for(int k = 0; k < m_population.size(); k++){
-      c = (Chromosome) m_population.get(k);
+      c = m_population.get(k);
       fw.write("Chromosome: " + (k+1) + "\n");
       fw.flush();
       l = c.getGenes();
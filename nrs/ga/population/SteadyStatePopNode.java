@@ -50,11 +50,8 @@ import java.util.ArrayList;
 
 public class SteadyStatePopNode extends PopulationNode
 {
-  /** Counter for the Chromosome of population currently being evaluated. */
-  private int m_popCounter;
-  
   /** Temporary copy of population. */
-  private ArrayList m_temp_population;
+  private ArrayList<Chromosome> m_temp_population;
   
   /** ReplacementNode reference. */
   private ReplacementNode m_replacementNode;
@@ -70,7 +67,6 @@ public class SteadyStatePopNode extends PopulationNode
   public SteadyStatePopNode(VariableManager vmMan, String vnName){
     super(vmMan, vnName, "SteadyStatePopNode");
     
-    m_popCounter = 0;
     m_individuals = 1;
   }
   
@@ -129,40 +125,6 @@ public class SteadyStatePopNode extends PopulationNode
   
   //----------------------------------------------------------------------//
   
-  /**
-   * Process the receipt of a message at the PopulationNode var - Evaluated.
-   *
-   * @param d the value received
-   */
-  public void handleMessageAt_Evaluated(double d){
-    //Store d value in message for current Chromosome.
-    Chromosome c;
-    
-    if ( !m_varStartRun.getValue() ){
-      PackageLogger.log.fine("Received message at Evaluated,"
-                             +" but not running experiment!");
-      return;
-    }
-    
-    if ( getInitial() )
-      c = (Chromosome) m_population.get(m_popCounter-1);
-    else
-      c = (Chromosome) m_temp_population.get(m_popCounter-1);
-    
-    c.setEvaluation(d);
-    PackageLogger.log.fine("Evaluation score for Chromosome: " 
-                           + (m_popCounter) + " is: " 
-                           + c.getEvaluation());
-    
-    //set value of variable
-    m_varEvaluated.setValue(d);
-    
-    //do next evaluation
-    doExperiment();
-  }
-  
-  //-----------------------------------------------------------------------
-  
   /** {@link Message} to deliver to this Node. */
   public void deliver(Message m){
     PackageLogger.log.fine("Received message at GenerationalPopNode!");
@@ -179,14 +141,14 @@ public class SteadyStatePopNode extends PopulationNode
     
     if ( getPopSize() == 0 ){
       setPopSize(p);
-      m_population = new ArrayList(p);
-      m_temp_population = new ArrayList(1);
+      m_population = new ArrayList<Chromosome>(p);
+      m_temp_population = new ArrayList<Chromosome>(1);
       PackageLogger.log.config("Population size: " + p);
     }
     else{
       setPopSize(p);
-      m_population = new ArrayList(p);
-      m_temp_population = new ArrayList(1);
+      m_population = new ArrayList<Chromosome>(p);
+      m_temp_population = new ArrayList<Chromosome>(1);
       PackageLogger.log.config("Population size changed to: " 
                                + getPopSize());
     }
@@ -203,6 +165,9 @@ public class SteadyStatePopNode extends PopulationNode
       PackageLogger.log.config("Number of individuals to replace"
                                +" each iteration is, by default, 1.");
     }
+    
+    //extract evaluation timeout attribute, by default none
+    setEvalTimeout(m);
   }
   //-----------------------------------------------------------------------//
   
@@ -235,7 +200,7 @@ public class SteadyStatePopNode extends PopulationNode
       boolean initial = gn.use_initial();
       
       for(int m = 0; m < getPopSize(); m++){
-        c = (Chromosome) m_population.get(m);
+        c = m_population.get(m);
         Gene g = (Gene) c.getGenes().get(k);
 	
         if ( !initial )
@@ -264,59 +229,36 @@ public class SteadyStatePopNode extends PopulationNode
   
   //---------------------------------------------------------------------//
   
-  //start a new experiment while there are new individuals
+  //evaluate the new individuals, on as many GenomeNodes as there are.
   protected void doExperiment(){
-    Chromosome c;
-    int limit;
-    
+    //no genetic operators on first run
     if ( getInitial() )
-      limit = getPopSize();
+      evaluate(m_population, getPopSize());
     else
-      limit = m_temp_population.size();
-    
-    PackageLogger.log.fine("m_popCounter: " + m_popCounter 
-                           + " and limit is: " + limit);
-    
-    if ( m_popCounter < limit ){
-      
-      //new values need to be sent from GeneNodes to targets
-      if ( getInitial() ) //no genetic operators or first run
-        c = (Chromosome) m_population.get(m_popCounter);
-      else
-        c = (Chromosome) m_temp_population.get(m_popCounter);
+      evaluate(m_temp_population, m_temp_population.size());
+  }
+  
+  //end of run, once the new individuals have been evaluated.
+  protected void finishedEvaluation(){
+    PackageLogger.log.fine("Finished GA epoch...");
+    if ( getInitial() ){
+      finishedInitial();
+      //printPopulation(m_population);
+    }
+    else{
+      sort(m_temp_population); //sort before replacement
+      //replacement - replace m_temp_population into m_population
+      m_replacementNode.replace(m_temp_population, m_population);
+      m_temp_population = new ArrayList<Chromosome>();
       
-      getGenomeNode().changeValues(c.getGenes());
-
-      m_varStartEx.onEvent();
+      //printPopulation(m_population);
     }
-    //end of run.
-    else  if ( m_popCounter == limit )
-      {
-        PackageLogger.log.fine("Finished GA epoch...");
-        if ( getInitial() ){
-          finishedInitial();
-          //printPopulation(m_population);
-        }
-        else{
-          sort(m_temp_population); //sort before replacement
-          //replacement - replace m_temp_population into m_population
-          m_replacementNode.replace(m_temp_population, m_population);
-          m_temp_population = new ArrayList();
-          
-          //printPopulation(m_population);
-        }
-        m_popCounter = 0;
-	
-        //Set StartRun variable value to false
-        m_varStartRun.setValue(false);
-	
-        //Set FinishedRun variable value to true - one iteration done.
-        m_varFinishedRun.onEvent();
-        
-        return;
-      }
     
-    m_popCounter++;    
+    //Set StartRun variable value to false
+    m_varStartRun.setValue(false);
+    
+    //Set FinishedRun variable value to true - one iteration done.
+    m_varFinishedRun.onEvent();
   }
   
   /** Find first Chromosome with no evaluation score. 
@@ -324,11 +266,11 @@ public class SteadyStatePopNode extends PopulationNode
    * @return index to first Chromosome with no evaluation.
    * @deprecated
    */
-  private int findNext(ArrayList l){
+  private int findNext(ArrayList<Chromosome> l){
     Chromosome c;
     
     for ( int y = 0; y < l.size(); y++){
-      c = (Chromosome) l.get(y);
+      c = l.get(y);
       if ( c.getEvaluation() == 0.0 ){
         return y;
       }
@@ -345,11 +287,11 @@ public class SteadyStatePopNode extends PopulationNode
   }
   
   /* Check whether # of genes is not odd */
-  private boolean checkCrossover(ArrayList pop){
+  private boolean checkCrossover(ArrayList<Chromosome> pop){
     int size;
     
     //get number of genes each Chromsomes has.
-    Chromosome c = (Chromosome) pop.get(0);
+    Chromosome c = pop.get(0);
     size = c.getGenes().size();
     
     //only do crossover with even # of genes
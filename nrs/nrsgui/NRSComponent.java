@@ -7,6 +7,7 @@ import nrs.core.base.ComponentInfo;
 import nrs.core.base.Message;
 import nrs.core.comms.CommsRoute;
 import nrs.core.message.Constants;
+import nrs.core.message.MessageSchema;
 import nrs.csl.CSL_ContentReader;
 import nrs.csl.CSL_Element_Registry;
 import nrs.csl.CSL_Global_Registry;
@@ -134,6 +135,7 @@ public class NRSComponent extends ComponentInfo
       m_messageReg.resolveUnits(m_unitReg);
       m_nodeReg.resolveAttributes(m_unitReg);
       m_nodeReg.resolveMessageTypes(m_messageReg);
+      MessageSchema.register(m_messageReg);
 
       m_cslFound = true;
       PackageLogger.log.info("CSL for component " + this
@@ -298,6 +300,7 @@ public class NRSComponent extends ComponentInfo
     m_messageReg.resolveUnits(m_unitReg);
     m_nodeReg.resolveAttributes(m_unitReg);
     m_nodeReg.resolveMessageTypes(m_messageReg);
+    MessageSchema.register(m_messageReg);
   }
   //----------------------------------------------------------------------
   /**
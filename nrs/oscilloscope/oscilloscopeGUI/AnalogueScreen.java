@@ -1,9 +1,7 @@
 package nrs.oscilloscope.oscilloscopeGUI;
 
 import java.awt.Graphics;
-import java.awt.Point;
 import java.awt.Dimension;
-import java.util.Iterator;
 
 public class AnalogueScreen extends GraphicalScreen {
 
@@ -13,18 +11,20 @@ public class AnalogueScreen extends GraphicalScreen {
     }
 
     protected synchronized void draw (Graphics g) {
-	Point p1, p2;
+	int x, prevX = 0, prevY = 0;
     	//drawAxis (g);
-    	Iterator iter = _javaGraph.getPoints().iterator();
-    	if (iter.hasNext ()) {
-	    p1 = (Point) iter.next ();
-    	} else return;
+	int n = columns ();
     	g.setColor (_drawingColor);
-    	while (iter.hasNext ()) {
-	    p2 = (Point) iter.next ();
-	    g.drawLine ((int)p1.getX(),(int)p1.getY(),
-			(int)p2.getX(),(int)p2.getY());
-	    p1 = p2;
+	// each column is drawn as the span of its values, joined to the
+	// last value of the column before
+	for (int c = 0; c < n; c++) {
+	    x = columnX (_col[c]);
+	    if (c > 0) {
+		g.drawLine (prevX,prevY,x,valueY (_colFirst[c]));
+	    }
+	    g.drawLine (x,valueY (_colMax[c]),x,valueY (_colMin[c]));
+	    prevX = x;
+	    prevY = valueY (_colLast[c]);
     	}	
     }
 }
@@ -1,9 +1,7 @@
 package nrs.oscilloscope.oscilloscopeGUI;
 
 import java.awt.Graphics;
-import java.awt.Point;
 import java.awt.Dimension;
-import java.util.Iterator;
 
 public class DigitalScreen extends GraphicalScreen {
 	private static final long serialVersionUID = 2L;
@@ -23,13 +21,12 @@ public class DigitalScreen extends GraphicalScreen {
     }
 
     protected synchronized void draw (Graphics g) {
-	Point p;
     	//drawAxis (g);
-    	Iterator iter = _javaGraph.getPoints().iterator();
+	int n = columns ();
     	g.setColor (_drawingColor);
-    	while (iter.hasNext ()) {
-	    p = (Point) iter.next ();
-	    drawSpike (g,(int)p.getX());
+	// one spike for each column holding spikes
+	for (int c = 0; c < n; c++) {
+	    drawSpike (g,columnX (_col[c]));
     	}
     }
     
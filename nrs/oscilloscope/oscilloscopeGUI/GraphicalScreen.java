@@ -4,10 +4,7 @@ import javax.swing.JPanel;
 import java.awt.Dimension;
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Point;
 import java.awt.geom.Point2D;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 public abstract class GraphicalScreen extends JPanel {
     private static final long serialVersionUID = 8L;
@@ -18,6 +15,10 @@ public abstract class GraphicalScreen extends JPanel {
     protected JGraph _javaGraph;
     
     private double [] _zoom;
+
+    // the columns of the graph holding points, filled in by columns()
+    protected int [] _col = new int [0];
+    protected double [] _colMin, _colMax, _colFirst, _colLast;
     
     private Color _bgColor;
     protected Color _drawingColor;
@@ -31,7 +32,7 @@ public abstract class GraphicalScreen extends JPanel {
 				   INIT_X,INIT_Y);
 	_javaGraph = new JGraph (_dimension);
 	_zoom = new double [2];
-	computeZoom();
+	computeAll();
 	
 	_bgColor = Color.BLACK;
 	_drawingColor = Color.CYAN;	
@@ -62,19 +63,36 @@ public abstract class GraphicalScreen extends JPanel {
     	return pY;
     }
     
-    private synchronized Point convert (double x, double y) {
-    	return new Point (convertX (x),convertY (y));
-    }
-
     private synchronized void computeAll () {
     	computeZoom();
-    	_javaGraph.empty();
-    	Point2D.Double p;
-    	for (Iterator iter = _memoryGraph.getPoints().iterator(); 
-	     iter.hasNext();) {
-	    p = (Point2D.Double) iter.next ();
-	    _javaGraph.add(convert(translateX(p.getX()),translateY(p.getY())));
-    	}	
+	_memoryGraph.setColumns((int) _javaGraph.getWidth());
+    }
+
+    /*
+     * Fill in _col, _colMin, _colMax, _colFirst and _colLast with the
+     * columns of the graph holding points, and return their number
+     */
+    protected synchronized int columns () {
+	int n = _memoryGraph.getColumns() + 1;
+	if (_col.length < n) {
+	    _col = new int [n];
+	    _colMin = new double [n];
+	    _colMax = new double [n];
+	    _colFirst = new double [n];
+	    _colLast = new double [n];
+	}
+	return _memoryGraph.getColumns(_col,_colMin,_colMax,
+				       _colFirst,_colLast);
+    }
+
+    /* pixel x of column j */
+    protected synchronized int columnX (int j) {
+	return convertX (translateX (_memoryGraph.getColumnX (j)));
+    }
+
+    /* pixel y of value y */
+    protected synchronized int valueY (double y) {
+	return convertY (translateY (y));
     }
 
 
@@ -102,26 +120,28 @@ public abstract class GraphicalScreen extends JPanel {
     
     public synchronized void setMaxX (double maxX) {
     	_memoryGraph.setMaxX(maxX);
+	computeZoom();
     }
     
     public synchronized void setMinX (double minX) {
     	_memoryGraph.setMinX(minX);
+	computeZoom();
     }
     
     public synchronized void setMaxY (double maxY) {
     	_memoryGraph.setMaxY(maxY);
+	computeZoom();
     }
     
     public synchronized void setMinY (double minY) {
     	_memoryGraph.setMinY(minY);
+	computeZoom();
     }
     
     //--------------------------------------------------------------------
 
     public synchronized void shiftX (double x) {
     	_memoryGraph.shiftX (x);
-    	int tmp = convertX (x);
-    	_javaGraph.shiftX (tmp);
     }
 
     public synchronized void autoResizeGraph () {
@@ -137,12 +157,11 @@ public abstract class GraphicalScreen extends JPanel {
 	//_memoryGraph.setMinX(minX);
 	_memoryGraph.setMaxY(maxY+0.1*yLength);
 	_memoryGraph.setMinY(minY-0.1*yLength);
-	computeAll();
+	computeZoom();
     }
     
     public synchronized void addPoint (double x, double y) {
-    	_memoryGraph.add(new Point2D.Double (x,y));
-    	_javaGraph.add(convert (translateX(x),translateY(y)));
+    	_memoryGraph.add(x,y);
     }
 
 
@@ -1,106 +1,153 @@
 package nrs.oscilloscope.oscilloscopeGUI;
 
-import java.util.LinkedList;
-import java.util.Iterator;
 import java.awt.geom.Point2D;
+import java.util.Arrays;
 
+/*
+ * Points of the graph, in graph units. Points are added in order of
+ * increasing x, and are kept in a circular buffer of primitives, from
+ * which they are dropped as they leave the left of the graph.
+ *
+ * The minimum and maximum y are kept up to date as points are added
+ * and dropped (each queue below holds, in order, the points which can
+ * still become the extreme once the older ones are dropped).
+ *
+ * For drawing, the x axis is divided into columns, one per pixel, and
+ * the minimum, maximum, first and last y of the points in each column
+ * are kept as the points are added. So drawing the graph costs the
+ * same however many points it holds; the columns are only rebuilt from
+ * the points when the scale of the x axis changes.
+ */
 public class NGraph {
-    private LinkedList <Point2D.Double> _pointList;
-    
+    private static final int INIT_CAPACITY = 1024;
+
+    // the points, from sequence number _start (inclusive) to _end
+    // (exclusive); point s is at index s & _mask
+    private double [] _xs, _ys;
+    private int _mask;
+    private long _start, _end;
+
+    // sequence numbers of the candidate minimum and maximum points,
+    // from _minHead (inclusive) to _minTail (exclusive), and likewise
+    private long [] _minQueue, _maxQueue;
+    private long _minHead, _minTail, _maxHead, _maxTail;
+
+    // the columns: column k (counting from x = 0) is at index
+    // k & _colMask, if _colKey holds k there
+    private int _columns = 1;
+    private double _columnWidth;
+    private int _colMask;
+    private long [] _colKey;
+    private double [] _colMin, _colMax, _colFirst, _colLast;
+
     private double [] _graphSize;
     private Point2D.Double _origin;
-    private double _maxX, _maxY;   
+    private double _maxX, _maxY;
 
     public NGraph (Point2D.Double origin, double maxX, double maxY) {
-	_pointList = new LinkedList <Point2D.Double> ();
+	_xs = new double [INIT_CAPACITY];
+	_ys = new double [INIT_CAPACITY];
+	_minQueue = new long [INIT_CAPACITY];
+	_maxQueue = new long [INIT_CAPACITY];
+	_mask = INIT_CAPACITY - 1;
 	_origin = origin;
 	_maxX = maxX;
 	_maxY = maxY;
 	_graphSize = new double [2];
 	_graphSize[0] = _maxX - _origin.getX();
 	_graphSize[1] = _maxY - _origin.getY();
-	
+	rebuildColumns();
     }
 
     //-------------------------------------------------------------
-  
-    private double findMinXGraph () {
-	switch (_pointList.size()) {
-	case 0: return 0.0;
-	case 1: 
-	    return _pointList.getFirst().getX();
-	default:
-	    double tmp = _pointList.getFirst().getX();
-	    double newTmpX;
-	    for (Iterator iter = _pointList.iterator();iter.hasNext();) {
-		newTmpX = ((Point2D.Double)iter.next()).getX();
-		if (newTmpX < tmp) tmp = newTmpX;
-	    }
-	    return tmp;
+
+    private int index (long s) {
+	return (int) s & _mask;
+    }
+
+    private void grow () {
+	int capacity = 2 * _xs.length;
+	int mask = capacity - 1;
+	double [] xs = new double [capacity];
+	double [] ys = new double [capacity];
+	long [] minQueue = new long [capacity];
+	long [] maxQueue = new long [capacity];
+
+	for (long s = _start; s < _end; s++) {
+	    xs[(int) s & mask] = _xs[index(s)];
+	    ys[(int) s & mask] = _ys[index(s)];
 	}
-    }    
-
-    private double findMaxXGraph() {
-	switch (_pointList.size()) {
-	case 0: return 0.0;
-	case 1: 
-	    return _pointList.getFirst().getX();
-	default:
-	    double tmp = _pointList.getFirst().getX();
-	    double newTmpX;
-	    for (Iterator iter = _pointList.iterator();iter.hasNext();) {
-		newTmpX = ((Point2D.Double)iter.next()).getX();
-		if (newTmpX > tmp) tmp = newTmpX;
-	    }
-	    return tmp;
+	for (long q = _minHead; q < _minTail; q++) {
+	    minQueue[(int) q & mask] = _minQueue[index(q)];
 	}
-    }    
-
-    private double findMinYGraph () {
-	switch (_pointList.size()) {
-	case 0: return 0.0;
-	case 1: 
-	    return _pointList.getFirst().getY();
-	default:
-	    double tmp = _pointList.getFirst().getY();
-	    double newTmpY;
-	    for (Iterator iter = _pointList.iterator();iter.hasNext();) {
-		newTmpY = ((Point2D.Double)iter.next()).getY();
-		if (newTmpY < tmp) tmp = newTmpY;
-	    }
-	    return tmp;
+	for (long q = _maxHead; q < _maxTail; q++) {
+	    maxQueue[(int) q & mask] = _maxQueue[index(q)];
 	}
-    }    
-
-    private double findMaxYGraph() {
-	switch (_pointList.size()) {
-	case 0: return 0.0;
-	case 1: 
-	    return _pointList.getFirst().getY();
-	default:
-	    double tmp = _pointList.getFirst().getY();
-	    double newTmpY;
-	    for (Iterator iter = _pointList.iterator();iter.hasNext();) {
-		newTmpY = ((Point2D.Double)iter.next()).getY();
-		if (newTmpY > tmp) tmp = newTmpY;
-	    }
-	    return tmp;
+
+	_xs = xs;
+	_ys = ys;
+	_minQueue = minQueue;
+	_maxQueue = maxQueue;
+	_mask = mask;
+    }
+
+    private void removeFirst () {
+	if (_minQueue[index(_minHead)] == _start) _minHead++;
+	if (_maxQueue[index(_maxHead)] == _start) _maxHead++;
+	_start++;
+    }
+
+    //-------------------------------------------------------------
+
+    private void rebuildColumns () {
+	_columnWidth = (_graphSize[0] > 0) ? _graphSize[0] / _columns : 1;
+
+	int size = Integer.highestOneBit(_columns + 2) * 2;
+	if (_colKey == null || _colKey.length != size) {
+	    _colKey = new long [size];
+	    _colMin = new double [size];
+	    _colMax = new double [size];
+	    _colFirst = new double [size];
+	    _colLast = new double [size];
+	    _colMask = size - 1;
 	}
-    }    
+	Arrays.fill(_colKey, Long.MIN_VALUE);
+
+	for (long s = _start; s < _end; s++) {
+	    addToColumn(_xs[index(s)], _ys[index(s)]);
+	}
+    }
+
+    private long column (double x) {
+	return (long) Math.floor(x / _columnWidth);
+    }
+
+    private void addToColumn (double x, double y) {
+	long k = column(x);
+	int i = (int) k & _colMask;
+	if (_colKey[i] != k) {
+	    _colKey[i] = k;
+	    _colMin[i] = y;
+	    _colMax[i] = y;
+	    _colFirst[i] = y;
+	} else {
+	    if (y < _colMin[i]) _colMin[i] = y;
+	    if (y > _colMax[i]) _colMax[i] = y;
+	}
+	_colLast[i] = y;
+    }
 
     //---------------------------------------------------
-    
+
     public synchronized void shiftX (double x) {
 	_maxX += x;
     	_origin.setLocation(_origin.getX()+x,_origin.getY());
-	if (_pointList.size() > 0) {
-	    if (_pointList.getFirst().getX() <= _origin.getX()) {
-		_pointList.removeFirst();
-	    }
+	while (_start < _end && _xs[index(_start)] <= _origin.getX()) {
+	    removeFirst();
 	}
     }
     //------------------------------------------------------
-  
+
     public synchronized double getMaxX () {
     	return _maxX;
     }
@@ -115,58 +162,122 @@ public class NGraph {
 	 return _origin.getY();
     }
 
-    public synchronized LinkedList getPoints () {
-    	return _pointList;
+    public synchronized int size () {
+	return (int) (_end - _start);
     }
-    
+
     public synchronized double getXAxisSize() {
     	return _graphSize[0];
     }
-    
+
     public synchronized double getYAxisSize() {
     	return _graphSize[1];
     }
 
-    public double getMaxPointX() {
-	return findMaxXGraph();
+    public synchronized double getMaxPointX() {
+	return (_start == _end) ? 0.0 : _xs[index(_end - 1)];
     }
 
-    public double getMinPointX() {
-	return findMinXGraph ();
-    }    
+    public synchronized double getMinPointX() {
+	return (_start == _end) ? 0.0 : _xs[index(_start)];
+    }
 
-    public double getMaxPointY() {
-	return findMaxYGraph();
+    public synchronized double getMaxPointY() {
+	return (_start == _end) ? 0.0 : _ys[index(_maxQueue[index(_maxHead)])];
     }
 
-    public double getMinPointY() {
-	return findMinYGraph ();
-    }    
+    public synchronized double getMinPointY() {
+	return (_start == _end) ? 0.0 : _ys[index(_minQueue[index(_minHead)])];
+    }
 
     //----------------------------------------------------
 
-    public void setMaxX (double x) {
+    public synchronized void setMaxX (double x) {
 	_maxX = x;
 	_graphSize[0] = _maxX - _origin.getX();
+	rebuildColumns();
     }
 
-    public void setMinX (double x) {
+    public synchronized void setMinX (double x) {
 	_origin.setLocation(x,_origin.getY());
 	_graphSize[0] = _maxX - _origin.getX();
+	rebuildColumns();
     }
 
-    public void setMaxY (double y) {
+    public synchronized void setMaxY (double y) {
 	_maxY = y;
 	_graphSize[1] = _maxY - _origin.getY();
     }
 
-    public void setMinY (double y) {
+    public synchronized void setMinY (double y) {
 	_origin.setLocation(_origin.getX(),y);
 	_graphSize[1] = _maxY - _origin.getY();
     }
 
     //----------------------------------------------------
-    public synchronized void add (Point2D.Double p) {
-	_pointList.add(p);
+
+    /* Divide the x axis into n columns, normally one per pixel */
+    public synchronized void setColumns (int n) {
+	_columns = Math.max(1, n);
+	rebuildColumns();
+    }
+
+    public synchronized int getColumns () {
+	return _columns;
+    }
+
+    /* x at the left of column j, counting from the left of the graph */
+    public synchronized double getColumnX (int j) {
+	return (column(_origin.getX()) + j) * _columnWidth;
+    }
+
+    /*
+     * Fill in the columns of the graph which hold points: for the c'th
+     * of them, its number from the left of the graph, and the minimum,
+     * maximum, first and last y of its points. The arrays must have at
+     * least getColumns() + 1 elements. Returns the number of columns
+     * filled in.
+     */
+    public synchronized int getColumns (int [] col, double [] min,
+					double [] max, double [] first,
+					double [] last) {
+	long k0 = column(_origin.getX());
+	int c = 0;
+	for (int j = 0; j <= _columns; j++) {
+	    int i = (int) (k0 + j) & _colMask;
+	    if (_colKey[i] == k0 + j) {
+		col[c] = j;
+		min[c] = _colMin[i];
+		max[c] = _colMax[i];
+		first[c] = _colFirst[i];
+		last[c] = _colLast[i];
+		c++;
+	    }
+	}
+	return c;
+    }
+
+    //----------------------------------------------------
+    public synchronized void add (double x, double y) {
+	if (_end - _start == _xs.length) grow();
+
+	int i = index(_end);
+	_xs[i] = x;
+	_ys[i] = y;
+
+	while (_minTail > _minHead
+	       && _ys[index(_minQueue[index(_minTail - 1)])] >= y) {
+	    _minTail--;
+	}
+	_minQueue[index(_minTail++)] = _end;
+
+	while (_maxTail > _maxHead
+	       && _ys[index(_maxQueue[index(_maxTail - 1)])] <= y) {
+	    _maxTail--;
+	}
+	_maxQueue[index(_maxTail++)] = _end;
+
+	_end++;
+	addToColumn(x, y);
     }
 }
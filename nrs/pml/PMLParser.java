@@ -1,6 +1,7 @@
 package nrs.pml;
 
 import java.io.StringReader;
+import nrs.core.base.Message;
 import nrs.core.base.MessageProcessor;
 import nrs.core.comms.CommsRoute;
 import nrs.core.comms.MessageListener;
@@ -36,6 +37,11 @@ import org.xml.sax.helpers.XMLReaderFactory;
  * typically several instances of {@link PMLParser} will be needed: one
  * for each {@link nrs.core.comms.CommsRoute} instance.
  *
+ * <p>Most messages are flat elements carrying only attributes. These are
+ * decoded directly from the received bytes by a {@link PML_FlatReader};
+ * only messages it declines, such as <tt>ReplyCSL</tt>, are given to the
+ * SAX parser.
+ *
  * @author Darren Smith
  */
 public class PMLParser implements MessageListener
@@ -44,6 +50,7 @@ public class PMLParser implements MessageListener
   private PML_XMLEventProcessor m_proc;
   private PML_ContentReader m_reader;
   private InputSource m_source;
+  private PML_FlatReader m_flat = new PML_FlatReader();
   //  private NRSByteStream m_byteStream;
 
   /** Namespaces feature id (http://xml.org/sax/features/namespaces). */
@@ -73,12 +80,19 @@ public class PMLParser implements MessageListener
   /**
    * {@inheritDoc}
    */
-  public void messageEvent(byte[] buffer, int size,
+  public void messageEvent(byte[] buffer, int offset, int size,
                            nrs.core.comms.CommsRoute port)
   {
+    Message m = m_flat.parse(buffer, offset, size);
+    if (m != null)
+    {
+      m_proc.dispatch(m);
+      return;
+    }
+
     try
     {
-      String s = new String(buffer, 0, size, "US-ASCII");
+      String s = new String(buffer, offset, size, "US-ASCII");
       StringReader sr = new StringReader(s); // todo, make an NRS string reader
       m_source.setCharacterStream(sr);
 
@@ -0,0 +1,413 @@
+package nrs.pml;
+
+import nrs.core.base.Message;
+import nrs.core.base.MessagePool;
+import nrs.core.message.Constants;
+
+/**
+ * <p>Decodes PML messages of the usual flat form,</p>
+ *
+ * <code>&lt;Type xmlns:nrsa='..' xmlns='..' nrsa:x='..' y='..' /&gt;</code>
+ *
+ * <p>directly from the bytes of the received message, without building
+ * an intermediate string or running a general XML parser.</p>
+ *
+ * <p>Anything outside that form, such as element content, nested
+ * elements, comments, prefixed element names, unknown entities, and
+ * always a <tt>ReplyCSL</tt> (which carries CSL as content), is
+ * rejected, and should then be passed to the full SAX parser. The
+ * reader never partially accepts a message.</p>
+ *
+ * <p>Attribute names are looked up in a small cache, so that the
+ * strings for the handful of field names in use are not reallocated
+ * for every message.</p>
+ */
+class PML_FlatReader
+{
+  /** Maximum number of attributes accepted on a flat message */
+  private static final int MAX_ATTS = 64;
+
+  /** Returned by {@link #peek()} and {@link #next()} at the end of the
+   * message */
+  private static final int EOF = -1;
+
+  /** Size of the name cache; must be a power of two */
+  private static final int CACHE_SIZE = 256;
+
+  /** Cache of recently seen names, indexed by hash */
+  private final String[] m_names = new String[CACHE_SIZE];
+
+  /** Message being decoded */
+  private byte[] m_buf;
+
+  /** Read position in {@link #m_buf} */
+  private int m_pos;
+
+  /** End of valid data in {@link #m_buf} */
+  private int m_end;
+
+  /** Attribute prefixes (or <tt>null</tt>), names and values of the
+   * current message */
+  private final String[] m_attPrefix = new String[MAX_ATTS];
+  private final String[] m_attName = new String[MAX_ATTS];
+  private final String[] m_attValue = new String[MAX_ATTS];
+
+  /** Number of attributes of the current message */
+  private int m_attCount;
+
+  /** Used when decoding attribute values */
+  private final StringBuilder m_sb = new StringBuilder(64);
+
+  //----------------------------------------------------------------------
+  /**
+   * Attempt to decode a flat PML message.
+   *
+   * @param buffer the bytes of the message
+   *
+   * @param offset the offset in <tt>buffer</tt> at which the message
+   * starts
+   *
+   * @param size the number of bytes of data in <tt>buffer</tt>
+   *
+   * @return the decoded message, or <tt>null</tt> if the message is not
+   * of the flat form and must be given to the SAX parser
+   */
+  Message parse(byte[] buffer, int offset, int size)
+  {
+    m_buf = buffer;
+    m_pos = offset;
+    m_end = offset + size;
+    m_attCount = 0;
+
+    try
+    {
+      skipSpace();
+
+      // allow an XML declaration
+      if (startsWith("<?"))
+      {
+        while (m_pos < m_end && !startsWith("?>")) m_pos++;
+        if (m_pos == m_end) return null;
+        m_pos += 2;
+        skipSpace();
+      }
+
+      if (next() != '<') return null;
+
+      String type = readName();
+      if (type == null || !Character.isLetter(type.charAt(0))
+          || peek() == ':'
+          || type.equals(Constants.MessageTypes.ReplyCSL)) return null;
+
+      // read the attributes
+      while (true)
+      {
+        skipSpace();
+        int c = peek();
+
+        if (c == '/')
+        {
+          m_pos++;
+          if (next() != '>') return null;
+          break;
+        }
+        else if (c == '>')
+        {
+          // accept an explicitly closed empty element only
+          m_pos++;
+          skipSpace();
+          if (next() != '<' || next() != '/') return null;
+          String close = readName();
+          if (close == null || !close.equals(type)) return null;
+          skipSpace();
+          if (next() != '>') return null;
+          break;
+        }
+
+        if (!readAttribute()) return null;
+      }
+
+      skipSpace();
+      if (m_pos != m_end) return null;
+
+      return buildMessage(type);
+    }
+    finally
+    {
+      m_buf = null;
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Construct the message from the attributes read, resolving any
+   * namespace prefixes.
+   *
+   * @return the message, or <tt>null</tt> if a prefix is undeclared
+   */
+  private Message buildMessage(String type)
+  {
+    Message msg = MessagePool.obtain(type);
+    msg.aux().setDirection(true);
+
+    for (int i = 0; i < m_attCount; i++)
+    {
+      String prefix = m_attPrefix[i];
+      String name = m_attName[i];
+
+      // namespace declarations are not fields
+      if ((prefix == null && name.equals("xmlns"))
+          || "xmlns".equals(prefix)) continue;
+
+      String URI;
+      if (prefix == null)
+      {
+        URI = "";
+      }
+      else
+      {
+        URI = namespace(prefix);
+        if (URI == null)
+        {
+          MessagePool.release(msg);
+          return null;
+        }
+      }
+
+      if (URI.equalsIgnoreCase(Constants.Namespace.NRSA))
+      {
+        msg.setNRSField(name, m_attValue[i]);
+      }
+      else if (URI.equalsIgnoreCase(Constants.Namespace.NRS_PML)
+               || URI.length() == 0)
+      {
+        msg.setField(name, m_attValue[i]);
+      }
+      else
+      {
+        PackageLogger.log.warning("Message '" + type + "' contains field '"
+                                  + name + "' that is not in a supported"
+                                  + " namespace; ignoring");
+      }
+    }
+
+    return msg;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the URI declared for <tt>prefix</tt>, or <tt>null</tt> if it
+   * is not declared on the element
+   */
+  private String namespace(String prefix)
+  {
+    for (int i = 0; i < m_attCount; i++)
+    {
+      if ("xmlns".equals(m_attPrefix[i]) && m_attName[i].equals(prefix))
+        return m_attValue[i];
+    }
+    return null;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read one <tt>name='value'</tt> pair.
+   *
+   * @return <tt>false</tt> if the attribute is malformed or not
+   * supported
+   */
+  private boolean readAttribute()
+  {
+    if (m_attCount == MAX_ATTS) return false;
+
+    String prefix = null;
+    String name = readName();
+    if (name == null) return false;
+
+    if (peek() == ':')
+    {
+      m_pos++;
+      prefix = name;
+      name = readName();
+      if (name == null) return false;
+    }
+
+    skipSpace();
+    if (next() != '=') return false;
+    skipSpace();
+
+    int quote = next();
+    if (quote != '\'' && quote != '"') return false;
+
+    String value = readValue(quote);
+    if (value == null) return false;
+
+    m_attPrefix[m_attCount] = prefix;
+    m_attName[m_attCount] = name;
+    m_attValue[m_attCount] = value;
+    m_attCount++;
+
+    return true;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read an XML name (without any prefix), returning a cached string
+   * where possible.
+   *
+   * @return the name, or <tt>null</tt> if there isn't one
+   */
+  private String readName()
+  {
+    int start = m_pos;
+    int hash = 0;
+
+    while (m_pos < m_end)
+    {
+      int c = m_buf[m_pos];
+      if (c <= ' ' || c == '/' || c == '>' || c == '=' || c == ':'
+          || c == '\'' || c == '"' || c == '<') break;
+      hash = 31 * hash + c;
+      m_pos++;
+    }
+
+    int len = m_pos - start;
+    if (len == 0) return null;
+
+    int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+    String cached = m_names[slot];
+
+    if (cached != null && cached.length() == len)
+    {
+      int i = 0;
+      while (i < len && cached.charAt(i) == m_buf[start + i]) i++;
+      if (i == len) return cached;
+    }
+
+    String name = ascii(start, len);
+    m_names[slot] = name;
+    return name;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Read an attribute value up to the closing <tt>quote</tt>, decoding
+   * the predefined and numeric entities.
+   *
+   * @return the value, or <tt>null</tt> if it contains a markup
+   * character or an unknown entity
+   */
+  private String readValue(int quote)
+  {
+    int start = m_pos;
+
+    // fast path: no entities
+    while (true)
+    {
+      int c = peek();
+      if (c == EOF || c == '<') return null;
+      if (c == quote)
+      {
+        String s = ascii(start, m_pos - start);
+        m_pos++;
+        return s;
+      }
+      if (c == '&') break;
+      m_pos++;
+    }
+
+    m_sb.setLength(0);
+    for (int i = start; i < m_pos; i++) m_sb.append(toChar(m_buf[i]));
+
+    while (true)
+    {
+      int c = next();
+      if (c == EOF || c == '<') return null;
+      if (c == quote) return m_sb.toString();
+      if (c != '&')
+      {
+        m_sb.append(toChar((byte) c));
+        continue;
+      }
+
+      int semi = m_pos;
+      while (semi < m_end && m_buf[semi] != ';')
+      {
+        if (semi - m_pos > 8) return null;
+        semi++;
+      }
+      if (semi == m_end) return null;
+
+      String entity = ascii(m_pos, semi - m_pos);
+      m_pos = semi + 1;
+
+      if (entity.equals("amp")) m_sb.append('&');
+      else if (entity.equals("lt")) m_sb.append('<');
+      else if (entity.equals("gt")) m_sb.append('>');
+      else if (entity.equals("apos")) m_sb.append('\'');
+      else if (entity.equals("quot")) m_sb.append('"');
+      else if (entity.startsWith("#"))
+      {
+        try
+        {
+          int code = entity.startsWith("#x")
+            ? Integer.parseInt(entity.substring(2), 16)
+            : Integer.parseInt(entity.substring(1));
+          m_sb.append((char) code);
+        }
+        catch (NumberFormatException e)
+        {
+          return null;
+        }
+      }
+      else return null;
+    }
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Convert bytes to a string, as a US-ASCII decoder would
+   */
+  private String ascii(int start, int len)
+  {
+    char[] chars = new char[len];
+    for (int i = 0; i < len; i++) chars[i] = toChar(m_buf[start + i]);
+    return new String(chars);
+  }
+  //----------------------------------------------------------------------
+  private static char toChar(byte b)
+  {
+    return b >= 0 ? (char) b : '\uFFFD';
+  }
+  //----------------------------------------------------------------------
+  private boolean startsWith(String s)
+  {
+    if (m_pos + s.length() > m_end) return false;
+    for (int i = 0; i < s.length(); i++)
+    {
+      if (m_buf[m_pos + i] != s.charAt(i)) return false;
+    }
+    return true;
+  }
+  //----------------------------------------------------------------------
+  private void skipSpace()
+  {
+    while (m_pos < m_end && m_buf[m_pos] <= ' ' && m_buf[m_pos] >= 0)
+      m_pos++;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Return the next byte, unsigned, or {@link #EOF} at the end of the
+   * message
+   */
+  private int peek()
+  {
+    if (m_pos >= m_end) return EOF;
+    return m_buf[m_pos] & 0xFF;
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Consume and return the next byte, unsigned, or return {@link #EOF}
+   * at the end of the message
+   */
+  private int next()
+  {
+    int c = peek();
+    if (c != EOF) m_pos++;
+    return c;
+  }
+}
@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.util.Stack;
 import nrs.core.base.AuxillaryInfo;
 import nrs.core.base.Message;
+import nrs.core.base.MessagePool;
 import nrs.core.base.MessageProcessor;
 import nrs.core.comms.CommsRoute;
 import nrs.core.message.Constants;
@@ -191,6 +192,9 @@ class PML_XMLEventProcessor
       // Handle special case of ReplyCSL message
       if (name.equals(Constants.MessageTypes.ReplyCSL))
       {
+        // carries the registries, which are kept by whoever asked
+        m_message.retain();
+
         m_unitReg = new CSL_Unit_Registry();
         m_msgReg = new CSL_Message_Registry();
         m_nodeReg = new CSL_Node_Registry();
@@ -256,6 +260,16 @@ class PML_XMLEventProcessor
     Message localMessage = m_message;
     m_message = null;
 
+    dispatch(localMessage);
+  }
+  //----------------------------------------------------------------------
+  /**
+   * Pass a complete message for preprocessing by the originating port,
+   * and then for processing. Also used by {@link PMLParser} for
+   * messages it decodes without the SAX parser.
+   */
+  void dispatch(Message localMessage)
+  {
     if (m_srcPort != null)
     {
       localMessage.aux().setReceivedPort(m_srcPort);
@@ -285,7 +299,7 @@ class PML_XMLEventProcessor
   {
     if (msg == null)
     {
-      msg = new Message(type);
+      msg = MessagePool.obtain(type);
     }
 
     msg.clear();